@@ -473,6 +473,7 @@ public class SwapWriter extends Writer
                                     new DirectAccessByteArrayOutputStream();
             Writer osw = new OutputStreamWriter(buf, this.charset);
             this.memoryWriter.writeTo(osw);
+            osw.flush();
 
             is = new ByteArrayInputStream(buf.getBuffer(), 0, buf.size());
         }
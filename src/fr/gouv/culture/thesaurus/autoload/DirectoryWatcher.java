@@ -0,0 +1,134 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.autoload;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Surveillance d'un répertoire par les notifications du système de fichiers
+ * (<code>java.nio.file.WatchService</code>). Chaque lot d'évènements
+ * (création, modification) déclenche l'action fournie à la construction ;
+ * l'analyse du contenu du répertoire reste à la charge de l'appelant.
+ * <p>
+ * Cette classe n'est instanciée que si l'API est disponible et supportée par
+ * le système de fichiers ; dans le cas contraire, le chargement automatique
+ * se replie sur la scrutation périodique.
+ */
+final class DirectoryWatcher implements Runnable {
+
+	private static final Logger log = Logger.getLogger(DirectoryWatcher.class);
+
+	private final File directory;
+	private final WatchService service;
+	private final Runnable onChange;
+
+	/**
+	 * Enregistre la surveillance du répertoire.
+	 * 
+	 * @param directory
+	 *            répertoire à surveiller (sans ses sous-répertoires)
+	 * @param onChange
+	 *            action déclenchée à chaque lot d'évènements
+	 * @throws IOException
+	 *             si le système de fichiers ne supporte pas la surveillance
+	 */
+	DirectoryWatcher(File directory, Runnable onChange) throws IOException {
+		this.directory = directory;
+		this.onChange = onChange;
+		this.service = FileSystems.getDefault().newWatchService();
+		try {
+			directory.toPath().register(service, ENTRY_CREATE, ENTRY_MODIFY);
+		} catch (IOException e) {
+			close();
+			throw e;
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = service.take();
+				drain(key);
+				// Regroupe les évènements arrivés pendant le traitement.
+				while ((key = service.poll()) != null) {
+					drain(key);
+				}
+				onChange.run();
+			}
+		} catch (InterruptedException e) {
+			// Arrêt demandé.
+		} catch (ClosedWatchServiceException e) {
+			// Arrêt demandé.
+		} finally {
+			close();
+			log.info("Fin de la surveillance du répertoire : "
+					+ directory.getPath());
+		}
+	}
+
+	private void drain(WatchKey key) {
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW && log.isDebugEnabled()) {
+				log.debug("Evènements perdus sur : " + directory.getPath());
+			}
+		}
+		if (!key.reset()) {
+			log.warn("Le répertoire " + directory.getPath()
+					+ " n'est plus surveillé ; seule la scrutation périodique reste active.");
+			close();
+		}
+	}
+
+	/**
+	 * Libère les ressources du système de fichiers.
+	 */
+	void close() {
+		try {
+			service.close();
+		} catch (IOException e) {
+			// Ignore...
+		}
+	}
+}
@@ -31,11 +31,16 @@ package fr.gouv.culture.thesaurus.autoload;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.StringWriter;
-import java.nio.channels.FileLock;
-import java.util.Hashtable;
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
@@ -43,15 +48,32 @@ import org.apache.commons.mail.EmailException;
 import org.apache.log4j.HTMLLayout;
 import org.apache.log4j.Logger;
 import org.apache.log4j.WriterAppender;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
 
 import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
 import fr.gouv.culture.thesaurus.resources.ThesaurusApplication;
+import fr.gouv.culture.thesaurus.service.ImportJobManager;
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.service.ThesaurusService;
 import fr.gouv.culture.thesaurus.util.MailUtil;
+import fr.gouv.culture.thesaurus.util.concurrent.DaemonThreadFactory;
+import fr.gouv.culture.thesaurus.util.rdf.RdfFiles;
+import fr.gouv.culture.thesaurus.util.rdf.RdfXmlUtils;
 
 /**
- * Classe qui scrute périodiquement un répertoire pour charger les vocabulaires
- * qui s'y trouvent. Si un fichier "lock.txt" se trouve dans le répertoire,
- * aucun traitement n'est fait.
+ * Classe qui scrute un répertoire pour charger les vocabulaires qui s'y
+ * trouvent. Si un fichier "lock.txt" se trouve dans le répertoire, aucun
+ * traitement n'est fait.
+ * <p>
+ * Le répertoire est analysé dès que le système de fichiers signale une
+ * modification (si la plate-forme le permet) et, dans tous les cas, à chaque
+ * intervalle de scrutation. Un fichier n'est chargé qu'une fois sa taille et
+ * sa date de modification stables pendant le délai de stabilisation. Les
+ * chargements sont exécutés en parallèle par le pool d'import partagé avec la
+ * page d'administration ({@link ImportJobManager}), avec au plus un import
+ * actif par graphe nommé, et seulement pendant les plages horaires des
+ * imports.
  * 
  * @author dhazard
  * 
@@ -69,6 +91,8 @@ public class VocabularyAutoload implements Runnable {
 
 	private int sleepTime = 10000;
 	private int maxTriesByFile = 3;
+	private int threads = 2;
+	private int settleTime = 2000;
 
 	private String emailTo = null;
 
@@ -79,19 +103,33 @@ public class VocabularyAutoload implements Runnable {
 	 * <p>
 	 * <b>key</b> : the file to load
 	 * <p>
-	 * <b>value</b> : the number of time loading failed (for retries)
+	 * <b>value</b> : its stability state and the number of time loading
+	 * failed (for retries)
 	 */
-	private Hashtable<File, Integer> pendingVocabularyFiles = new Hashtable<File, Integer>();
+	private final Map<File, PendingFile> pendingVocabularyFiles = new ConcurrentHashMap<File, PendingFile>();
 
-	private FileFilter lookupFilter = new FileFilter() {
+	/** Fichiers en cours de chargement. */
+	private final Set<File> inFlight = Collections
+			.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+	/** Graphes nommés en cours de chargement. */
+	private final Set<String> activeGraphs = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-		private Pattern fileNamePattern = Pattern.compile(".+(\\.(?i)(rdf))$");
+	/** Signal de nouvelle analyse du répertoire. */
+	private final Semaphore wakeUp = new Semaphore(0);
+
+	/**
+	 * Fichiers RDF/XML, Turtle, N-Triples ou N-Quads, éventuellement
+	 * compressés (.gz, .zip).
+	 */
+	private FileFilter lookupFilter = new FileFilter() {
 
 		@Override
 		public boolean accept(File pathname) {
 			return pathname.exists() && pathname.isFile() && pathname.canRead()
 					&& pathname.canWrite()
-					&& fileNamePattern.matcher(pathname.getName()).matches();
+					&& RdfFiles.isSupported(pathname.getName());
 		}
 	};
 
@@ -146,6 +184,10 @@ public class VocabularyAutoload implements Runnable {
 					+ "ms");
 			log.info("\tNombre de scrutations avant échec (défaut): "
 					+ this.maxTriesByFile);
+			log.info("\tNombre de chargements parallèles (défaut): "
+					+ this.threads);
+			log.info("\tDélai de stabilisation des fichiers (défaut): "
+					+ this.settleTime + "ms");
 		}
 	}
 
@@ -210,32 +252,124 @@ public class VocabularyAutoload implements Runnable {
 		this.emailTo = emailTo;
 	}
 
+
+	/**
+	 * Nombre maximal de chargements soumis simultanément au pool d'import
+	 * partagé (sur des graphes nommés distincts).
+	 * 
+	 * @param threads
+	 *            nombre de chargements parallèles (au moins 1)
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		log.info("Nombre de chargements parallèles passé à : " + this.threads);
+	}
+
+	/**
+	 * Délai en millisecondes pendant lequel la taille et la date de
+	 * modification d'un fichier doivent rester stables avant son chargement,
+	 * afin de ne pas traiter un fichier en cours de copie.
+	 * 
+	 * @param settleTime
+	 *            délai de stabilisation, en millisecondes
+	 */
+	public void setSettleTime(int settleTime) {
+		this.settleTime = Math.max(0, settleTime);
+		log.info("Délai de stabilisation des fichiers passé à : "
+				+ this.settleTime + "ms");
+	}
+
+	/**
+	 * Demande une nouvelle analyse du répertoire sans attendre la fin de
+	 * l'intervalle de scrutation.
+	 */
+	public void wakeUp() {
+		this.wakeUp.release();
+	}
+
 	@Override
 	public void run() {
-		boolean run = true;
 		if (log.isInfoEnabled()) {
 			log.info("Démarrage du thread de scrutation pour l'ajout automatique de vocabulaires");
 		}
-		while (run) {
-
-			process();
-
-			try {
-				Thread.sleep(this.sleepTime);
-			} catch (InterruptedException e) {
-				run = false;
+		Thread watcherThread = this.startWatcher();
+		try {
+			long wait = this.sleepTime;
+			while (!Thread.currentThread().isInterrupted()) {
+				this.wakeUp.tryAcquire(wait, TimeUnit.MILLISECONDS);
+				this.wakeUp.drainPermits();
+				wait = process();
+			}
+		} catch (InterruptedException e) {
+			// Arrêt demandé.
+		} finally {
+			if (watcherThread != null) {
+				watcherThread.interrupt();
 			}
+			log.info("Arrêt du thread de scrutation pour l'ajout automatique de vocabulaires");
+		}
+	}
 
+	/**
+	 * Démarre la surveillance par notifications du système de fichiers, si
+	 * elle est disponible (Java 7 et système de fichiers compatible).
+	 * 
+	 * @return le thread de surveillance, ou <code>null</code> si seule la
+	 *         scrutation périodique est utilisée.
+	 */
+	private Thread startWatcher() {
+		try {
+			DirectoryWatcher watcher = new DirectoryWatcher(this.lookupDir,
+					new Runnable() {
+						@Override
+						public void run() {
+							wakeUp();
+						}
+					});
+			Thread t = new DaemonThreadFactory("thesaurus-autoload-watcher")
+					.newThread(watcher);
+			t.start();
+			log.info("Surveillance par notifications activée sur : "
+					+ this.lookupDir.getPath());
+			return t;
+		} catch (Throwable e) {
+			// LinkageError (Java 6) ou système de fichiers non supporté.
+			log.warn("Surveillance par notifications indisponible, scrutation périodique seule : "
+					+ e);
+			return null;
 		}
 	}
 
-	private void process() {
+	/**
+	 * Analyse le répertoire et soumet les fichiers stables aux threads
+	 * d'import.
+	 * 
+	 * @return le délai en millisecondes avant la prochaine analyse.
+	 */
+	private long process() {
 
-		if (ThesaurusApplication.getThesaurusService() == null) {
+		ThesaurusService thesaurus = ThesaurusApplication.getThesaurusService();
+		ImportJobManager jobs = ThesaurusApplication.getImportJobManager();
+		if ((thesaurus == null) || (jobs == null)) {
 			// On attend que le service soit instancié.
-			return;
+			return this.sleepTime;
 		}
+		return process(thesaurus, jobs, System.currentTimeMillis());
+	}
 
+	/**
+	 * Analyse le répertoire à une date donnée et soumet les fichiers stables
+	 * aux threads d'import.
+	 * 
+	 * @param thesaurus
+	 *            service de chargement des vocabulaires
+	 * @param jobs
+	 *            pool d'import
+	 * @param now
+	 *            date de l'analyse, en millisecondes
+	 * @return le délai en millisecondes avant la prochaine analyse.
+	 */
+	long process(ThesaurusService thesaurus, ImportJobManager jobs, long now) {
 		if (log.isDebugEnabled()) {
 			log.debug("Scrutation du répertoire : " + lookupDir.getPath());
 		}
@@ -245,113 +379,271 @@ public class VocabularyAutoload implements Runnable {
 			if (log.isDebugEnabled()) {
 				log.debug("Lock posé : pas de traitement.");
 			}
-			return;
+			return this.sleepTime;
 		}
 
-		String lotID = "" + System.currentTimeMillis();
-		boolean hasErrors = false;
-		Integer numberOfTries = null;
-		StringWriter logWriter = new StringWriter();
-
-		WriterAppender appender = new WriterAppender(new HTMLLayout(),
-				logWriter);
-		appender.setImmediateFlush(true);
-		log.addAppender(appender);
-
+		Date opening = jobs.getSchedule().nextOpening(new Date(now));
+		if (opening.getTime() > now) {
+			// Hors plage d'import : les fichiers restent dans le répertoire
+			// jusqu'à l'ouverture de la plage suivante.
+			if (log.isDebugEnabled()) {
+				log.debug("Hors plage d'import : prochaine analyse à "
+						+ opening);
+			}
+			return Math.min(this.sleepTime, opening.getTime() - now);
+		}
+		long wait = this.sleepTime;
 		File[] vocabularies = this.lookupDir.listFiles(this.lookupFilter);
+		Set<File> present = new HashSet<File>();
 		if (vocabularies != null) {
 			for (File vocabulary : vocabularies) {
-				if (log.isDebugEnabled()) {
-					log.debug("Préparation à l'injection du fichier "
-							+ vocabulary.getPath());
+				present.add(vocabulary);
+				if (this.inFlight.contains(vocabulary)) {
+					continue;
 				}
-				// On regarde si "lock.txt" est positionné : si oui, on ne fait
-				// rien.
+				PendingFile pending = this.pendingVocabularyFiles
+						.get(vocabulary);
+				long length = vocabulary.length();
+				long lastModified = vocabulary.lastModified();
+				if (pending == null) {
+					pending = new PendingFile(length, lastModified, now);
+					this.pendingVocabularyFiles.put(vocabulary, pending);
+				} else if (pending.length != length
+						|| pending.lastModified != lastModified) {
+					// Fichier en cours d'écriture.
+					pending.length = length;
+					pending.lastModified = lastModified;
+					pending.stableSince = now;
+				}
+				long remaining = Math.max(pending.stableSince
+						+ this.settleTime, pending.notBefore)
+						- now;
+				if (remaining > 0) {
+					wait = Math.min(wait, remaining);
+					continue;
+				}
+
+				// On regarde si "lock.txt" est positionné : si oui, on ne
+				// fait rien.
 				if (lockFile.exists()) {
+					return this.sleepTime;
+				}
+				if (this.inFlight.size() >= this.threads) {
+					// Nombre maximal de chargements atteint : prochaine
+					// analyse.
+					break;
+				}
+				String graph = this.getNamedGraph(vocabulary);
+				if (jobs.isActive(graph) || !this.activeGraphs.add(graph)) {
 					if (log.isDebugEnabled()) {
-						log.debug("Lock posé : pas de traitement.");
+						log.debug("Import en cours sur le graphe " + graph
+								+ " : " + vocabulary.getPath()
+								+ " est différé.");
 					}
-					log.removeAppender(appender);
-					appender.close();
-					return;
+					continue;
 				}
-				numberOfTries = pendingVocabularyFiles.get(vocabulary);
-				numberOfTries = numberOfTries == null ? 1 : numberOfTries + 1;
-				pendingVocabularyFiles.put(vocabulary, numberOfTries);
+				this.inFlight.add(vocabulary);
+				pending.tries++;
+				try {
+					jobs.execute(graph, new ImportTask(thesaurus, vocabulary,
+							graph, pending));
+				} catch (RejectedExecutionException e) {
+					// File d'attente pleine : prochaine analyse.
+					pending.tries--;
+					this.inFlight.remove(vocabulary);
+					this.activeGraphs.remove(graph);
+					break;
+				}
+			}
+		}
+		// Oubli des fichiers retirés du répertoire.
+		this.pendingVocabularyFiles.keySet().retainAll(present);
+		return wait;
+	}
+
+	/**
+	 * Retourne l'identifiant du graphe nommé ciblé par un fichier, utilisé
+	 * pour ne jamais importer simultanément deux fichiers dans le même graphe.
+	 * 
+	 * @param vocabulary
+	 *            le fichier à importer
+	 * @return l'URI du graphe nommé, ou le chemin du fichier si elle ne peut
+	 *         être déterminée (l'erreur sera alors remontée par l'import).
+	 */
+	private String getNamedGraph(File vocabulary) {
+		try {
+			String uri = RdfXmlUtils.extractNamedGraphUri(vocabulary);
+			if (uri != null) {
+				return uri;
+			}
+		} catch (Exception e) {
+			// L'import signalera l'erreur.
+		}
+		return vocabulary.getAbsolutePath();
+	}
+
+	/**
+	 * Etat d'un fichier en attente de chargement.
+	 */
+	private static final class PendingFile {
+		long length;
+		long lastModified;
+		/** Date depuis laquelle la taille et la date de modification sont stables. */
+		long stableSince;
+		/** Date avant laquelle un nouvel essai ne doit pas être fait. */
+		long notBefore;
+		/** Nombre d'essais déjà faits. */
+		int tries;
+
+		PendingFile(long length, long lastModified, long now) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.stableSince = now;
+		}
+	}
+
+	/**
+	 * Filtre log4j ne retenant que les évènements d'un thread donné, pour
+	 * isoler le journal de chaque import exécuté en parallèle.
+	 */
+	private static final class ThreadFilter extends Filter {
+		private final String threadName;
+
+		ThreadFilter(String threadName) {
+			this.threadName = threadName;
+		}
+
+		@Override
+		public int decide(LoggingEvent event) {
+			return this.threadName.equals(event.getThreadName()) ? NEUTRAL
+					: DENY;
+		}
+	}
+
+	/**
+	 * Chargement d'un fichier, exécuté par un thread d'import.
+	 */
+	private final class ImportTask implements Runnable {
+		private final ThesaurusService thesaurus;
+		private final File vocabulary;
+		private final String graph;
+		private final PendingFile pending;
+
+		ImportTask(ThesaurusService thesaurus, File vocabulary, String graph,
+				PendingFile pending) {
+			this.thesaurus = thesaurus;
+			this.vocabulary = vocabulary;
+			this.graph = graph;
+			this.pending = pending;
+		}
+
+		@Override
+		public void run() {
+			String lotID = "" + System.currentTimeMillis();
+			int numberOfTries = this.pending.tries;
+			StringWriter logWriter = new StringWriter();
+
+			WriterAppender appender = new WriterAppender(new HTMLLayout(),
+					logWriter);
+			appender.setImmediateFlush(true);
+			appender.addFilter(new ThreadFilter(Thread.currentThread()
+					.getName()));
+			log.addAppender(appender);
+
+			boolean success = false;
+			try {
 				if (log.isInfoEnabled()) {
-					log.info("Début du traitement de : " + vocabulary.getPath()
-							+ " - essai#" + numberOfTries);
+					log.info("Début du traitement de : "
+							+ vocabulary.getPath() + " - essai#"
+							+ numberOfTries);
 				}
+				// Import du vocabulaire.
+				ImportProgress progress = this.thesaurus.load(vocabulary);
+				if ((progress.getStatus() == ImportProgress.Status.SKIPPED)
+						&& (log.isInfoEnabled())) {
+					log.info("Fichier identique à la version déjà chargée, import ignoré : "
+							+ vocabulary.getPath());
+				}
+				success = true;
+			} catch (Throwable e) {
+				StringBuilder message = new StringBuilder(
+						"Echec de chargement du vocabulaire : "
+								+ vocabulary.getPath());
+				if (numberOfTries < maxTriesByFile) {
+					message.append(" - Un nouvel essai sera fait lors de la prochaine scrutation.");
+				}
+				log.error(message.toString(), e);
+			} finally {
+				// Si l'import est un succès ou que le nombre d'échec max
+				// est atteint
+				if (success || numberOfTries >= maxTriesByFile) {
+					this.move(success, lotID);
+				} else {
+					this.pending.notBefore = System.currentTimeMillis()
+							+ sleepTime;
+				}
+				log.removeAppender(appender);
+				appender.close();
+
+				inFlight.remove(vocabulary);
+				activeGraphs.remove(graph);
+				wakeUp();
+			}
 
-				// On traite le fichier
-				boolean success = false;
+			if (!success && numberOfTries >= maxTriesByFile) {
+				this.report(lotID, logWriter.toString());
+			}
+		}
+
+		/**
+		 * Déplace le fichier traité dans le répertoire de succès ou d'échec.
+		 */
+		private void move(boolean success, String lotID) {
+			File destFile = new File(success ? successDir : failureDir,
+					vocabulary.getName() + "." + lotID);
+			// On vérifie si le fichier existe toujours avant de le
+			// déplacer
+			// Sinon on peut tomber dans une boucle infinie si le
+			// fichier a été supprimé manuellement pendant l'import
+			while (vocabulary.exists() && !vocabulary.renameTo(destFile)) {
 				try {
-					// Import du vocabulaire.
-					ThesaurusApplication.getThesaurusService().load(vocabulary);
-					success = true;
-				} catch (Throwable e) {
-					hasErrors = true;
-					StringBuilder message = new StringBuilder(
-							"Echec de chargement du vocabulaire : "
-									+ vocabulary.getPath());
-					if (numberOfTries < this.maxTriesByFile) {
-						message.append(" - Un nouvel essai sera fait lors de la prochaine scrutation.");
-					}
-					log.error(message.toString(), e);
-				} finally {
-					// Si l'import est un succès ou que le nombre d'échec max
-					// est atteint
-					if (!hasErrors || numberOfTries >= this.maxTriesByFile) {
-						// On déplace le fichier dans le bon répertoire.
-						File destFile = new File(success ? this.successDir
-								: this.failureDir, vocabulary.getName() + "."
-								+ lotID);
-						// On vérifie si le fichier existe toujours avant de le
-						// déplacer
-						// Sinon on peut tomber dans une boucle infinie si le
-						// fichier a été supprimé manuellement pendant l'import
-						while (vocabulary.exists()
-								&& !vocabulary.renameTo(destFile)) {
-							try {
-								Thread.sleep(1000);
-							} catch (InterruptedException e) {
-								// On arrête le traitement, sinon cela peut
-								// bloquer l'arrêt du serveur
-								log.warn("chargement du vocabulaire interrompu, le fichier peut ne pas avoir été traité intégralement. Vocabulaire : "
-										+ vocabulary.getPath());
-								break;
-							}
-							if (log.isDebugEnabled()) {
-								log.debug("Déplacement en attente");
-							}
-						}
-						pendingVocabularyFiles.remove(vocabulary);
-						if (log.isInfoEnabled()) {
-							log.info("Fichier déplacé vers : "
-									+ destFile.getPath());
-						}
-					}
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					// On arrête le traitement, sinon cela peut
+					// bloquer l'arrêt du serveur
+					log.warn("chargement du vocabulaire interrompu, le fichier peut ne pas avoir été traité intégralement. Vocabulaire : "
+							+ vocabulary.getPath());
+					Thread.currentThread().interrupt();
+					break;
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("Déplacement en attente");
 				}
 			}
+			pendingVocabularyFiles.remove(vocabulary);
+			if (log.isInfoEnabled()) {
+				log.info("Fichier déplacé vers : " + destFile.getPath());
+			}
 		}
 
-		log.removeAppender(appender);
-		appender.close();
-
-		if (hasErrors && numberOfTries >= this.maxTriesByFile) {
+		/**
+		 * Ecrit le journal d'erreur dans le répertoire d'échec et l'envoie
+		 * par email.
+		 */
+		private void report(String lotID, String logContent) {
 			try {
-				// On écrit le fichier avec le log d'erreur dans le répertoire
-				// d'erreur
+				// On écrit le fichier avec le log d'erreur dans le
+				// répertoire d'erreur
 				FileUtils.writeStringToFile(new File(failureDir, lotID
-						+ ".log.html"), logWriter.toString(), "UTF-8");
+						+ ".log.html"), logContent, "UTF-8");
 			} catch (IOException ex) {
 				log.warn("Ecriture du fichier de log impossible.", ex);
 			}
 
-			if (StringUtils.isNotEmpty(this.emailTo)) {
-				MailUtil mail = MailUtil.getHtmlMail(this.emailTo,
+			if (StringUtils.isNotEmpty(emailTo)) {
+				MailUtil mail = MailUtil.getHtmlMail(emailTo,
 						"Echec du chargement automatique du vocabulaire ("
-								+ lotID + ")", logWriter.toString());
+								+ lotID + ")", logContent);
 
 				try {
 					mail.send();
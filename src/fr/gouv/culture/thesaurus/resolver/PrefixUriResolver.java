@@ -38,6 +38,8 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.apache.log4j.Logger;
 
+import fr.gouv.culture.thesaurus.util.xml.UriRewriter;
+
 
 /**
  * An implementation of the {@link UriResolver URI resolver} service
@@ -58,6 +60,7 @@ public class PrefixUriResolver implements UriResolver
     private final String baseUri;
     private final URL baseUrl;
     private final boolean directMapping;
+    private final UriRewriter rewriter;
 
     static {
         try {
@@ -92,6 +95,8 @@ public class PrefixUriResolver implements UriResolver
         this.baseUri = (baseUri.endsWith("/"))? baseUri: baseUri + '/';
         this.baseUrl = baseUrl;
         this.directMapping = directMapping;
+        this.rewriter = (directMapping)? null:
+                        new UriRewriter(this.baseUri, this.baseUrl.toString());
 
         if ((log.isTraceEnabled()) && (! directMapping)) {
             log.trace("PrefixUriResolver: " + this.baseUri
@@ -140,6 +145,7 @@ public class PrefixUriResolver implements UriResolver
     }
 
     /** {@inheritDoc} */
+    @Deprecated
     public Transformer getRdfTransformer() {
         Transformer t = null;
 
@@ -156,6 +162,11 @@ public class PrefixUriResolver implements UriResolver
         return t;
     }
 
+    /** {@inheritDoc} */
+    public UriRewriter getUriRewriter() {
+        return this.rewriter;
+    }
+
     /** {@inheritDoc} */
     public String translateQueryUris(String query) {
         if (! this.directMapping) {
@@ -31,6 +31,8 @@ package fr.gouv.culture.thesaurus.resolver;
 
 import javax.xml.transform.Transformer;
 
+import fr.gouv.culture.thesaurus.util.xml.UriRewriter;
+
 
 /**
  * A service to resolve thesaurus entries URIs from/to application
@@ -67,9 +69,20 @@ public interface UriResolver
      * translating thesaurus entry URIs into application URLs in
      * RDF/XML documents.
      * @return a ready-to-use XLST Transformer.
+     * @deprecated use {@link #getUriRewriter()} that streams
+     *             documents in constant memory.
      */
+    @Deprecated
     public Transformer getRdfTransformer();
 
+    /**
+     * Returns a streaming rewriter translating thesaurus entry URIs
+     * into application URLs in RDF/XML and SPARQL Results documents.
+     * @return a URI rewriter or <code>null</code> if no translation
+     *         is needed.
+     */
+    public UriRewriter getUriRewriter();
+
     /**
      * Returns a SPARQL query string with all applications URLs
      * translated into thesaurus URIs.
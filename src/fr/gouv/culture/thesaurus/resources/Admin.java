@@ -30,31 +30,69 @@ package fr.gouv.culture.thesaurus.resources;
 
 
 import java.io.File;
+import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
+import org.apache.commons.io.FilenameUtils;
+
 import com.sun.jersey.api.view.Viewable;
+import com.sun.jersey.core.header.FormDataContentDisposition;
 import com.sun.jersey.multipart.FormDataParam;
 
+import fr.gouv.culture.thesaurus.exception.BusinessException;
+import fr.gouv.culture.thesaurus.service.GraphChangeSet;
+import fr.gouv.culture.thesaurus.service.ImportJob;
+import fr.gouv.culture.thesaurus.service.ImportJobManager;
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.service.ImportSchedule;
 import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.util.web.JsonBuilder;
 
 
 /**
  * The JAX-RS root resource that handles thesaurus updates.
+ * <p>
+ * Uploaded files are imported in the background by the import job pool
+ * shared with the vocabulary autoload, so that large vocabularies tie up
+ * neither request threads nor proxy connections:</p>
+ * <dl>
+ *  <dt><code>POST /admin</code></dt>
+ *  <dd>Submits the import of the uploaded file. Returns the update page
+ *   (HTML) or a <code>202 Accepted</code> response pointing to the job
+ *   status URL (JSON), or <code>503 Service Unavailable</code> if too
+ *   many imports are pending.</dd>
+ *  <dt><code>GET /admin/jobs/{id}</code></dt>
+ *  <dd>The JSON status of the import job: phase, number of triples
+ *   parsed and committed so far, and error message if it failed</dd>
+ * </dl>
  */
 @Path("/admin")
 public class Admin extends BaseResource
 {
+    /** The suggested delay (in seconds) before retrying a rejected job. */
+    private final static int RETRY_AFTER = 30;
+
+    /** The MIME type for JSON documents, with explicit encoding. */
+    private final static String JSON = MediaType.APPLICATION_JSON
+                                                        + ";charset=UTF-8";
+
+    /** The asynchronous import job manager. */
+    private final ImportJobManager jobs;
 
     /**
      * Creates a new root resource updating thesauri and
@@ -65,9 +103,15 @@ public class Admin extends BaseResource
      *                     entries match the application URLs.
      * @param  thesaurus   the thesaurus access service wrapping the
      *                     RDF triple store.
+     * @param  jobs        the asynchronous import job manager.
      */
-    public Admin(String baseUri, ThesaurusService thesaurus) {
+    public Admin(String baseUri, ThesaurusService thesaurus,
+                 ImportJobManager jobs) {
         super(baseUri, thesaurus);
+        if (jobs == null) {
+            throw new IllegalArgumentException("jobs");
+        }
+        this.jobs = jobs;
     }
 
     /**
@@ -85,25 +129,45 @@ public class Admin extends BaseResource
 
     /**
      * Resource method handling thesaurus update upload requests.
+     * The uploaded file may be RDF/XML, Turtle, N-Triples or N-Quads,
+     * possibly compressed (gzip or ZIP), as detected from the name of
+     * the uploaded file or, failing that, from its contents. The file
+     * is imported in the background; the returned page polls the import
+     * job status.
      * @param  file      the uploaded file.
+     * @param  fileInfo  the uploaded file part headers, holding the
+     *                   client-side file name.
      * @param  uriInfo   <i>[dependency injection]</i> the request URI.
      * @return a JAX-RS response forwarding to the Velocity template
      *         of the update upload form, displaying the outcome message
-     *         for the last upload processing.
-     * @throws WebApplicationException wrapping the HTTP error response
-     *         and the source exception, if any error occurred (invalid
-     *         file data, RDF triple store access error...).
+     *         for the upload submission.
      */
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces(MediaType.TEXT_HTML)
+    @SuppressWarnings("unchecked")
     public Viewable load(@FormDataParam("file") File file,
+                         @FormDataParam("file")
+                                FormDataContentDisposition fileInfo,
                          @Context UriInfo uriInfo) {
-    	String status = "200";
-    	String message = "Chargement réussi. Données mises à jour avec succès.";
+    	String status = "202";
+    	String message = null;
+    	ImportJob job = null;
     	
         try {
-            this.thesaurus.load(file);
+            job = this.submit(file, fileInfo);
+            message = "Chargement de \"" + job.getSource()
+                    + "\" en cours de traitement.";
+            if (job.getPhase() == ImportJob.Phase.SCHEDULED) {
+                message = "Chargement de \"" + job.getSource()
+                        + "\" programmé pour l'ouverture de la prochaine "
+                        + "plage d'import.";
+            }
+        }
+        catch (RejectedExecutionException e) {
+            status = "503";
+            message = "Trop d'imports en attente : veuillez réessayer "
+                    + "dans quelques instants.";
         }
         catch (Exception e) {
         	status = "500";
@@ -112,35 +176,259 @@ public class Admin extends BaseResource
                 message = e.toString();
             }
         }
+        Viewable v = this.newViewable(status, message, uriInfo);
+        if (job != null) {
+            ((Map<String, Object>) v.getModel()).put("job",
+                                    this.getJobUri(job, uriInfo).toString());
+        }
+        return v;
+    }
+
+    /**
+     * Resource method handling thesaurus update upload requests from
+     * API clients.
+     * @param  file      the uploaded file.
+     * @param  fileInfo  the uploaded file part headers, holding the
+     *                   client-side file name.
+     * @param  uriInfo   <i>[dependency injection]</i> the request URI.
+     * @return a <code>202 Accepted</code> JSON response describing the
+     *         import job, with a Location header pointing to the job
+     *         status.
+     * @throws WebApplicationException wrapping the HTTP error response
+     *         and the source exception, if any error occurred (invalid
+     *         file data, too many pending jobs...).
+     */
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submit(@FormDataParam("file") File file,
+                           @FormDataParam("file")
+                                FormDataContentDisposition fileInfo,
+                           @Context UriInfo uriInfo) {
+        Response response = null;
+        try {
+            ImportJob job = this.submit(file, fileInfo);
+            response = Response.status(Status.ACCEPTED)
+                               .location(this.getJobUri(job, uriInfo))
+                               .type(JSON)
+                               .entity(this.toJson(job))
+                               .build();
+        }
+        catch (RejectedExecutionException e) {
+            response = Response.status(Status.SERVICE_UNAVAILABLE)
+                               .header("Retry-After",
+                                       String.valueOf(RETRY_AFTER))
+                               .build();
+        }
+        catch (Exception e) {
+            this.mapException(e);
+        }
+        return response;
+    }
+
+    /**
+     * Resource method serving the status of an import job.
+     * @param  id   the import job identifier.
+     * @return a JSON response describing the import job.
+     * @throws WebApplicationException with a 404 status if the job is
+     *         unknown or expired.
+     */
+    @GET
+    @Path("jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJob(@PathParam("id") String id) {
+        ImportJob job = this.jobs.getJob(id);
+        if (job == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+        // Status changes while the import runs. => Never cache it.
+        return Response.ok(this.toJson(job), JSON)
+                       .header("Cache-Control", "no-cache")
+                       .build();
+    }
+
+    /**
+     * Submits the import of an uploaded file to the import job pool,
+     * which deletes the file once imported. The file is deleted at once
+     * if the job could not be submitted.
+     * @param  file       the uploaded temporary file.
+     * @param  fileInfo   the uploaded file part headers, if available.
+     * @return the import job.
+     * @throws BusinessException if the named graph of the file could
+     *         not be determined.
+     * @throws RejectedExecutionException if too many imports are
+     *         pending.
+     */
+    private ImportJob submit(File file, FormDataContentDisposition fileInfo)
+                                                throws BusinessException {
+        ImportJob job = null;
+        try {
+            file = this.withClientFileName(file, fileInfo);
+            String source = (fileInfo != null)?
+                        FilenameUtils.getName(fileInfo.getFileName()): null;
+            job = this.jobs.submit(file, ((source == null) ||
+                            (source.length() == 0))? file.getName(): source);
+        }
         finally {
-            // Delete the temporary file created by Jersey for us.
-            if (file.canWrite()) {
+            // Delete the temporary file created by Jersey if not queued.
+            if ((job == null) && (file.canWrite())) {
                 file.delete();
             }
         }
-        return this.newViewable(status, message, uriInfo);
+        return job;
     }
-    
+
+    /**
+     * Renames the temporary file created by Jersey after the client-side
+     * file name, so that the RDF format and compression can be detected
+     * from its extension.
+     * @param  file       the uploaded temporary file.
+     * @param  fileInfo   the uploaded file part headers, if available.
+     * @return the renamed file or the uploaded file if no client file
+     *         name was provided or the file could not be renamed.
+     */
+    private File withClientFileName(File file,
+                                    FormDataContentDisposition fileInfo) {
+        String name = (fileInfo != null)?
+                        FilenameUtils.getName(fileInfo.getFileName()): null;
+        if ((name == null) || (name.length() == 0)) {
+            return file;
+        }
+        File named = new File(file.getParentFile(),
+                              file.getName() + '-' + name);
+        return (file.renameTo(named))? named: file;
+    }
+
+    /**
+     * Resource method handling thesaurus deletion requests.
+     * Deletions are submitted to the import job pool, like imports:
+     * they run in the import windows only, so that the data never
+     * change before the expiry date announced to HTTP caches (see
+     * {@link ImportJobManager#getNextImport(java.util.Date)}), and never
+     * concurrently with an import of the same thesaurus. The returned
+     * page polls the deletion job status, failures included.
+     * @param  context   the URI of the thesaurus (named graph).
+     * @param  uriInfo   <i>[dependency injection]</i> the request URI.
+     * @return a JAX-RS response forwarding to the Velocity template
+     *         of the update upload form, displaying the outcome message
+     *         for the deletion submission.
+     */
     @GET    
     @Path("delete")
     @Produces(MediaType.TEXT_HTML)
-    public Viewable delete(@QueryParam("scheme") String context,
+    @SuppressWarnings("unchecked")
+    public Viewable delete(@QueryParam("scheme") final String context,
     						@Context UriInfo uriInfo){
-    	String status = "200";
-    	String message = "Suppression du référentiel effectuée avec succès.";
+    	String status = "202";
+    	String message = "Suppression du référentiel en cours de traitement.";
+    	ImportJob job = null;
     	
+    	if ((context == null) || (context.length() == 0)) {
+    	    return this.newViewable("400", "Référentiel non spécifié.",
+    	                            uriInfo);
+    	}
     	try {
-    		this.thesaurus.delete(context);
+    	    job = this.jobs.submitDelete(context);
+    	    if (job.getPhase() == ImportJob.Phase.SCHEDULED) {
+    	        message = "Suppression du référentiel programmée pour "
+    	                + "l'ouverture de la prochaine plage d'import.";
+    	    }
         }
-        catch (Exception e) {
-        	status = "500";
-            message = e.getMessage();
-            if ((message == null) || (message.length() == 0)) {
-                message = e.toString();
+        catch (RejectedExecutionException e) {
+            status = "503";
+            message = "Trop d'imports en attente : veuillez réessayer "
+                    + "dans quelques instants.";
+        }
+        Viewable v = this.newViewable(status, message, uriInfo);
+        if (job != null) {
+            ((Map<String, Object>) v.getModel()).put("job",
+                                    this.getJobUri(job, uriInfo).toString());
+        }
+        return v;
+    }
+
+    /**
+     * Resource method serving the progress of the running and most
+     * recent thesaurus imports, polled by the update page while a
+     * file is being loaded.
+     * @return a JSON array of import progress records, most recent
+     *         first.
+     */
+    @GET
+    @Path("imports")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getImports() {
+        StringBuilder json = new StringBuilder("[");
+        for (ImportProgress p : this.thesaurus.getImports()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            JsonBuilder b = new JsonBuilder()
+                                .add("graph", p.getGraph())
+                                .add("source", p.getSource())
+                                .add("status", p.getStatus().name())
+                                .add("parsed", p.getParsed())
+                                .add("committed", p.getCommitted())
+                                .add("rate", p.getRate())
+                                .add("fileSize", p.getFileSize())
+                                .add("parseTime", p.getParseTime())
+                                .add("commitTime", p.getCommitTime())
+                                .add("sampledHeapGrowth", p.getSampledHeapGrowth())
+                                .add("started", p.getStarted())
+                                .add("finished", p.getFinished())
+                                .add("error", p.getError());
+            GraphChangeSet changes = p.getChangeSet();
+            if (changes != null) {
+                b.add("added", changes.getAdded())
+                 .add("removed", changes.getRemoved())
+                 .add("changedResources", changes.getResources().size());
             }
+            json.append(b);
         }
-        
-        return this.newViewable(status, message, uriInfo);
+        json.append(']');
+        // Progress changes while imports run. => Never cache it.
+        return Response.ok(json.toString(), JSON)
+                       .header("Cache-Control", "no-cache")
+                       .build();
+    }
+
+    private URI getJobUri(ImportJob job, UriInfo uriInfo) {
+        return uriInfo.getBaseUriBuilder().path(Admin.class)
+                                          .path("jobs").path(job.getId())
+                                          .build();
+    }
+
+    private String toJson(ImportJob job) {
+        JsonBuilder json = new JsonBuilder()
+                            .add("id", job.getId())
+                            .add("action", (job.isDeletion())? "delete": "import")
+                            .add("source", job.getSource())
+                            .add("graph", job.getGraph())
+                            .add("phase", job.getPhase().name())
+                            .add("submitted", job.getSubmitted())
+                            .add("scheduled", job.getScheduled())
+                            .add("started", job.getStarted())
+                            .add("finished", job.getFinished());
+        ImportProgress p = job.getProgress();
+        if (p != null) {
+            json.add("parsed", p.getParsed())
+                .add("committed", p.getCommitted())
+                .add("rate", p.getRate())
+                .add("fileSize", p.getFileSize())
+                .add("parseTime", p.getParseTime())
+                .add("commitTime", p.getCommitTime())
+                .add("sampledHeapGrowth", p.getSampledHeapGrowth());
+            GraphChangeSet changes = p.getChangeSet();
+            if (changes != null) {
+                json.add("added", changes.getAdded())
+                    .add("removed", changes.getRemoved())
+                    .add("changedResources", changes.getResources().size());
+            }
+        }
+        if (job.getError() != null) {
+            json.add("error", job.getError());
+        }
+        return json.toString();
     }
 
     private Viewable newViewable(String status, String message, UriInfo uriInfo) {
@@ -151,6 +439,11 @@ public class Admin extends BaseResource
                                         this.getUriResolver(uriInfo));
             m.put("status", status);
             m.put("message", message);
+            m.put("imports", this.thesaurus.getImports());
+            ImportSchedule schedule = this.jobs.getSchedule();
+            if (!schedule.isUnrestricted()) {
+                m.put("schedule", schedule.toString().replace(",", ", "));
+            }
         }
         catch (Exception e) {
             this.mapException(e);
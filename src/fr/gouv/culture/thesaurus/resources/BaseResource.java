@@ -29,12 +29,12 @@
 package fr.gouv.culture.thesaurus.resources;
 
 
-import static java.util.Calendar.DAY_OF_YEAR;
-import static java.util.Calendar.HOUR_OF_DAY;
-
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -42,11 +42,16 @@ import java.util.TimeZone;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
 
 import com.sun.jersey.api.view.Viewable;
 
@@ -55,10 +60,14 @@ import fr.gouv.culture.thesaurus.exception.EntryNotFoundException;
 import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
 import fr.gouv.culture.thesaurus.resolver.PrefixUriResolver;
 import fr.gouv.culture.thesaurus.resolver.UriResolver;
+import fr.gouv.culture.thesaurus.service.ImportJobManager;
+import fr.gouv.culture.thesaurus.service.ImportSchedule;
 import fr.gouv.culture.thesaurus.service.PrefixManager;
 import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.service.export.ExportArtefact;
 import fr.gouv.culture.thesaurus.service.rdf.Entry;
 import fr.gouv.culture.thesaurus.util.template.ThesaurusSorter;
+import fr.gouv.culture.thesaurus.util.web.ByteRange;
 
 
 /**
@@ -73,10 +82,15 @@ public abstract class BaseResource
                                             "application/sparql-results+xml";
     /** The default duration for response caching by clients. */
     protected final static int DEFAULT_CACHE_DURATION = 7200;   // 2 hours
-    /** The start of business day, in hours. */
-    protected final static int START_OF_DAY = 9;                // 9:00
-    /** The end of business day, in hours. */
-    protected final static int END_OF_DAY = 18;                 // 18:00
+    /** The format of HTTP dates, for If-Range validators. */
+    private final static String HTTP_DATE_FORMAT =
+                                            "EEE, dd MMM yyyy HH:mm:ss zzz";
+    /** The HTTP status code for partial responses. */
+    protected final static int PARTIAL_CONTENT = 206;
+    /** The HTTP status code for unsatisfiable byte ranges. */
+    protected final static int RANGE_NOT_SATISFIABLE = 416;
+    /** The HTTP status code for clients exceeding their rate limit. */
+    protected final static int TOO_MANY_REQUESTS = 429;
     /** The default character set for XML response encoding. */
     protected final String DEFAULT_ENCODING = "UTF-8";
     /** The application default time zone. */
@@ -173,6 +187,11 @@ public abstract class BaseResource
      * Adds cache control directives to the being-built HTTP response
      * and, optionally, a Last-Modified HTTP header with the thesaurus
      * entry last update date.
+     * <p>
+     * Outside of the import windows (see {@link ImportSchedule}), with
+     * no import running or pending, the data cannot change until the
+     * next window opens: responses then expire at that date. Otherwise
+     * they are cached for {@link #DEFAULT_CACHE_DURATION} seconds.</p>
      * @param  response   the HTTP response being-built.
      * @param  entry      an optional thesaurus entry to get the last
      *                    modified date from.
@@ -180,17 +199,13 @@ public abstract class BaseResource
     protected ResponseBuilder addCacheDirectives(ResponseBuilder response,
                                                  Entry entry) {
         // Compute cache expiry date/time.
-        GregorianCalendar cal = new GregorianCalendar(DEFAULT_TIMEZONE,
-                                                      DEFAULT_LOCALE);
-        int hours = cal.get(HOUR_OF_DAY);
-        if ((hours <= START_OF_DAY) || (hours >= END_OF_DAY)) {
-            // No thesaurus updates occur between 6 PM & 9 AM. 
-            // => Set expiry date to 9 AM, ignoring minutes & seconds.
-            if (hours >= END_OF_DAY) {
-                cal.add(DAY_OF_YEAR, 1);
-            }
-            cal.set(HOUR_OF_DAY, START_OF_DAY);
-            response = response.expires(cal.getTime());
+        Date now = new Date();
+        ImportJobManager jobs = ThesaurusApplication.getImportJobManager();
+        Date nextImport = (jobs != null)? jobs.getNextImport(now): now;
+        if (nextImport.after(now)) {
+            // No thesaurus updates occur before the next import window.
+            // => Set expiry date to the window opening.
+            response = response.expires(nextImport);
         }
         else {
             // Else: cache entries for 2 hours.
@@ -209,6 +224,101 @@ public abstract class BaseResource
         return response;
     }
 
+    /**
+     * Builds the response serving a materialized full dump, honoring
+     * conditional (If-None-Match, If-Modified-Since) and byte range
+     * (Range, If-Range) HTTP headers.
+     * <p>
+     * Byte positions refer to the identity-encoded artefact: these
+     * responses are thus flagged with an explicit identity content
+     * encoding so that they are not compressed on the fly.</p>
+     * @param  artefact      the materialized full dump.
+     * @param  contentType   the response content type.
+     * @param  range         the Range HTTP header of the request.
+     * @param  ifRange       the If-Range HTTP header of the request.
+     * @param  request       the being-processed HTTP request.
+     * @return a response builder for a 200, 206, 304 or 416 response.
+     */
+    protected ResponseBuilder newArtefactResponse(ExportArtefact artefact,
+                                    Variant contentType, String range,
+                                    String ifRange, Request request) {
+        EntityTag etag = new EntityTag(artefact.getEntityTag());
+        Date lastModified = artefact.getVersion();
+
+        ResponseBuilder response =
+                        request.evaluatePreconditions(lastModified, etag);
+        if (response != null) {
+            // Client cached data are up-to-date (or precondition failed).
+            return response.tag(etag);
+        }
+        long length = artefact.getLength();
+        ByteRange r = null;
+        if ((range != null) &&
+            (this.isIfRangeValid(ifRange, etag, lastModified))) {
+            r = ByteRange.parse(range, length);
+        }
+        if (r == null) {
+            // No (valid) byte range requested. => Send whole artefact.
+            response = Response.ok(new FileRangeOutput(artefact,
+                                                       0L, length),
+                                   contentType)
+                               .header(HttpHeaders.CONTENT_LENGTH,
+                                       String.valueOf(length));
+        }
+        else if (r.isSatisfiable()) {
+            response = Response.status(PARTIAL_CONTENT)
+                               .entity(new FileRangeOutput(artefact,
+                                               r.getFirst(), r.getLength()))
+                               .type(contentType.getMediaType())
+                               .header("Content-Range", r.toContentRange())
+                               .header(HttpHeaders.CONTENT_LENGTH,
+                                       String.valueOf(r.getLength()));
+        }
+        else {
+            response = Response.status(RANGE_NOT_SATISFIABLE)
+                               .header("Content-Range", r.toContentRange());
+        }
+        return response.header("Accept-Ranges", "bytes")
+                       .header(HttpHeaders.CONTENT_ENCODING, "identity")
+                       .tag(etag)
+                       .lastModified(lastModified);
+    }
+
+    /**
+     * Checks whether the If-Range validator, if any, matches the
+     * current version of a full dump.
+     * @param  ifRange        the If-Range HTTP header of the request.
+     * @param  etag           the entity tag of the full dump.
+     * @param  lastModified   the last modification date of the dump.
+     * @return <code>true</code> if no If-Range header was provided or
+     *         if it matches the current version.
+     */
+    private boolean isIfRangeValid(String ifRange, EntityTag etag,
+                                   Date lastModified) {
+        if ((ifRange == null) || (ifRange.length() == 0)) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            // Strong entity tag comparison.
+            return ifRange.equals('"' + etag.getValue() + '"');
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        SimpleDateFormat f = new SimpleDateFormat(HTTP_DATE_FORMAT,
+                                                  Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            // HTTP dates have a one-second precision.
+            return (f.parse(ifRange).getTime() / 1000L)
+                                        == (lastModified.getTime() / 1000L);
+        }
+        catch (ParseException e) {
+            return false;
+        }
+    }
+
     /**
      * Maps application exception classes to HTTP error responses,
      * including the HTTP status code and an error message.
@@ -246,4 +356,51 @@ public abstract class BaseResource
         }
         throw new WebApplicationException(e, response.build());
     }
+
+    /**
+     * A JAX-RS {@link StreamingOutput} implementation to stream a
+     * portion of a materialized full dump into the HTTP response stream.
+     * The artefact file is kept from being purged while it is served.
+     */
+    private class FileRangeOutput implements StreamingOutput
+    {
+        private final ExportArtefact artefact;
+        private final long offset;
+        private final long length;
+
+        public FileRangeOutput(ExportArtefact artefact, long offset,
+                               long length) {
+            this.artefact = artefact;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public void write(OutputStream out) {
+            RandomAccessFile in = null;
+            try {
+                in = this.artefact.open();
+                in.seek(this.offset);
+                byte[] buffer = new byte[8192];
+                long remaining = this.length;
+                while (remaining > 0L) {
+                    int n = in.read(buffer, 0,
+                                (int)(Math.min(buffer.length, remaining)));
+                    if (n == -1) {
+                        break;
+                    }
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+                out.flush();
+            }
+            catch (Exception e) {
+                mapException(e);
+            }
+            finally {
+                if (in != null) {
+                    try { in.close(); } catch (Exception e) { /* Ignore... */ }
+                }
+            }
+        }
+    }
 }
@@ -66,8 +66,11 @@ import com.sun.jersey.api.view.Viewable;
 import fr.gouv.culture.thesaurus.exception.BusinessException;
 import fr.gouv.culture.thesaurus.exception.EntryNotFoundException;
 import fr.gouv.culture.thesaurus.resolver.UriResolver;
+import fr.gouv.culture.thesaurus.service.CacheWarmer;
 import fr.gouv.culture.thesaurus.service.ThesaurusMetadata;
 import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.service.export.ExportArtefact;
+import fr.gouv.culture.thesaurus.service.export.ExportArtefactStore;
 import fr.gouv.culture.thesaurus.service.impl.ExportType;
 import fr.gouv.culture.thesaurus.service.rdf.ConceptScheme;
 import fr.gouv.culture.thesaurus.service.rdf.Entry;
@@ -89,7 +92,10 @@ import fr.gouv.culture.thesaurus.vocabulary.Skos;
  *   <code>id</code></dd>
  *  <dt><code>/data/&lt;id&gt;</code></dt>
  *  <dd>The URL of the RDF/XML representation of the thesaurus entry
- *   with identifier </code>id</code></dd>
+ *   with identifier </code>id</code>. Full dumps of ConceptSchemes are
+ *   served from materialized artefacts and support HTTP byte ranges
+ *   (<code>Range</code>/<code>If-Range</code>) so that interrupted
+ *   downloads can be resumed</dd>
  *  <dt><code>/page/&lt;id&gt;</code></dt>
  *  <dd>The URL of the HTML representation of the thesaurus entry
  *   with identifier </code>id</code></dd>
@@ -100,6 +106,12 @@ public class Entries extends BaseResource {
 	
 	private static final String UTF_8 = "UTF-8";
 
+    /** The store of materialized full dumps, if any. */
+    private final ExportArtefactStore exports;
+
+    /** The cache warmer tracking the most viewed concepts, if any. */
+    private final CacheWarmer warmer;
+
     /**
      * Creates a new root resource serving thesaurus entry data and
      * relying on the specified thesaurus service to access the RDF
@@ -111,7 +123,46 @@ public class Entries extends BaseResource {
      *                     RDF triple store.
      */
     public Entries(String baseUri, ThesaurusService thesaurus) {
+        this(baseUri, thesaurus, null);
+    }
+
+    /**
+     * Creates a new root resource serving thesaurus entry data,
+     * serving full dumps from materialized artefacts.
+     * @param  baseUri     the base URI of the thesaurus entries or
+     *                     <code>null</code> if the URIs of thesaurus
+     *                     entries match the application URLs.
+     * @param  thesaurus   the thesaurus access service wrapping the
+     *                     RDF triple store.
+     * @param  exports     the store of materialized full dumps or
+     *                     <code>null</code> to stream full dumps
+     *                     directly from the RDF triple store.
+     */
+    public Entries(String baseUri, ThesaurusService thesaurus,
+                   ExportArtefactStore exports) {
+        this(baseUri, thesaurus, exports, null);
+    }
+
+    /**
+     * Creates a new root resource serving thesaurus entry data,
+     * serving full dumps from materialized artefacts and reporting
+     * concept page views to the cache warmer.
+     * @param  baseUri     the base URI of the thesaurus entries or
+     *                     <code>null</code> if the URIs of thesaurus
+     *                     entries match the application URLs.
+     * @param  thesaurus   the thesaurus access service wrapping the
+     *                     RDF triple store.
+     * @param  exports     the store of materialized full dumps or
+     *                     <code>null</code> to stream full dumps
+     *                     directly from the RDF triple store.
+     * @param  warmer      the cache warmer to report concept page
+     *                     views to or <code>null</code>.
+     */
+    public Entries(String baseUri, ThesaurusService thesaurus,
+                   ExportArtefactStore exports, CacheWarmer warmer) {
         super(baseUri, thesaurus);
+        this.exports = exports;
+        this.warmer = warmer;
     }
 
     /**
@@ -350,8 +401,12 @@ public class Entries extends BaseResource {
                                @DefaultValue("false") boolean fullDump,
                                @QueryParam("format")
                                @DefaultValue("RDF") String exportType,
-                               @Context UriInfo uriInfo) {
-    	return this.getRdfData(null, null, id, fullDump, exportType, uriInfo);
+                               @HeaderParam("Range") String range,
+                               @HeaderParam("If-Range") String ifRange,
+                               @Context UriInfo uriInfo,
+                               @Context Request request) {
+    	return this.getRdfData(null, null, id, fullDump, exportType,
+    	                       range, ifRange, uriInfo, request);
     }
     
     /**
@@ -366,7 +421,13 @@ public class Entries extends BaseResource {
      *                    thesaurus (i.e. the ConceptScheme and all
      *                    attached SKOS Concepts) shall be dumped or only
      *                    the ConceptScheme resource triples.
+     * @param  range      the Range HTTP header of the request, honored
+     *                    for full dumps only.
+     * @param  ifRange    the If-Range HTTP header of the request.
      * @param  uriInfo    <i>[dependency injection]</i> the request URI.
+     * @param  request    <i>[dependency injection]</i> the
+     *                    being-processed HTTP request, including the
+     *                    cache-related HTTP headers.
      * @return a JAX-RS response with the RDF/XML representation of the
      *         thesaurus entry with the resource URIs translated into
      *         application URLs.
@@ -384,7 +445,10 @@ public class Entries extends BaseResource {
                                @DefaultValue("false") boolean fullDump,
                                @QueryParam("format")
                                @DefaultValue("RDF") String exportType,
-                               @Context UriInfo uriInfo) {
+                               @HeaderParam("Range") String range,
+                               @HeaderParam("If-Range") String ifRange,
+                               @Context UriInfo uriInfo,
+                               @Context Request request) {
         ResponseBuilder response = null;
         try {
             // Compute target entry URI.
@@ -410,16 +474,38 @@ public class Entries extends BaseResource {
             }
             String label = entry != null ? entry.getLabel(DEFAULT_LOCALE).getValue() : null;
             
-            // Retrieve RDF data and stream them directly to HTTP response.
-            StreamingOutput out = new RdfStreamingOutput(uri,
-                                                rdfClass, fullDump, expType);
             // Force response encoding as Sesame only generates UTF-8 XML.
             Variant contentType = new Variant(MediaType.valueOf(expType.getMimeType()),
                                                         null, DEFAULT_ENCODING);
             
             String filename = expType.getFilename(label != null ? TextUtils.replacePonctuationAndWhitespace(TextUtils.removeAccent(label)) : id);
-            response = this.addCacheDirectives(
+
+            Date version = (entry != null)? entry.getDateSubmitted(): null;
+            if ((fullDump) && (this.exports != null) && (version != null) &&
+                (Skos.CONCEPT_SCHEME_CLASS.equals(rdfClass))) {
+                ExportArtefact artefact =
+                            this.exports.find(uri, expType, version);
+                if (artefact != null) {
+                    // Serve full dump from materialized artefact.
+                    response = this.newArtefactResponse(artefact, contentType,
+                                                    range, ifRange, request);
+                }
+                else {
+                    // First download of this version: stream the dump
+                    // while materializing it for subsequent requests.
+                    response = Response.ok(new FullDumpStreamingOutput(uri,
+                                            expType, version), contentType);
+                }
+                response = this.addCacheDirectives(
+                            response.header("Content-Disposition", "attachment; filename=" + filename), entry);
+            }
+            else {
+                // Retrieve RDF data and stream them directly to HTTP response.
+                StreamingOutput out = new RdfStreamingOutput(uri,
+                                                rdfClass, fullDump, expType);
+                response = this.addCacheDirectives(
                                         Response.ok(out, contentType).header("Content-Disposition", "attachment; filename=" + filename), null);
+            }
         }
         catch (Exception e) {
             this.mapException(e);
@@ -483,6 +569,9 @@ public class Entries extends BaseResource {
                 metadata = this.thesaurus.getThesaurusMetadataWithConcept(uri); 
                 entry.setMetadata(metadata);
                 page  = "/concept.vm";
+                if (this.warmer != null) {
+                    this.warmer.recordAccess(uri);
+                }
             }
             else {
                 entry = this.thesaurus.getConceptScheme(uri);
@@ -604,6 +693,42 @@ public class Entries extends BaseResource {
         }
     }
 
+    /**
+     * A JAX-RS {@link StreamingOutput} implementation to stream the
+     * full dump of a concept scheme into the HTTP response stream while
+     * materializing it in the export store.
+     */
+    private class FullDumpStreamingOutput implements StreamingOutput
+    {
+        private final String uri;
+        private final ExportType type;
+        private final Date version;
+
+        public FullDumpStreamingOutput(String uri, ExportType type,
+                                       Date version) {
+            this.uri = uri;
+            this.type = type;
+            this.version = version;
+        }
+
+        public void write(OutputStream out) {
+            Writer w = null;
+            try {
+                w = new OutputStreamWriter(out, DEFAULT_ENCODING);
+                exports.writeFullDump(this.uri, this.type, this.version, w);
+                w.flush();
+            }
+            catch (Exception e) {
+                mapException(e);
+            }
+            finally {
+                if (w != null) {
+                    try { w.close(); } catch (Exception e) { /* Ignore... */ }
+                }
+            }
+        }
+    }
+
     /**
      * A JAX-RS {@link StreamingOuput} implementation to stream the
      * extraction of the RDF/XML representation of a resource from the
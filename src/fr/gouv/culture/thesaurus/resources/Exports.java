@@ -0,0 +1,272 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.resources;
+
+
+import java.net.URI;
+import java.util.Date;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
+
+import fr.gouv.culture.thesaurus.exception.EntryNotFoundException;
+import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.service.export.ExportArtefact;
+import fr.gouv.culture.thesaurus.service.export.ExportJob;
+import fr.gouv.culture.thesaurus.service.export.ExportJobManager;
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+import fr.gouv.culture.thesaurus.service.rdf.ConceptScheme;
+import fr.gouv.culture.thesaurus.util.web.JsonBuilder;
+
+
+/**
+ * The JAX-RS root resource that handles asynchronous full dumps of
+ * thesauri.
+ * <p>
+ * Full dumps of large thesauri are produced in the background by a
+ * bounded pool of export threads and materialized on disk, so that
+ * slow clients tie up neither request threads nor RDF triple store
+ * connections:</p>
+ * <dl>
+ *  <dt><code>POST /exports</code></dt>
+ *  <dd>Submits the full dump of the ConceptScheme identified by the
+ *   <code>uri</code> form parameter in the requested
+ *   <code>format</code> (default: <code>RDF</code>). Returns a
+ *   <code>202 Accepted</code> response pointing to the job status
+ *   URL, or <code>503 Service Unavailable</code> if too many exports
+ *   are pending. ConceptSchemes without submission date (which
+ *   identifies the exported version) are rejected with a
+ *   <code>400 Bad Request</code> status: their full dump can only be
+ *   streamed directly.</dd>
+ *  <dt><code>GET /exports/{id}</code></dt>
+ *  <dd>The JSON status of the export job: state, number of characters
+ *   written so far, and download URL once completed</dd>
+ *  <dt><code>GET /exports/{id}/file</code></dt>
+ *  <dd>The completed full dump, with HTTP byte range support</dd>
+ * </dl>
+ */
+@Path("/exports")
+public class Exports extends BaseResource
+{
+    /** The suggested delay (in seconds) before retrying a rejected job. */
+    private final static int RETRY_AFTER = 30;
+
+    /** The MIME type for JSON documents, with explicit encoding. */
+    private final static String JSON = MediaType.APPLICATION_JSON
+                                                        + ";charset=UTF-8";
+
+    /** The asynchronous export job manager. */
+    private final ExportJobManager jobs;
+
+    /**
+     * Creates a new root resource handling asynchronous full dumps and
+     * relying on the specified thesaurus service to access the RDF
+     * triple store.
+     * @param  baseUri     the base URI of the thesaurus entries or
+     *                     <code>null</code> if the URIs of thesaurus
+     *                     entries match the application URLs.
+     * @param  thesaurus   the thesaurus access service wrapping the
+     *                     RDF triple store.
+     * @param  jobs        the asynchronous export job manager.
+     */
+    public Exports(String baseUri, ThesaurusService thesaurus,
+                   ExportJobManager jobs) {
+        super(baseUri, thesaurus);
+        if (jobs == null) {
+            throw new IllegalArgumentException("jobs");
+        }
+        this.jobs = jobs;
+    }
+
+    /**
+     * Resource method submitting an asynchronous full dump.
+     * @param  uri        the URI of the ConceptScheme to export.
+     * @param  format     the export format.
+     * @param  uriInfo    <i>[dependency injection]</i> the request URI.
+     * @return a <code>202 Accepted</code> JSON response describing the
+     *         export job, with a Location header pointing to the job
+     *         status.
+     * @throws WebApplicationException wrapping the HTTP error response
+     *         and the source exception, if any error occurred (unknown
+     *         ConceptScheme, ConceptScheme without submission date,
+     *         invalid format, too many pending jobs...).
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submit(@FormParam("uri") String uri,
+                           @FormParam("format")
+                           @DefaultValue("RDF") String format,
+                           @Context UriInfo uriInfo) {
+        Response response = null;
+        try {
+            if ((uri == null) || (uri.length() == 0)) {
+                throw new IllegalArgumentException("uri");
+            }
+            ExportType type = ExportType.valueOf(format);
+            ConceptScheme scheme = this.thesaurus.getConceptScheme(uri);
+            if (scheme == null) {
+                throw new EntryNotFoundException(uri);
+            }
+            // Materialized dumps are keyed on the submission date: a
+            // vocabulary without one could never be deduplicated.
+            Date version = scheme.getDateSubmitted();
+            if (version == null) {
+                throw new IllegalStateException(
+                        "ConceptScheme without submission date, use"
+                        + " direct download (includeSchemes=true): " + uri);
+            }
+            ExportJob job = this.jobs.submit(uri, type, version);
+            response = Response.status(Status.ACCEPTED)
+                               .location(this.getJobUri(job, uriInfo))
+                               .type(JSON)
+                               .entity(this.toJson(job, uriInfo))
+                               .build();
+        }
+        catch (RejectedExecutionException e) {
+            response = Response.status(Status.SERVICE_UNAVAILABLE)
+                               .header("Retry-After",
+                                       String.valueOf(RETRY_AFTER))
+                               .build();
+        }
+        catch (Exception e) {
+            this.mapException(e);
+        }
+        return response;
+    }
+
+    /**
+     * Resource method serving the status of an export job.
+     * @param  id        the export job identifier.
+     * @param  uriInfo   <i>[dependency injection]</i> the request URI.
+     * @return a JSON response describing the export job.
+     * @throws WebApplicationException with a 404 status if the job is
+     *         unknown or expired.
+     */
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getStatus(@PathParam("id") String id,
+                              @Context UriInfo uriInfo) {
+        ExportJob job = this.getJob(id);
+        // Status changes while the export runs. => Never cache it.
+        return Response.ok(this.toJson(job, uriInfo), JSON)
+                       .header("Cache-Control", "no-cache")
+                       .build();
+    }
+
+    /**
+     * Resource method serving the full dump produced by an export job.
+     * @param  id        the export job identifier.
+     * @param  range     the Range HTTP header of the request.
+     * @param  ifRange   the If-Range HTTP header of the request.
+     * @param  request   <i>[dependency injection]</i> the
+     *                   being-processed HTTP request.
+     * @return a JAX-RS response streaming the full dump.
+     * @throws WebApplicationException with a 404 status if the job is
+     *         unknown or expired, a 409 status if the export is not
+     *         completed and a 410 status if the artefact was replaced
+     *         by a more recent version.
+     */
+    @GET
+    @Path("{id}/file")
+    public Response getFile(@PathParam("id") String id,
+                            @HeaderParam("Range") String range,
+                            @HeaderParam("If-Range") String ifRange,
+                            @Context Request request) {
+        ExportJob job = this.getJob(id);
+        ExportArtefact artefact = job.getArtefact();
+        if (artefact == null) {
+            throw new WebApplicationException(Status.CONFLICT);
+        }
+        if (! artefact.getFile().isFile()) {
+            throw new WebApplicationException(Status.GONE);
+        }
+        Variant contentType = new Variant(
+                        MediaType.valueOf(artefact.getType().getMimeType()),
+                        null, DEFAULT_ENCODING);
+        ResponseBuilder response = this.newArtefactResponse(artefact,
+                                        contentType, range, ifRange, request);
+        return response.header("Content-Disposition", "attachment; filename="
+                                        + artefact.getFile().getName())
+                       .build();
+    }
+
+    private ExportJob getJob(String id) {
+        ExportJob job = this.jobs.getJob(id);
+        if (job == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+        return job;
+    }
+
+    private URI getJobUri(ExportJob job, UriInfo uriInfo) {
+        return uriInfo.getBaseUriBuilder().path(Exports.class)
+                                          .path(job.getId()).build();
+    }
+
+    private String toJson(ExportJob job, UriInfo uriInfo) {
+        JsonBuilder json = new JsonBuilder()
+                            .add("id", job.getId())
+                            .add("uri", job.getUri())
+                            .add("format", job.getType().name())
+                            .add("status", job.getStatus().name())
+                            .add("written", job.getWritten())
+                            .add("submitted", job.getSubmitted())
+                            .add("started", job.getStarted())
+                            .add("finished", job.getFinished());
+        ExportArtefact artefact = job.getArtefact();
+        if (artefact != null) {
+            json.add("size", artefact.getLength())
+                .add("download", this.getJobUri(job, uriInfo).toString()
+                                                            + "/file");
+        }
+        if (job.getError() != null) {
+            json.add("error", job.getError());
+        }
+        return json.toString();
+    }
+}
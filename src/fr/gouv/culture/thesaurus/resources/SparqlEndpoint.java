@@ -29,41 +29,176 @@
 package fr.gouv.culture.thesaurus.resources;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URL;
-import java.net.HttpURLConnection;
-
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.io.IOUtils;
+import org.openrdf.query.resultio.BooleanQueryResultFormat;
+import org.openrdf.query.resultio.QueryResultFormat;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+
+import com.sun.jersey.api.view.Viewable;
 
+import fr.gouv.culture.thesaurus.exception.BusinessException;
 import fr.gouv.culture.thesaurus.resolver.UriResolver;
+import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.util.rdf.RepositoryQueryEvaluator;
+import fr.gouv.culture.thesaurus.util.rdf.SparqlQueryGuard;
+import fr.gouv.culture.thesaurus.util.rdf.SparqlQueryGuard.BoundedQuery;
+import fr.gouv.culture.thesaurus.util.rdf.SparqlQueryGuard.QueryType;
+import fr.gouv.culture.thesaurus.util.rdf.SparqlResultTranscoder;
+import fr.gouv.culture.thesaurus.util.web.AdmissionController;
+import fr.gouv.culture.thesaurus.util.web.FormRequestEntity;
+import fr.gouv.culture.thesaurus.util.web.HttpClientPool;
+import fr.gouv.culture.thesaurus.util.web.JsonBuilder;
+import fr.gouv.culture.thesaurus.util.web.SparqlJob;
+import fr.gouv.culture.thesaurus.util.web.SparqlJobManager;
+import fr.gouv.culture.thesaurus.util.web.SparqlResultCache;
+import fr.gouv.culture.thesaurus.util.xml.UriRewriter;
 
 
 /**
  * The JAS-RS root resource exposing the SPARQL endpoint for free form
  * query of the thesaurus.
+ * <p>
+ * Queries that define no dataset, neither in the request parameters
+ * nor with <tt>FROM</tt> clauses, are restricted to the graphs visible
+ * to the other readers of the thesaurus: the contexts of versions being
+ * imported or waiting for deletion and the staging graphs of batched
+ * imports are excluded. Clients naming graphs explicitly query them
+ * as requested. Hence, when imports are versioned, queries naming a
+ * thesaurus graph match nothing, its triples being stored in the
+ * <code>&lt;graph&gt;#v&lt;n&gt;</code> context of the published
+ * version.</p>
+ * <p>
+ * Besides interactive queries, bounded by a short read timeout, long
+ * running queries (e.g. aggregates over the whole repository) can be
+ * run asynchronously by a bounded pool of threads with their own
+ * timeout, their results being written on disk:</p>
+ * <dl>
+ *  <dt><code>POST /sparql/jobs</code></dt>
+ *  <dd>Submits the SPARQL query in the <code>query</code> form
+ *   parameter, with optional <code>default-graph-uri</code> and
+ *   <code>named-graph-uri</code> parameters and the MIME type of the
+ *   results in the <code>format</code> parameter (default: SPARQL
+ *   results in XML). Returns a <code>202 Accepted</code> response
+ *   pointing to the job status URL, or <code>503 Service
+ *   Unavailable</code> if too many queries are pending.</dd>
+ *  <dt><code>GET /sparql/jobs/{id}</code></dt>
+ *  <dd>The JSON status of the query job: state, number of bytes
+ *   written so far, and download URL once completed</dd>
+ *  <dt><code>GET /sparql/jobs/{id}/result</code></dt>
+ *  <dd>The query results</dd>
+ * </dl>
  */
 @Path("/sparql")
 public class SparqlEndpoint extends BaseResource
 {
+    /** The delay, in seconds, after which clients may retry queries
+        rejected for lack of available triple store connections. */
+    private final static int RETRY_AFTER = 5;
+    /** The suggested delay (in seconds) before retrying a rejected
+        query job. */
+    private final static int JOB_RETRY_AFTER = 30;
+
+    /** The MIME type for JSON documents, with explicit encoding. */
+    private final static String JSON = MediaType.APPLICATION_JSON
+                                                        + ";charset=UTF-8";
+
+    /** The MIME type for SPARQL queries sent as POST request body. */
+    private final static String SPARQL_QUERY = "application/sparql-query";
+    /** The SPARQL protocol parameter holding the query. */
+    private final static String QUERY_PARAM = "query";
+    /** The SPARQL protocol parameter holding the default graph URIs. */
+    private final static String DEFAULT_GRAPH_PARAM = "default-graph-uri";
+    /** The SPARQL protocol parameter holding the named graph URIs. */
+    private final static String NAMED_GRAPH_PARAM = "named-graph-uri";
+    /** The Sesame protocol parameter holding the maximum query
+        evaluation time, in seconds. */
+    private final static String TIMEOUT_PARAM = "timeout";
+
+    /** The MIME type for SPARQL query results in JSON. */
+    private final static String SPARQL_RESULTS_JSON =
+                                        "application/sparql-results+json";
+    /** The MIME type for SPARQL query results in CSV. */
+    private final static String SPARQL_RESULTS_CSV = "text/csv";
+    /** The MIME type for SPARQL query results in TSV. */
+    private final static String SPARQL_RESULTS_TSV =
+                                        "text/tab-separated-values";
+
+    /** The result formats of ASK queries, the first one being the
+        default. */
+    private final static List<Variant> BOOLEAN_VARIANTS =
+                Variant.mediaTypes(MediaType.APPLICATION_XML_TYPE,
+                                   MediaType.valueOf(SPARQL_RESULTS_XML),
+                                   MediaType.valueOf(SPARQL_RESULTS_JSON),
+                                   MediaType.APPLICATION_JSON_TYPE)
+                       .add().build();
+    /** The result formats of SELECT queries, the first one being the
+        default. */
+    private final static List<Variant> TUPLE_VARIANTS =
+                Variant.mediaTypes(MediaType.APPLICATION_XML_TYPE,
+                                   MediaType.valueOf(SPARQL_RESULTS_XML),
+                                   MediaType.valueOf(SPARQL_RESULTS_JSON),
+                                   MediaType.APPLICATION_JSON_TYPE,
+                                   MediaType.valueOf(SPARQL_RESULTS_CSV),
+                                   MediaType.valueOf(SPARQL_RESULTS_TSV))
+                       .add().build();
+
     /** The URL of the SPARQL endpoint of the target RDF triple store. */
     private final URL sparqlEndpoint;
+    /** The pool of keep-alive connections to the RDF triple store. */
+    private final HttpClientPool client;
+    /** The evaluator of queries on the embedded repository,
+        <code>null</code> if queries are forwarded over HTTP. */
+    private final RepositoryQueryEvaluator evaluator;
+    /** The cache of query results, <code>null</code> if disabled. */
+    private final SparqlResultCache cache;
+    /** The admission control of queries forwarded to the RDF triple
+        store. */
+    private final AdmissionController admission;
+    /** The guardrails applied to queries before forwarding them. */
+    private final SparqlQueryGuard guard;
+    /** The asynchronous query jobs, <code>null</code> if disabled. */
+    private final SparqlJobManager jobs;
+    /** The guardrails applied to asynchronous queries. */
+    private final SparqlQueryGuard jobGuard;
+    /** The maximum evaluation time of asynchronous queries, in
+        seconds. */
+    private final int jobTimeout;
 
     /**
      * Creates a new root resource exposing a SPARQL endpoint
@@ -72,26 +207,89 @@ public class SparqlEndpoint extends BaseResource
      *                          or <code>null</code> if the URIs of
      *                          thesaurus entries match the application
      *                          URLs.
-     * @param  sparqlEndpoint   the URL of target SPARQL endpoint.
+     * @param  thesaurus        the thesaurus access service, providing
+     *                          the version of the repository content.
+     * @param  sparqlEndpoint   the URL of target SPARQL endpoint,
+     *                          <code>null</code> for an embedded
+     *                          repository.
+     * @param  client           the pool of HTTP connections to the
+     *                          target SPARQL endpoint,
+     *                          <code>null</code> for an embedded
+     *                          repository.
+     * @param  evaluator        the evaluator of queries on the
+     *                          embedded repository or <code>null</code>
+     *                          to forward queries to the target SPARQL
+     *                          endpoint.
+     * @param  cache            the cache of query results or
+     *                          <code>null</code> to forward every
+     *                          query to the RDF triple store.
+     * @param  admission        the admission control of the queries
+     *                          forwarded to the RDF triple store.
+     * @param  guard            the guardrails bounding the queries
+     *                          forwarded to the RDF triple store.
+     * @param  jobs             the asynchronous query jobs or
+     *                          <code>null</code> to only accept
+     *                          interactive queries.
+     * @param  jobGuard         the guardrails bounding the queries
+     *                          run asynchronously.
+     * @param  jobTimeout       the maximum evaluation time of
+     *                          asynchronous queries, in seconds, 0 for
+     *                          no limit.
      */
-    public SparqlEndpoint(String baseUri, URL sparqlEndpoint) {
-        super(baseUri, null);
+    public SparqlEndpoint(String baseUri, ThesaurusService thesaurus,
+                          URL sparqlEndpoint, HttpClientPool client,
+                          RepositoryQueryEvaluator evaluator,
+                          SparqlResultCache cache,
+                          AdmissionController admission,
+                          SparqlQueryGuard guard,
+                          SparqlJobManager jobs, SparqlQueryGuard jobGuard,
+                          int jobTimeout) {
+        super(baseUri, thesaurus);
 
-        if (sparqlEndpoint == null) {
-            throw new IllegalArgumentException("sparqlEndpoint");
+        if (evaluator == null) {
+            if (sparqlEndpoint == null) {
+                throw new IllegalArgumentException("sparqlEndpoint");
+            }
+            if (client == null) {
+                throw new IllegalArgumentException("client");
+            }
+        }
+        if (admission == null) {
+            throw new IllegalArgumentException("admission");
+        }
+        if (guard == null) {
+            throw new IllegalArgumentException("guard");
+        }
+        if ((jobs != null) && (jobGuard == null)) {
+            throw new IllegalArgumentException("jobGuard");
         }
         this.sparqlEndpoint = sparqlEndpoint;
+        this.client = client;
+        this.evaluator = evaluator;
+        this.cache = cache;
+        this.admission = admission;
+        this.guard = guard;
+        this.jobs = jobs;
+        this.jobGuard = jobGuard;
+        this.jobTimeout = jobTimeout;
     }
 
     /**
      * Resource method serving SPARQL queries expressed as HTTP GET
      * requests.
      * @param  query      the SPARQL query.
+     * @param  defaultGraphs   the URIs of the graphs making the
+     *                    default graph of the query dataset, if any.
+     * @param  namedGraphs     the URIs of the named graphs of the
+     *                    query dataset, if any.
      * @param  uriInfo    <i>[dependency injection]</i> the request URI.
+     * @param  servletRequest  <i>[dependency injection]</i> the
+     *                    servlet request, identifying the client.
      * @param  request    <i>[dependency injection]</i> the
      *                    being-processed HTTP request.
-     * @return a JAX-RS response with the XML document (SPARQL results
-     *         for SELECTs, RDF/XML for CONSTRUCTs) resulting from the
+     * @return a JAX-RS response with the document (SPARQL results in
+     *         the negotiated format for SELECTs and ASKs, RDF/XML for
+     *         CONSTRUCTs) resulting from the
      *         forwarding of the SPARQL query to the RDF triple store
      *         with the resource URIs translated into application URLs,
      *         or a JAX-RS response forwarding to the Velocity template
@@ -101,21 +299,34 @@ public class SparqlEndpoint extends BaseResource
      *         query, RDF triple store access error...).
      */
     @GET
-    public Response getQuery(@QueryParam("query") String query,
+    public Response getQuery(@QueryParam(QUERY_PARAM) String query,
+                             @QueryParam(DEFAULT_GRAPH_PARAM)
+                                            List<String> defaultGraphs,
+                             @QueryParam(NAMED_GRAPH_PARAM)
+                                            List<String> namedGraphs,
                              @Context UriInfo uriInfo,
+                             @Context HttpServletRequest servletRequest,
                              @Context Request request) {
-        return this.executeSparqlQuery(query, request.getMethod(), uriInfo);
+        return this.executeSparqlQuery(query, defaultGraphs, namedGraphs,
+                                       request, uriInfo, servletRequest);
     }
 
     /**
      * Resource method serving SPARQL queries expressed as HTTP POST
-     * requests.
+     * requests with URL-encoded form data.
      * @param  query      the SPARQL query.
+     * @param  defaultGraphs   the URIs of the graphs making the
+     *                    default graph of the query dataset, if any.
+     * @param  namedGraphs     the URIs of the named graphs of the
+     *                    query dataset, if any.
      * @param  uriInfo    <i>[dependency injection]</i> the request URI.
+     * @param  servletRequest  <i>[dependency injection]</i> the
+     *                    servlet request, identifying the client.
      * @param  request    <i>[dependency injection]</i> the
      *                    being-processed HTTP request.
-     * @return a JAX-RS response with the XML document (SPARQL results
-     *         for SELECTs, RDF/XML for CONSTRUCTs) resulting from the
+     * @return a JAX-RS response with the document (SPARQL results in
+     *         the negotiated format for SELECTs and ASKs, RDF/XML for
+     *         CONSTRUCTs) resulting from the
      *         forwarding of the SPARQL query to the RDF triple store
      *         with the resource URIs translated into application URLs,
      *         or a JAX-RS response forwarding to the Velocity template
@@ -125,10 +336,55 @@ public class SparqlEndpoint extends BaseResource
      *         query, RDF triple store access error...).
      */
     @POST
-    public Response postQuery(@QueryParam("query") String query,
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    public Response postQuery(@FormParam(QUERY_PARAM) String query,
+                              @FormParam(DEFAULT_GRAPH_PARAM)
+                                            List<String> defaultGraphs,
+                              @FormParam(NAMED_GRAPH_PARAM)
+                                            List<String> namedGraphs,
                               @Context UriInfo uriInfo,
+                              @Context HttpServletRequest servletRequest,
                               @Context Request request) {
-        return this.executeSparqlQuery(query, request.getMethod(), uriInfo);
+        return this.executeSparqlQuery(query, defaultGraphs, namedGraphs,
+                                       request, uriInfo, servletRequest);
+    }
+
+    /**
+     * Resource method serving SPARQL queries sent directly as HTTP POST
+     * request body.
+     * @param  query      the SPARQL query, i.e. the request body.
+     * @param  defaultGraphs   the URIs of the graphs making the
+     *                    default graph of the query dataset, if any.
+     * @param  namedGraphs     the URIs of the named graphs of the
+     *                    query dataset, if any.
+     * @param  uriInfo    <i>[dependency injection]</i> the request URI.
+     * @param  servletRequest  <i>[dependency injection]</i> the
+     *                    servlet request, identifying the client.
+     * @param  request    <i>[dependency injection]</i> the
+     *                    being-processed HTTP request.
+     * @return a JAX-RS response with the document (SPARQL results in
+     *         the negotiated format for SELECTs and ASKs, RDF/XML for
+     *         CONSTRUCTs) resulting from the
+     *         forwarding of the SPARQL query to the RDF triple store
+     *         with the resource URIs translated into application URLs,
+     *         or a JAX-RS response forwarding to the Velocity template
+     *         displaying the query input form HTML page.
+     * @throws WebApplicationException wrapping the HTTP error response
+     *         and the source exception, if any error occurred (invalid
+     *         query, RDF triple store access error...).
+     */
+    @POST
+    @Consumes(SPARQL_QUERY)
+    public Response postDirectQuery(String query,
+                              @QueryParam(DEFAULT_GRAPH_PARAM)
+                                            List<String> defaultGraphs,
+                              @QueryParam(NAMED_GRAPH_PARAM)
+                                            List<String> namedGraphs,
+                              @Context UriInfo uriInfo,
+                              @Context HttpServletRequest servletRequest,
+                              @Context Request request) {
+        return this.executeSparqlQuery(query, defaultGraphs, namedGraphs,
+                                       request, uriInfo, servletRequest);
     }
 
     /**
@@ -137,11 +393,17 @@ public class SparqlEndpoint extends BaseResource
      * @param  query     the SPARQL query; if <code>null</code> of empty
      *                   this method forwards to the query input form
      *                   HTML page.
-     * @param  method    the HTTP method: GET for small queries, POST
-     *                   queries larger than 4KB.
+     * @param  defaultGraphs   the URIs of the graphs making the default
+     *                   graph of the query dataset, if any.
+     * @param  namedGraphs     the URIs of the named graphs of the query
+     *                   dataset, if any.
+     * @param  request   the HTTP request, whose Accept header selects
+     *                   the format of the results.
      * @param  uriInfo   the request URI.
-     * @return a JAX-RS response with the XML document (SPARQL results
-     *         for SELECTs, RDF/XML for CONSTRUCTs) resulting from the
+     * @param  servletRequest   the servlet request.
+     * @return a JAX-RS response with the document (SPARQL results in
+     *         the negotiated format for SELECTs and ASKs, RDF/XML for
+     *         CONSTRUCTs) resulting from the
      *         forwarding of the SPARQL query to the RDF triple store
      *         with the resource URIs translated into application URLs,
      *         or a JAX-RS response forwarding to the Velocity template
@@ -151,56 +413,143 @@ public class SparqlEndpoint extends BaseResource
      *         query, RDF triple store access error...).
      */
     private Response executeSparqlQuery(String query,
-                                        String method, UriInfo uriInfo) {
+                                        List<String> defaultGraphs,
+                                        List<String> namedGraphs,
+                                        Request request, UriInfo uriInfo,
+                                        HttpServletRequest servletRequest) {
         ResponseBuilder response = null;
         try {
             UriResolver resolver = this.getUriResolver(uriInfo);
 
             if ((query == null) || (query.length() == 0)) {
                 // No query. => Render query input HTML form.
-                response = Response.ok(this.newViewable("/sparqlEndpoint.vm",
-                                                        null, null, resolver),
+                Map<String,Object> m = this.newViewableContext(null, null,
+                                                               resolver);
+                m.put("maxLimit", Long.valueOf(this.guard.getMaxLimit()));
+                m.put("maxOffset", Long.valueOf(this.guard.getMaxOffset()));
+                response = Response.ok(new Viewable("/sparqlEndpoint.vm", m),
                                        MediaType.TEXT_HTML);
             }
             else {
                 // Translate resource URIs in query.
                 query = resolver.translateQueryUris(query);
-                // Forward query to the SPARQL endpoint.
-                URL u = this.sparqlEndpoint;
-                // Use URI multi-argument constructor to escape query string.
-                u = new URI(u.getProtocol(), null,
-                            u.getHost(), u.getPort(),
-                            u.getPath(), "query=" + query, null).toURL();
-                // Build HTTP request.
-                HttpURLConnection cnx = (HttpURLConnection)(u.openConnection());
-                cnx.setRequestMethod(method);
-                cnx.setConnectTimeout(2000);    // 2 sec.
-                cnx.setReadTimeout(30000);      // 30 sec.
-                cnx.setRequestProperty("Accept",
-                                       SPARQL_RESULTS_XML + ',' + RDF_XML);
-                // Force server connection.
-                cnx.connect();
-                int status = cnx.getResponseCode();
-                // Check for error data.
-                InputStream data = cnx.getErrorStream();
-                if (data == null) {
-                    // No error data available. => get response data.
-                    data = cnx.getInputStream();
-                }
-                // Force content type to "application/xml" as Sesame does not
-                // provide any valid (RDF/XML, SPARQL Results) content type
-                // in the SPARQL endpoint HTTP responses.
-                String contentType = MediaType.APPLICATION_XML;
-                // Forward server response to client.
-                response = Response.status(status).type(contentType);
-                Transformer t = resolver.getRdfTransformer();
-                if ((status == HttpURLConnection.HTTP_OK) && (t != null)) {
-                    // Translate resource URIs in XML response.
-                    response = response.entity(new RdfStreamingOutput(data, t));
+                // Reject unbounded queries and cap the number of results.
+                BoundedQuery bounded = this.guard.bound(query);
+                query = bounded.getQuery();
+                // Negotiate result format.
+                MediaType resultType = this.selectResultType(
+                                                bounded.getType(), request);
+                QueryResultFormat format = getResultFormat(
+                                                bounded.getType(), resultType);
+                String contentType = getContentType(resultType, format);
+                // Serve cached results, unless the repository content
+                // changed since they were computed.
+                long version = this.thesaurus.getDataVersion();
+                String key = null;
+                if (this.cache != null) {
+                    StringBuilder variant = new StringBuilder(
+                                            uriInfo.getBaseUri().toString());
+                    appendGraphs(variant, 'D', defaultGraphs);
+                    appendGraphs(variant, 'N', namedGraphs);
+                    key = SparqlResultCache.key(query, contentType,
+                                                variant.toString());
+                    Reader cached = this.cache.get(key, version);
+                    if (cached != null) {
+                        return Response.ok(new CachedStreamingOutput(cached),
+                                           contentType)
+                                       .build();
+                    }
+                }
+                List<String> visible = this.getVisibleGraphs(bounded,
+                                                defaultGraphs, namedGraphs);
+                if (visible != null) {
+                    defaultGraphs = visible;
+                    namedGraphs = visible;
+                }
+                UriRewriter rewriter = resolver.getUriRewriter();
+                // Wait for the client turn, within its rate limit.
+                AdmissionController.Permit permit = null;
+                try {
+                    permit = this.admission.acquire(
+                                    this.admission.getClient(servletRequest));
+                }
+                catch (AdmissionController.RejectedException e) {
+                    return Response.status((e.isRateLimited())?
+                                        TOO_MANY_REQUESTS:
+                                        Status.SERVICE_UNAVAILABLE.getStatusCode())
+                                   .header("Retry-After",
+                                           String.valueOf(e.getRetryAfter()))
+                                   .build();
+                }
+                catch (InterruptedException e) {
+                    // Shutting down.
+                    Thread.currentThread().interrupt();
+                    return Response.status(Status.SERVICE_UNAVAILABLE)
+                                   .header("Retry-After",
+                                           String.valueOf(RETRY_AFTER))
+                                   .build();
+                }
+                if (this.evaluator != null) {
+                    // Embedded repository. => Evaluate query in-process,
+                    // holding the admission permit until the response is
+                    // sent.
+                    return Response.ok(new EvaluatingStreamingOutput(bounded,
+                                            defaultGraphs, namedGraphs,
+                                            format, rewriter, permit,
+                                            key, version),
+                                       contentType).build();
+                }
+                // Build HTTP request to the SPARQL endpoint. Without URI
+                // to translate, the results are requested natively in the
+                // negotiated format; otherwise SPARQL/XML results are
+                // transcoded.
+                PostMethod m = this.newSparqlMethod(query, defaultGraphs,
+                                    namedGraphs, (rewriter == null)? format: null,
+                                    0);
+                if (rewriter == null) {
+                    format = null;
+                }
+                // Forward query over a pooled keep-alive connection.
+                InputStream data = null;
+                try {
+                    // Hold the admission permit until the response is sent.
+                    data = permit.guard(this.client.execute(m));
+                }
+                catch (ConnectionPoolTimeoutException e) {
+                    // All connections busy. => Ask client to retry later.
+                    return Response.status(Status.SERVICE_UNAVAILABLE)
+                                   .header("Retry-After",
+                                           String.valueOf(RETRY_AFTER))
+                                   .build();
+                }
+                finally {
+                    if (data == null) {
+                        permit.release();
+                    }
+                }
+                int status = m.getStatusCode();
+                if (status != HttpStatus.SC_OK) {
+                    // Forward error message to client.
+                    Header type = m.getResponseHeader("Content-Type");
+                    response = Response.status(status)
+                                       .type((type != null)? type.getValue():
+                                                    MediaType.TEXT_PLAIN)
+                                       .entity(data);
+                }
+                else if ((rewriter != null) || (format != null) ||
+                         (key != null)) {
+                    // Force content type as Sesame does not provide any
+                    // valid (RDF/XML, SPARQL Results) content type in the
+                    // SPARQL endpoint HTTP responses.
+                    // Translate resource URIs, transcode results and/or
+                    // record results into the cache.
+                    response = Response.ok(new RdfStreamingOutput(data,
+                                                rewriter, format, key, version),
+                                           contentType);
                 }
                 else {
                     // Directly forward response to client.
-                    response = response.entity(data);
+                    response = Response.ok(data, contentType);
                 }
             }
         }
@@ -210,41 +559,614 @@ public class SparqlEndpoint extends BaseResource
         return response.build();
     }
 
+    /**
+     * Resource method submitting an asynchronous SPARQL query.
+     * @param  query      the SPARQL query.
+     * @param  defaultGraphs   the URIs of the graphs making the
+     *                    default graph of the query dataset, if any.
+     * @param  namedGraphs     the URIs of the named graphs of the
+     *                    query dataset, if any.
+     * @param  format     the MIME type of the results, SPARQL results
+     *                    in XML if absent; ignored for CONSTRUCTs,
+     *                    always returned as RDF/XML.
+     * @param  uriInfo    <i>[dependency injection]</i> the request URI.
+     * @param  servletRequest  <i>[dependency injection]</i> the
+     *                    servlet request, identifying the client.
+     * @return a <code>202 Accepted</code> JSON response describing the
+     *         query job, with a Location header pointing to the job
+     *         status, or a <code>429 Too Many Requests</code> response
+     *         if the client exceeded its rate limit or has too many
+     *         unfinished jobs.
+     * @throws WebApplicationException wrapping the HTTP error response
+     *         and the source exception, if any error occurred (invalid
+     *         query or format, too many pending jobs...).
+     */
+    @POST
+    @Path("jobs")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submitJob(@FormParam(QUERY_PARAM) String query,
+                              @FormParam(DEFAULT_GRAPH_PARAM)
+                                            List<String> defaultGraphs,
+                              @FormParam(NAMED_GRAPH_PARAM)
+                                            List<String> namedGraphs,
+                              @FormParam("format") String format,
+                              @Context UriInfo uriInfo,
+                              @Context HttpServletRequest servletRequest) {
+        if (this.jobs == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+        Response response = null;
+        try {
+            if ((query == null) || (query.length() == 0)) {
+                throw new IllegalArgumentException(QUERY_PARAM);
+            }
+            // Jobs run out of the interactive slots but still count
+            // against the client rate limit.
+            String client = this.admission.getClient(servletRequest);
+            this.admission.charge(client);
+            UriResolver resolver = this.getUriResolver(uriInfo);
+            // Translate resource URIs in query and check it.
+            BoundedQuery bounded = this.jobGuard.bound(
+                                        resolver.translateQueryUris(query));
+            MediaType resultType = selectResultType(bounded.getType(),
+                                                    format);
+            QueryResultFormat resultFormat = getResultFormat(
+                                        bounded.getType(), resultType);
+            final UriRewriter rewriter = resolver.getUriRewriter();
+            String contentType = getContentType(resultType, resultFormat);
+            List<String> visible = this.getVisibleGraphs(bounded,
+                                                defaultGraphs, namedGraphs);
+            if (visible != null) {
+                defaultGraphs = visible;
+                namedGraphs = visible;
+            }
+            SparqlJob job = null;
+            if (this.evaluator != null) {
+                // Embedded repository. => Evaluate query in-process.
+                job = this.jobs.submit(client, contentType, this.newJobWriter(
+                                bounded, defaultGraphs, namedGraphs,
+                                resultFormat, rewriter));
+            }
+            else {
+                PostMethod m = this.newSparqlMethod(bounded.getQuery(),
+                                    defaultGraphs, namedGraphs,
+                                    (rewriter == null)? resultFormat: null,
+                                    this.jobTimeout);
+                final QueryResultFormat transcoded =
+                                    (rewriter != null)? resultFormat: null;
+                job = this.jobs.submit(client, m, contentType,
+                        new SparqlJobManager.ResultHandler() {
+                            public void write(InputStream in, OutputStream out)
+                                                            throws Exception {
+                                new RdfStreamingOutput(in, rewriter,
+                                            transcoded, null, 0L).copy(out);
+                            }
+                        });
+            }
+            response = Response.status(Status.ACCEPTED)
+                               .location(this.getJobUri(job, uriInfo))
+                               .type(JSON)
+                               .entity(this.toJson(job, uriInfo))
+                               .build();
+        }
+        catch (AdmissionController.RejectedException e) {
+            response = Response.status(TOO_MANY_REQUESTS)
+                               .header("Retry-After",
+                                       String.valueOf(e.getRetryAfter()))
+                               .build();
+        }
+        catch (SparqlJobManager.TooManyJobsException e) {
+            response = Response.status(TOO_MANY_REQUESTS)
+                               .header("Retry-After",
+                                       String.valueOf(JOB_RETRY_AFTER))
+                               .build();
+        }
+        catch (RejectedExecutionException e) {
+            response = Response.status(Status.SERVICE_UNAVAILABLE)
+                               .header("Retry-After",
+                                       String.valueOf(JOB_RETRY_AFTER))
+                               .build();
+        }
+        catch (Exception e) {
+            this.mapException(e);
+        }
+        return response;
+    }
+
+    /**
+     * Resource method serving the status of an asynchronous query.
+     * @param  id        the query job identifier.
+     * @param  uriInfo   <i>[dependency injection]</i> the request URI.
+     * @return a JSON response describing the query job.
+     * @throws WebApplicationException with a 404 status if the job is
+     *         unknown or expired.
+     */
+    @GET
+    @Path("jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJobStatus(@PathParam("id") String id,
+                                 @Context UriInfo uriInfo) {
+        SparqlJob job = this.getJob(id);
+        // Status changes while the query runs. => Never cache it.
+        return Response.ok(this.toJson(job, uriInfo), JSON)
+                       .header("Cache-Control", "no-cache")
+                       .build();
+    }
+
+    /**
+     * Resource method serving the results of an asynchronous query.
+     * @param  id   the query job identifier.
+     * @return a JAX-RS response streaming the query results.
+     * @throws WebApplicationException with a 404 status if the job is
+     *         unknown or expired, a 409 status if the query is not
+     *         completed or failed and a 410 status if the results
+     *         were deleted.
+     */
+    @GET
+    @Path("jobs/{id}/result")
+    public Response getJobResult(@PathParam("id") String id) {
+        SparqlJob job = this.getJob(id);
+        File file = job.getFile();
+        if (file == null) {
+            throw new WebApplicationException(Status.CONFLICT);
+        }
+        if (! file.isFile()) {
+            throw new WebApplicationException(Status.GONE);
+        }
+        return Response.ok(file, job.getContentType()).build();
+    }
+
+    /**
+     * Returns the job writer evaluating an asynchronous query on the
+     * embedded repository.
+     */
+    private SparqlJobManager.ResultWriter newJobWriter(
+                                    final BoundedQuery query,
+                                    final List<String> defaultGraphs,
+                                    final List<String> namedGraphs,
+                                    final QueryResultFormat format,
+                                    final UriRewriter rewriter) {
+        return new SparqlJobManager.ResultWriter() {
+                public void write(OutputStream out) throws Exception {
+                    evaluator.evaluate(query.getQuery(), query.getType(),
+                                       defaultGraphs, namedGraphs, format,
+                                       rewriter, jobTimeout, out);
+                }
+            };
+    }
+
+    private SparqlJob getJob(String id) {
+        SparqlJob job = (this.jobs != null)? this.jobs.getJob(id): null;
+        if (job == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+        return job;
+    }
+
+    private URI getJobUri(SparqlJob job, UriInfo uriInfo) {
+        return uriInfo.getBaseUriBuilder().path(SparqlEndpoint.class)
+                                          .path("jobs")
+                                          .path(job.getId()).build();
+    }
+
+    private String toJson(SparqlJob job, UriInfo uriInfo) {
+        JsonBuilder json = new JsonBuilder()
+                            .add("id", job.getId())
+                            .add("format", job.getContentType())
+                            .add("status", job.getStatus().name())
+                            .add("written", job.getWritten())
+                            .add("submitted", job.getSubmitted())
+                            .add("started", job.getStarted())
+                            .add("finished", job.getFinished());
+        File file = job.getFile();
+        if (file != null) {
+            json.add("size", file.length())
+                .add("download", this.getJobUri(job, uriInfo).toString()
+                                                            + "/result");
+        }
+        if (job.getError() != null) {
+            json.add("error", job.getError());
+        }
+        return json.toString();
+    }
+
+    /**
+     * Builds the HTTP request forwarding a query to the SPARQL endpoint,
+     * streaming the query and dataset as form data, whatever their
+     * size.
+     * @param  query           the SPARQL query.
+     * @param  defaultGraphs   the URIs of the graphs making the default
+     *                         graph of the query dataset, if any.
+     * @param  namedGraphs     the URIs of the named graphs of the query
+     *                         dataset, if any.
+     * @param  format          the format to request the results in,
+     *                         <code>null</code> for XML (SPARQL results
+     *                         or RDF/XML).
+     * @param  timeout         the maximum evaluation time of the query,
+     *                         in seconds, 0 for no limit.
+     * @return the HTTP request.
+     */
+    private PostMethod newSparqlMethod(String query,
+                                       List<String> defaultGraphs,
+                                       List<String> namedGraphs,
+                                       QueryResultFormat format,
+                                       int timeout) {
+        PostMethod m = new PostMethod(this.sparqlEndpoint.toString());
+        m.setRequestEntity(new FormRequestEntity()
+                                .add(QUERY_PARAM, query)
+                                .addAll(DEFAULT_GRAPH_PARAM, defaultGraphs)
+                                .addAll(NAMED_GRAPH_PARAM, namedGraphs)
+                                .add(TIMEOUT_PARAM, (timeout > 0)?
+                                            String.valueOf(timeout): null));
+        m.setRequestHeader("Accept", (format != null)?
+                                format.getDefaultMIMEType():
+                                SPARQL_RESULTS_XML + ',' + RDF_XML);
+        return m;
+    }
+
+    /**
+     * Returns the graphs a query shall be restricted to, if it defines
+     * no dataset and some contexts of the repository are hidden from
+     * readers.
+     * @param  query           the SPARQL query.
+     * @param  defaultGraphs   the default graph URIs requested by the
+     *                         client, if any.
+     * @param  namedGraphs     the named graph URIs requested by the
+     *                         client, if any.
+     * @return the URIs of the graphs visible to readers or
+     *         <code>null</code> if the query shall be run as is.
+     * @throws BusinessException if any error occurred while accessing
+     *         the RDF triple store.
+     */
+    private List<String> getVisibleGraphs(BoundedQuery query,
+                                          List<String> defaultGraphs,
+                                          List<String> namedGraphs)
+                                                throws BusinessException {
+        if ((query.hasDataset()) ||
+            ((defaultGraphs != null) && (! defaultGraphs.isEmpty())) ||
+            ((namedGraphs != null) && (! namedGraphs.isEmpty()))) {
+            return null;
+        }
+        return this.thesaurus.getVisibleGraphs();
+    }
+
+    /**
+     * Appends the graph URIs of the query dataset to a cache key
+     * variant.
+     * @param  variant   the cache key variant being built.
+     * @param  kind      the kind of graphs (default or named).
+     * @param  graphs    the graph URIs, possibly <code>null</code>.
+     */
+    private static void appendGraphs(StringBuilder variant, char kind,
+                                     List<String> graphs) {
+        if (graphs != null) {
+            for (String g : graphs) {
+                variant.append('\n').append(kind).append(' ').append(g);
+            }
+        }
+    }
+
+    /**
+     * Selects the format of the query results among those acceptable
+     * to the client.
+     * @param  type      the query type.
+     * @param  request   the HTTP request.
+     * @return the MIME type of the results; XML (SPARQL results or
+     *         RDF/XML for CONSTRUCTs) if no supported format is
+     *         acceptable.
+     */
+    private MediaType selectResultType(QueryType type, Request request) {
+        Variant v = null;
+        if (type == QueryType.TUPLE) {
+            v = request.selectVariant(TUPLE_VARIANTS);
+        }
+        else if (type == QueryType.BOOLEAN) {
+            v = request.selectVariant(BOOLEAN_VARIANTS);
+        }
+        return (v != null)? v.getMediaType(): MediaType.APPLICATION_XML_TYPE;
+    }
+
+    /**
+     * Selects the format of the query results from the MIME type
+     * requested for an asynchronous query.
+     * @param  type     the query type.
+     * @param  format   the requested MIME type, possibly
+     *                  <code>null</code>.
+     * @return the MIME type of the results; XML (SPARQL results or
+     *         RDF/XML for CONSTRUCTs) if none was requested.
+     * @throws IllegalArgumentException if the requested format is not
+     *         supported for the query type.
+     */
+    private static MediaType selectResultType(QueryType type,
+                                              String format) {
+        List<Variant> variants = (type == QueryType.TUPLE)? TUPLE_VARIANTS:
+                                 (type == QueryType.BOOLEAN)? BOOLEAN_VARIANTS:
+                                 null;
+        if ((variants == null) || (format == null) || (format.length() == 0)) {
+            return MediaType.APPLICATION_XML_TYPE;
+        }
+        MediaType requested = MediaType.valueOf(format);
+        for (Variant v : variants) {
+            if (v.getMediaType().isCompatible(requested)) {
+                return v.getMediaType();
+            }
+        }
+        throw new IllegalArgumentException("format");
+    }
+
+    /**
+     * Returns the content type of the query results.
+     * @param  resultType   the MIME type of the results.
+     * @param  format       the Sesame query result format or
+     *                      <code>null</code> for XML results.
+     * @return the content type, with explicit encoding for non-XML
+     *         formats.
+     */
+    private static String getContentType(MediaType resultType,
+                                         QueryResultFormat format) {
+        String contentType = resultType.toString();
+        if (format != null) {
+            contentType += "; charset=UTF-8";
+        }
+        return contentType;
+    }
+
+    /**
+     * Returns the Sesame query result format matching a MIME type.
+     * @param  type         the query type.
+     * @param  resultType   the MIME type of the results.
+     * @return the query result format or <code>null</code> for XML
+     *         results.
+     */
+    private static QueryResultFormat getResultFormat(QueryType type,
+                                                     MediaType resultType) {
+        String mimeType = resultType.getType() + '/'
+                                            + resultType.getSubtype();
+        boolean json = SPARQL_RESULTS_JSON.equals(mimeType) ||
+                       MediaType.APPLICATION_JSON.equals(mimeType);
+        QueryResultFormat format = null;
+        if (type == QueryType.BOOLEAN) {
+            if (json) {
+                format = BooleanQueryResultFormat.JSON;
+            }
+        }
+        else if (type == QueryType.TUPLE) {
+            if (json) {
+                format = TupleQueryResultFormat.JSON;
+            }
+            else if (SPARQL_RESULTS_CSV.equals(mimeType)) {
+                format = TupleQueryResultFormat.CSV;
+            }
+            else if (SPARQL_RESULTS_TSV.equals(mimeType)) {
+                format = TupleQueryResultFormat.TSV;
+            }
+        }
+        return format;
+    }
+
+    /**
+     * A base JAX-RS {@link StreamingOuput} implementation streaming
+     * SPARQL query results into the HTTP response stream and recording
+     * them into the cache.
+     */
+    private abstract class ResultStreamingOutput implements StreamingOutput
+    {
+        private final String key;
+        private final long version;
+
+        /**
+         * Creates a new streaming output.
+         * @param  key        the cache key of the results or
+         *                    <code>null</code> if they shall not be
+         *                    cached.
+         * @param  version    the repository content version the
+         *                    query was run against.
+         */
+        protected ResultStreamingOutput(String key, long version) {
+            this.key = key;
+            this.version = version;
+        }
+
+        public void write(OutputStream out) {
+            SparqlResultCache.Recorder recorder = null;
+            try {
+                if (this.key != null) {
+                    // Copy results into the cache while streaming.
+                    recorder = cache.record(this.key, this.version, out);
+                    out = recorder;
+                }
+                this.copy(out);
+                if (recorder != null) {
+                    // Results completely sent. => Keep them.
+                    recorder.commit();
+                }
+            }
+            catch (Exception e) {
+                mapException(e);
+            }
+            finally {
+                this.release();
+                if (recorder != null) {
+                    recorder.close();
+                }
+            }
+        }
+
+        /**
+         * Writes the query results, without closing the output stream.
+         * @param  out   the output stream.
+         * @throws Exception if any error occurred while producing or
+         *         writing the results.
+         */
+        protected abstract void copy(OutputStream out) throws Exception;
+
+        /**
+         * Releases the resources held to produce the results, once
+         * written.
+         */
+        protected abstract void release();
+    }
 
     /**
      * A JAX-RS {@link StreamingOuput} implementation to stream the
      * extraction of the SPARQL query results from the RDF triple store
      * SPARQL endpoint directly into the HTTP response stream,
-     * applying an optional XSL transformation provided by the
-     * specified URI resolver.
+     * translating resource URIs on the fly with the rewriter provided
+     * by the URI resolver and recording the results into the cache.
      */
-    private class RdfStreamingOutput implements StreamingOutput
+    private class RdfStreamingOutput extends ResultStreamingOutput
     {
         private final InputStream in;
-        private final Transformer t;
+        private final UriRewriter rewriter;
+        private final QueryResultFormat format;
 
-        public RdfStreamingOutput(InputStream in, Transformer t) {
+        /**
+         * Creates a new streaming output.
+         * @param  in         the SPARQL query results.
+         * @param  rewriter   the URI rewriter or <code>null</code> to
+         *                    forward results unchanged.
+         * @param  format     the format to transcode SPARQL/XML results
+         *                    into or <code>null</code> to keep them in
+         *                    their original format.
+         * @param  key        the cache key of the results or
+         *                    <code>null</code> if they shall not be
+         *                    cached.
+         * @param  version    the repository content version the
+         *                    query was run against.
+         */
+        public RdfStreamingOutput(InputStream in, UriRewriter rewriter,
+                                  QueryResultFormat format,
+                                  String key, long version) {
+            super(key, version);
             if (in == null) {
                 throw new IllegalArgumentException("in");
             }
             this.in = in;
-            this.t  = t;
+            this.rewriter = rewriter;
+            this.format = format;
+        }
+
+        /**
+         * Copies the query results, translating URIs and transcoding
+         * them if need be, without closing the streams.
+         * @param  out   the output stream.
+         * @throws IOException if any error occurred while reading or
+         *         writing the results.
+         * @throws XMLStreamException if the results are not valid XML.
+         */
+        @Override
+        public void copy(OutputStream out)
+                                    throws IOException, XMLStreamException {
+            if (this.format instanceof TupleQueryResultFormat) {
+                // Transcode results while streaming.
+                SparqlResultTranscoder.transcodeTuples(this.in,
+                            (TupleQueryResultFormat)this.format, out,
+                            this.rewriter);
+            }
+            else if (this.format instanceof BooleanQueryResultFormat) {
+                SparqlResultTranscoder.transcodeBoolean(this.in,
+                            (BooleanQueryResultFormat)this.format, out);
+            }
+            else if (this.rewriter != null) {
+                // Translate URIs while streaming (UTF-8 output).
+                this.rewriter.rewrite(this.in, out);
+            }
+            else {
+                IOUtils.copy(this.in, out);
+            }
+            out.flush();
+        }
+
+        @Override
+        protected void release() {
+            try { this.in.close(); } catch (Exception e) { /* Ignore... */ }
+        }
+    }
+
+    /**
+     * A JAX-RS {@link StreamingOuput} implementation evaluating SPARQL
+     * queries on the embedded repository directly into the HTTP
+     * response stream, translating resource URIs on the fly and
+     * recording the results into the cache.
+     */
+    private class EvaluatingStreamingOutput extends ResultStreamingOutput
+    {
+        private final BoundedQuery query;
+        private final List<String> defaultGraphs;
+        private final List<String> namedGraphs;
+        private final QueryResultFormat format;
+        private final UriRewriter rewriter;
+        private final AdmissionController.Permit permit;
+
+        /**
+         * Creates a new streaming output.
+         * @param  query           the SPARQL query.
+         * @param  defaultGraphs   the URIs of the graphs making the
+         *                         default graph of the query dataset,
+         *                         if any.
+         * @param  namedGraphs     the URIs of the named graphs of the
+         *                         query dataset, if any.
+         * @param  format          the format of the results or
+         *                         <code>null</code> for XML.
+         * @param  rewriter        the URI rewriter or <code>null</code>.
+         * @param  permit          the admission permit, released once
+         *                         the results are written.
+         * @param  key             the cache key of the results or
+         *                         <code>null</code> if they shall not
+         *                         be cached.
+         * @param  version         the repository content version the
+         *                         query is run against.
+         */
+        public EvaluatingStreamingOutput(BoundedQuery query,
+                                         List<String> defaultGraphs,
+                                         List<String> namedGraphs,
+                                         QueryResultFormat format,
+                                         UriRewriter rewriter,
+                                         AdmissionController.Permit permit,
+                                         String key, long version) {
+            super(key, version);
+            this.query = query;
+            this.defaultGraphs = defaultGraphs;
+            this.namedGraphs = namedGraphs;
+            this.format = format;
+            this.rewriter = rewriter;
+            this.permit = permit;
+        }
+
+        @Override
+        protected void copy(OutputStream out) throws Exception {
+            evaluator.evaluate(this.query.getQuery(), this.query.getType(),
+                               this.defaultGraphs, this.namedGraphs,
+                               this.format, this.rewriter,
+                               evaluator.getMaxQueryTime(), out);
+        }
+
+        @Override
+        protected void release() {
+            this.permit.release();
+        }
+    }
+
+    /**
+     * A JAX-RS {@link StreamingOuput} implementation to stream SPARQL
+     * query results from the cache into the HTTP response stream.
+     */
+    private class CachedStreamingOutput implements StreamingOutput
+    {
+        private final Reader in;
+
+        public CachedStreamingOutput(Reader in) {
+            this.in = in;
         }
 
         public void write(OutputStream out) {
             try {
-                // Apply XSL tranformation.
-                this.t.setOutputProperty(OutputKeys.ENCODING, DEFAULT_ENCODING);
-                this.t.transform(new StreamSource(this.in),
-                                 new StreamResult(out));
-                out.flush();
+                SparqlResultCache.copy(this.in, out);
             }
             catch (Exception e) {
                 mapException(e);
             }
-            finally {
-                try { this.in.close(); } catch (Exception e) { /* Ignore... */ }
-            }
         }
     }
 }
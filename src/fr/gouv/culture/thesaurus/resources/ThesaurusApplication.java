@@ -29,24 +29,51 @@
 package fr.gouv.culture.thesaurus.resources;
 
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletContext;
 import javax.ws.rs.core.Application;
 import javax.ws.rs.core.Context;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.http.HTTPRepository;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+import org.openrdf.sail.nativerdf.NativeStore;
 
 import com.atosorigin.jersey.velocity.VelocityTemplateProcessor;
 
+import fr.gouv.culture.thesaurus.service.ImportJobManager;
+import fr.gouv.culture.thesaurus.service.CacheWarmer;
+import fr.gouv.culture.thesaurus.service.ImportSchedule;
+import fr.gouv.culture.thesaurus.service.ImportStatistics;
 import fr.gouv.culture.thesaurus.service.ThesaurusService;
 import fr.gouv.culture.thesaurus.service.ThesaurusServiceConfiguration;
+import fr.gouv.culture.thesaurus.service.export.ExportArtefactStore;
+import fr.gouv.culture.thesaurus.service.export.ExportJobManager;
+import fr.gouv.culture.thesaurus.service.impl.RepositoryReplica;
 import fr.gouv.culture.thesaurus.service.impl.SesameThesaurus;
 import fr.gouv.culture.thesaurus.util.MailUtil;
+import fr.gouv.culture.thesaurus.util.rdf.RepositoryQueryEvaluator;
+import fr.gouv.culture.thesaurus.util.rdf.SparqlQueryGuard;
+import fr.gouv.culture.thesaurus.util.web.AdmissionController;
+import fr.gouv.culture.thesaurus.util.web.HttpClientPool;
+import fr.gouv.culture.thesaurus.util.web.SparqlJobManager;
+import fr.gouv.culture.thesaurus.util.web.SparqlResultCache;
 
 
 /**
@@ -66,6 +93,134 @@ import fr.gouv.culture.thesaurus.util.MailUtil;
  *  <dt><code>thesaurus.rdf.repository.id</code></dt>
  *  <dd>the name of the thesaurus repository within the RDF triple
  *   store<br /><i>Default value</i>: <code>thesaurus</code></dd>
+ *  <dt><code>thesaurus.rdf.repository.mode</code></dt>
+ *  <dd>the access mode of the RDF triple store: <code>http</code> to
+ *   access the Sesame server at <code>thesaurus.rdf.repository.url</code>,
+ *   <code>embedded</code> to open a native store within the application,
+ *   the SPARQL endpoint then querying it directly<br />
+ *   <i>Default value</i>: <code>http</code></dd>
+ *  <dt><code>thesaurus.rdf.repository.directory</code></dt>
+ *  <dd>the data directory of the embedded native store<br />
+ *   <i>Default value</i>:
+ *   <code>${user.home}/.thesaurus/repositories/&lt;repository id&gt;</code></dd>
+ *  <dt><code>thesaurus.rdf.repository.indexes</code></dt>
+ *  <dd>the triple indexes of the embedded native store<br />
+ *   <i>Default value</i>: <code>spoc,posc,cspo</code></dd>
+ *  <dt><code>thesaurus.rdf.repository.replica</code></dt>
+ *  <dd>whether, in <code>http</code> mode, the thesaurus pages are read
+ *   from an in-memory replica of the named graphs, synchronized at
+ *   startup and after each import or deletion, writes still being sent
+ *   to the Sesame server<br />
+ *   <i>Default value</i>: <code>false</code></dd>
+ *  <dt><code>thesaurus.rdf.repository.replica.directory</code></dt>
+ *  <dd>the directory where the in-memory replica is persisted, so that
+ *   only the named graphs changed in the meantime are copied again on
+ *   restart<br />
+ *   <i>Default value</i>:
+ *   <code>${user.home}/.thesaurus/replicas/&lt;repository id&gt;</code></dd>
+ *  <dt><code>thesaurus.service.export.directory</code></dt>
+ *  <dd>the directory where full dumps are materialized to be served
+ *   with HTTP byte range support<br /><i>Default value</i>:
+ *   <code>${java.io.tmpdir}/thesaurus-exports</code></dd>
+ *  <dt><code>thesaurus.service.export.jobs.threads</code></dt>
+ *  <dd>the number of threads producing asynchronous full dumps<br />
+ *   <i>Default value</i>: <code>2</code></dd>
+ *  <dt><code>thesaurus.service.export.jobs.queue</code></dt>
+ *  <dd>the maximum number of pending asynchronous full dumps<br />
+ *   <i>Default value</i>: <code>16</code></dd>
+ *  <dt><code>thesaurus.service.export.jobs.retention</code></dt>
+ *  <dd>the delay (in minutes) completed asynchronous export jobs are
+ *   kept for<br /><i>Default value</i>: <code>60</code></dd>
+ *  <dt><code>thesaurus.sparql.maxLimit</code></dt>
+ *  <dd>the maximum number of results of SPARQL queries: a LIMIT clause
+ *   is added to queries without one and lowered if above; 0 for no
+ *   limit<br /><i>Default value</i>: <code>10000</code></dd>
+ *  <dt><code>thesaurus.sparql.maxOffset</code></dt>
+ *  <dd>the maximum OFFSET of SPARQL queries, deeper queries being
+ *   rejected; 0 for no limit<br />
+ *   <i>Default value</i>: <code>100000</code></dd>
+ *  <dt><code>thesaurus.sparql.maxConcurrent</code></dt>
+ *  <dd>the maximum number of concurrent SPARQL queries forwarded to
+ *   the RDF triple store for ordinary clients, further queries waiting
+ *   at most <code>thesaurus.sparql.queueTimeout</code> milliseconds
+ *   (default: 10000) in a queue of <code>thesaurus.sparql.queue</code>
+ *   queries (default: 16) before being rejected (503)<br />
+ *   <i>Default value</i>: <code>8</code></dd>
+ *  <dt><code>thesaurus.sparql.rate</code></dt>
+ *  <dd>the number of SPARQL queries per minute allowed for each
+ *   client, after a burst of <code>thesaurus.sparql.burst</code>
+ *   queries (default: 20), further queries being rejected (429); 0 for
+ *   no limit. Clients are identified by their address or, behind a
+ *   reverse proxy, by the HTTP header set in
+ *   <code>thesaurus.sparql.clientHeader</code><br />
+ *   <i>Default value</i>: <code>60</code></dd>
+ *  <dt><code>thesaurus.sparql.trustedProxies</code></dt>
+ *  <dd>the comma-separated addresses of the trusted reverse proxies.
+ *   The <code>thesaurus.sparql.clientHeader</code> header is only
+ *   honored on connections from these proxies, and only the addresses
+ *   they appended to it are trusted<br />
+ *   <i>Default value</i>: none</dd>
+ *  <dt><code>thesaurus.sparql.priority.clients</code></dt>
+ *  <dd>the comma-separated addresses of priority clients, exempt from
+ *   rate limiting and granted <code>thesaurus.sparql.priority.slots</code>
+ *   reserved slots (default: 2)<br />
+ *   <i>Default value</i>: none</dd>
+ *  <dt><code>thesaurus.sparql.cache.entries</code></dt>
+ *  <dd>the maximum number of SPARQL query results cached until the
+ *   next import or deletion, 0 to disable the cache<br />
+ *   <i>Default value</i>: <code>200</code></dd>
+ *  <dt><code>thesaurus.sparql.cache.directory</code></dt>
+ *  <dd>the directory where cached SPARQL query results larger than
+ *   <code>thesaurus.sparql.cache.memoryThreshold</code> characters
+ *   (default: 32768) are stored. Results larger than
+ *   <code>thesaurus.sparql.cache.maxEntrySize</code> (default: 8M) are
+ *   not cached and the total cache size is limited to
+ *   <code>thesaurus.sparql.cache.maxSize</code> (default: 256M)<br />
+ *   <i>Default value</i>:
+ *   <code>${java.io.tmpdir}/thesaurus-sparql-cache</code></dd>
+ *  <dt><code>thesaurus.sparql.jobs.threads</code></dt>
+ *  <dd>the number of threads running asynchronous SPARQL queries, 0 to
+ *   disable them. At most <code>thesaurus.sparql.jobs.queue</code>
+ *   queries (default: 16) may be pending and completed jobs are kept
+ *   for <code>thesaurus.sparql.jobs.retention</code> minutes
+ *   (default: 60)<br /><i>Default value</i>: <code>2</code></dd>
+ *  <dt><code>thesaurus.sparql.jobs.maxPerClient</code></dt>
+ *  <dd>the maximum number of pending or running asynchronous SPARQL
+ *   queries of a client, 0 for no limit. Submissions also consume a
+ *   token of the client rate limit (see
+ *   <code>thesaurus.sparql.rate</code>)<br />
+ *   <i>Default value</i>: <code>2</code></dd>
+ *  <dt><code>thesaurus.sparql.jobs.timeout</code></dt>
+ *  <dd>the maximum evaluation time (in seconds) of asynchronous SPARQL
+ *   queries<br /><i>Default value</i>: <code>600</code></dd>
+ *  <dt><code>thesaurus.sparql.jobs.maxLimit</code></dt>
+ *  <dd>the maximum number of results of asynchronous SPARQL queries,
+ *   0 for no limit. Unlike interactive ones, these queries may read
+ *   the whole repository and have no OFFSET limit<br />
+ *   <i>Default value</i>: <code>1000000</code></dd>
+ *  <dt><code>thesaurus.sparql.jobs.directory</code></dt>
+ *  <dd>the directory where the results of asynchronous SPARQL queries
+ *   are written<br /><i>Default value</i>:
+ *   <code>${java.io.tmpdir}/thesaurus-sparql-jobs</code></dd>
+ *  <dt><code>thesaurus.service.import.batchSize</code></dt>
+ *  <dd>the number of triples committed per transaction when importing
+ *   a thesaurus through a staging graph, 0 to import each file in a
+ *   single transaction<br /><i>Default value</i>: <code>10000</code></dd>
+ *  <dt><code>thesaurus.service.import.delta</code></dt>
+ *  <dd>whether updates of an existing thesaurus only apply the added
+ *   and removed triples, falling back to a batched reload when they
+ *   exceed one import batch<br /><i>Default value</i>: <code>true</code></dd>
+ *  <dt><code>thesaurus.service.import.versioned</code></dt>
+ *  <dd>whether each import is written into a new version of the named
+ *   graph (<code>&lt;graph&gt;#v&lt;n&gt;</code>), readers being switched
+ *   over once it is complete and the previous version being deleted in
+ *   the background. Takes precedence over differential updates.
+ *   The triples are then stored in the version contexts only: queries
+ *   on the public SPARQL endpoint naming a thesaurus graph (in
+ *   <code>FROM</code>, <code>GRAPH</code> or the protocol dataset
+ *   parameters) match nothing and shall be written without dataset,
+ *   or against the published version<br />
+ *   <i>Default value</i>: <code>false</code></dd>
  * </dl>
  */
 public class ThesaurusApplication extends Application
@@ -85,6 +240,31 @@ public class ThesaurusApplication extends Application
      * within the RDF triple store. */
     public final static String REPOSITORY_ID_PROPERTY =
                                                 "thesaurus.rdf.repository.id";
+    /**
+     * Configuration property for the access mode of the RDF triple
+     * store: <code>http</code> or <code>embedded</code>. */
+    public final static String REPOSITORY_MODE_PROPERTY =
+                                                "thesaurus.rdf.repository.mode";
+    /**
+     * Configuration property for the directory of the embedded native
+     * store. */
+    public final static String REPOSITORY_DIRECTORY_PROPERTY =
+                                                "thesaurus.rdf.repository.directory";
+    /**
+     * Configuration property for the triple indexes of the embedded
+     * native store. */
+    public final static String REPOSITORY_INDEXES_PROPERTY =
+                                                "thesaurus.rdf.repository.indexes";
+    /**
+     * Configuration property to read the RDF triple store from an
+     * in-memory replica. */
+    public final static String REPOSITORY_REPLICA_PROPERTY =
+                                                "thesaurus.rdf.repository.replica";
+    /**
+     * Configuration property for the persistence directory of the
+     * in-memory replica. */
+    public final static String REPOSITORY_REPLICA_DIRECTORY_PROPERTY =
+                                                "thesaurus.rdf.repository.replica.directory";
     
     /**
 	 * Configuration property for the number of characters for each concept
@@ -100,18 +280,496 @@ public class ThesaurusApplication extends Application
 	public final static String CONTEXT_LENGTH_PROPERTY =
 												"thesaurus.service.matchingLabel.contextLength";
 
+	/**
+	 * Configuration property for the directory of materialized full
+	 * dumps.
+	 */
+	public final static String EXPORT_DIRECTORY_PROPERTY =
+												"thesaurus.service.export.directory";
+
+	/**
+	 * Configuration property for the number of threads of asynchronous
+	 * full dumps.
+	 */
+	public final static String EXPORT_JOBS_THREADS_PROPERTY =
+												"thesaurus.service.export.jobs.threads";
+
+	/**
+	 * Configuration property for the maximum number of pending
+	 * asynchronous full dumps.
+	 */
+	public final static String EXPORT_JOBS_QUEUE_PROPERTY =
+												"thesaurus.service.export.jobs.queue";
+
+	/**
+	 * Configuration property for the retention delay (in minutes) of
+	 * completed asynchronous export jobs.
+	 */
+	public final static String EXPORT_JOBS_RETENTION_PROPERTY =
+												"thesaurus.service.export.jobs.retention";
+
+	/**
+	 * Configuration property for the number of triples committed per
+	 * transaction when importing a thesaurus.
+	 */
+	public final static String IMPORT_BATCH_SIZE_PROPERTY =
+												"thesaurus.service.import.batchSize";
+
+	/**
+	 * Configuration property for differential updates of existing
+	 * thesauri.
+	 */
+	public final static String IMPORT_DELTA_PROPERTY =
+												"thesaurus.service.import.delta";
+
+	/**
+	 * Configuration property for versioned (blue/green) imports.
+	 */
+	public final static String IMPORT_VERSIONED_PROPERTY =
+												"thesaurus.service.import.versioned";
+
+	/**
+	 * Configuration property for the number of repository writer threads
+	 * fed by the import parser thread.
+	 */
+	public final static String IMPORT_WRITERS_PROPERTY =
+												"thesaurus.service.import.writers";
+
+	/**
+	 * Configuration property for the number of bytes read at the beginning
+	 * of an imported file to detect its named graph.
+	 */
+	public final static String IMPORT_SNIFF_BUDGET_PROPERTY =
+												"thesaurus.service.import.sniffBudget";
+
+	/**
+	 * Configuration property for skipping the import of files identical
+	 * to the last file loaded into the same named graph.
+	 */
+	public final static String IMPORT_SKIP_UNCHANGED_PROPERTY =
+												"thesaurus.service.import.skipUnchanged";
+
+	/**
+	 * Configuration property for the number of imports whose progress
+	 * and metrics are kept.
+	 */
+	public final static String IMPORT_HISTORY_PROPERTY =
+												"thesaurus.service.import.history";
+
+	/**
+	 * Configuration property for the number of threads of asynchronous
+	 * imports, shared by admin uploads and the vocabulary autoload.
+	 */
+	public final static String IMPORT_JOBS_THREADS_PROPERTY =
+												"thesaurus.service.import.jobs.threads";
+
+	/**
+	 * Configuration property for the maximum number of pending
+	 * asynchronous imports.
+	 */
+	public final static String IMPORT_JOBS_QUEUE_PROPERTY =
+												"thesaurus.service.import.jobs.queue";
+
+	/**
+	 * Configuration property for the retention delay (in minutes) of
+	 * completed asynchronous import jobs.
+	 */
+	public final static String IMPORT_JOBS_RETENTION_PROPERTY =
+												"thesaurus.service.import.jobs.retention";
+
+	/**
+	 * Configuration property for the maximum number of pooled HTTP
+	 * connections from the SPARQL endpoint to the RDF triple store.
+	 */
+	public final static String SPARQL_CONNECTIONS_PROPERTY =
+												"thesaurus.sparql.connections";
+
+	/**
+	 * Configuration property for the timeout (in milliseconds) of
+	 * SPARQL endpoint connections to the RDF triple store.
+	 */
+	public final static String SPARQL_CONNECT_TIMEOUT_PROPERTY =
+												"thesaurus.sparql.connectTimeout";
+
+	/**
+	 * Configuration property for the read timeout (in milliseconds) of
+	 * SPARQL queries forwarded to the RDF triple store.
+	 */
+	public final static String SPARQL_READ_TIMEOUT_PROPERTY =
+												"thesaurus.sparql.readTimeout";
+
+	/**
+	 * Configuration property for the delay (in milliseconds) after which
+	 * idle SPARQL endpoint connections are closed.
+	 */
+	public final static String SPARQL_IDLE_TIMEOUT_PROPERTY =
+												"thesaurus.sparql.idleTimeout";
+
+	/**
+	 * Configuration property for the maximum number of results of SPARQL
+	 * queries, 0 for no limit.
+	 */
+	public final static String SPARQL_MAX_LIMIT_PROPERTY =
+												"thesaurus.sparql.maxLimit";
+
+	/**
+	 * Configuration property for the maximum offset of SPARQL query
+	 * results, 0 for no limit.
+	 */
+	public final static String SPARQL_MAX_OFFSET_PROPERTY =
+												"thesaurus.sparql.maxOffset";
+
+	/**
+	 * Configuration property for the maximum number of concurrent SPARQL
+	 * queries forwarded to the RDF triple store for ordinary clients.
+	 */
+	public final static String SPARQL_MAX_CONCURRENT_PROPERTY =
+												"thesaurus.sparql.maxConcurrent";
+
+	/**
+	 * Configuration property for the maximum number of SPARQL queries
+	 * waiting for a concurrency slot.
+	 */
+	public final static String SPARQL_QUEUE_PROPERTY =
+												"thesaurus.sparql.queue";
+
+	/**
+	 * Configuration property for the maximum delay (in milliseconds)
+	 * SPARQL queries wait for a concurrency slot.
+	 */
+	public final static String SPARQL_QUEUE_TIMEOUT_PROPERTY =
+												"thesaurus.sparql.queueTimeout";
+
+	/**
+	 * Configuration property for the number of SPARQL queries per minute
+	 * allowed for each ordinary client, 0 for no limit.
+	 */
+	public final static String SPARQL_RATE_PROPERTY =
+												"thesaurus.sparql.rate";
+
+	/**
+	 * Configuration property for the number of SPARQL queries a client
+	 * may send in a row.
+	 */
+	public final static String SPARQL_BURST_PROPERTY =
+												"thesaurus.sparql.burst";
+
+	/**
+	 * Configuration property for the HTTP header identifying SPARQL
+	 * clients behind a reverse proxy, empty to use the connection
+	 * address.
+	 */
+	public final static String SPARQL_CLIENT_HEADER_PROPERTY =
+												"thesaurus.sparql.clientHeader";
+
+	/**
+	 * Configuration property for the comma-separated addresses of the
+	 * reverse proxies allowed to set the SPARQL client header.
+	 */
+	public final static String SPARQL_TRUSTED_PROXIES_PROPERTY =
+												"thesaurus.sparql.trustedProxies";
+
+	/**
+	 * Configuration property for the comma-separated addresses of the
+	 * priority SPARQL clients, exempt from rate limiting.
+	 */
+	public final static String SPARQL_PRIORITY_CLIENTS_PROPERTY =
+												"thesaurus.sparql.priority.clients";
+
+	/**
+	 * Configuration property for the number of concurrency slots
+	 * reserved for priority SPARQL clients.
+	 */
+	public final static String SPARQL_PRIORITY_SLOTS_PROPERTY =
+												"thesaurus.sparql.priority.slots";
+
+	/**
+	 * Configuration property for the maximum number of cached SPARQL
+	 * query results, 0 to disable the cache.
+	 */
+	public final static String SPARQL_CACHE_ENTRIES_PROPERTY =
+												"thesaurus.sparql.cache.entries";
+
+	/**
+	 * Configuration property for the size (in characters) above which
+	 * cached SPARQL query results are stored on disk.
+	 */
+	public final static String SPARQL_CACHE_MEMORY_THRESHOLD_PROPERTY =
+												"thesaurus.sparql.cache.memoryThreshold";
+
+	/**
+	 * Configuration property for the maximum size (in characters) of a
+	 * cached SPARQL query result.
+	 */
+	public final static String SPARQL_CACHE_MAX_ENTRY_SIZE_PROPERTY =
+												"thesaurus.sparql.cache.maxEntrySize";
+
+	/**
+	 * Configuration property for the maximum total size (in characters)
+	 * of cached SPARQL query results.
+	 */
+	public final static String SPARQL_CACHE_MAX_SIZE_PROPERTY =
+												"thesaurus.sparql.cache.maxSize";
+
+	/**
+	 * Configuration property for the directory where large cached
+	 * SPARQL query results are stored.
+	 */
+	public final static String SPARQL_CACHE_DIRECTORY_PROPERTY =
+												"thesaurus.sparql.cache.directory";
+
+	/**
+	 * Configuration property for the number of threads running
+	 * asynchronous SPARQL queries.
+	 */
+	public final static String SPARQL_JOBS_THREADS_PROPERTY =
+												"thesaurus.sparql.jobs.threads";
+
+	/**
+	 * Configuration property for the maximum number of pending
+	 * asynchronous SPARQL queries.
+	 */
+	public final static String SPARQL_JOBS_QUEUE_PROPERTY =
+												"thesaurus.sparql.jobs.queue";
+
+	/**
+	 * Configuration property for the maximum number of pending or running
+	 * asynchronous SPARQL queries of a client.
+	 */
+	public final static String SPARQL_JOBS_MAX_PER_CLIENT_PROPERTY =
+												"thesaurus.sparql.jobs.maxPerClient";
+
+	/**
+	 * Configuration property for the delay (in minutes) completed
+	 * asynchronous SPARQL queries and their results are kept.
+	 */
+	public final static String SPARQL_JOBS_RETENTION_PROPERTY =
+												"thesaurus.sparql.jobs.retention";
+
+	/**
+	 * Configuration property for the maximum evaluation time (in seconds)
+	 * of asynchronous SPARQL queries.
+	 */
+	public final static String SPARQL_JOBS_TIMEOUT_PROPERTY =
+												"thesaurus.sparql.jobs.timeout";
+
+	/**
+	 * Configuration property for the maximum number of results of
+	 * asynchronous SPARQL queries.
+	 */
+	public final static String SPARQL_JOBS_MAX_LIMIT_PROPERTY =
+												"thesaurus.sparql.jobs.maxLimit";
+
+	/**
+	 * Configuration property for the directory where the results of
+	 * asynchronous SPARQL queries are written.
+	 */
+	public final static String SPARQL_JOBS_DIRECTORY_PROPERTY =
+												"thesaurus.sparql.jobs.directory";
+
+	/**
+	 * Configuration property for the daily time windows during which
+	 * imports are run.
+	 */
+	public final static String IMPORT_WINDOWS_PROPERTY =
+												"thesaurus.service.import.windows";
+
+	/**
+	 * Configuration property for the maximum number of entries kept in
+	 * the thesaurus service cache.
+	 */
+	public final static String CACHE_ENTRIES_PROPERTY =
+												"thesaurus.service.cache.entries";
+
+	/**
+	 * Configuration property for the number of concepts read again
+	 * after each import to warm up the cache.
+	 */
+	public final static String CACHE_WARMUP_PROPERTY =
+												"thesaurus.service.cache.warmup";
+
     /** The default URL of the RDF triple store. */
     public final static String DEFAULT_REPOSITORY_URI =
                                         "http://localhost:8080/openrdf-sesame";
     /** The default name of the thesaurus repository. */
     public final static String DEFAULT_REPOSITORY_ID = "thesaurus";
 
+    /** The access mode of the RDF triple store over HTTP. */
+    private final static String REPOSITORY_MODE_HTTP = "http";
+    /** The access mode of an in-process RDF triple store. */
+    private final static String REPOSITORY_MODE_EMBEDDED = "embedded";
+    /** The default embedded repositories directory, in the user home. */
+    private final static String DEFAULT_REPOSITORY_DIRECTORY =
+                                                ".thesaurus/repositories";
+    /** The default triple indexes of the embedded native store; the
+        context index speeds up per-graph imports and deletions. */
+    private final static String DEFAULT_REPOSITORY_INDEXES = "spoc,posc,cspo";
+    /** The default in-memory replicas directory, in the user home. */
+    private final static String DEFAULT_REPLICA_DIRECTORY =
+                                                ".thesaurus/replicas";
+
     /** The default number of characters for each concept search results. */
     private static final String DEFAULT_FIRST_OCCURRENCE_WIDTH = "50";
 
 	/** The default number of characters for each concept occurrence context. */
 	private static final String DEFAULT_CONTEXT_LENGTH = "10";
+
+	/** The default directory of materialized full dumps. */
+	private static final String DEFAULT_EXPORT_DIRECTORY = "thesaurus-exports";
+
+	/** The default number of threads of asynchronous full dumps. */
+	private static final String DEFAULT_EXPORT_JOBS_THREADS = "2";
+
+	/** The default maximum number of pending asynchronous full dumps. */
+	private static final String DEFAULT_EXPORT_JOBS_QUEUE = "16";
+
+	/** The default retention delay (in minutes) of export jobs. */
+	private static final String DEFAULT_EXPORT_JOBS_RETENTION = "60";
+
+	/** The default number of triples committed per import transaction. */
+	private static final String DEFAULT_IMPORT_BATCH_SIZE = "10000";
+
+	/** The default differential update activation. */
+	private static final String DEFAULT_IMPORT_DELTA = "true";
+
+	/** The default versioned (blue/green) import activation. */
+	private static final String DEFAULT_IMPORT_VERSIONED = "false";
+
+	/** The default number of import writer threads. */
+	private static final String DEFAULT_IMPORT_WRITERS = "2";
+
+	/** The default named graph detection read budget (8 MB). */
+	private static final String DEFAULT_IMPORT_SNIFF_BUDGET = "8388608";
+
+	/** The default unchanged file import skipping activation. */
+	private static final String DEFAULT_IMPORT_SKIP_UNCHANGED = "true";
 	
+	/** The default number of imports whose metrics are kept. */
+	private static final String DEFAULT_IMPORT_HISTORY = "50";
+
+	/** The default number of threads of import jobs. */
+	private static final String DEFAULT_IMPORT_JOBS_THREADS = "2";
+
+	/** The default maximum number of pending import jobs. */
+	private static final String DEFAULT_IMPORT_JOBS_QUEUE = "16";
+
+	/** The default retention delay (in minutes) of import jobs. */
+	private static final String DEFAULT_IMPORT_JOBS_RETENTION = "60";
+
+	/** The default maximum number of SPARQL endpoint connections. */
+	private static final String DEFAULT_SPARQL_CONNECTIONS = "20";
+
+	/** The default SPARQL endpoint connection timeout: 2 seconds. */
+	private static final String DEFAULT_SPARQL_CONNECT_TIMEOUT = "2000";
+
+	/** The default SPARQL query read timeout: 30 seconds. */
+	private static final String DEFAULT_SPARQL_READ_TIMEOUT = "30000";
+
+	/** The default SPARQL endpoint connection idle timeout: 15 seconds. */
+	private static final String DEFAULT_SPARQL_IDLE_TIMEOUT = "15000";
+
+	/** The default maximum number of results of SPARQL queries. */
+	private static final String DEFAULT_SPARQL_MAX_LIMIT = "10000";
+
+	/** The default maximum offset of SPARQL query results. */
+	private static final String DEFAULT_SPARQL_MAX_OFFSET = "100000";
+
+	/** The default maximum number of concurrent SPARQL queries. */
+	private static final String DEFAULT_SPARQL_MAX_CONCURRENT = "8";
+
+	/** The default maximum number of waiting SPARQL queries. */
+	private static final String DEFAULT_SPARQL_QUEUE = "16";
+
+	/** The default SPARQL query wait timeout: 10 seconds. */
+	private static final String DEFAULT_SPARQL_QUEUE_TIMEOUT = "10000";
+
+	/** The default number of SPARQL queries per minute and client. */
+	private static final String DEFAULT_SPARQL_RATE = "60";
+
+	/** The default number of SPARQL queries a client may send in a row. */
+	private static final String DEFAULT_SPARQL_BURST = "20";
+
+	/** The default priority SPARQL clients: none. */
+	private static final String DEFAULT_SPARQL_PRIORITY_CLIENTS = "";
+
+	/** The default number of slots reserved for priority SPARQL clients. */
+	private static final String DEFAULT_SPARQL_PRIORITY_SLOTS = "2";
+
+	/** The JMX name of the SPARQL admission control metrics. */
+	private static final String SPARQL_ADMISSION_MBEAN_NAME =
+						"fr.gouv.culture.thesaurus:type=SparqlAdmission";
+
+	/** The default maximum number of cached SPARQL query results. */
+	private static final String DEFAULT_SPARQL_CACHE_ENTRIES = "200";
+
+	/** The default size above which cached results go to disk: 32K. */
+	private static final String DEFAULT_SPARQL_CACHE_MEMORY_THRESHOLD = "32768";
+
+	/** The default maximum size of a cached result: 8M characters. */
+	private static final String DEFAULT_SPARQL_CACHE_MAX_ENTRY_SIZE = "8388608";
+
+	/** The default maximum size of cached results: 256M characters. */
+	private static final String DEFAULT_SPARQL_CACHE_MAX_SIZE = "268435456";
+
+	/** The default SPARQL cache directory name, in the temporary directory. */
+	private static final String DEFAULT_SPARQL_CACHE_DIRECTORY = "thesaurus-sparql-cache";
+
+	/** The JMX name of the SPARQL query result cache metrics. */
+	private static final String SPARQL_CACHE_MBEAN_NAME =
+						"fr.gouv.culture.thesaurus:type=SparqlResultCache";
+
+	/** The default number of asynchronous SPARQL query threads. */
+	private static final String DEFAULT_SPARQL_JOBS_THREADS = "2";
+
+	/** The default maximum number of pending asynchronous SPARQL queries. */
+	private static final String DEFAULT_SPARQL_JOBS_QUEUE = "16";
+
+	/** The default retention delay (in minutes) of SPARQL query jobs. */
+	private static final String DEFAULT_SPARQL_JOBS_RETENTION = "60";
+
+	/** The default maximum number of unfinished asynchronous queries of a
+	    client. */
+	private static final String DEFAULT_SPARQL_JOBS_MAX_PER_CLIENT = "2";
+
+	/** The default evaluation time of asynchronous queries: 10 minutes. */
+	private static final String DEFAULT_SPARQL_JOBS_TIMEOUT = "600";
+
+	/** The default maximum number of results of asynchronous queries. */
+	private static final String DEFAULT_SPARQL_JOBS_MAX_LIMIT = "1000000";
+
+	/** The default SPARQL jobs directory name, in the temporary directory. */
+	private static final String DEFAULT_SPARQL_JOBS_DIRECTORY = "thesaurus-sparql-jobs";
+
+	/** The JMX name of the asynchronous SPARQL query connection pool
+	    metrics. */
+	private static final String SPARQL_JOBS_CLIENT_MBEAN_NAME =
+						"fr.gouv.culture.thesaurus:type=SparqlJobClientPool";
+
+	/** The JMX name of the SPARQL endpoint connection pool metrics. */
+	private static final String SPARQL_CLIENT_MBEAN_NAME =
+						"fr.gouv.culture.thesaurus:type=SparqlClientPool";
+
+	/** The default import windows: business hours. */
+	private static final String DEFAULT_IMPORT_WINDOWS = "09:00-18:00";
+
+	/** The time zone of import windows. */
+	private static final TimeZone IMPORT_WINDOWS_TIMEZONE =
+										TimeZone.getTimeZone("Europe/Paris");
+
+	/** The default maximum number of cached entries. */
+	private static final String DEFAULT_CACHE_ENTRIES = "5000";
+
+	/** The default number of concepts warmed up after each import. */
+	private static final String DEFAULT_CACHE_WARMUP = "100";
+
+	/** The JMX name of the import metrics. */
+	private static final String IMPORT_STATISTICS_MBEAN_NAME =
+						"fr.gouv.culture.thesaurus:type=ImportStatistics";
+
+	/** The JMX name of the in-memory replica metrics. */
+	private static final String REPOSITORY_REPLICA_MBEAN_NAME =
+						"fr.gouv.culture.thesaurus:type=RepositoryReplica";
+
 	/** JNDI name of email session. */
 	private static final String EMAIL_SESSION_JNDI_NAME = "java:/comp/env/mail/thesaurus";
 	/** Configuration property for email from. */
@@ -150,7 +808,7 @@ public class ThesaurusApplication extends Application
     // Application superclass interface support
     //-------------------------------------------------------------------------
     
-    private static ThesaurusService thesaurusService = null;
+    private static volatile ThesaurusService thesaurusService = null;
     
     /**
 	 * @return the thesauru service
@@ -159,6 +817,49 @@ public class ThesaurusApplication extends Application
 		return thesaurusService;
 	}
 
+    private static ExportArtefactStore exportArtefactStore = null;
+
+    /** The in-process repository, <code>null</code> if the RDF triple
+        store is accessed over HTTP. */
+    private static volatile Repository embeddedRepository = null;
+
+    /** The in-memory replica of the RDF triple store, <code>null</code>
+        if disabled. */
+    private static volatile RepositoryReplica repositoryReplica = null;
+
+    /** The HTTP connection pools to the SPARQL endpoint, closed on
+        undeployment. */
+    private static final List<HttpClientPool> httpClients =
+                                new CopyOnWriteArrayList<HttpClientPool>();
+
+    /**
+	 * @return the store of materialized full dumps
+	 */
+	public static ExportArtefactStore getExportArtefactStore() {
+		return exportArtefactStore;
+	}
+
+    private static ImportJobManager importJobManager = null;
+
+    /** The asynchronous export job manager, <code>null</code> if full
+        dumps are not materialized. */
+    private static volatile ExportJobManager exportJobManager = null;
+
+    /** The asynchronous SPARQL query job manager, <code>null</code> if
+        disabled. */
+    private static volatile SparqlJobManager sparqlJobManager = null;
+
+    /** The cache warmer, <code>null</code> if disabled. */
+    private static volatile CacheWarmer cacheWarmer = null;
+
+    /**
+	 * @return the asynchronous import job manager, shared by admin
+	 *         uploads and the vocabulary autoload
+	 */
+	public static ImportJobManager getImportJobManager() {
+		return importJobManager;
+	}
+
 	/** {@inheritDoc} */
     @Override
     public Set<Object> getSingletons() {
@@ -173,25 +874,75 @@ public class ThesaurusApplication extends Application
             String baseUri = this.getBaseUri();
             String repositoryUrl = this.getRepositoryUrl();
             String repositoryId  = this.getRepositoryId();
-            log.info("Loaded configuration for repository \""
-                                    + repositoryId + "\" at " + repositoryUrl);
+            boolean embedded = this.isEmbeddedRepository();
             // Build Thesaurus service.
-            thesaurusService = this.getThesaurusService(
-                                                repositoryUrl, repositoryId);
-            // Construct Sesame repository SPARLQ endpoint URL
+            Repository repository = null;
+            if (embedded) {
+                repository = this.getEmbeddedRepository(repositoryId);
+            }
+            else {
+                log.info("Loaded configuration for repository \""
+                                    + repositoryId + "\" at " + repositoryUrl);
+                repository = new HTTPRepository(repositoryUrl, repositoryId);
+            }
+            ThesaurusService thesaurus = this.getThesaurusService(repository,
+                    (embedded)? null: this.getRepositoryReplica(repository,
+                                                                repositoryId));
+            // Build import job pool before publishing the service, which
+            // the vocabulary autoload waits for.
+            importJobManager = this.getImportJobManager(thesaurus);
+            thesaurusService = thesaurus;
+            this.registerMBean(new ImportStatistics(thesaurus),
+                               IMPORT_STATISTICS_MBEAN_NAME);
+            // Construct Sesame repository SPARLQ endpoint URL or, for an
+            // embedded repository, the in-process query evaluator.
             URL sesameSparqlEndpoint = null;
-            try {
-                sesameSparqlEndpoint = new URL(
-                            repositoryUrl + "/repositories/" + repositoryId);
+            RepositoryQueryEvaluator evaluator = null;
+            if (embedded) {
+                evaluator = new RepositoryQueryEvaluator(repository,
+                                            this.getSparqlQueryTimeout());
             }
-            catch (Exception e) {
-                throw new IllegalArgumentException(repositoryUrl, e);
+            else {
+                try {
+                    sesameSparqlEndpoint = new URL(
+                            repositoryUrl + "/repositories/" + repositoryId);
+                }
+                catch (Exception e) {
+                    throw new IllegalArgumentException(repositoryUrl, e);
+                }
             }
+            // Build store of materialized full dumps.
+            exportArtefactStore = this.getExportArtefactStore(
+                                                        thesaurusService);
+            // Warm up caches after each import.
+            CacheWarmer warmer = this.getCacheWarmer(thesaurusService,
+                                                     exportArtefactStore);
+            cacheWarmer = warmer;
+            // Keep the job pools, stopped on undeployment.
+            exportJobManager = (exportArtefactStore != null)?
+                    this.getExportJobManager(exportArtefactStore): null;
+            sparqlJobManager = this.getSparqlJobManager(embedded);
             // Build list of REST resources and Jersey providers
             beans = new HashSet<Object>();
-            beans.add(new Entries(baseUri, thesaurusService));
-            beans.add(new Admin(baseUri, thesaurusService));            
-            beans.add(new SparqlEndpoint(baseUri, sesameSparqlEndpoint));
+            beans.add(new Entries(baseUri, thesaurusService,
+                                  exportArtefactStore, warmer));
+            if (exportArtefactStore != null) {
+                beans.add(new Exports(baseUri, thesaurusService,
+                                      exportJobManager));
+            }
+            beans.add(new Admin(baseUri, thesaurusService,
+                                importJobManager));            
+            beans.add(new SparqlEndpoint(baseUri, thesaurusService,
+                                         sesameSparqlEndpoint,
+                                         (embedded)? null:
+                                                this.getSparqlClient(),
+                                         evaluator,
+                                         this.getSparqlResultCache(),
+                                         this.getSparqlAdmission(),
+                                         this.getSparqlQueryGuard(),
+                                         sparqlJobManager,
+                                         this.getSparqlJobGuard(),
+                                         this.getSparqlJobTimeout()));
             beans.add(new SearchService(baseUri, thesaurusService));
             beans.add(new StaticEntries());
             beans.add(new VelocityTemplateProcessor(ctx));
@@ -238,10 +989,143 @@ public class ThesaurusApplication extends Application
     // Specific implementation
     //-------------------------------------------------------------------------
 
-    private ThesaurusService getThesaurusService(String repositoryUrl,
-                                                 String repositoryId) {
+    private ThesaurusService getThesaurusService(Repository repository,
+                                                 RepositoryReplica replica) {
 		return new SesameThesaurus(loadThesaurusServiceConfiguration(),
-				new HTTPRepository(repositoryUrl, repositoryId));
+				repository, replica);
+    }
+
+    private boolean isEmbeddedRepository() {
+        String mode = this.getParameter(REPOSITORY_MODE_PROPERTY,
+                                        REPOSITORY_MODE_HTTP);
+        if (REPOSITORY_MODE_EMBEDDED.equalsIgnoreCase(mode)) {
+            return true;
+        }
+        if (! REPOSITORY_MODE_HTTP.equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException(
+                                    REPOSITORY_MODE_PROPERTY + ": " + mode);
+        }
+        return false;
+    }
+
+    /**
+     * Opens the in-process native store holding the thesaurus data.
+     */
+    private Repository getEmbeddedRepository(String repositoryId) {
+        String path = getParameter(REPOSITORY_DIRECTORY_PROPERTY, null);
+        File dir = (path != null)? new File(path):
+                        new File(new File(System.getProperty("user.home"),
+                                          DEFAULT_REPOSITORY_DIRECTORY),
+                                 repositoryId);
+        String indexes = getParameter(REPOSITORY_INDEXES_PROPERTY,
+                                      DEFAULT_REPOSITORY_INDEXES);
+        SailRepository repository = new SailRepository(
+                                            new NativeStore(dir, indexes));
+        try {
+            repository.initialize();
+        }
+        catch (RepositoryException e) {
+            throw new IllegalStateException(
+                    "Failed to open native store " + dir.getAbsolutePath(), e);
+        }
+        log.info("Opened embedded repository \"" + repositoryId + "\" in "
+                 + dir.getAbsolutePath() + " (indexes: " + indexes + ')');
+        // Close store on undeployment, releasing its directory lock.
+        embeddedRepository = repository;
+        return repository;
+    }
+
+    /**
+     * Opens the in-memory replica of the RDF triple store, if enabled.
+     * The replica data are synchronized by the thesaurus service.
+     */
+    private RepositoryReplica getRepositoryReplica(Repository repository,
+                                                   String repositoryId) {
+        if (! Boolean.parseBoolean(
+                        getParameter(REPOSITORY_REPLICA_PROPERTY, "false"))) {
+            return null;
+        }
+        String path = getParameter(REPOSITORY_REPLICA_DIRECTORY_PROPERTY,
+                                   null);
+        File dir = (path != null)? new File(path):
+                        new File(new File(System.getProperty("user.home"),
+                                          DEFAULT_REPLICA_DIRECTORY),
+                                 repositoryId);
+        MemoryStore store = new MemoryStore(dir);
+        store.setPersist(true);
+        SailRepository local = new SailRepository(store);
+        try {
+            local.initialize();
+        }
+        catch (RepositoryException e) {
+            throw new IllegalStateException(
+                    "Failed to open replica " + dir.getAbsolutePath(), e);
+        }
+        log.info("Opened in-memory replica of repository \""
+                 + repositoryId + "\" in " + dir.getAbsolutePath());
+        RepositoryReplica replica = new RepositoryReplica(repository, local);
+        // Persist replica on undeployment, releasing its directory lock.
+        repositoryReplica = replica;
+        this.registerMBean(replica, REPOSITORY_REPLICA_MBEAN_NAME);
+        return replica;
+    }
+
+    /**
+     * Stops the application, in dependency order: the import, export and
+     * SPARQL job pools and the cache warmer first, so that no task
+     * outlives the application, then the background tasks of the
+     * thesaurus service and the HTTP connection pools to the SPARQL
+     * endpoint and, last, the embedded repository and the in-memory
+     * replica, if any. Invoked by {@link RepositoryShutdownListener}
+     * when the application stops.
+     */
+    static void shutdown() {
+        // Stop the vocabulary autoload submissions first.
+        ImportJobManager imports = importJobManager;
+        importJobManager = null;
+        if (imports != null) {
+            imports.shutdown();
+        }
+        ExportJobManager exports = exportJobManager;
+        exportJobManager = null;
+        if (exports != null) {
+            exports.shutdown();
+        }
+        SparqlJobManager queries = sparqlJobManager;
+        sparqlJobManager = null;
+        if (queries != null) {
+            queries.shutdown();
+        }
+        CacheWarmer warmer = cacheWarmer;
+        cacheWarmer = null;
+        if (warmer != null) {
+            warmer.shutdown();
+        }
+        ThesaurusService thesaurus = thesaurusService;
+        thesaurusService = null;
+        if (thesaurus != null) {
+            thesaurus.shutdown();
+        }
+        for (HttpClientPool client : httpClients) {
+            client.shutdown();
+        }
+        httpClients.clear();
+        Repository repository = embeddedRepository;
+        embeddedRepository = null;
+        if (repository != null) {
+            try {
+                repository.shutDown();
+            }
+            catch (RepositoryException e) {
+                log.warn("Failed to shut down embedded repository: "
+                         + e.getMessage());
+            }
+        }
+        RepositoryReplica replica = repositoryReplica;
+        repositoryReplica = null;
+        if (replica != null) {
+            replica.shutdown();
+        }
     }
     
     private ThesaurusServiceConfiguration loadThesaurusServiceConfiguration() {
@@ -253,10 +1137,293 @@ public class ThesaurusApplication extends Application
 		configuration.setMatchingLabelContextLength(Integer
 				.valueOf(getParameter(CONTEXT_LENGTH_PROPERTY,
 						DEFAULT_CONTEXT_LENGTH)));
+		configuration.setImportBatchSize(Integer
+				.valueOf(getParameter(IMPORT_BATCH_SIZE_PROPERTY,
+						DEFAULT_IMPORT_BATCH_SIZE)));
+		configuration.setImportDelta(Boolean
+				.parseBoolean(getParameter(IMPORT_DELTA_PROPERTY,
+						DEFAULT_IMPORT_DELTA)));
+		configuration.setImportVersioned(Boolean
+				.parseBoolean(getParameter(IMPORT_VERSIONED_PROPERTY,
+						DEFAULT_IMPORT_VERSIONED)));
+		configuration.setImportWriters(Integer
+				.valueOf(getParameter(IMPORT_WRITERS_PROPERTY,
+						DEFAULT_IMPORT_WRITERS)));
+		configuration.setImportSniffBudget(Integer
+				.valueOf(getParameter(IMPORT_SNIFF_BUDGET_PROPERTY,
+						DEFAULT_IMPORT_SNIFF_BUDGET)));
+		configuration.setImportSkipUnchanged(Boolean
+				.parseBoolean(getParameter(IMPORT_SKIP_UNCHANGED_PROPERTY,
+						DEFAULT_IMPORT_SKIP_UNCHANGED)));
+		configuration.setImportHistorySize(Integer
+				.valueOf(getParameter(IMPORT_HISTORY_PROPERTY,
+						DEFAULT_IMPORT_HISTORY)));
+		configuration.setEntryCacheSize(Integer
+				.valueOf(getParameter(CACHE_ENTRIES_PROPERTY,
+						DEFAULT_CACHE_ENTRIES)));
 		
 		return configuration;
     }
 
+    private ExportArtefactStore getExportArtefactStore(
+                                            ThesaurusService thesaurus) {
+        String path = getParameter(EXPORT_DIRECTORY_PROPERTY, null);
+        File dir = (path != null)? new File(path):
+                        new File(System.getProperty("java.io.tmpdir"),
+                                 DEFAULT_EXPORT_DIRECTORY);
+        try {
+            return new ExportArtefactStore(thesaurus, dir);
+        }
+        catch (IOException e) {
+            // Fall back on direct streaming of full dumps.
+            log.warn("Failed to initialize export directory "
+                     + dir.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private ExportJobManager getExportJobManager(ExportArtefactStore store) {
+        int threads = Integer.parseInt(getParameter(
+                    EXPORT_JOBS_THREADS_PROPERTY, DEFAULT_EXPORT_JOBS_THREADS));
+        int queue = Integer.parseInt(getParameter(
+                    EXPORT_JOBS_QUEUE_PROPERTY, DEFAULT_EXPORT_JOBS_QUEUE));
+        long retention = Long.parseLong(getParameter(
+                    EXPORT_JOBS_RETENTION_PROPERTY,
+                    DEFAULT_EXPORT_JOBS_RETENTION)) * 60000L;
+        return new ExportJobManager(store, threads, queue, retention);
+    }
+
+    /**
+     * Exposes metrics through JMX, replacing those of a previously
+     * deployed instance of the application, if any.
+     */
+    private void registerMBean(Object mbean, String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        }
+        catch (Exception e) {
+            log.warn("Failed to register MBean " + objectName + ": "
+                     + e.getMessage());
+        }
+    }
+
+    private HttpClientPool getSparqlClient() {
+        int connections = Integer.parseInt(getParameter(
+                    SPARQL_CONNECTIONS_PROPERTY, DEFAULT_SPARQL_CONNECTIONS));
+        int connectTimeout = Integer.parseInt(getParameter(
+                    SPARQL_CONNECT_TIMEOUT_PROPERTY,
+                    DEFAULT_SPARQL_CONNECT_TIMEOUT));
+        int readTimeout = Integer.parseInt(getParameter(
+                    SPARQL_READ_TIMEOUT_PROPERTY, DEFAULT_SPARQL_READ_TIMEOUT));
+        long idleTimeout = Long.parseLong(getParameter(
+                    SPARQL_IDLE_TIMEOUT_PROPERTY, DEFAULT_SPARQL_IDLE_TIMEOUT));
+        HttpClientPool client = new HttpClientPool(connections,
+                                    connectTimeout, readTimeout, idleTimeout);
+        httpClients.add(client);
+        this.registerMBean(client, SPARQL_CLIENT_MBEAN_NAME);
+        return client;
+    }
+
+    private SparqlQueryGuard getSparqlQueryGuard() {
+        long maxLimit = Long.parseLong(getParameter(
+                    SPARQL_MAX_LIMIT_PROPERTY, DEFAULT_SPARQL_MAX_LIMIT));
+        long maxOffset = Long.parseLong(getParameter(
+                    SPARQL_MAX_OFFSET_PROPERTY, DEFAULT_SPARQL_MAX_OFFSET));
+        return new SparqlQueryGuard(maxLimit, maxOffset);
+    }
+
+    private int getSparqlQueryTimeout() {
+        // Same limit as the read timeout of forwarded queries.
+        int readTimeout = Integer.parseInt(getParameter(
+                    SPARQL_READ_TIMEOUT_PROPERTY, DEFAULT_SPARQL_READ_TIMEOUT));
+        return Math.max(1, readTimeout / 1000);
+    }
+
+    private SparqlQueryGuard getSparqlJobGuard() {
+        long maxLimit = Long.parseLong(getParameter(
+                    SPARQL_JOBS_MAX_LIMIT_PROPERTY,
+                    DEFAULT_SPARQL_JOBS_MAX_LIMIT));
+        // Long-running queries: no cost check nor OFFSET limit.
+        return new SparqlQueryGuard(maxLimit, 0L, false);
+    }
+
+    private int getSparqlJobTimeout() {
+        return Integer.parseInt(getParameter(
+                    SPARQL_JOBS_TIMEOUT_PROPERTY, DEFAULT_SPARQL_JOBS_TIMEOUT));
+    }
+
+    private SparqlJobManager getSparqlJobManager(boolean embedded) {
+        int threads = Integer.parseInt(getParameter(
+                    SPARQL_JOBS_THREADS_PROPERTY, DEFAULT_SPARQL_JOBS_THREADS));
+        if (threads <= 0) {
+            return null;
+        }
+        int queue = Integer.parseInt(getParameter(
+                    SPARQL_JOBS_QUEUE_PROPERTY, DEFAULT_SPARQL_JOBS_QUEUE));
+        long retention = Long.parseLong(getParameter(
+                    SPARQL_JOBS_RETENTION_PROPERTY,
+                    DEFAULT_SPARQL_JOBS_RETENTION)) * 60000L;
+        int maxPerClient = Integer.parseInt(getParameter(
+                    SPARQL_JOBS_MAX_PER_CLIENT_PROPERTY,
+                    DEFAULT_SPARQL_JOBS_MAX_PER_CLIENT));
+        int connectTimeout = Integer.parseInt(getParameter(
+                    SPARQL_CONNECT_TIMEOUT_PROPERTY,
+                    DEFAULT_SPARQL_CONNECT_TIMEOUT));
+        long idleTimeout = Long.parseLong(getParameter(
+                    SPARQL_IDLE_TIMEOUT_PROPERTY, DEFAULT_SPARQL_IDLE_TIMEOUT));
+        // Wait for results a bit longer than the RDF triple store, which
+        // aborts queries once their evaluation time is over.
+        int readTimeout = (this.getSparqlJobTimeout() + 60) * 1000;
+        String path = getParameter(SPARQL_JOBS_DIRECTORY_PROPERTY, null);
+        File dir = (path != null)? new File(path):
+                        new File(System.getProperty("java.io.tmpdir"),
+                                 DEFAULT_SPARQL_JOBS_DIRECTORY);
+        // Dedicated connections: long queries never hold up interactive
+        // ones. Embedded repositories are queried in-process.
+        HttpClientPool client = (embedded)? null:
+                        new HttpClientPool(threads, connectTimeout,
+                                           readTimeout, idleTimeout);
+        try {
+            SparqlJobManager jobs = new SparqlJobManager(dir, client,
+                                    threads, queue, retention, maxPerClient);
+            if (client != null) {
+                httpClients.add(client);
+                this.registerMBean(client, SPARQL_JOBS_CLIENT_MBEAN_NAME);
+            }
+            return jobs;
+        }
+        catch (IOException e) {
+            // Only serve interactive queries.
+            log.warn("Failed to initialize SPARQL jobs directory "
+                     + dir.getAbsolutePath() + ": " + e.getMessage());
+            if (client != null) {
+                client.shutdown();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Splits a comma-separated list of addresses.
+     */
+    private static List<String> getAddresses(String value) {
+        List<String> addresses = new ArrayList<String>();
+        for (String address : value.split(",")) {
+            if (address.trim().length() != 0) {
+                addresses.add(address.trim());
+            }
+        }
+        return addresses;
+    }
+
+    private AdmissionController getSparqlAdmission() {
+        int maxConcurrent = Integer.parseInt(getParameter(
+                    SPARQL_MAX_CONCURRENT_PROPERTY,
+                    DEFAULT_SPARQL_MAX_CONCURRENT));
+        int queue = Integer.parseInt(getParameter(
+                    SPARQL_QUEUE_PROPERTY, DEFAULT_SPARQL_QUEUE));
+        long queueTimeout = Long.parseLong(getParameter(
+                    SPARQL_QUEUE_TIMEOUT_PROPERTY,
+                    DEFAULT_SPARQL_QUEUE_TIMEOUT));
+        int rate = Integer.parseInt(getParameter(
+                    SPARQL_RATE_PROPERTY, DEFAULT_SPARQL_RATE));
+        int burst = Integer.parseInt(getParameter(
+                    SPARQL_BURST_PROPERTY, DEFAULT_SPARQL_BURST));
+        List<String> priorityClients = getAddresses(getParameter(
+                    SPARQL_PRIORITY_CLIENTS_PROPERTY,
+                    DEFAULT_SPARQL_PRIORITY_CLIENTS));
+        int prioritySlots = Integer.parseInt(getParameter(
+                    SPARQL_PRIORITY_SLOTS_PROPERTY,
+                    DEFAULT_SPARQL_PRIORITY_SLOTS));
+        String clientHeader = getParameter(SPARQL_CLIENT_HEADER_PROPERTY,
+                                           null);
+        List<String> trustedProxies = getAddresses(getParameter(
+                    SPARQL_TRUSTED_PROXIES_PROPERTY, ""));
+        if ((clientHeader != null) && (clientHeader.trim().length() != 0)
+                                   && (trustedProxies.isEmpty())) {
+            log.warn("SPARQL client header \"" + clientHeader
+                     + "\" ignored: no trusted proxy configured ("
+                     + SPARQL_TRUSTED_PROXIES_PROPERTY + ')');
+        }
+        AdmissionController admission = new AdmissionController(
+                    maxConcurrent, queue, queueTimeout, rate, burst,
+                    priorityClients, prioritySlots, clientHeader,
+                    trustedProxies);
+        this.registerMBean(admission, SPARQL_ADMISSION_MBEAN_NAME);
+        return admission;
+    }
+
+    private SparqlResultCache getSparqlResultCache() {
+        int entries = Integer.parseInt(getParameter(
+                    SPARQL_CACHE_ENTRIES_PROPERTY,
+                    DEFAULT_SPARQL_CACHE_ENTRIES));
+        if (entries <= 0) {
+            return null;
+        }
+        int memoryThreshold = Integer.parseInt(getParameter(
+                    SPARQL_CACHE_MEMORY_THRESHOLD_PROPERTY,
+                    DEFAULT_SPARQL_CACHE_MEMORY_THRESHOLD));
+        long maxEntrySize = Long.parseLong(getParameter(
+                    SPARQL_CACHE_MAX_ENTRY_SIZE_PROPERTY,
+                    DEFAULT_SPARQL_CACHE_MAX_ENTRY_SIZE));
+        long maxSize = Long.parseLong(getParameter(
+                    SPARQL_CACHE_MAX_SIZE_PROPERTY,
+                    DEFAULT_SPARQL_CACHE_MAX_SIZE));
+        String path = getParameter(SPARQL_CACHE_DIRECTORY_PROPERTY, null);
+        File dir = (path != null)? new File(path):
+                        new File(System.getProperty("java.io.tmpdir"),
+                                 DEFAULT_SPARQL_CACHE_DIRECTORY);
+        try {
+            SparqlResultCache cache = new SparqlResultCache(dir, entries,
+                                memoryThreshold, maxEntrySize, maxSize);
+            this.registerMBean(cache, SPARQL_CACHE_MBEAN_NAME);
+            return cache;
+        }
+        catch (IOException e) {
+            // Forward every query to the RDF triple store.
+            log.warn("Failed to initialize SPARQL cache directory "
+                     + dir.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private CacheWarmer getCacheWarmer(ThesaurusService thesaurus,
+                                       ExportArtefactStore store) {
+        int concepts = Integer.parseInt(getParameter(
+                    CACHE_WARMUP_PROPERTY, DEFAULT_CACHE_WARMUP));
+        if (concepts <= 0) {
+            return null;
+        }
+        CacheWarmer warmer = new CacheWarmer(thesaurus, store, concepts);
+        thesaurus.addImportListener(warmer);
+        return warmer;
+    }
+
+    private ImportJobManager getImportJobManager(ThesaurusService thesaurus) {
+        int threads = Integer.parseInt(getParameter(
+                    IMPORT_JOBS_THREADS_PROPERTY, DEFAULT_IMPORT_JOBS_THREADS));
+        int queue = Integer.parseInt(getParameter(
+                    IMPORT_JOBS_QUEUE_PROPERTY, DEFAULT_IMPORT_JOBS_QUEUE));
+        long retention = Long.parseLong(getParameter(
+                    IMPORT_JOBS_RETENTION_PROPERTY,
+                    DEFAULT_IMPORT_JOBS_RETENTION)) * 60000L;
+        // An empty parameter value means imports run at any time.
+        String windows = ctx.getInitParameter(IMPORT_WINDOWS_PROPERTY);
+        if (windows == null) {
+            windows = DEFAULT_IMPORT_WINDOWS;
+        }
+        ImportSchedule schedule = new ImportSchedule(windows,
+                                                     IMPORT_WINDOWS_TIMEZONE);
+        log.info("Import windows: " + schedule);
+        return new ImportJobManager(thesaurus, threads, queue, retention,
+                                    schedule);
+    }
+
     private String getBaseUri() {
         return this.getParameter(ENTRIES_BASE_URI_PROPERTY, null);
     }
@@ -0,0 +1,335 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import fr.gouv.culture.thesaurus.service.export.ExportArtefactStore;
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+import fr.gouv.culture.thesaurus.service.rdf.Concept;
+import fr.gouv.culture.thesaurus.service.rdf.ConceptScheme;
+import fr.gouv.culture.thesaurus.util.AccessFrequencySketch;
+import fr.gouv.culture.thesaurus.util.concurrent.DaemonThreadFactory;
+
+/**
+ * Préchauffage des caches après chaque import.
+ * <p>
+ * Un import vide le cache des entrées du service : sans préchauffage, les
+ * premières consultations qui suivent paient l'intégralité des requêtes
+ * SPARQL, et le premier téléchargement de l'export complet sa production.
+ * Après chaque import, un thread de faible priorité relit donc le
+ * vocabulaire importé, ses concepts de tête, les concepts les plus consultés
+ * (suivis par une {@link AccessFrequencySketch}) et produit ses exports
+ * complets. Les demandes portant sur un graphe déjà en attente de
+ * préchauffage sont fusionnées.
+ * </p>
+ * <p>
+ * Un import différentiel dont les modifications sont connues n'invalide que
+ * les entrées des ressources modifiées (voir {@link GraphChangeSet}) : seules
+ * celles-ci, dans la limite du nombre de concepts préchauffés et en
+ * commençant par les plus consultées, sont alors relues avec le vocabulaire,
+ * dont les exports complets sont produits comme après un import complet.
+ * </p>
+ */
+public class CacheWarmer implements ImportListener {
+
+	private final static Logger log = Logger.getLogger(CacheWarmer.class);
+
+	/** Nombre maximal de préchauffages en attente. */
+	private final static int QUEUE_SIZE = 16;
+
+	private final ThesaurusService thesaurus;
+	private final ExportArtefactStore exports;
+	private final int concepts;
+	private final AccessFrequencySketch hits;
+	private final ThreadPoolExecutor executor;
+
+	/** Graphes dont le préchauffage est en attente. */
+	private final Set<String> pending = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Crée un préchauffeur de caches.
+	 * 
+	 * @param thesaurus
+	 *            Service d'accès au triplestore
+	 * @param exports
+	 *            Magasin des exports complets, ou <code>null</code> pour ne
+	 *            pas les produire
+	 * @param concepts
+	 *            Nombre de concepts (de tête et les plus consultés)
+	 *            préchauffés par vocabulaire
+	 */
+	public CacheWarmer(ThesaurusService thesaurus,
+			ExportArtefactStore exports, int concepts) {
+		if (thesaurus == null) {
+			throw new IllegalArgumentException("thesaurus");
+		}
+		if (concepts < 0) {
+			throw new IllegalArgumentException("concepts");
+		}
+		this.thesaurus = thesaurus;
+		this.exports = exports;
+		this.concepts = concepts;
+		this.hits = new AccessFrequencySketch(Math.max(1, concepts * 4));
+		this.executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+				new DaemonThreadFactory("thesaurus-warmup",
+						Thread.MIN_PRIORITY));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Comptabilise la consultation d'un concept.
+	 * 
+	 * @param uri
+	 *            URI du concept consulté
+	 */
+	public void recordAccess(String uri) {
+		this.hits.record(uri);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void imported(ImportProgress progress) {
+		final GraphChangeSet changes = progress.getChangeSet();
+		if ((changes != null) && (changes.isComplete())) {
+			this.warm(progress.getGraph(), changes.getResources());
+		} else {
+			this.warm(progress.getGraph());
+		}
+	}
+
+	/**
+	 * Programme le préchauffage d'un vocabulaire, sauf s'il est déjà en
+	 * attente.
+	 * 
+	 * @param uri
+	 *            URI du vocabulaire (graphe nommé)
+	 */
+	public void warm(final String uri) {
+		if (!this.pending.add(uri)) {
+			return;
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					pending.remove(uri);
+					execute(uri);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.pending.remove(uri);
+			log.warn("Cache warm-up of \"" + uri + "\" skipped: queue full");
+		}
+	}
+
+	/**
+	 * Programme le préchauffage des seules ressources modifiées d'un
+	 * vocabulaire, sauf si son préchauffage complet est déjà en attente.
+	 * 
+	 * @param uri
+	 *            URI du vocabulaire (graphe nommé)
+	 * @param resources
+	 *            URI des ressources modifiées
+	 */
+	public void warm(final String uri, Set<String> resources) {
+		if (this.pending.contains(uri)) {
+			return;
+		}
+		final List<String> selected = this.select(resources);
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					execute(uri, selected);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.warn("Cache warm-up of \"" + uri + "\" skipped: queue full");
+		}
+	}
+
+	/**
+	 * Arrête le préchauffage, en interrompant celui en cours.
+	 */
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private void execute(String uri) {
+		final long start = System.currentTimeMillis();
+		final ConceptScheme scheme;
+		try {
+			scheme = this.thesaurus.getConceptScheme(uri);
+			this.thesaurus.getThesaurusMetadataWithConceptScheme(uri);
+		} catch (Exception e) {
+			log.warn("Cache warm-up of \"" + uri + "\" failed: "
+					+ e.getMessage());
+			return;
+		}
+		int warmed = 0;
+		final Collection<Concept> tops = scheme.getTopConcepts();
+		if (tops != null) {
+			for (Concept top : tops) {
+				if (warmed >= this.concepts) {
+					break;
+				}
+				if (this.warmConcept(top.getUri())) {
+					warmed++;
+				}
+			}
+		}
+		// Concepts les plus consultés, quel que soit leur vocabulaire : le
+		// cache a été vidé en totalité par l'import.
+		for (String hot : this.hits.top(this.concepts)) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			if (this.warmConcept(hot)) {
+				warmed++;
+			}
+		}
+		if (!this.warmExports(uri, scheme.getDateSubmitted())) {
+			return;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Cache warm-up of \"" + uri + "\": " + warmed
+					+ " concepts in " + (System.currentTimeMillis() - start)
+					+ " ms");
+		}
+	}
+
+	private void execute(String uri, List<String> resources) {
+		final long start = System.currentTimeMillis();
+		final ConceptScheme scheme;
+		try {
+			// Entrées des vocabulaires toujours invalidées.
+			scheme = this.thesaurus.getConceptScheme(uri);
+			this.thesaurus.getThesaurusMetadataWithConceptScheme(uri);
+		} catch (Exception e) {
+			log.warn("Cache warm-up of \"" + uri + "\" failed: "
+					+ e.getMessage());
+			return;
+		}
+		int warmed = 0;
+		for (String resource : resources) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			if (this.warmConcept(resource)) {
+				warmed++;
+			}
+		}
+		// Nouvelle version du vocabulaire : exports à régénérer.
+		if (!this.warmExports(uri, scheme.getDateSubmitted())) {
+			return;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Cache warm-up of \"" + uri + "\": " + warmed + "/"
+					+ resources.size() + " changed concepts in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * Génère les exports complets de la version courante d'un vocabulaire,
+	 * dans tous les formats.
+	 * 
+	 * @return <code>false</code> si le préchauffage a été interrompu
+	 */
+	private boolean warmExports(String uri, Date dateSubmitted) {
+		if (this.exports == null) {
+			return true;
+		}
+		for (ExportType type : ExportType.values()) {
+			if (Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			try {
+				this.exports.getFullDump(uri, type, dateSubmitted);
+			} catch (Exception e) {
+				log.warn("Export warm-up of \"" + uri + "\" (" + type
+						+ ") failed: " + e.getMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Choisit les ressources modifiées à préchauffer : les plus consultées
+	 * d'abord, puis les autres, dans la limite du nombre de concepts
+	 * préchauffés.
+	 */
+	private List<String> select(Set<String> resources) {
+		final Set<String> selected = new LinkedHashSet<String>();
+		for (String hot : this.hits.top(this.concepts)) {
+			if (resources.contains(hot)) {
+				selected.add(hot);
+			}
+		}
+		for (String resource : resources) {
+			if (selected.size() >= this.concepts) {
+				break;
+			}
+			selected.add(resource);
+		}
+		return new ArrayList<String>(selected);
+	}
+
+	/**
+	 * Relit un concept et ses métadonnées. Les concepts qui n'existent plus
+	 * ne sont plus suivis.
+	 */
+	private boolean warmConcept(String uri) {
+		try {
+			if (this.thesaurus.getConcept(uri) == null) {
+				this.hits.remove(uri);
+				return false;
+			}
+			this.thesaurus.getThesaurusMetadataWithConcept(uri);
+			return true;
+		} catch (Exception e) {
+			this.hits.remove(uri);
+			return false;
+		}
+	}
+}
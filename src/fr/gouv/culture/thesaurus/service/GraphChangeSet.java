@@ -0,0 +1,128 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Ensemble des modifications apportées à un graphe nommé par un import
+ * différentiel : nombre de triplets ajoutés et supprimés, et ressources
+ * (sujets des triplets modifiés, objets des liens supprimés) dont la
+ * description a changé, afin de n'invalider que les entrées de cache
+ * concernées.
+ * <p>
+ * Les triplets dont le sujet est un nœud anonyme ne pouvant être rattachés à
+ * une ressource, leur modification rend l'ensemble des ressources incomplet
+ * (cf. {@link #isComplete()}).
+ * </p>
+ */
+public class GraphChangeSet {
+
+	private final String graph;
+	private final long added;
+	private final long removed;
+	private final Set<String> resources;
+	private final boolean complete;
+
+	/**
+	 * Crée un ensemble de modifications.
+	 * 
+	 * @param graph
+	 *            URI du graphe nommé modifié
+	 * @param added
+	 *            Nombre de triplets ajoutés
+	 * @param removed
+	 *            Nombre de triplets supprimés
+	 * @param resources
+	 *            URI des ressources dont la description a changé
+	 * @param complete
+	 *            <code>false</code> si des triplets non rattachés à une
+	 *            ressource ont été modifiés
+	 */
+	public GraphChangeSet(String graph, long added, long removed,
+			Set<String> resources, boolean complete) {
+		this.graph = graph;
+		this.added = added;
+		this.removed = removed;
+		this.resources = Collections.unmodifiableSet(resources);
+		this.complete = complete;
+	}
+
+	/**
+	 * @return URI du graphe nommé modifié
+	 */
+	public String getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return Nombre de triplets ajoutés
+	 */
+	public long getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return Nombre de triplets supprimés
+	 */
+	public long getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return URI des ressources (sujets des triplets ajoutés ou supprimés,
+	 *         objets des liens supprimés) dont la description a changé
+	 */
+	public Set<String> getResources() {
+		return resources;
+	}
+
+	/**
+	 * @return <code>true</code> si toutes les ressources modifiées sont
+	 *         connues, <code>false</code> si des triplets portant sur des
+	 *         nœuds anonymes ont été modifiés
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return <code>true</code> si l'import n'a modifié aucun triplet
+	 */
+	public boolean isEmpty() {
+		return (added == 0L) && (removed == 0L);
+	}
+
+	@Override
+	public String toString() {
+		return "GraphChangeSet[" + graph + ", +" + added + ", -" + removed
+				+ ", " + resources.size() + " ressources]";
+	}
+}
@@ -0,0 +1,241 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import java.io.File;
+import java.util.Date;
+
+/**
+ * Tâche d'import asynchrone d'un fichier téléversé, ou de suppression d'un
+ * graphe nommé. L'import est exécuté par le pool de {@link ImportJobManager} ;
+ * le client interroge l'état de la tâche jusqu'à sa fin.
+ */
+public class ImportJob {
+
+	/**
+	 * Phases d'une tâche d'import.
+	 */
+	public enum Phase {
+		/** Tâche en attente d'un thread d'import. */
+		PENDING,
+		/** Tâche en attente de l'ouverture de la plage horaire des imports. */
+		SCHEDULED,
+		/** Tâche en attente de la fin d'un autre import du même graphe. */
+		WAITING,
+		/** Import en cours. */
+		RUNNING,
+		/** Import terminé avec succès. */
+		DONE,
+		/** Import ignoré : fichier identique à la version chargée. */
+		SKIPPED,
+		/** Import en échec. */
+		FAILED
+	}
+
+	private final String id;
+	private final String source;
+	private final String graph;
+	private final File file;
+	private final Date submitted;
+
+	private volatile Phase phase = Phase.PENDING;
+	private volatile Date scheduled;
+	private volatile Date started;
+	private volatile Date finished;
+	private volatile ImportProgress progress;
+	private volatile String error;
+
+	/**
+	 * Crée une tâche d'import.
+	 * 
+	 * @param id
+	 *            Identifiant de la tâche
+	 * @param source
+	 *            Nom du fichier côté client
+	 * @param graph
+	 *            URI du graphe nommé importé
+	 * @param file
+	 *            Fichier à importer, supprimé à la fin de la tâche
+	 */
+	public ImportJob(String id, String source, String graph, File file) {
+		this.id = id;
+		this.source = source;
+		this.graph = graph;
+		this.file = file;
+		this.submitted = new Date();
+	}
+
+	/**
+	 * Crée une tâche de suppression d'un graphe nommé.
+	 * 
+	 * @param id
+	 *            Identifiant de la tâche
+	 * @param graph
+	 *            URI du graphe nommé supprimé
+	 */
+	public ImportJob(String id, String graph) {
+		this(id, null, graph, null);
+	}
+
+	/**
+	 * @return Identifiant de la tâche
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return Nom du fichier côté client
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return URI du graphe nommé importé
+	 */
+	public String getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return Fichier importé, ou <code>null</code> pour une suppression
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return <code>true</code> si la tâche supprime le graphe nommé
+	 */
+	public boolean isDeletion() {
+		return file == null;
+	}
+
+	/**
+	 * @return Phase de la tâche
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return Date de soumission de la tâche
+	 */
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * @return Date d'ouverture de la plage horaire à laquelle l'import est
+	 *         programmé, ou <code>null</code> s'il ne l'a pas été
+	 */
+	public Date getScheduled() {
+		return scheduled;
+	}
+
+	/**
+	 * @return Date de début de l'import, ou <code>null</code>
+	 */
+	public Date getStarted() {
+		return started;
+	}
+
+	/**
+	 * @return Date de fin de l'import, ou <code>null</code>
+	 */
+	public Date getFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return Avancement de l'import, ou <code>null</code> s'il n'a pas
+	 *         encore débuté
+	 */
+	public ImportProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * @return Message d'erreur si l'import a échoué, <code>null</code> sinon
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return <code>true</code> si la tâche est terminée (avec succès ou
+	 *         non)
+	 */
+	public boolean isFinished() {
+		return (phase == Phase.DONE) || (phase == Phase.SKIPPED)
+				|| (phase == Phase.FAILED);
+	}
+
+	void scheduled(Date opening) {
+		this.scheduled = opening;
+		this.phase = Phase.SCHEDULED;
+	}
+
+	void pending() {
+		this.phase = Phase.PENDING;
+	}
+
+	void waiting() {
+		this.phase = Phase.WAITING;
+	}
+
+	void started() {
+		this.started = new Date();
+		this.phase = Phase.RUNNING;
+	}
+
+	void setProgress(ImportProgress progress) {
+		this.progress = progress;
+	}
+
+	void done(ImportProgress progress) {
+		this.progress = progress;
+		this.finished = new Date();
+		this.phase = ((progress != null) && (progress.getStatus() == ImportProgress.Status.SKIPPED)) ? Phase.SKIPPED
+				: Phase.DONE;
+	}
+
+	void failed(String error) {
+		this.error = error;
+		this.finished = new Date();
+		this.phase = Phase.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return "ImportJob[" + id + ", " + source + ", " + graph + ", "
+				+ phase + "]";
+	}
+}
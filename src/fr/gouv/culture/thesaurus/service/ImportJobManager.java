@@ -0,0 +1,570 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import fr.gouv.culture.thesaurus.exception.BusinessException;
+import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
+import fr.gouv.culture.thesaurus.util.concurrent.DaemonThreadFactory;
+import fr.gouv.culture.thesaurus.util.rdf.RdfXmlUtils;
+
+/**
+ * Gestionnaire des imports asynchrones.
+ * <p>
+ * Les fichiers téléversés sur la page d'administration et ceux déposés dans
+ * le répertoire de chargement automatique sont importés par un même pool
+ * borné de threads (taille du pool et de la file d'attente configurables) :
+ * les threads du conteneur de servlets ne sont pas mobilisés pendant
+ * l'import, et deux imports ne portent jamais simultanément sur le même
+ * graphe nommé. Les tâches terminées sont oubliées après un délai de
+ * rétention.
+ * </p>
+ * <p>
+ * Les imports soumis en dehors des plages horaires du calendrier d'imports
+ * ({@link ImportSchedule}) sont conservés jusqu'à l'ouverture de la plage
+ * suivante : {@link #getNextImport(Date)} donne ainsi la date jusqu'à
+ * laquelle les données ne peuvent pas être modifiées par un import. La plage
+ * est vérifiée de nouveau au démarrage de chaque import : un import resté en
+ * attente d'un thread au-delà de la fermeture de la plage est reporté à la
+ * suivante.
+ * </p>
+ */
+public class ImportJobManager {
+
+	private final static Logger log = Logger.getLogger(ImportJobManager.class);
+
+	/**
+	 * Délai avant une nouvelle soumission des imports programmés refusés par
+	 * le pool, en millisecondes.
+	 */
+	private final static long RETRY_DELAY = 60000L;
+
+	private final ThesaurusService thesaurus;
+	private final ThreadPoolExecutor executor;
+	private final long retention;
+	private final int queueSize;
+	private final ImportSchedule schedule;
+
+	/** Déclencheur des imports programmés (<code>null</code> sans plages). */
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Imports en attente de l'ouverture de la plage horaire suivante, dans
+	 * l'ordre de soumission.
+	 */
+	private final List<Runnable> scheduled = new ArrayList<Runnable>();
+
+	/** Indique si la soumission des imports programmés est planifiée. */
+	private boolean releasePlanned = false;
+
+	/** Tâches connues, par identifiant. */
+	private final ConcurrentMap<String, ImportJob> jobs = new ConcurrentHashMap<String, ImportJob>();
+
+	/** Graphes nommés en cours d'import. */
+	private final Set<String> activeGraphs = new HashSet<String>();
+
+	/**
+	 * Traitements en attente de la fin de l'import en cours sur le même
+	 * graphe nommé, par graphe.
+	 */
+	private final Map<String, Queue<Deferred>> deferred = new HashMap<String, Queue<Deferred>>();
+
+	/**
+	 * Crée un gestionnaire d'imports asynchrones.
+	 * 
+	 * @param thesaurus
+	 *            Service d'accès au triplestore
+	 * @param threads
+	 *            Nombre de threads d'import
+	 * @param queueSize
+	 *            Nombre maximal d'imports en attente
+	 * @param retention
+	 *            Durée de conservation des tâches terminées, en millisecondes
+	 */
+	public ImportJobManager(ThesaurusService thesaurus, int threads,
+			int queueSize, long retention) {
+		this(thesaurus, threads, queueSize, retention, null);
+	}
+
+	/**
+	 * Crée un gestionnaire d'imports asynchrones n'exécutant les imports que
+	 * pendant les plages horaires d'un calendrier.
+	 * 
+	 * @param thesaurus
+	 *            Service d'accès au triplestore
+	 * @param threads
+	 *            Nombre de threads d'import
+	 * @param queueSize
+	 *            Nombre maximal d'imports en attente (d'un thread ou de
+	 *            l'ouverture de la plage horaire suivante)
+	 * @param retention
+	 *            Durée de conservation des tâches terminées, en millisecondes
+	 * @param schedule
+	 *            Plages horaires des imports, ou <code>null</code> pour les
+	 *            exécuter à toute heure
+	 */
+	public ImportJobManager(ThesaurusService thesaurus, int threads,
+			int queueSize, long retention, ImportSchedule schedule) {
+		if (thesaurus == null) {
+			throw new IllegalArgumentException("thesaurus");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads");
+		}
+		if (queueSize < 0) {
+			throw new IllegalArgumentException("queueSize");
+		}
+		this.thesaurus = thesaurus;
+		this.retention = retention;
+		this.queueSize = Math.max(1, queueSize);
+		this.schedule = (schedule != null) ? schedule : new ImportSchedule(
+				null, TimeZone.getDefault());
+		this.timer = (this.schedule.isUnrestricted()) ? null : Executors
+				.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+						"thesaurus-import-schedule"));
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(
+						Math.max(1, queueSize)), new DaemonThreadFactory(
+						"thesaurus-import"));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Soumet l'import d'un fichier. Le graphe nommé est déterminé dès la
+	 * soumission, afin de signaler immédiatement un fichier invalide. Le
+	 * fichier est supprimé à la fin de l'import.
+	 * 
+	 * @param file
+	 *            Fichier à importer
+	 * @param source
+	 *            Nom du fichier côté client
+	 * @return Tâche d'import
+	 * @throws BusinessException
+	 *             Levée si le graphe nommé ne peut être déterminé
+	 * @throws RejectedExecutionException
+	 *             Levée si la file d'attente des imports est pleine
+	 */
+	public ImportJob submit(File file, String source)
+			throws BusinessException, RejectedExecutionException {
+		this.expire();
+
+		final String graph = RdfXmlUtils.extractNamedGraphUri(file);
+		if (graph == null) {
+			throw new InvalidParameterException("rdf.import.no.graph.found");
+		}
+		final ImportJob job = new ImportJob(UUID.randomUUID().toString(),
+				source, graph, file);
+		this.execute(graph, new Runnable() {
+			public void run() {
+				execute(job);
+			}
+		}, job);
+		this.jobs.put(job.getId(), job);
+		return job;
+	}
+
+	/**
+	 * Soumet la suppression d'un graphe nommé, exécutée comme un import :
+	 * pendant les plages horaires des imports et jamais en même temps qu'un
+	 * import du même graphe.
+	 * 
+	 * @param graph
+	 *            URI du graphe nommé à supprimer
+	 * @return Tâche de suppression
+	 * @throws RejectedExecutionException
+	 *             Levée si la file d'attente des imports est pleine
+	 */
+	public ImportJob submitDelete(String graph)
+			throws RejectedExecutionException {
+		this.expire();
+
+		final ImportJob job = new ImportJob(UUID.randomUUID().toString(),
+				graph);
+		this.execute(graph, new Runnable() {
+			public void run() {
+				execute(job);
+			}
+		}, job);
+		this.jobs.put(job.getId(), job);
+		return job;
+	}
+
+	/**
+	 * Exécute un traitement d'import sur le pool partagé, une fois terminés
+	 * les éventuels imports en cours sur le même graphe nommé.
+	 * 
+	 * @param graph
+	 *            URI du graphe nommé importé
+	 * @param task
+	 *            Traitement d'import
+	 * @throws RejectedExecutionException
+	 *             Levée si la file d'attente des imports est pleine
+	 */
+	public void execute(String graph, Runnable task)
+			throws RejectedExecutionException {
+		this.execute(graph, task, null);
+	}
+
+	private void execute(final String graph, final Runnable task,
+			final ImportJob job) throws RejectedExecutionException {
+		final Runnable r = new Runnable() {
+			public void run() {
+				if (job != null) {
+					job.pending();
+				}
+				try {
+					dispatch(graph, task, job);
+				} catch (RejectedExecutionException e) {
+					if (job != null) {
+						job.scheduled(job.getScheduled());
+					}
+					throw e;
+				}
+			}
+		};
+		final Date now = new Date();
+		if (!this.schedule.isOpen(now)) {
+			synchronized (this.scheduled) {
+				if (!this.schedule.isOpen(now)) {
+					if (this.scheduled.size() >= this.queueSize) {
+						throw new RejectedExecutionException(
+								"Too many scheduled imports");
+					}
+					final Date opening = this.schedule.nextOpening(now);
+					if (job != null) {
+						job.scheduled(opening);
+					}
+					this.scheduled.add(r);
+					if (!this.releasePlanned) {
+						this.releasePlanned = true;
+						this.timer.schedule(new Runnable() {
+							public void run() {
+								releaseScheduled();
+							}
+						}, opening.getTime() - now.getTime(),
+								TimeUnit.MILLISECONDS);
+					}
+					return;
+				}
+			}
+		}
+		this.dispatch(graph, task, job);
+	}
+
+	private void dispatch(final String graph, final Runnable task,
+			final ImportJob job) throws RejectedExecutionException {
+		this.executor.execute(new Runnable() {
+			public void run() {
+				synchronized (activeGraphs) {
+					if (!activeGraphs.add(graph)) {
+						// Repris par le thread de l'import en cours, sans
+						// bloquer un thread du pool.
+						if (job != null) {
+							job.waiting();
+						}
+						getDeferred(graph).add(new Deferred(task, job));
+						return;
+					}
+				}
+				Deferred next = new Deferred(task, job);
+				while (next != null) {
+					if (!schedule.isOpen(new Date())) {
+						// Plage fermée depuis la soumission (attente d'un
+						// thread ou de la fin d'un import du même graphe).
+						reschedule(graph, next);
+					} else {
+						try {
+							next.task.run();
+						} catch (RuntimeException e) {
+							log.error("Echec de l'import du graphe " + graph, e);
+						}
+					}
+					next = release(graph);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reporte à l'ouverture de la plage horaire suivante un import dont
+	 * l'exécution a débuté après la fermeture de la plage.
+	 */
+	private void reschedule(String graph, Deferred d) {
+		log.info("Plage d'import fermée : import du graphe " + graph
+				+ " reprogrammé");
+		try {
+			this.execute(graph, d.task, d.job);
+		} catch (RejectedExecutionException e) {
+			log.error("Import du graphe " + graph + " abandonné : "
+					+ e.getMessage());
+			if (d.job != null) {
+				d.job.failed(e.getMessage());
+				if (!d.job.isDeletion()) {
+					d.job.getFile().delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Soumet au pool d'import les imports programmés, à l'ouverture d'une
+	 * plage horaire.
+	 */
+	private void releaseScheduled() {
+		final List<Runnable> tasks;
+		synchronized (this.scheduled) {
+			tasks = new ArrayList<Runnable>(this.scheduled);
+			this.scheduled.clear();
+			this.releasePlanned = false;
+		}
+		log.info("Ouverture de la plage d'import : " + tasks.size()
+				+ " import(s) programmé(s)");
+		for (int i = 0; i < tasks.size(); i++) {
+			try {
+				tasks.get(i).run();
+			} catch (RejectedExecutionException e) {
+				// File d'attente pleine : nouvel essai dans une minute.
+				synchronized (this.scheduled) {
+					this.scheduled.addAll(0, tasks.subList(i, tasks.size()));
+					if (!this.releasePlanned) {
+						this.releasePlanned = true;
+						this.timer.schedule(new Runnable() {
+							public void run() {
+								releaseScheduled();
+							}
+						}, RETRY_DELAY, TimeUnit.MILLISECONDS);
+					}
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Renvoie la date à partir de laquelle un import peut modifier les
+	 * données du triplestore.
+	 * 
+	 * @param now
+	 *            Date courante
+	 * @return <code>now</code> si la plage horaire des imports est ouverte
+	 *         ou si des imports sont en cours, l'ouverture de la plage
+	 *         suivante sinon
+	 */
+	public Date getNextImport(Date now) {
+		synchronized (this.activeGraphs) {
+			if (!this.activeGraphs.isEmpty()) {
+				return now;
+			}
+		}
+		if ((this.executor.getActiveCount() > 0)
+				|| (!this.executor.getQueue().isEmpty())) {
+			return now;
+		}
+		return this.schedule.nextOpening(now);
+	}
+
+	/**
+	 * @return Plages horaires des imports
+	 */
+	public ImportSchedule getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * @return Nombre d'imports en attente de l'ouverture de la plage horaire
+	 *         suivante
+	 */
+	public int getScheduledCount() {
+		synchronized (this.scheduled) {
+			return this.scheduled.size();
+		}
+	}
+
+	/**
+	 * Indique si un import est en cours sur un graphe nommé.
+	 * 
+	 * @param graph
+	 *            URI du graphe nommé
+	 * @return <code>true</code> si un import est en cours sur ce graphe
+	 */
+	public boolean isActive(String graph) {
+		synchronized (this.activeGraphs) {
+			return this.activeGraphs.contains(graph);
+		}
+	}
+
+	/**
+	 * Renvoie une tâche d'import.
+	 * 
+	 * @param id
+	 *            Identifiant de la tâche
+	 * @return Tâche, ou <code>null</code> si elle est inconnue ou expirée
+	 */
+	public ImportJob getJob(String id) {
+		final ImportJob job = (id != null) ? this.jobs.get(id) : null;
+		if ((job != null) && (!job.isDeletion())
+				&& (job.getProgress() == null)
+				&& (job.getPhase() == ImportJob.Phase.RUNNING)) {
+			// Le nom du fichier temporaire identifie l'import en cours.
+			for (ImportProgress p : this.thesaurus.getImports()) {
+				if (job.getFile().getName().equals(p.getSource())) {
+					job.setProgress(p);
+					break;
+				}
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * @return Nombre d'imports en attente d'un thread d'import
+	 */
+	public int getQueueSize() {
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * Arrête le pool d'import, en interrompant les imports en cours.
+	 */
+	public void shutdown() {
+		if (this.timer != null) {
+			this.timer.shutdownNow();
+		}
+		this.executor.shutdownNow();
+	}
+
+	private void execute(ImportJob job) {
+		job.started();
+		try {
+			if (job.isDeletion()) {
+				this.thesaurus.delete(job.getGraph());
+				job.done(null);
+			} else {
+				job.done(this.thesaurus.load(job.getFile(), job.getGraph()));
+			}
+		} catch (Exception e) {
+			log.error("Echec de " + ((job.isDeletion()) ? "la suppression "
+					: "l'import ") + job, e);
+			String message = e.getMessage();
+			if ((message == null) || (message.length() == 0)) {
+				message = e.toString();
+			}
+			job.failed(message);
+		} finally {
+			if ((!job.isDeletion()) && (!job.getFile().delete())) {
+				log.warn("Suppression du fichier importé impossible : "
+						+ job.getFile().getPath());
+			}
+		}
+	}
+
+	/**
+	 * Renvoie la file des traitements en attente sur un graphe nommé.
+	 * Appelée sous le verrou de <code>activeGraphs</code>.
+	 */
+	private Queue<Deferred> getDeferred(String graph) {
+		Queue<Deferred> q = this.deferred.get(graph);
+		if (q == null) {
+			q = new LinkedList<Deferred>();
+			this.deferred.put(graph, q);
+		}
+		return q;
+	}
+
+	/**
+	 * Libère un graphe nommé à la fin d'un import.
+	 * 
+	 * @return le prochain traitement en attente sur ce graphe, qui reste
+	 *         alors réservé, ou <code>null</code> si aucun.
+	 */
+	private Deferred release(String graph) {
+		synchronized (this.activeGraphs) {
+			final Queue<Deferred> q = this.deferred.get(graph);
+			final Deferred next = (q != null) ? q.poll() : null;
+			if ((q != null) && (q.isEmpty())) {
+				this.deferred.remove(graph);
+			}
+			if (next == null) {
+				this.activeGraphs.remove(graph);
+			}
+			return next;
+		}
+	}
+
+	/**
+	 * Oublie les tâches terminées depuis plus longtemps que la durée de
+	 * rétention.
+	 */
+	private void expire() {
+		final long limit = System.currentTimeMillis() - this.retention;
+		for (Iterator<ImportJob> i = this.jobs.values().iterator(); i
+				.hasNext();) {
+			final ImportJob job = i.next();
+			if (job.isFinished() && (job.getFinished().getTime() < limit)) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Traitement en attente sur un graphe nommé, avec sa tâche éventuelle.
+	 */
+	private final static class Deferred {
+		final Runnable task;
+		final ImportJob job;
+
+		Deferred(Runnable task, ImportJob job) {
+			this.task = task;
+			this.job = job;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suivi de l'avancement d'un import de vocabulaire dans le triplestore.
+ * <p>
+ * Les compteurs sont mis à jour par le thread d'import et peuvent être lus à
+ * tout moment par d'autres threads (page d'administration notamment).
+ * </p>
+ * <p>
+ * Une fois l'import terminé, ils en constituent les métriques : taille du
+ * fichier, nombre de triplets, durées cumulées de lecture et d'écriture,
+ * débit et augmentation maximale du tas mémoire. Lorsque la lecture et
+ * l'écriture sont parallèles, leur somme peut dépasser la durée de l'import.
+ * </p>
+ */
+public class ImportProgress {
+
+	/**
+	 * États d'un import.
+	 */
+	public enum Status {
+		/** Import en cours. */
+		RUNNING,
+		/** Import terminé avec succès. */
+		DONE,
+		/** Import ignoré : fichier identique à la version chargée. */
+		SKIPPED,
+		/** Import en échec. */
+		FAILED
+	}
+
+	private final String graph;
+	private final String source;
+	private final Date started;
+	private final AtomicLong parsed = new AtomicLong();
+	private final AtomicLong committed = new AtomicLong();
+	private final AtomicLong parseTime = new AtomicLong();
+	private final AtomicLong commitTime = new AtomicLong();
+	private final long heapBaseline;
+	private final AtomicLong peakHeap = new AtomicLong();
+
+	private volatile Status status = Status.RUNNING;
+	private volatile Date finished;
+	private volatile String error;
+	private volatile GraphChangeSet changeSet;
+	private volatile long fileSize = -1L;
+
+	/**
+	 * Crée le suivi d'un import débutant maintenant.
+	 * 
+	 * @param graph
+	 *            URI du graphe nommé importé
+	 * @param source
+	 *            Nom du fichier importé
+	 */
+	public ImportProgress(String graph, String source) {
+		this.graph = graph;
+		this.source = source;
+		this.started = new Date();
+		this.heapBaseline = usedHeap();
+		this.peakHeap.set(this.heapBaseline);
+	}
+
+	/**
+	 * @return URI du graphe nommé importé
+	 */
+	public String getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return Nom du fichier importé
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return État de l'import
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return Date de début de l'import
+	 */
+	public Date getStarted() {
+		return started;
+	}
+
+	/**
+	 * @return Date de fin de l'import, ou <code>null</code> s'il est en cours
+	 */
+	public Date getFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return Nombre de triplets lus dans le fichier
+	 */
+	public long getParsed() {
+		return parsed.get();
+	}
+
+	/**
+	 * @return Nombre de triplets enregistrés dans le triplestore
+	 */
+	public long getCommitted() {
+		return committed.get();
+	}
+
+	/**
+	 * @return Durée de l'import (jusqu'à maintenant s'il est en cours), en
+	 *         millisecondes
+	 */
+	public long getDuration() {
+		final Date end = this.finished;
+		return ((end != null) ? end.getTime() : System.currentTimeMillis())
+				- started.getTime();
+	}
+
+	/**
+	 * @return Débit d'enregistrement, en triplets par seconde
+	 */
+	public long getRate() {
+		final long duration = this.getDuration();
+		return (duration > 0L) ? (this.getCommitted() * 1000L / duration) : 0L;
+	}
+
+	/**
+	 * @return Taille du fichier importé, en octets, ou -1 si elle est
+	 *         inconnue
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * @return Durée cumulée de lecture du fichier, en millisecondes
+	 */
+	public long getParseTime() {
+		return parseTime.get() / 1000000L;
+	}
+
+	/**
+	 * @return Durée cumulée d'écriture dans le triplestore (transactions,
+	 *         bascule), en millisecondes
+	 */
+	public long getCommitTime() {
+		return commitTime.get() / 1000000L;
+	}
+
+	/**
+	 * Renvoie l'augmentation maximale de l'occupation du tas relevée pendant
+	 * l'import. Il s'agit d'une <em>approximation</em> : l'occupation est
+	 * celle de toute la JVM (requêtes et imports concurrents compris),
+	 * relevée à chaque lot enregistré seulement, et dépend du passage du
+	 * ramasse-miettes. Elle donne un ordre de grandeur, non l'empreinte
+	 * mémoire propre de l'import.
+	 * 
+	 * @return Augmentation approximative du tas, en octets
+	 */
+	public long getSampledHeapGrowth() {
+		return Math.max(0L, peakHeap.get() - heapBaseline);
+	}
+
+	/**
+	 * @return Message d'erreur si l'import a échoué, <code>null</code> sinon
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return Modifications apportées au graphe par un import différentiel,
+	 *         <code>null</code> pour un import complet
+	 */
+	public GraphChangeSet getChangeSet() {
+		return changeSet;
+	}
+
+	/**
+	 * Enregistre les modifications apportées au graphe par un import
+	 * différentiel.
+	 * 
+	 * @param changeSet
+	 *            Modifications apportées au graphe
+	 */
+	public void setChangeSet(GraphChangeSet changeSet) {
+		this.changeSet = changeSet;
+	}
+
+	/**
+	 * Enregistre la taille du fichier importé.
+	 * 
+	 * @param fileSize
+	 *            Taille du fichier, en octets
+	 */
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Comptabilise une durée de lecture du fichier.
+	 * 
+	 * @param nanos
+	 *            Durée, en nanosecondes
+	 */
+	public void parseTime(long nanos) {
+		this.parseTime.addAndGet(nanos);
+	}
+
+	/**
+	 * Comptabilise une durée d'écriture dans le triplestore.
+	 * 
+	 * @param nanos
+	 *            Durée, en nanosecondes
+	 */
+	public void commitTime(long nanos) {
+		this.commitTime.addAndGet(nanos);
+	}
+
+	/**
+	 * Comptabilise des triplets lus.
+	 * 
+	 * @param count
+	 *            Nombre de triplets lus
+	 */
+	public void parsed(long count) {
+		this.parsed.addAndGet(count);
+	}
+
+	/**
+	 * Comptabilise des triplets enregistrés.
+	 * 
+	 * @param count
+	 *            Nombre de triplets enregistrés
+	 */
+	public void committed(long count) {
+		this.committed.addAndGet(count);
+		this.sampleHeap();
+	}
+
+	/**
+	 * Marque l'import comme ignoré, le fichier étant identique à la version
+	 * déjà chargée.
+	 */
+	public void skipped() {
+		this.sampleHeap();
+		this.finished = new Date();
+		this.status = Status.SKIPPED;
+	}
+
+	/**
+	 * Marque l'import comme terminé avec succès.
+	 */
+	public void done() {
+		this.sampleHeap();
+		this.finished = new Date();
+		this.status = Status.DONE;
+	}
+
+	/**
+	 * Marque l'import comme en échec.
+	 * 
+	 * @param error
+	 *            Message d'erreur
+	 */
+	public void failed(String error) {
+		this.error = error;
+		this.sampleHeap();
+		this.finished = new Date();
+		this.status = Status.FAILED;
+	}
+
+	/**
+	 * Relève l'occupation du tas mémoire de la JVM, échantillonnée à chaque
+	 * lot enregistré.
+	 */
+	private void sampleHeap() {
+		final long used = usedHeap();
+		long peak = this.peakHeap.get();
+		while ((used > peak) && (!this.peakHeap.compareAndSet(peak, used))) {
+			peak = this.peakHeap.get();
+		}
+	}
+
+	private static long usedHeap() {
+		final Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	@Override
+	public String toString() {
+		return "ImportProgress[" + graph + ", " + source + ", " + status
+				+ ", " + committed + "/" + parsed + "]";
+	}
+}
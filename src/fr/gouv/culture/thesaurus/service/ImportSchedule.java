@@ -0,0 +1,202 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plages horaires quotidiennes pendant lesquelles les imports sont exécutés.
+ * <p>
+ * Les plages sont décrites par une liste de la forme
+ * <code>09:00-12:00,14:00-18:00</code> ; une plage dont la fin précède le
+ * début (<code>22:00-06:00</code>) enjambe minuit. Une liste vide autorise
+ * les imports à toute heure. En dehors des plages, les données du triplestore
+ * ne sont pas modifiées par les imports : les pages peuvent être mises en
+ * cache jusqu'à l'ouverture de la plage suivante.
+ * </p>
+ */
+public class ImportSchedule {
+
+	private final static Pattern WINDOW = Pattern
+			.compile("(\\d{1,2}):(\\d{2})\\s*-\\s*(\\d{1,2}):(\\d{2})");
+
+	private final static int MINUTES_PER_DAY = 24 * 60;
+
+	private final TimeZone timeZone;
+
+	/** Début de chaque plage, en minutes depuis minuit. */
+	private final int[] starts;
+
+	/** Fin de chaque plage, en minutes depuis minuit. */
+	private final int[] ends;
+
+	private final String description;
+
+	/**
+	 * Crée un calendrier d'imports.
+	 * 
+	 * @param windows
+	 *            Plages horaires (<code>HH:mm-HH:mm</code>, séparées par des
+	 *            virgules), ou <code>null</code> ou vide pour autoriser les
+	 *            imports à toute heure
+	 * @param timeZone
+	 *            Fuseau horaire des plages
+	 * @throws IllegalArgumentException
+	 *             Levée si une plage est mal formée
+	 */
+	public ImportSchedule(String windows, TimeZone timeZone) {
+		if (timeZone == null) {
+			throw new IllegalArgumentException("timeZone");
+		}
+		this.timeZone = timeZone;
+		final List<int[]> parsed = new ArrayList<int[]>();
+		if (windows != null) {
+			for (String window : windows.split(",")) {
+				window = window.trim();
+				if (window.length() == 0) {
+					continue;
+				}
+				final Matcher m = WINDOW.matcher(window);
+				if (!m.matches()) {
+					throw new IllegalArgumentException(window);
+				}
+				parsed.add(new int[] {
+						toMinutes(window, m.group(1), m.group(2)),
+						toMinutes(window, m.group(3), m.group(4)) });
+			}
+		}
+		this.starts = new int[parsed.size()];
+		this.ends = new int[parsed.size()];
+		final StringBuilder s = new StringBuilder();
+		for (int i = 0; i < parsed.size(); i++) {
+			this.starts[i] = parsed.get(i)[0];
+			this.ends[i] = parsed.get(i)[1];
+			if (i > 0) {
+				s.append(',');
+			}
+			s.append(format(this.starts[i])).append('-')
+					.append(format(this.ends[i]));
+		}
+		this.description = s.toString();
+	}
+
+	/**
+	 * @return <code>true</code> si les imports sont autorisés à toute heure
+	 */
+	public boolean isUnrestricted() {
+		return this.starts.length == 0;
+	}
+
+	/**
+	 * Indique si les imports sont autorisés à une date donnée.
+	 * 
+	 * @param date
+	 *            Date considérée
+	 * @return <code>true</code> si la date est comprise dans une plage
+	 */
+	public boolean isOpen(Date date) {
+		if (this.isUnrestricted()) {
+			return true;
+		}
+		final Calendar cal = this.newCalendar(date);
+		final int minute = cal.get(Calendar.HOUR_OF_DAY) * 60
+				+ cal.get(Calendar.MINUTE);
+		for (int i = 0; i < this.starts.length; i++) {
+			final int start = this.starts[i];
+			final int end = this.ends[i];
+			final boolean open = (start < end) ? (minute >= start)
+					&& (minute < end) : (minute >= start) || (minute < end);
+			if (open) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Renvoie la première date, à partir d'une date donnée, à laquelle les
+	 * imports sont autorisés.
+	 * 
+	 * @param date
+	 *            Date considérée
+	 * @return <code>date</code> si elle est comprise dans une plage, le début
+	 *         de la plage suivante sinon
+	 */
+	public Date nextOpening(Date date) {
+		if (this.isOpen(date)) {
+			return date;
+		}
+		Date next = null;
+		for (int start : this.starts) {
+			final Calendar cal = this.newCalendar(date);
+			cal.set(Calendar.HOUR_OF_DAY, start / 60);
+			cal.set(Calendar.MINUTE, start % 60);
+			cal.set(Calendar.SECOND, 0);
+			cal.set(Calendar.MILLISECOND, 0);
+			if (!cal.getTime().after(date)) {
+				cal.add(Calendar.DAY_OF_YEAR, 1);
+			}
+			if ((next == null) || (cal.getTime().before(next))) {
+				next = cal.getTime();
+			}
+		}
+		return next;
+	}
+
+	@Override
+	public String toString() {
+		return (this.isUnrestricted()) ? "*" : this.description;
+	}
+
+	private Calendar newCalendar(Date date) {
+		final Calendar cal = new GregorianCalendar(this.timeZone);
+		cal.setTime(date);
+		return cal;
+	}
+
+	private static int toMinutes(String window, String hours, String minutes) {
+		final int h = Integer.parseInt(hours);
+		final int m = Integer.parseInt(minutes);
+		if ((h > 24) || (m > 59) || ((h == 24) && (m != 0))) {
+			throw new IllegalArgumentException(window);
+		}
+		return (h * 60 + m) % MINUTES_PER_DAY;
+	}
+
+	private static String format(int minutes) {
+		return String.format("%02d:%02d", minutes / 60, minutes % 60);
+	}
+}
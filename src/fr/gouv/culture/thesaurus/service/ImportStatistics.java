@@ -0,0 +1,186 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import java.util.List;
+
+/**
+ * Métriques des imports récents, calculées à partir de l'historique des
+ * imports du service d'accès au triplestore et exposées par JMX.
+ */
+public class ImportStatistics implements ImportStatisticsMBean {
+
+	private final ThesaurusService thesaurus;
+
+	/**
+	 * Crée les métriques des imports d'un service.
+	 * 
+	 * @param thesaurus
+	 *            Service d'accès au triplestore
+	 */
+	public ImportStatistics(ThesaurusService thesaurus) {
+		if (thesaurus == null) {
+			throw new IllegalArgumentException("thesaurus");
+		}
+		this.thesaurus = thesaurus;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getImportCount() {
+		return this.thesaurus.getImports().size();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getRunningCount() {
+		return this.count(ImportProgress.Status.RUNNING);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFailedCount() {
+		return this.count(ImportProgress.Status.FAILED);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastDuration() {
+		final ImportProgress p = this.getLast();
+		return (p != null) ? p.getDuration() : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastTriples() {
+		final ImportProgress p = this.getLast();
+		return (p != null) ? p.getCommitted() : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastFileSize() {
+		final ImportProgress p = this.getLast();
+		return (p != null) ? p.getFileSize() : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastParseTime() {
+		final ImportProgress p = this.getLast();
+		return (p != null) ? p.getParseTime() : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastCommitTime() {
+		final ImportProgress p = this.getLast();
+		return (p != null) ? p.getCommitTime() : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastRate() {
+		final ImportProgress p = this.getLast();
+		return (p != null) ? p.getRate() : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastSampledHeapGrowth() {
+		final ImportProgress p = this.getLast();
+		return (p != null) ? p.getSampledHeapGrowth() : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getAverageRate() {
+		long triples = 0L;
+		long duration = 0L;
+		for (ImportProgress p : this.thesaurus.getImports()) {
+			if (p.getStatus() == ImportProgress.Status.DONE) {
+				triples += p.getCommitted();
+				duration += p.getDuration();
+			}
+		}
+		return (duration > 0L) ? (triples * 1000L / duration) : 0L;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getMaxDuration() {
+		long max = 0L;
+		for (ImportProgress p : this.thesaurus.getImports()) {
+			if (p.getFinished() != null) {
+				max = Math.max(max, p.getDuration());
+			}
+		}
+		return max;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String[] getHistory() {
+		final List<ImportProgress> imports = this.thesaurus.getImports();
+		final String[] history = new String[imports.size()];
+		int i = 0;
+		for (ImportProgress p : imports) {
+			history[i++] = p.getStarted() + " " + p.getGraph() + " ("
+					+ p.getSource() + "): " + p.getStatus() + ", "
+					+ p.getFileSize() + " bytes, " + p.getCommitted()
+					+ " triples, " + p.getDuration() + " ms (parse "
+					+ p.getParseTime() + " ms, commit " + p.getCommitTime()
+					+ " ms), " + p.getRate() + " triples/s, heap ~+"
+					+ p.getSampledHeapGrowth() + " bytes";
+		}
+		return history;
+	}
+
+	/**
+	 * Renvoie le dernier import terminé.
+	 */
+	private ImportProgress getLast() {
+		for (ImportProgress p : this.thesaurus.getImports()) {
+			if (p.getFinished() != null) {
+				return p;
+			}
+		}
+		return null;
+	}
+
+	private int count(ImportProgress.Status status) {
+		int n = 0;
+		for (ImportProgress p : this.thesaurus.getImports()) {
+			if (p.getStatus() == status) {
+				n++;
+			}
+		}
+		return n;
+	}
+}
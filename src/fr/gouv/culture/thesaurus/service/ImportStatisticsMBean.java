@@ -0,0 +1,106 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+/**
+ * Interface JMX des métriques des imports récents (voir
+ * {@link ImportStatistics}).
+ */
+public interface ImportStatisticsMBean {
+
+	/**
+	 * @return Nombre d'imports conservés dans l'historique
+	 */
+	int getImportCount();
+
+	/**
+	 * @return Nombre d'imports en cours
+	 */
+	int getRunningCount();
+
+	/**
+	 * @return Nombre d'imports en échec dans l'historique
+	 */
+	int getFailedCount();
+
+	/**
+	 * @return Durée du dernier import terminé, en millisecondes
+	 */
+	long getLastDuration();
+
+	/**
+	 * @return Nombre de triplets enregistrés par le dernier import terminé
+	 */
+	long getLastTriples();
+
+	/**
+	 * @return Taille du fichier du dernier import terminé, en octets
+	 */
+	long getLastFileSize();
+
+	/**
+	 * @return Durée de lecture du dernier import terminé, en millisecondes
+	 */
+	long getLastParseTime();
+
+	/**
+	 * @return Durée d'écriture du dernier import terminé, en millisecondes
+	 */
+	long getLastCommitTime();
+
+	/**
+	 * @return Débit du dernier import terminé, en triplets par seconde
+	 */
+	long getLastRate();
+
+	/**
+	 * @return Augmentation approximative du tas pendant le dernier import
+	 *         terminé, en octets (voir
+	 *         {@link ImportProgress#getSampledHeapGrowth()})
+	 */
+	long getLastSampledHeapGrowth();
+
+	/**
+	 * @return Débit moyen des imports réussis de l'historique, en triplets
+	 *         par seconde
+	 */
+	long getAverageRate();
+
+	/**
+	 * @return Durée maximale des imports terminés de l'historique, en
+	 *         millisecondes
+	 */
+	long getMaxDuration();
+
+	/**
+	 * @return Historique des imports, du plus récent au plus ancien, un
+	 *         import par ligne
+	 */
+	String[] getHistory();
+}
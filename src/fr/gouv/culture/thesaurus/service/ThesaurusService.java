@@ -33,6 +33,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 
 import fr.gouv.culture.thesaurus.exception.BusinessException;
@@ -183,10 +184,13 @@ public interface ThesaurusService
      *                         the loaded triples shall be stored.
      * @throws BusinessException if any error occurred while accessing
      *         the RDF triple store.
+     * @return the import record, whose status is
+     *         {@link ImportProgress.Status#SKIPPED} if the file content
+     *         is identical to the last file loaded into the named graph.
      * @throws IOException if any error occurred while accessing the
      *         RDF/XML file.
      */
-    public void load(File file, String namedGraphUri)
+    public ImportProgress load(File file, String namedGraphUri)
                                         throws BusinessException, IOException;
     
     /**
@@ -199,9 +203,50 @@ public interface ThesaurusService
      * @throws IOException if any error occurred while accessing the
      *         RDF/XML file.
      *         @throws InvalidParameterException if the URI cannot be extracted from file.
+     * @return the import record, whose status is
+     *         {@link ImportProgress.Status#SKIPPED} if the file content
+     *         is identical to the last file loaded into the named graph.
      */
-    public void load(File file)
+    public ImportProgress load(File file)
                                         throws BusinessException, IOException, InvalidParameterException;
+
+    /**
+     * Returns the progress of the running and most recent imports.
+     * @return the import progress records, most recent first.
+     */
+    public List<ImportProgress> getImports();
+
+    /**
+     * Registers a listener notified after each completed import
+     * that modified the repository content.
+     * @param listener the listener to register.
+     */
+    public void addImportListener(ImportListener listener);
+
+    /**
+     * Stops the background tasks of the service (obsolete versions
+     * removal). The RDF triple store itself is left open.
+     */
+    public void shutdown();
+
+    /**
+     * Returns the version of the repository content, which changes
+     * each time an import or a deletion modifies it.
+     * @return the current data version.
+     */
+    public long getDataVersion();
+
+    /**
+     * Returns the graphs visible to readers when some contexts of the
+     * repository are hidden from them: versions being imported or
+     * waiting for deletion, staging graphs of batched imports.
+     * @return the URIs of the visible graphs, or <code>null</code> if
+     *         all the contexts of the repository are visible.
+     * @throws BusinessException if any error occurred while accessing
+     *         the RDF triple store.
+     */
+    public List<String> getVisibleGraphs() throws BusinessException;
+
     /**
      * Deletes the triples associated to the given named graph. 
      * @param uri 		uri of the named graph whose content should
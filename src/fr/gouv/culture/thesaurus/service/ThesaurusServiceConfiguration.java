@@ -28,6 +28,8 @@
 
 package fr.gouv.culture.thesaurus.service;
 
+import fr.gouv.culture.thesaurus.util.rdf.NamedGraphSniffer;
+
 /**
  * Configuration du service d'accès au thésaurus.
  * 
@@ -49,6 +51,57 @@ public class ThesaurusServiceConfiguration implements Cloneable {
 	 */
 	private int matchingLabelContextLength;
 
+	/**
+	 * Nombre de triplets enregistrés par transaction lors de l'import d'un
+	 * vocabulaire. Une valeur inférieure ou égale à 0 importe le fichier en
+	 * une seule transaction.
+	 */
+	private int importBatchSize = 0;
+
+	/**
+	 * Nombre de threads d'écriture alimentés par le thread d'analyse lors de
+	 * l'import d'un vocabulaire. Une valeur inférieure ou égale à 0 analyse
+	 * et écrit sur le thread appelant.
+	 */
+	private int importWriters = 0;
+
+	/**
+	 * Nombre maximal d'octets lus au début d'un fichier importé pour en
+	 * détecter le graphe nommé.
+	 */
+	private int importSniffBudget = NamedGraphSniffer.DEFAULT_BYTE_BUDGET;
+
+	/**
+	 * Indique si l'import d'un fichier identique (même empreinte de contenu)
+	 * au dernier fichier importé dans le graphe nommé est ignoré.
+	 */
+	private boolean importSkipUnchanged = false;
+
+	/**
+	 * Nombre d'imports (en cours et terminés) dont l'avancement et les
+	 * métriques sont conservés.
+	 */
+	private int importHistorySize = 20;
+
+	/**
+	 * Nombre maximal d'entrées (concepts, vocabulaires, métadonnées) lues
+	 * conservées en cache ; 0 désactive le cache.
+	 */
+	private int entryCacheSize = 0;
+
+	/**
+	 * Indique si la mise à jour d'un vocabulaire déjà présent dans le
+	 * triplestore n'applique que les triplets ajoutés et supprimés.
+	 */
+	private boolean importDelta = false;
+
+	/**
+	 * Indique si chaque import est écrit dans une nouvelle version (contexte
+	 * dédié) du graphe nommé, publiée en une seule opération une fois
+	 * complète. Prioritaire sur l'import différentiel.
+	 */
+	private boolean importVersioned = false;
+
 	/**
 	 * Renvoie la taille max de la chaîne représentant la première occurrence du
 	 * texte recherche dans le libellé correspondant à la requête de
@@ -102,6 +155,181 @@ public class ThesaurusServiceConfiguration implements Cloneable {
 		this.matchingLabelContextLength = matchingLabelContextLength;
 	}
 
+	/**
+	 * Renvoie le nombre de triplets enregistrés par transaction lors de
+	 * l'import d'un vocabulaire.
+	 * 
+	 * @return Taille des lots (0 pour un import en une seule transaction)
+	 */
+	public int getImportBatchSize() {
+		return importBatchSize;
+	}
+
+	/**
+	 * Modifie le nombre de triplets enregistrés par transaction lors de
+	 * l'import d'un vocabulaire.
+	 * 
+	 * @param importBatchSize
+	 *            Nouvelle taille des lots (0 pour un import en une seule
+	 *            transaction)
+	 */
+	public void setImportBatchSize(int importBatchSize) {
+		this.importBatchSize = importBatchSize;
+	}
+
+	/**
+	 * Renvoie le nombre de threads d'écriture alimentés par le thread
+	 * d'analyse lors de l'import d'un vocabulaire.
+	 * 
+	 * @return Nombre de threads d'écriture (0 pour un import sur le thread
+	 *         appelant)
+	 */
+	public int getImportWriters() {
+		return importWriters;
+	}
+
+	/**
+	 * Modifie le nombre de threads d'écriture alimentés par le thread
+	 * d'analyse lors de l'import d'un vocabulaire. Pour un import en une
+	 * seule transaction, un unique thread d'écriture est utilisé : le nombre
+	 * configuré ne dimensionne alors que la file des lots en attente.
+	 * 
+	 * @param importWriters
+	 *            Nouveau nombre de threads d'écriture (0 pour un import sur
+	 *            le thread appelant)
+	 */
+	public void setImportWriters(int importWriters) {
+		this.importWriters = importWriters;
+	}
+
+	/**
+	 * Renvoie le nombre maximal d'octets lus au début d'un fichier importé
+	 * pour en détecter le graphe nommé.
+	 * 
+	 * @return Budget de lecture, en octets
+	 */
+	public int getImportSniffBudget() {
+		return importSniffBudget;
+	}
+
+	/**
+	 * Modifie le nombre maximal d'octets lus au début d'un fichier importé
+	 * pour en détecter le graphe nommé. Un fichier dont le ConceptScheme
+	 * apparaît au-delà est parcouru en entier, au prix d'une lecture
+	 * supplémentaire.
+	 * 
+	 * @param importSniffBudget
+	 *            Nouveau budget de lecture, en octets
+	 */
+	public void setImportSniffBudget(int importSniffBudget) {
+		this.importSniffBudget = importSniffBudget;
+	}
+
+	/**
+	 * Indique si l'import d'un fichier identique au dernier fichier importé
+	 * dans le graphe nommé est ignoré.
+	 * 
+	 * @return <code>true</code> si les fichiers inchangés sont ignorés
+	 */
+	public boolean isImportSkipUnchanged() {
+		return importSkipUnchanged;
+	}
+
+	/**
+	 * Active ou désactive l'abandon des imports de fichiers identiques au
+	 * dernier fichier importé dans le graphe nommé.
+	 * 
+	 * @param importSkipUnchanged
+	 *            <code>true</code> pour ignorer les fichiers inchangés
+	 */
+	public void setImportSkipUnchanged(boolean importSkipUnchanged) {
+		this.importSkipUnchanged = importSkipUnchanged;
+	}
+
+	/**
+	 * Renvoie le nombre d'imports dont l'avancement et les métriques sont
+	 * conservés.
+	 * 
+	 * @return Taille de l'historique des imports
+	 */
+	public int getImportHistorySize() {
+		return importHistorySize;
+	}
+
+	/**
+	 * Modifie le nombre d'imports dont l'avancement et les métriques sont
+	 * conservés. Les plus anciens sont oubliés au-delà.
+	 * 
+	 * @param importHistorySize
+	 *            Taille de l'historique des imports (au moins 1)
+	 */
+	public void setImportHistorySize(int importHistorySize) {
+		this.importHistorySize = Math.max(1, importHistorySize);
+	}
+
+	/**
+	 * Renvoie le nombre maximal d'entrées lues conservées en cache.
+	 * 
+	 * @return Taille du cache des entrées, 0 s'il est désactivé
+	 */
+	public int getEntryCacheSize() {
+		return entryCacheSize;
+	}
+
+	/**
+	 * Modifie le nombre maximal d'entrées lues conservées en cache. Le cache
+	 * est vidé à chaque import ou suppression de vocabulaire.
+	 * 
+	 * @param entryCacheSize
+	 *            Taille du cache des entrées, 0 pour le désactiver
+	 */
+	public void setEntryCacheSize(int entryCacheSize) {
+		this.entryCacheSize = Math.max(0, entryCacheSize);
+	}
+
+	/**
+	 * Indique si la mise à jour d'un vocabulaire déjà présent dans le
+	 * triplestore n'applique que les triplets ajoutés et supprimés.
+	 * 
+	 * @return <code>true</code> si les imports sont différentiels
+	 */
+	public boolean isImportDelta() {
+		return importDelta;
+	}
+
+	/**
+	 * Active ou désactive l'import différentiel des vocabulaires déjà
+	 * présents dans le triplestore.
+	 * 
+	 * @param importDelta
+	 *            <code>true</code> pour n'appliquer que les triplets ajoutés
+	 *            et supprimés
+	 */
+	public void setImportDelta(boolean importDelta) {
+		this.importDelta = importDelta;
+	}
+
+	/**
+	 * Indique si chaque import est écrit dans une nouvelle version du graphe
+	 * nommé, publiée une fois complète (import « blue/green »).
+	 * 
+	 * @return <code>true</code> si les imports sont versionnés
+	 */
+	public boolean isImportVersioned() {
+		return importVersioned;
+	}
+
+	/**
+	 * Active ou désactive les imports versionnés (« blue/green »).
+	 * 
+	 * @param importVersioned
+	 *            <code>true</code> pour écrire chaque import dans une nouvelle
+	 *            version du graphe nommé
+	 */
+	public void setImportVersioned(boolean importVersioned) {
+		this.importVersioned = importVersioned;
+	}
+
 	@Override
 	public Object clone() {
 		try {
@@ -0,0 +1,143 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+
+/**
+ * Export complet d'un vocabulaire matérialisé sur disque. Un artefact est
+ * identifié par l'URI du concept scheme, le format d'export et la version des
+ * données (date du dernier import) : son contenu ne change donc jamais, ce qui
+ * permet de servir des plages d'octets et de reprendre un téléchargement
+ * interrompu.
+ */
+public class ExportArtefact {
+
+	private final String uri;
+	private final ExportType type;
+	private final Date version;
+	private final File file;
+	private final String entityTag;
+	private final ExportArtefactStore store;
+
+	/**
+	 * Crée un artefact d'export.
+	 * 
+	 * @param uri
+	 *            URI du concept scheme exporté
+	 * @param type
+	 *            Format de l'export
+	 * @param version
+	 *            Date du dernier import du vocabulaire
+	 * @param file
+	 *            Fichier contenant l'export
+	 * @param entityTag
+	 *            Identifiant (ETag HTTP, sans guillemets) du contenu
+	 */
+	public ExportArtefact(String uri, ExportType type, Date version,
+			File file, String entityTag) {
+		this(uri, type, version, file, entityTag, null);
+	}
+
+	ExportArtefact(String uri, ExportType type, Date version, File file,
+			String entityTag, ExportArtefactStore store) {
+		this.uri = uri;
+		this.type = type;
+		this.version = version;
+		this.file = file;
+		this.entityTag = entityTag;
+		this.store = store;
+	}
+
+	/**
+	 * @return URI du concept scheme exporté
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * @return Format de l'export
+	 */
+	public ExportType getType() {
+		return type;
+	}
+
+	/**
+	 * @return Date du dernier import du vocabulaire
+	 */
+	public Date getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return Fichier contenant l'export
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return Taille de l'export, en octets
+	 */
+	public long getLength() {
+		return file.length();
+	}
+
+	/**
+	 * Ouvre l'export en lecture. Tant que le fichier renvoyé n'est pas fermé,
+	 * le magasin ne le supprime pas, même si une version plus récente de
+	 * l'export est produite.
+	 * 
+	 * @return Fichier de l'export ouvert en lecture
+	 * @throws IOException
+	 *             Levée si le fichier ne peut être ouvert
+	 */
+	public RandomAccessFile open() throws IOException {
+		return (store != null) ? store.open(file) : new RandomAccessFile(file,
+				"r");
+	}
+
+	/**
+	 * @return Identifiant (ETag HTTP, sans guillemets) du contenu
+	 */
+	public String getEntityTag() {
+		return entityTag;
+	}
+
+	@Override
+	public String toString() {
+		return "ExportArtefact[" + uri + ", " + type + ", " + file + "]";
+	}
+}
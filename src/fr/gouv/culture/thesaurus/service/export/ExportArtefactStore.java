@@ -0,0 +1,528 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.atosorigin.fwk.io.SwapWriter;
+
+import fr.gouv.culture.thesaurus.exception.BusinessException;
+import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+
+/**
+ * Magasin des exports complets de vocabulaires matérialisés sur disque.
+ * <p>
+ * Un export est produit au plus une fois par version des données (date du
+ * dernier import) et par format : les téléchargements suivants, ainsi que les
+ * reprises de téléchargements interrompus, sont servis à partir du fichier
+ * sans solliciter le triplestore. L'export est écrit dans un
+ * {@link SwapWriter} créé dans le répertoire du magasin, puis renommé de façon
+ * atomique : un artefact visible est donc toujours complet. Les versions
+ * précédentes d'un export sont supprimées dès qu'une nouvelle version est
+ * produite, sauf si elles sont en cours de lecture : leur suppression est
+ * alors différée jusqu'à la fermeture du dernier lecteur (cf.
+ * {@link ExportArtefact#open()}).
+ * </p>
+ * <p>
+ * Le premier téléchargement d'une version n'attend pas la fin de la
+ * matérialisation : l'export est transmis au client au fil de sa production
+ * (cf. {@link #writeFullDump(String, ExportType, Date, Writer)}).
+ * </p>
+ */
+public class ExportArtefactStore {
+
+	/** Encodage des exports. */
+	private final static String ENCODING = "UTF-8";
+
+	/** Taille (en caractères) au-delà de laquelle l'export est écrit sur disque. */
+	private final static int SWAP_THRESHOLD = 64 * 1024;
+
+	/** Préfixe des fichiers en cours d'écriture. */
+	private final static String TMP_PREFIX = "tmp-";
+
+	private final static Logger log = Logger
+			.getLogger(ExportArtefactStore.class);
+
+	private final ThesaurusService thesaurus;
+	private final File directory;
+
+	/** Verrous empêchant la production concurrente d'un même export. */
+	private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<String, ReentrantLock>();
+
+	/** Nombre de lecteurs de chaque fichier d'export en cours de lecture. */
+	private final Map<File, Integer> readers = new HashMap<File, Integer>();
+
+	/** Exports obsolètes dont la suppression attend la fin des lectures. */
+	private final Set<File> obsolete = new HashSet<File>();
+
+	/**
+	 * Crée un magasin d'exports.
+	 * 
+	 * @param thesaurus
+	 *            Service d'accès au thésaurus produisant les exports
+	 * @param directory
+	 *            Répertoire de stockage des exports (créé si besoin)
+	 * @throws IOException
+	 *             Levée si le répertoire ne peut être créé ou n'est pas
+	 *             accessible en écriture
+	 */
+	public ExportArtefactStore(ThesaurusService thesaurus, File directory)
+			throws IOException {
+		if (thesaurus == null) {
+			throw new IllegalArgumentException("thesaurus");
+		}
+		if (directory == null) {
+			throw new IllegalArgumentException("directory");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Impossible de créer le répertoire "
+					+ directory);
+		}
+		if (!directory.canWrite()) {
+			throw new IOException("Répertoire non accessible en écriture : "
+					+ directory);
+		}
+		this.thesaurus = thesaurus;
+		this.directory = directory;
+
+		// Nettoyage des exports interrompus (arrêt du serveur...).
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().startsWith(TMP_PREFIX)) {
+					f.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renvoie l'export complet d'un vocabulaire, en le produisant si la
+	 * version demandée n'a pas encore été matérialisée.
+	 * 
+	 * @param uri
+	 *            URI du concept scheme à exporter
+	 * @param type
+	 *            Format de l'export
+	 * @param version
+	 *            Date du dernier import du vocabulaire
+	 * @return Export matérialisé
+	 * @throws BusinessException
+	 *             Levée si l'accès au triplestore a échoué
+	 * @throws IOException
+	 *             Levée si l'écriture de l'export a échoué
+	 */
+	public ExportArtefact getFullDump(String uri, ExportType type, Date version)
+			throws BusinessException, IOException {
+		return this.getFullDump(uri, type, version, null);
+	}
+
+	/**
+	 * Renvoie l'export complet d'un vocabulaire, en le produisant si besoin
+	 * et en comptabilisant les caractères écrits au fil de la production.
+	 * 
+	 * @param uri
+	 *            URI du concept scheme à exporter
+	 * @param type
+	 *            Format de l'export
+	 * @param version
+	 *            Date du dernier import du vocabulaire
+	 * @param progress
+	 *            Compteur des caractères écrits, ou <code>null</code>
+	 * @return Export matérialisé
+	 * @throws BusinessException
+	 *             Levée si l'accès au triplestore a échoué
+	 * @throws IOException
+	 *             Levée si l'écriture de l'export a échoué
+	 */
+	ExportArtefact getFullDump(String uri, ExportType type, Date version,
+			AtomicLong progress) throws BusinessException, IOException {
+		final String key = getKey(uri, type);
+		final ExportArtefact artefact = newArtefact(uri, type, version);
+
+		if (artefact.getFile().isFile()) {
+			return artefact;
+		}
+
+		final ReentrantLock lock = this.getLock(key);
+		lock.lock();
+		try {
+			// Un autre thread a pu produire l'export entre-temps.
+			if (!artefact.getFile().isFile()) {
+				this.materialize(artefact, progress, null);
+				this.purge(key, artefact.getFile());
+			}
+		} finally {
+			lock.unlock();
+		}
+		return artefact;
+	}
+
+	/**
+	 * Écrit l'export complet d'un vocabulaire au fil de sa production, en le
+	 * matérialisant au passage si aucun autre thread n'est déjà en train de
+	 * le faire. Contrairement à
+	 * {@link #getFullDump(String, ExportType, Date)}, l'appelant n'attend
+	 * jamais la fin d'une matérialisation : si une autre production de la même
+	 * version est en cours, l'export est simplement produit à nouveau sur le
+	 * flux, sans être matérialisé.
+	 * <p>
+	 * Si l'écriture sur le flux échoue (client déconnecté...), la
+	 * matérialisation est abandonnée ; elle sera reprise à la demande
+	 * suivante.
+	 * </p>
+	 * 
+	 * @param uri
+	 *            URI du concept scheme à exporter
+	 * @param type
+	 *            Format de l'export
+	 * @param version
+	 *            Date du dernier import du vocabulaire
+	 * @param out
+	 *            Flux sur lequel écrire l'export
+	 * @throws BusinessException
+	 *             Levée si l'accès au triplestore a échoué
+	 * @throws IOException
+	 *             Levée si l'écriture de l'export a échoué
+	 */
+	public void writeFullDump(String uri, ExportType type, Date version,
+			Writer out) throws BusinessException, IOException {
+		final String key = getKey(uri, type);
+		final ExportArtefact artefact = newArtefact(uri, type, version);
+
+		final ReentrantLock lock = this.getLock(key);
+		if (lock.tryLock()) {
+			try {
+				if (!artefact.getFile().isFile()) {
+					this.materialize(artefact, null, out);
+					this.purge(key, artefact.getFile());
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		this.thesaurus.getConceptScheme(uri, out, true, type);
+	}
+
+	/**
+	 * Renvoie l'export complet d'un vocabulaire s'il a déjà été matérialisé
+	 * pour la version demandée.
+	 * 
+	 * @param uri
+	 *            URI du concept scheme exporté
+	 * @param type
+	 *            Format de l'export
+	 * @param version
+	 *            Date du dernier import du vocabulaire
+	 * @return Export matérialisé, ou <code>null</code> s'il n'existe pas
+	 */
+	public ExportArtefact find(String uri, ExportType type, Date version) {
+		final ExportArtefact artefact = newArtefact(uri, type, version);
+		return (artefact.getFile().isFile()) ? artefact : null;
+	}
+
+	/**
+	 * Supprime tous les exports matérialisés d'un vocabulaire.
+	 * 
+	 * @param uri
+	 *            URI du concept scheme
+	 */
+	public void evict(String uri) {
+		for (ExportType type : ExportType.values()) {
+			this.purge(getKey(uri, type), null);
+		}
+	}
+
+	/**
+	 * @return Répertoire de stockage des exports
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Ouvre en lecture le fichier d'un export, en le protégeant de toute
+	 * suppression jusqu'à sa fermeture.
+	 * 
+	 * @param file
+	 *            Fichier de l'export
+	 * @return Fichier ouvert en lecture
+	 * @throws IOException
+	 *             Levée si le fichier ne peut être ouvert
+	 */
+	RandomAccessFile open(File file) throws IOException {
+		synchronized (this.readers) {
+			final Integer count = this.readers.get(file);
+			this.readers.put(file,
+					Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+		}
+		try {
+			return new ArtefactFile(file);
+		} catch (IOException e) {
+			this.release(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Libère un fichier d'export ouvert par {@link #open(File)} et le
+	 * supprime s'il est devenu obsolète entre-temps.
+	 */
+	private void release(File file) {
+		synchronized (this.readers) {
+			final Integer count = this.readers.get(file);
+			if ((count != null) && (count.intValue() > 1)) {
+				this.readers.put(file, Integer.valueOf(count.intValue() - 1));
+				return;
+			}
+			this.readers.remove(file);
+			if (this.obsolete.remove(file)) {
+				if (log.isDebugEnabled()) {
+					log.debug("Suppression différée de l'export obsolète "
+							+ file);
+				}
+				file.delete();
+			}
+		}
+	}
+
+	private ExportArtefact newArtefact(String uri, ExportType type,
+			Date version) {
+		final String tag = getKey(uri, type) + '-' + version.getTime();
+		return new ExportArtefact(uri, type, version, new File(this.directory,
+				type.getFilename(tag)), tag, this);
+	}
+
+	private ReentrantLock getLock(String key) {
+		final ReentrantLock lock = new ReentrantLock();
+		final ReentrantLock existing = this.locks.putIfAbsent(key, lock);
+		return (existing != null) ? existing : lock;
+	}
+
+	/**
+	 * Produit un export dans un fichier temporaire du magasin puis le renomme
+	 * en fichier définitif. Si <code>branch</code> est spécifié, l'export y
+	 * est recopié au fil de sa production.
+	 */
+	private void materialize(ExportArtefact artefact, AtomicLong progress,
+			Writer branch) throws BusinessException, IOException {
+		final long start = System.currentTimeMillis();
+		final SwapWriter out = new SwapWriter(SWAP_THRESHOLD, TMP_PREFIX,
+				null, this.directory, ENCODING);
+		File tmp = null;
+		try {
+			Writer w = (branch != null) ? new TeeWriter(out, branch) : out;
+			if (progress != null) {
+				w = new CountingWriter(w, progress);
+			}
+			this.thesaurus.getConceptScheme(artefact.getUri(), w, true,
+					artefact.getType());
+			w.flush();
+			out.close();
+
+			tmp = out.getFile();
+			if (tmp == null) {
+				// Export de petite taille resté en mémoire.
+				tmp = File.createTempFile(TMP_PREFIX, null, this.directory);
+				final InputStream in = out.getInputStream();
+				final OutputStream fos = new FileOutputStream(tmp);
+				try {
+					IOUtils.copy(in, fos);
+				} finally {
+					IOUtils.closeQuietly(in);
+					fos.close();
+				}
+			}
+			if (!tmp.renameTo(artefact.getFile())) {
+				throw new IOException("Impossible de renommer " + tmp + " en "
+						+ artefact.getFile());
+			}
+			tmp = null;
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+			out.reset();
+		}
+		if (log.isInfoEnabled()) {
+			log.info("Export matérialisé : " + artefact + " ("
+					+ artefact.getLength() + " octets en "
+					+ (System.currentTimeMillis() - start) + " ms)");
+		}
+	}
+
+	/**
+	 * Supprime les versions d'un export autres que celle spécifiée. Les
+	 * fichiers en cours de lecture ne sont supprimés qu'à la fermeture de leur
+	 * dernier lecteur.
+	 */
+	private void purge(String key, File current) {
+		final File[] files = this.directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			if (f.getName().startsWith(key + '-') && !f.equals(current)) {
+				synchronized (this.readers) {
+					if (this.readers.containsKey(f)) {
+						this.obsolete.add(f);
+						continue;
+					}
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("Suppression de l'export obsolète " + f);
+				}
+				f.delete();
+			}
+		}
+	}
+
+	private static String getKey(String uri, ExportType type) {
+		return DigestUtils.md5Hex(uri) + '-' + type.name().toLowerCase();
+	}
+
+	/**
+	 * Fichier d'export ouvert en lecture, libéré à sa fermeture.
+	 */
+	private final class ArtefactFile extends RandomAccessFile {
+		private final File file;
+		private boolean closed = false;
+
+		public ArtefactFile(File file) throws IOException {
+			super(file, "r");
+			this.file = file;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (!this.closed) {
+					this.closed = true;
+					release(this.file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writer recopiant les caractères écrits sur un second flux.
+	 */
+	private static final class TeeWriter extends FilterWriter {
+		private final Writer branch;
+
+		public TeeWriter(Writer out, Writer branch) {
+			super(out);
+			this.branch = branch;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			super.write(c);
+			this.branch.write(c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			super.write(cbuf, off, len);
+			this.branch.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			super.write(str, off, len);
+			this.branch.write(str, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			super.flush();
+			this.branch.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Les flux sont fermés par leurs propriétaires : ils sont seulement vidés.
+			this.flush();
+		}
+	}
+
+	/**
+	 * Writer comptabilisant les caractères écrits.
+	 */
+	private static final class CountingWriter extends FilterWriter {
+		private final AtomicLong count;
+
+		public CountingWriter(Writer out, AtomicLong count) {
+			super(out);
+			this.count = count;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			super.write(c);
+			this.count.incrementAndGet();
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			super.write(cbuf, off, len);
+			this.count.addAndGet(len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			super.write(str, off, len);
+			this.count.addAndGet(len);
+		}
+	}
+}
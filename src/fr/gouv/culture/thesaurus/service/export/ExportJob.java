@@ -0,0 +1,202 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.export;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+
+/**
+ * Tâche d'export complet asynchrone d'un vocabulaire. L'export est produit
+ * sur disque par le pool de {@link ExportJobManager} ; le client interroge
+ * l'état de la tâche puis télécharge l'artefact une fois celui-ci terminé.
+ */
+public class ExportJob {
+
+	/**
+	 * États d'une tâche d'export.
+	 */
+	public enum Status {
+		/** Tâche en attente d'un thread d'export. */
+		PENDING,
+		/** Export en cours d'écriture. */
+		RUNNING,
+		/** Export terminé, artefact disponible. */
+		DONE,
+		/** Export en échec. */
+		FAILED
+	}
+
+	private final String id;
+	private final String uri;
+	private final ExportType type;
+	private final Date version;
+	private final Date submitted;
+	private final AtomicLong written = new AtomicLong();
+
+	private volatile Status status = Status.PENDING;
+	private volatile Date started;
+	private volatile Date finished;
+	private volatile ExportArtefact artefact;
+	private volatile String error;
+
+	/**
+	 * Crée une tâche d'export.
+	 * 
+	 * @param id
+	 *            Identifiant de la tâche
+	 * @param uri
+	 *            URI du concept scheme à exporter
+	 * @param type
+	 *            Format de l'export
+	 * @param version
+	 *            Version des données à exporter (date du dernier import)
+	 */
+	public ExportJob(String id, String uri, ExportType type, Date version) {
+		this.id = id;
+		this.uri = uri;
+		this.type = type;
+		this.version = version;
+		this.submitted = new Date();
+	}
+
+	/**
+	 * @return Identifiant de la tâche
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return URI du concept scheme exporté
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * @return Format de l'export
+	 */
+	public ExportType getType() {
+		return type;
+	}
+
+	/**
+	 * @return Version des données exportées
+	 */
+	public Date getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return État de la tâche
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return Date de soumission de la tâche
+	 */
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * @return Date de début de l'export, ou <code>null</code>
+	 */
+	public Date getStarted() {
+		return started;
+	}
+
+	/**
+	 * @return Date de fin de l'export, ou <code>null</code>
+	 */
+	public Date getFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return Nombre de caractères écrits jusqu'à présent
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return Artefact produit, ou <code>null</code> si l'export n'est pas
+	 *         terminé
+	 */
+	public ExportArtefact getArtefact() {
+		return artefact;
+	}
+
+	/**
+	 * @return Message d'erreur si l'export a échoué, <code>null</code> sinon
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return <code>true</code> si la tâche est terminée (avec succès ou
+	 *         non)
+	 */
+	public boolean isFinished() {
+		return (status == Status.DONE) || (status == Status.FAILED);
+	}
+
+	AtomicLong getProgress() {
+		return written;
+	}
+
+	void started() {
+		this.started = new Date();
+		this.status = Status.RUNNING;
+	}
+
+	void done(ExportArtefact artefact) {
+		this.artefact = artefact;
+		this.finished = new Date();
+		this.status = Status.DONE;
+	}
+
+	void failed(String error) {
+		this.error = error;
+		this.finished = new Date();
+		this.status = Status.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return "ExportJob[" + id + ", " + uri + ", " + type + ", " + status
+				+ "]";
+	}
+}
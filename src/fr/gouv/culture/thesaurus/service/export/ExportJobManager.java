@@ -0,0 +1,211 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.export;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+import fr.gouv.culture.thesaurus.util.concurrent.DaemonThreadFactory;
+
+/**
+ * Gestionnaire des exports complets asynchrones.
+ * <p>
+ * Les exports sont produits par un pool borné de threads (taille du pool et
+ * de la file d'attente configurables) dans le {@link ExportArtefactStore} :
+ * ni les threads du conteneur de servlets, ni les connexions au triplestore
+ * ne sont donc mobilisés pendant le téléchargement, quel que soit le débit du
+ * client. Une demande portant sur un export déjà en cours pour la même
+ * version des données renvoie la tâche existante. Les tâches terminées sont
+ * oubliées après un délai de rétention.
+ * </p>
+ */
+public class ExportJobManager {
+
+	private final static Logger log = Logger.getLogger(ExportJobManager.class);
+
+	private final ExportArtefactStore store;
+	private final ThreadPoolExecutor executor;
+	private final long retention;
+
+	/** Tâches connues, par identifiant. */
+	private final ConcurrentMap<String, ExportJob> jobs = new ConcurrentHashMap<String, ExportJob>();
+
+	/**
+	 * Crée un gestionnaire d'exports asynchrones.
+	 * 
+	 * @param store
+	 *            Magasin dans lequel les exports sont matérialisés
+	 * @param threads
+	 *            Nombre de threads d'export
+	 * @param queueSize
+	 *            Nombre maximal de tâches en attente
+	 * @param retention
+	 *            Durée de conservation des tâches terminées, en millisecondes
+	 */
+	public ExportJobManager(ExportArtefactStore store, int threads,
+			int queueSize, long retention) {
+		if (store == null) {
+			throw new IllegalArgumentException("store");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads");
+		}
+		if (queueSize < 0) {
+			throw new IllegalArgumentException("queueSize");
+		}
+		this.store = store;
+		this.retention = retention;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(
+						Math.max(1, queueSize)), new DaemonThreadFactory(
+						"thesaurus-export-job", Thread.MIN_PRIORITY));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Soumet l'export complet d'un vocabulaire.
+	 * 
+	 * @param uri
+	 *            URI du concept scheme à exporter
+	 * @param type
+	 *            Format de l'export
+	 * @param version
+	 *            Version des données à exporter (date du dernier import)
+	 * @return Tâche d'export, éventuellement déjà existante
+	 * @throws RejectedExecutionException
+	 *             Levée si la file d'attente des exports est pleine
+	 */
+	public ExportJob submit(String uri, ExportType type, Date version)
+			throws RejectedExecutionException {
+		if (version == null) {
+			throw new IllegalArgumentException("version");
+		}
+		this.expire();
+
+		// Recherche et enregistrement atomiques : deux demandes simultanées
+		// d'un même export ne produisent qu'une tâche.
+		synchronized (this.jobs) {
+			for (ExportJob job : this.jobs.values()) {
+				if (job.getUri().equals(uri) && (job.getType() == type)
+						&& job.getVersion().equals(version)
+						&& (job.getStatus() != ExportJob.Status.FAILED)) {
+					return job;
+				}
+			}
+			final ExportJob job = new ExportJob(UUID.randomUUID().toString(),
+					uri, type, version);
+			final ExportArtefact existing = this.store.find(uri, type,
+					version);
+			if (existing != null) {
+				// Export déjà matérialisé : tâche immédiatement terminée.
+				job.done(existing);
+			} else {
+				this.executor.execute(new Runnable() {
+					public void run() {
+						execute(job);
+					}
+				});
+			}
+			this.jobs.put(job.getId(), job);
+			return job;
+		}
+	}
+
+	/**
+	 * Renvoie une tâche d'export.
+	 * 
+	 * @param id
+	 *            Identifiant de la tâche
+	 * @return Tâche, ou <code>null</code> si elle est inconnue ou expirée
+	 */
+	public ExportJob getJob(String id) {
+		return (id != null) ? this.jobs.get(id) : null;
+	}
+
+	/**
+	 * @return Nombre de tâches en attente d'un thread d'export
+	 */
+	public int getQueueSize() {
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * @return Magasin dans lequel les exports sont matérialisés
+	 */
+	public ExportArtefactStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Arrête le pool d'export, en interrompant les exports en cours.
+	 */
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private void execute(ExportJob job) {
+		job.started();
+		try {
+			job.done(this.store.getFullDump(job.getUri(), job.getType(),
+					job.getVersion(), job.getProgress()));
+		} catch (Exception e) {
+			log.error("Echec de l'export " + job, e);
+			String message = e.getMessage();
+			if ((message == null) || (message.length() == 0)) {
+				message = e.toString();
+			}
+			job.failed(message);
+		}
+	}
+
+	/**
+	 * Oublie les tâches terminées depuis plus longtemps que la durée de
+	 * rétention.
+	 */
+	private void expire() {
+		final long limit = System.currentTimeMillis() - this.retention;
+		for (Iterator<ExportJob> i = this.jobs.values().iterator(); i
+				.hasNext();) {
+			final ExportJob job = i.next();
+			if (job.isFinished() && (job.getFinished().getTime() < limit)) {
+				i.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+import fr.gouv.culture.thesaurus.vocabulary.Ginco;
+
+/**
+ * Import d'un fichier RDF dans un graphe nommé par lots de triplets.
+ * <p>
+ * Le fichier est lu en flux par un parseur Rio et les triplets sont
+ * enregistrés par lots de taille fixe, chacun dans sa propre transaction,
+ * dans un graphe de travail (« staging ») : le serveur Sesame n'a ainsi
+ * jamais à conserver l'intégralité du fichier dans un tampon de transaction.
+ * Une fois le fichier entièrement lu, une unique requête SPARQL Update
+ * exécutée côté serveur remplace le contenu du graphe cible par celui du
+ * graphe de travail (<code>MOVE</code>) et enregistre la date d'import :
+ * le graphe cible passe donc atomiquement de l'ancienne à la nouvelle
+ * version. En cas d'échec, le graphe de travail est vidé et le graphe cible
+ * reste inchangé.
+ * </p>
+ * <p>
+ * Pendant l'import, le graphe de travail fait partie de l'union des graphes
+ * nommés du triplestore : il appartient à l'appelant de le masquer aux
+ * lecteurs (cf. le jeu de données des requêtes de {@link SesameThesaurus}).
+ * </p>
+ * <p>
+ * Si plusieurs threads d'écriture sont demandés, l'analyse du fichier et
+ * l'enregistrement des lots sont exécutés en parallèle (voir
+ * {@link StatementPipeline}).
+ * </p>
+ */
+final class ChunkedGraphLoader {
+
+	private final static Logger log = Logger
+			.getLogger(ChunkedGraphLoader.class);
+
+	private final Repository repository;
+	private final int batchSize;
+	private final int writers;
+	private final String swapQueryTemplate;
+
+	/**
+	 * Crée un chargeur par lots.
+	 * 
+	 * @param repository
+	 *            Triplestore
+	 * @param batchSize
+	 *            Nombre de triplets par transaction
+	 * @param writers
+	 *            Nombre de threads d'écriture parallèles à l'analyse du
+	 *            fichier, 0 pour analyser et écrire sur le thread appelant
+	 * @param swapQueryTemplate
+	 *            Requête SPARQL Update de bascule, paramétrée par le graphe
+	 *            de travail (<code>%1$s</code>), le graphe cible (
+	 *            <code>%2$s</code>), la date d'import (<code>%3$s</code>) et
+	 *            l'empreinte du fichier (<code>%4$s</code>), utilisée par
+	 *            {@link #load}
+	 */
+	ChunkedGraphLoader(Repository repository, int batchSize, int writers,
+			String swapQueryTemplate) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize");
+		}
+		this.repository = repository;
+		this.batchSize = batchSize;
+		this.writers = writers;
+		this.swapQueryTemplate = swapQueryTemplate;
+	}
+
+	/**
+	 * Importe un fichier dans un graphe nommé. L'import est abandonné, sans
+	 * modification du graphe cible, si le fichier est identique au contenu
+	 * déjà chargé (voir {@link RdfInput#isUnchanged()}).
+	 * 
+	 * @param input
+	 *            Fichier à importer
+	 * @param graph
+	 *            Graphe nommé cible
+	 * @param staging
+	 *            Graphe de travail
+	 * @param dateSubmitted
+	 *            Date d'import à enregistrer dans le graphe cible
+	 * @param progress
+	 *            Suivi de l'avancement de l'import
+	 * @throws OpenRDFException
+	 *             Levée si la lecture du fichier ou l'accès au triplestore a
+	 *             échoué
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué
+	 */
+	void load(RdfInput input, URI graph, URI staging,
+			Literal dateSubmitted, ImportProgress progress)
+			throws OpenRDFException, IOException {
+		final long start = System.currentTimeMillis();
+		RepositoryConnection cnx = null;
+		boolean swapped = false;
+		try {
+			cnx = this.repository.getConnection();
+			// Nettoyage d'un éventuel import précédent interrompu.
+			cnx.clear(staging);
+
+			this.append(cnx, input, staging, progress);
+			if (input.isUnchanged()) {
+				// Fichier identique au contenu chargé : graphe de travail
+				// abandonné.
+				return;
+			}
+
+			// Bascule atomique du graphe de travail vers le graphe cible.
+			final long swapStart = System.nanoTime();
+			cnx.prepareUpdate(
+					QueryLanguage.SPARQL,
+					String.format(this.swapQueryTemplate,
+							NTriplesUtil.toNTriplesString(staging),
+							NTriplesUtil.toNTriplesString(graph),
+							NTriplesUtil.toNTriplesString(dateSubmitted),
+							NTriplesUtil.toNTriplesString(this.repository
+									.getValueFactory().createLiteral(
+											input.getContentHash()))))
+					.execute();
+			progress.commitTime(System.nanoTime() - swapStart);
+			swapped = true;
+		} finally {
+			this.close(cnx, (swapped) ? null : staging);
+		}
+		this.logCompletion(graph, progress, start);
+	}
+
+	/**
+	 * Importe un fichier dans une nouvelle version (contexte dédié) d'un
+	 * graphe nommé, sans modifier la version courante. La date d'import est
+	 * enregistrée en dernier : sa présence signale une version complète. La
+	 * version est vidée si le fichier est identique à la version courante.
+	 * 
+	 * @param input
+	 *            Fichier à importer
+	 * @param graph
+	 *            Graphe nommé (logique) importé
+	 * @param version
+	 *            Contexte de la nouvelle version
+	 * @param dateSubmitted
+	 *            Date d'import à enregistrer dans la nouvelle version
+	 * @param progress
+	 *            Suivi de l'avancement de l'import
+	 * @throws OpenRDFException
+	 *             Levée si la lecture du fichier ou l'accès au triplestore a
+	 *             échoué
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué
+	 */
+	void loadVersion(RdfInput input, URI graph, URI version,
+			Literal dateSubmitted, ImportProgress progress)
+			throws OpenRDFException, IOException {
+		final long start = System.currentTimeMillis();
+		RepositoryConnection cnx = null;
+		boolean completed = false;
+		try {
+			cnx = this.repository.getConnection();
+			cnx.clear(version);
+
+			this.append(cnx, input, version, progress);
+			if (input.isUnchanged()) {
+				// Fichier identique à la version courante : nouvelle version
+				// abandonnée.
+				return;
+			}
+
+			final ValueFactory vf = this.repository.getValueFactory();
+			cnx.add(graph, vf.createURI(Ginco.CONTENT_HASH),
+					vf.createLiteral(input.getContentHash()), version);
+			cnx.add(graph, this.repository.getValueFactory().createURI(
+					DublinCoreTerms.DATE_SUBMITTED), dateSubmitted, version);
+			completed = true;
+		} finally {
+			this.close(cnx, (completed) ? null : version);
+		}
+		this.logCompletion(version, progress, start);
+	}
+
+	/**
+	 * Lit un fichier et en enregistre les triplets par lots dans un contexte.
+	 */
+	private void append(RepositoryConnection cnx, RdfInput input, URI ctx,
+			ImportProgress progress)
+			throws OpenRDFException, IOException {
+		if (this.writers > 0) {
+			new StatementPipeline(this.repository.getValueFactory(),
+					this.batchSize, 2 * this.writers).load(this.repository,
+					this.writers, input, ctx, progress);
+			return;
+		}
+		final RDFParser parser = Rio.createParser(input.getFormat(),
+				this.repository.getValueFactory());
+		final BatchHandler handler = new BatchHandler(cnx, ctx, progress);
+		parser.setRDFHandler(handler);
+		final long start = System.nanoTime();
+		final InputStream in = input.open();
+		boolean read = false;
+		try {
+			parser.parse(in, input.getBaseUri());
+			read = true;
+		} finally {
+			input.close(in, read);
+		}
+		// Lecture et écriture alternées sur le même thread.
+		progress.parseTime(System.nanoTime() - start - handler.flushTime);
+	}
+
+	/**
+	 * Ferme une connexion, après avoir vidé le contexte spécifié (lots
+	 * enregistrés par un import en échec), le cas échéant.
+	 */
+	private void close(RepositoryConnection cnx, URI abandoned) {
+		if (cnx == null) {
+			return;
+		}
+		if (abandoned != null) {
+			try {
+				cnx.clear(abandoned);
+			} catch (Exception e) {
+				log.warn("Echec du nettoyage du graphe " + abandoned + " : "
+						+ e.getMessage());
+			}
+		}
+		try {
+			cnx.close();
+		} catch (Exception e) { /* Ignore... */
+		}
+	}
+
+	private void logCompletion(URI graph, ImportProgress progress, long start) {
+		if (log.isInfoEnabled()) {
+			log.info("Import de " + graph + " : " + progress.getCommitted()
+					+ " triplets en " + (System.currentTimeMillis() - start)
+					+ " ms (" + progress.getRate() + " triplets/s, lots de "
+					+ this.batchSize + ", " + this.writers
+					+ " threads d'écriture)");
+		}
+	}
+
+	/**
+	 * Gestionnaire Rio enregistrant les triplets lus par lots.
+	 */
+	private final class BatchHandler extends RDFHandlerBase {
+		private final RepositoryConnection cnx;
+		private final URI staging;
+		private final ImportProgress progress;
+		private final List<Statement> batch;
+		/** Durée cumulée des écritures, en nanosecondes. */
+		long flushTime = 0L;
+
+		public BatchHandler(RepositoryConnection cnx, URI staging,
+				ImportProgress progress) {
+			this.cnx = cnx;
+			this.staging = staging;
+			this.progress = progress;
+			this.batch = new ArrayList<Statement>(batchSize);
+		}
+
+		@Override
+		public void handleStatement(Statement st) throws RDFHandlerException {
+			this.batch.add(st);
+			this.progress.parsed(1L);
+			if (this.batch.size() >= batchSize) {
+				this.flush();
+			}
+		}
+
+		@Override
+		public void endRDF() throws RDFHandlerException {
+			this.flush();
+		}
+
+		private void flush() throws RDFHandlerException {
+			if (this.batch.isEmpty()) {
+				return;
+			}
+			final long start = System.nanoTime();
+			try {
+				this.cnx.begin();
+				this.cnx.add(this.batch, this.staging);
+				this.cnx.commit();
+			} catch (RepositoryException e) {
+				try {
+					this.cnx.rollback();
+				} catch (Exception e2) { /* Ignore... */
+				}
+				throw new RDFHandlerException(e);
+			}
+			final long elapsed = System.nanoTime() - start;
+			this.flushTime += elapsed;
+			this.progress.commitTime(elapsed);
+			this.progress.committed(this.batch.size());
+			this.batch.clear();
+		}
+	}
+}
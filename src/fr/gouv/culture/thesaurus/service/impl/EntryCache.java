@@ -0,0 +1,152 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache borné (LRU) des entrées lues dans le triplestore (concepts, concept
+ * schemes, métadonnées des vocabulaires), qui évite de rejouer la dizaine de
+ * requêtes SPARQL nécessaires à la construction d'une page.
+ * <p>
+ * Le cache est vidé à chaque import ou suppression de vocabulaire ; après un
+ * import différentiel, seules les entrées affectées en sont supprimées. Les
+ * clés sont de la forme <code>type:uri</code>. Une entrée lue avant une
+ * invalidation n'y est pas ajoutée après celle-ci : l'appelant relève la
+ * génération du cache avant la lecture et la transmet lors de l'ajout.
+ * </p>
+ */
+final class EntryCache {
+
+	private final Map<String, Object> entries;
+	private long generation = 0L;
+
+	/**
+	 * Crée un cache d'entrées.
+	 * 
+	 * @param size
+	 *            Nombre maximal d'entrées
+	 */
+	EntryCache(final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size");
+		}
+		this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+				return this.size() > size;
+			}
+		};
+	}
+
+	/**
+	 * Renvoie une entrée du cache.
+	 * 
+	 * @param key
+	 *            Clé de l'entrée
+	 * @param type
+	 *            Type de l'entrée
+	 * @return Entrée, ou <code>null</code> si elle est absente du cache
+	 */
+	synchronized <T> T get(String key, Class<T> type) {
+		final Object value = this.entries.get(key);
+		return (type.isInstance(value)) ? type.cast(value) : null;
+	}
+
+	/**
+	 * @return Génération courante du cache, à relever avant la lecture d'une
+	 *         entrée dans le triplestore
+	 */
+	synchronized long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Ajoute une entrée au cache, sauf si celui-ci a été vidé depuis sa
+	 * lecture.
+	 * 
+	 * @param key
+	 *            Clé de l'entrée
+	 * @param value
+	 *            Entrée
+	 * @param generation
+	 *            Génération du cache relevée avant la lecture de l'entrée
+	 */
+	synchronized void put(String key, Object value, long generation) {
+		if ((value != null) && (generation == this.generation)) {
+			this.entries.put(key, value);
+		}
+	}
+
+	/**
+	 * Vide le cache.
+	 */
+	synchronized void clear() {
+		this.entries.clear();
+		this.generation++;
+	}
+
+	/**
+	 * Supprime du cache les entrées portant sur des ressources données ou
+	 * d'un type donné.
+	 * 
+	 * @param uris
+	 *            URI des ressources dont les entrées sont supprimées
+	 * @param types
+	 *            Types des entrées supprimées quelle que soit leur ressource
+	 * @return Nombre d'entrées supprimées
+	 */
+	synchronized int evict(Set<String> uris, Set<String> types) {
+		int evicted = 0;
+		for (Iterator<String> i = this.entries.keySet().iterator(); i
+				.hasNext();) {
+			final String key = i.next();
+			final int n = key.indexOf(':');
+			if ((types.contains(key.substring(0, n)))
+					|| (uris.contains(key.substring(n + 1)))) {
+				i.remove();
+				evicted++;
+			}
+		}
+		this.generation++;
+		return evicted;
+	}
+
+	/**
+	 * @return Nombre d'entrées présentes dans le cache
+	 */
+	synchronized int size() {
+		return this.entries.size();
+	}
+}
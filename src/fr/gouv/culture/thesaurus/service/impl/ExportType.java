@@ -45,6 +45,11 @@ public enum ExportType {
 	 */
 	N3("text/n3", "n3"),
 
+	/**
+	 * Export au format N-Triples (un triplet par ligne).
+	 */
+	NTRIPLES("application/n-triples", "nt"),
+
 	;
 
 	private String mimeType;
@@ -0,0 +1,428 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import fr.gouv.culture.thesaurus.service.GraphChangeSet;
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+import fr.gouv.culture.thesaurus.vocabulary.Ginco;
+
+/**
+ * Import différentiel d'un fichier RDF dans un graphe nommé existant.
+ * <p>
+ * Plutôt que de vider le graphe et de réinsérer l'ensemble des triplets, seuls
+ * les triplets ajoutés et supprimés par rapport au contenu actuel du graphe
+ * sont appliqués, dans une unique transaction. Chaque triplet est représenté
+ * par une empreinte de 64 bits (MD5 tronqué de sa forme N-Triples) ; les
+ * empreintes du fichier et du graphe sont triées pour être comparées par
+ * recherche dichotomique, sans conserver les triplets eux-mêmes en mémoire :
+ * seuls ceux de la différence sont retenus. Le fichier est donc lu deux fois.
+ * </p>
+ * <p>
+ * La différence est conservée en mémoire et appliquée en une transaction :
+ * elle est donc plafonnée. Au-delà du plafond (réécriture importante du
+ * vocabulaire), elle est abandonnée sans rien écrire et l'appelant recharge
+ * le graphe par lots.
+ * </p>
+ * <p>
+ * Les identifiants de nœuds anonymes n'étant pas stables d'une lecture à
+ * l'autre, les triplets portant sur des nœuds anonymes sont systématiquement
+ * remplacés.
+ * </p>
+ * <p>
+ * La date d'import et l'empreinte du fichier, décrivant le graphe lui-même,
+ * sont remplacées à part : les valeurs éventuellement présentes dans le
+ * fichier sont ignorées.
+ * </p>
+ */
+final class GraphDeltaLoader {
+
+	private final static Logger log = Logger.getLogger(GraphDeltaLoader.class);
+
+	private final Repository repository;
+	private final int maxChanges;
+
+	/**
+	 * Crée un chargeur différentiel.
+	 * 
+	 * @param repository
+	 *            Triplestore
+	 * @param maxChanges
+	 *            Nombre maximal de triplets ajoutés et supprimés appliqués en
+	 *            une transaction, 0 pour ne pas le limiter
+	 */
+	GraphDeltaLoader(Repository repository, int maxChanges) {
+		this.repository = repository;
+		this.maxChanges = maxChanges;
+	}
+
+	/**
+	 * Applique à un graphe nommé la différence entre son contenu actuel et
+	 * celui d'un fichier.
+	 * 
+	 * @param input
+	 *            Fichier à importer
+	 * @param graph
+	 *            Graphe nommé cible
+	 * @param dateSubmitted
+	 *            Date d'import à enregistrer dans le graphe cible
+	 * @param progress
+	 *            Suivi de l'avancement de l'import
+	 * @return Modifications apportées au graphe, ou <code>null</code> si le
+	 *         fichier est identique au contenu déjà chargé (voir
+	 *         {@link RdfInput#isUnchanged()}) ou si la différence dépasse le
+	 *         plafond : le graphe n'a alors pas été modifié
+	 * @throws OpenRDFException
+	 *             Levée si la lecture du fichier ou l'accès au triplestore a
+	 *             échoué
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué
+	 */
+	GraphChangeSet load(RdfInput input, URI graph,
+			Literal dateSubmitted, ImportProgress progress)
+			throws OpenRDFException, IOException {
+		final long start = System.currentTimeMillis();
+		final URI dateProperty = this.repository.getValueFactory().createURI(
+				DublinCoreTerms.DATE_SUBMITTED);
+		final URI hashProperty = this.repository.getValueFactory().createURI(
+				Ginco.CONTENT_HASH);
+
+		// 1re lecture du fichier : empreintes des triplets.
+		final HashCollector fileHashes = new HashCollector(graph,
+				dateProperty, hashProperty);
+		long parseStart = System.nanoTime();
+		this.parse(input, fileHashes);
+		progress.parseTime(System.nanoTime() - parseStart);
+		final long[] newHashes = fileHashes.hashes.toSortedArray();
+		if (input.isUnchanged()) {
+			// Fichier identique au contenu chargé : aucune différence.
+			progress.parsed(fileHashes.count);
+			return null;
+		}
+
+		final List<Statement> removed = new ArrayList<Statement>();
+		final List<Statement> added = new ArrayList<Statement>();
+		final Set<String> resources = new HashSet<String>();
+		final boolean[] complete = { true };
+
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.repository.getConnection();
+
+			// Parcours du graphe : triplets supprimés.
+			final LongArray graphHashes = new LongArray();
+			final StatementHasher hasher = new StatementHasher();
+			RepositoryResult<Statement> rs = null;
+			try {
+				rs = cnx.getStatements(null, null, null, false, graph);
+				while (rs.hasNext()) {
+					final Statement st = rs.next();
+					if (isImportMetadata(st, graph, dateProperty,
+							hashProperty)) {
+						// Date d'import et empreinte : remplacées à part.
+						continue;
+					}
+					if (hasBNode(st)) {
+						removed.add(st);
+						complete[0] &= addResources(resources, st, true);
+					} else {
+						final long h = hasher.hash(st);
+						graphHashes.add(h);
+						if (Arrays.binarySearch(newHashes, h) < 0) {
+							removed.add(st);
+							addResources(resources, st, true);
+						}
+					}
+					if (this.exceeds(removed.size())) {
+						return this.abandon(graph);
+					}
+				}
+			} finally {
+				if (rs != null) {
+					try {
+						rs.close();
+					} catch (Exception e) { /* Ignore... */
+					}
+				}
+			}
+			final long[] oldHashes = graphHashes.toSortedArray();
+
+			// 2e lecture du fichier : triplets ajoutés.
+			parseStart = System.nanoTime();
+			try {
+				this.parse(input, new RDFHandlerBase() {
+					@Override
+					public void handleStatement(Statement st)
+							throws RDFHandlerException {
+						if (isImportMetadata(st, graph, dateProperty,
+								hashProperty)) {
+							return;
+						}
+						if (hasBNode(st)) {
+							added.add(st);
+							complete[0] &= addResources(resources, st, false);
+						} else if (Arrays.binarySearch(oldHashes,
+								hasher.hash(st)) < 0) {
+							added.add(st);
+							addResources(resources, st, false);
+						}
+						if (exceeds(removed.size() + added.size())) {
+							throw new TooManyChangesException();
+						}
+					}
+				});
+			} catch (TooManyChangesException e) {
+				return this.abandon(graph);
+			} finally {
+				progress.parseTime(System.nanoTime() - parseStart);
+			}
+
+			// Application de la différence.
+			final long commitStart = System.nanoTime();
+			cnx.begin();
+			cnx.remove(removed, graph);
+			cnx.add(added, graph);
+			cnx.remove(graph, hashProperty, null, graph);
+			cnx.add(graph, hashProperty, this.repository.getValueFactory()
+					.createLiteral(input.getContentHash()), graph);
+			cnx.remove(graph, dateProperty, null, graph);
+			cnx.add(graph, dateProperty, dateSubmitted, graph);
+			cnx.commit();
+			progress.commitTime(System.nanoTime() - commitStart);
+		} catch (OpenRDFException e) {
+			if (cnx != null) {
+				try {
+					cnx.rollback();
+				} catch (Exception e2) { /* Ignore... */
+				}
+			}
+			throw e;
+		} finally {
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+		}
+		progress.parsed(fileHashes.count);
+		progress.committed(added.size() + removed.size());
+
+		final GraphChangeSet changes = new GraphChangeSet(graph.stringValue(),
+				added.size(), removed.size(), resources, complete[0]);
+		if (log.isInfoEnabled()) {
+			log.info("Import différentiel de " + graph + " : +" + added.size()
+					+ " / -" + removed.size() + " triplets sur "
+					+ fileHashes.count + ", " + resources.size()
+					+ " ressources modifiées, en "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		return changes;
+	}
+
+	private void parse(RdfInput input, RDFHandler handler)
+			throws OpenRDFException, IOException {
+		final RDFParser parser = Rio.createParser(input.getFormat(),
+				this.repository.getValueFactory());
+		parser.setRDFHandler(handler);
+		final InputStream in = input.open();
+		boolean read = false;
+		try {
+			parser.parse(in, input.getBaseUri());
+			read = true;
+		} finally {
+			input.close(in, read);
+		}
+	}
+
+	private boolean exceeds(int changes) {
+		return (this.maxChanges > 0) && (changes > this.maxChanges);
+	}
+
+	private GraphChangeSet abandon(URI graph) {
+		log.info("Import différentiel de " + graph
+				+ " abandonné : plus de " + this.maxChanges
+				+ " triplets modifiés");
+		return null;
+	}
+
+	private static boolean hasBNode(Statement st) {
+		return (st.getSubject() instanceof BNode)
+				|| (st.getObject() instanceof BNode);
+	}
+
+	private static boolean isImportMetadata(Statement st, URI graph,
+			URI dateProperty, URI hashProperty) {
+		return (graph.equals(st.getSubject()))
+				&& ((dateProperty.equals(st.getPredicate())) || (hashProperty
+						.equals(st.getPredicate())));
+	}
+
+	/**
+	 * Enregistre les ressources dont la description change avec un triplet :
+	 * son sujet et, pour un lien supprimé, la ressource liée (hors types).
+	 * 
+	 * @return <code>false</code> si le sujet est un nœud anonyme
+	 */
+	private static boolean addResources(Set<String> resources, Statement st,
+			boolean removed) {
+		if ((removed) && (st.getObject() instanceof URI)
+				&& (!RDF.TYPE.equals(st.getPredicate()))) {
+			resources.add(st.getObject().stringValue());
+		}
+		if (st.getSubject() instanceof URI) {
+			resources.add(st.getSubject().stringValue());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Interruption de la lecture du fichier, la différence dépassant le
+	 * plafond.
+	 */
+	private static final class TooManyChangesException extends
+			RDFHandlerException {
+		private static final long serialVersionUID = 1L;
+
+		public TooManyChangesException() {
+			super("Too many changes");
+		}
+	}
+
+	/**
+	 * Calcul de l'empreinte de 64 bits d'un triplet.
+	 */
+	private static final class StatementHasher {
+		private final MessageDigest md5;
+
+		public StatementHasher() {
+			try {
+				this.md5 = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				// Never reached: MD5 is mandatory on all Java platforms.
+				throw new RuntimeException(e);
+			}
+		}
+
+		public long hash(Statement st) {
+			final String s = NTriplesUtil.toNTriplesString(st.getSubject())
+					+ ' ' + NTriplesUtil.toNTriplesString(st.getPredicate())
+					+ ' ' + NTriplesUtil.toNTriplesString(st.getObject());
+			final byte[] digest;
+			try {
+				digest = this.md5.digest(s.getBytes("UTF-8"));
+			} catch (IOException e) {
+				// Never reached: UTF-8 is mandatory on all Java platforms.
+				throw new RuntimeException(e);
+			}
+			long h = 0L;
+			for (int i = 0; i < 8; i++) {
+				h = (h << 8) | (digest[i] & 0xffL);
+			}
+			return h;
+		}
+	}
+
+	/**
+	 * Gestionnaire Rio collectant les empreintes des triplets lus.
+	 */
+	private static final class HashCollector extends RDFHandlerBase {
+		private final StatementHasher hasher = new StatementHasher();
+		private final LongArray hashes = new LongArray();
+		private final URI graph;
+		private final URI dateProperty;
+		private final URI hashProperty;
+		private long count = 0L;
+
+		public HashCollector(URI graph, URI dateProperty, URI hashProperty) {
+			this.graph = graph;
+			this.dateProperty = dateProperty;
+			this.hashProperty = hashProperty;
+		}
+
+		@Override
+		public void handleStatement(Statement st) throws RDFHandlerException {
+			this.count++;
+			if ((!hasBNode(st))
+					&& (!isImportMetadata(st, this.graph, this.dateProperty,
+							this.hashProperty))) {
+				this.hashes.add(this.hasher.hash(st));
+			}
+		}
+	}
+
+	/**
+	 * Tableau extensible d'entiers longs.
+	 */
+	private static final class LongArray {
+		private long[] values = new long[1024];
+		private int size = 0;
+
+		public void add(long value) {
+			if (this.size == this.values.length) {
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.values[this.size++] = value;
+		}
+
+		public long[] toSortedArray() {
+			final long[] a = Arrays.copyOf(this.values, this.size);
+			Arrays.sort(a);
+			return a;
+		}
+	}
+}
@@ -0,0 +1,460 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.impl.DatasetImpl;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+
+import fr.gouv.culture.thesaurus.util.concurrent.DaemonThreadFactory;
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+
+/**
+ * Registre des versions des graphes nommés, pour les imports « blue/green ».
+ * <p>
+ * Chaque import d'un vocabulaire est écrit dans un nouveau contexte versionné
+ * (<code>&lt;graphe&gt;#v&lt;n&gt;</code>), invisible des lecteurs tant qu'il
+ * n'est pas complet. Le registre associe ensuite, en une seule opération en
+ * mémoire, le graphe logique à cette nouvelle version ; l'ancienne version
+ * est masquée puis supprimée en tâche de fond par un thread de faible
+ * priorité. Les lecteurs ne sont donc jamais en concurrence avec la
+ * transaction d'écriture d'un import sur les données qu'ils consultent.
+ * </p>
+ * <p>
+ * Tant qu'au moins un contexte est masqué (version en cours d'import ou en
+ * attente de suppression), les requêtes de lecture sont restreintes aux
+ * contextes visibles par un {@link Dataset} ; le reste du temps, elles
+ * portent sans restriction sur l'union des graphes nommés.
+ * </p>
+ * <p>
+ * Aucune donnée d'indirection n'est stockée dans le triplestore : au
+ * démarrage, la version courante d'un graphe est la version de plus haut
+ * numéro contenant la date d'import, celle-ci étant enregistrée en dernier.
+ * </p>
+ */
+final class GraphVersionRegistry {
+
+	private final static Logger log = Logger
+			.getLogger(GraphVersionRegistry.class);
+
+	/** Nom d'un contexte versionné : graphe logique, séparateur et numéro. */
+	private final static Pattern VERSION_PATTERN = Pattern
+			.compile("^(.+?)(#|-)v(\\d+)$");
+
+	private final Repository repository;
+	private final ValueFactory valueFactory;
+
+	/** Pool (un seul thread) de suppression des versions obsolètes. */
+	private final ExecutorService gcExecutor;
+
+	/** Version courante de chaque graphe logique versionné. */
+	private final Map<URI, URI> current = new HashMap<URI, URI>();
+
+	/** Dernier numéro de version attribué à chaque graphe logique. */
+	private final Map<URI, Integer> lastVersions = new HashMap<URI, Integer>();
+
+	/** Contextes masqués aux lecteurs. */
+	private final Set<URI> hidden = new HashSet<URI>();
+
+	/** Jeu de données des lecteurs, <code>null</code> si rien n'est masqué. */
+	private volatile Dataset dataset = null;
+
+	private volatile boolean initialized = false;
+
+	/**
+	 * Crée un registre des versions des graphes nommés.
+	 * 
+	 * @param repository
+	 *            Triplestore
+	 */
+	GraphVersionRegistry(Repository repository) {
+		this.repository = repository;
+		this.valueFactory = repository.getValueFactory();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new DaemonThreadFactory("thesaurus-graph-gc",
+						Thread.MIN_PRIORITY));
+		executor.allowCoreThreadTimeOut(true);
+		this.gcExecutor = executor;
+	}
+
+	/**
+	 * Renvoie le contexte de la version courante d'un graphe logique.
+	 * 
+	 * @param graph
+	 *            Graphe logique
+	 * @return Contexte de la version courante, ou le graphe lui-même s'il
+	 *         n'est pas versionné
+	 * @throws RepositoryException
+	 *             Levée si l'initialisation du registre a échoué
+	 */
+	synchronized URI resolve(URI graph) throws RepositoryException {
+		this.initialize();
+		final URI version = this.current.get(graph);
+		return (version != null) ? version : graph;
+	}
+
+	/**
+	 * Renvoie le jeu de données à appliquer aux requêtes de lecture.
+	 * 
+	 * @return Contextes visibles, ou <code>null</code> si aucun contexte
+	 *         n'est masqué
+	 * @throws RepositoryException
+	 *             Levée si l'initialisation du registre a échoué
+	 */
+	Dataset getDataset() throws RepositoryException {
+		if (!this.initialized) {
+			synchronized (this) {
+				this.initialize();
+			}
+		}
+		return this.dataset;
+	}
+
+	/**
+	 * Indique si un contexte est masqué aux lecteurs : version en cours
+	 * d'import ou en attente de suppression.
+	 * 
+	 * @param ctx
+	 *            Contexte du triplestore
+	 * @return <code>true</code> si le contexte est masqué
+	 * @throws RepositoryException
+	 *             Levée si l'initialisation du registre a échoué
+	 */
+	synchronized boolean isHidden(Resource ctx) throws RepositoryException {
+		this.initialize();
+		return this.hidden.contains(ctx);
+	}
+
+	/**
+	 * Réserve un nouveau contexte versionné pour un graphe logique. Le
+	 * contexte est masqué aux lecteurs jusqu'à sa publication.
+	 * 
+	 * @param graph
+	 *            Graphe logique
+	 * @return Contexte de la nouvelle version
+	 * @throws RepositoryException
+	 *             Levée si l'accès au triplestore a échoué
+	 */
+	synchronized URI newVersion(URI graph) throws RepositoryException {
+		this.initialize();
+		final Integer last = this.lastVersions.get(graph);
+		final int n = (last != null) ? last.intValue() + 1 : 1;
+		this.lastVersions.put(graph, Integer.valueOf(n));
+
+		final String uri = graph.stringValue();
+		final URI version = this.valueFactory.createURI(uri
+				+ ((uri.indexOf('#') == -1) ? "#v" : "-v") + n);
+		this.hide(version);
+		return version;
+	}
+
+	/**
+	 * Bascule les lecteurs d'un graphe logique vers une nouvelle version
+	 * complète ; la version précédente est supprimée en tâche de fond.
+	 * 
+	 * @param graph
+	 *            Graphe logique
+	 * @param version
+	 *            Contexte de la nouvelle version
+	 * @throws RepositoryException
+	 *             Levée si l'accès au triplestore a échoué
+	 */
+	void publish(URI graph, URI version) throws RepositoryException {
+		URI previous;
+		synchronized (this) {
+			previous = this.current.put(graph, version);
+			if ((previous == null) && (this.hasStatements(graph))) {
+				// Données importées avant l'activation des versions.
+				previous = graph;
+			}
+			this.hidden.remove(version);
+			if (previous != null) {
+				this.hidden.add(previous);
+			}
+			this.refreshDataset();
+		}
+		log.info("Graphe " + graph + " : bascule vers " + version);
+		if (previous != null) {
+			this.collect(previous);
+		}
+	}
+
+	/**
+	 * Abandonne une version (import en échec), supprimée en tâche de fond.
+	 * 
+	 * @param version
+	 *            Contexte de la version abandonnée
+	 */
+	void discard(URI version) {
+		this.collect(version);
+	}
+
+	/**
+	 * Renvoie les contextes (versions) d'un graphe logique, à vider lors de
+	 * sa suppression.
+	 * 
+	 * @param graph
+	 *            Graphe logique
+	 * @return Version courante et versions masquées du graphe
+	 * @throws RepositoryException
+	 *             Levée si l'initialisation du registre a échoué
+	 */
+	synchronized Collection<URI> getVersions(URI graph)
+			throws RepositoryException {
+		this.initialize();
+		final List<URI> contexts = new ArrayList<URI>();
+		final URI version = this.current.get(graph);
+		if (version != null) {
+			contexts.add(version);
+		}
+		for (URI ctx : this.hidden) {
+			final Matcher m = VERSION_PATTERN.matcher(ctx.stringValue());
+			if (m.matches() && m.group(1).equals(graph.stringValue())) {
+				contexts.add(ctx);
+			}
+		}
+		return contexts;
+	}
+
+	/**
+	 * Oublie un graphe logique, une fois sa suppression validée.
+	 * 
+	 * @param graph
+	 *            Graphe logique
+	 * @param versions
+	 *            Contextes vidés (voir {@link #getVersions(URI)})
+	 * @throws RepositoryException
+	 *             Levée si l'accès au triplestore a échoué
+	 */
+	synchronized void remove(URI graph, Collection<URI> versions)
+			throws RepositoryException {
+		this.current.remove(graph);
+		if (this.hidden.removeAll(versions)) {
+			this.refreshDataset();
+		}
+	}
+
+	/**
+	 * Arrête le thread de suppression des versions obsolètes.
+	 */
+	void shutdown() {
+		this.gcExecutor.shutdownNow();
+	}
+
+	/**
+	 * Reconstruit le registre à partir des contextes présents dans le
+	 * triplestore, au premier accès.
+	 */
+	private void initialize() throws RepositoryException {
+		if (this.initialized) {
+			return;
+		}
+		final URI dateSubmitted = this.valueFactory
+				.createURI(DublinCoreTerms.DATE_SUBMITTED);
+		final Map<URI, TreeMap<Integer, URI>> versions = new HashMap<URI, TreeMap<Integer, URI>>();
+		final List<URI> obsolete = new ArrayList<URI>();
+
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.repository.getConnection();
+			for (URI ctx : this.getContexts(cnx)) {
+				final Matcher m = VERSION_PATTERN.matcher(ctx.stringValue());
+				if ((m.matches())
+						&& ((m.group(1).indexOf('#') == -1) == "#".equals(m
+								.group(2)))) {
+					final URI graph = this.valueFactory.createURI(m.group(1));
+					TreeMap<Integer, URI> v = versions.get(graph);
+					if (v == null) {
+						v = new TreeMap<Integer, URI>();
+						versions.put(graph, v);
+					}
+					v.put(Integer.valueOf(m.group(3)), ctx);
+				}
+			}
+			for (Map.Entry<URI, TreeMap<Integer, URI>> e : versions
+					.entrySet()) {
+				final URI graph = e.getKey();
+				final TreeMap<Integer, URI> v = e.getValue();
+				this.lastVersions.put(graph, v.lastKey());
+
+				URI live = null;
+				for (URI ctx : v.descendingMap().values()) {
+					if ((live == null)
+							&& (cnx.hasStatement(graph, dateSubmitted, null,
+									false, ctx))) {
+						live = ctx;
+					} else {
+						obsolete.add(ctx);
+					}
+				}
+				if (live != null) {
+					this.current.put(graph, live);
+					if (cnx.hasStatement(null, null, null, false, graph)) {
+						obsolete.add(graph);
+					}
+				}
+			}
+		} finally {
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+		}
+		this.hidden.addAll(obsolete);
+		this.initialized = true;
+		this.refreshDataset();
+		for (URI ctx : obsolete) {
+			this.collect(ctx);
+		}
+	}
+
+	private void hide(URI ctx) throws RepositoryException {
+		this.hidden.add(ctx);
+		this.refreshDataset();
+	}
+
+	/**
+	 * Planifie la suppression d'un contexte masqué.
+	 */
+	private void collect(final URI ctx) {
+		this.gcExecutor.execute(new Runnable() {
+			public void run() {
+				RepositoryConnection cnx = null;
+				try {
+					final long start = System.currentTimeMillis();
+					cnx = repository.getConnection();
+					cnx.clear(ctx);
+					synchronized (GraphVersionRegistry.this) {
+						hidden.remove(ctx);
+						refreshDataset();
+					}
+					log.info("Version obsolète " + ctx + " supprimée en "
+							+ (System.currentTimeMillis() - start) + " ms");
+				} catch (Exception e) {
+					log.warn("Echec de la suppression de la version obsolète "
+							+ ctx + " : " + e.getMessage());
+				} finally {
+					if (cnx != null) {
+						try {
+							cnx.close();
+						} catch (Exception e) { /* Ignore... */
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Recalcule le jeu de données des lecteurs : tous les contextes du
+	 * triplestore sauf les contextes masqués.
+	 */
+	private void refreshDataset() throws RepositoryException {
+		if (this.hidden.isEmpty()) {
+			this.dataset = null;
+			return;
+		}
+		final DatasetImpl ds = new DatasetImpl();
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.repository.getConnection();
+			for (URI ctx : this.getContexts(cnx)) {
+				if (!this.hidden.contains(ctx)) {
+					ds.addDefaultGraph(ctx);
+					ds.addNamedGraph(ctx);
+				}
+			}
+		} finally {
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+		}
+		this.dataset = ds;
+	}
+
+	private boolean hasStatements(URI ctx) throws RepositoryException {
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.repository.getConnection();
+			return cnx.hasStatement(null, null, null, false, ctx);
+		} finally {
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+		}
+	}
+
+	private List<URI> getContexts(RepositoryConnection cnx)
+			throws RepositoryException {
+		final List<URI> contexts = new ArrayList<URI>();
+		final RepositoryResult<Resource> rs = cnx.getContextIDs();
+		try {
+			while (rs.hasNext()) {
+				final Resource ctx = rs.next();
+				if (ctx instanceof URI) {
+					contexts.add((URI) ctx);
+				}
+			}
+		} finally {
+			rs.close();
+		}
+		return contexts;
+	}
+}
@@ -0,0 +1,300 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openrdf.rio.RDFFormat;
+
+import fr.gouv.culture.thesaurus.util.rdf.RdfFiles;
+
+/**
+ * Fichier RDF à importer, éventuellement compressé (voir {@link RdfFiles}).
+ * Le flux éventuellement déjà ouvert pour en
+ * détecter le graphe nommé est remis à la première lecture, de sorte que le
+ * fichier n'est lu qu'une fois dans le cas courant ; les lectures suivantes
+ * (import différentiel) rouvrent le fichier.
+ * <p>
+ * L'empreinte SHA-1 du contenu (décompressé) est calculée au fil de la
+ * première lecture, sauf si elle a été calculée au préalable. Comparée à
+ * l'empreinte du contenu déjà chargé (voir {@link #isUnchanged()}), elle
+ * permet d'écarter l'import d'un fichier identique : l'empreinte est alors
+ * calculée par une lecture dédiée ({@link #getContentHash()}) avant toute
+ * écriture, les chargeurs vérifiant à nouveau l'indication avant validation.
+ * </p>
+ */
+final class RdfInput {
+
+	private final File file;
+	private final RDFFormat format;
+	private InputStream opened;
+	private boolean hashing = false;
+	private volatile String contentHash = null;
+	private volatile String loadedHash = null;
+
+	/**
+	 * Crée une source à partir d'un fichier non encore ouvert.
+	 * 
+	 * @param file
+	 *            Fichier à importer
+	 * @param format
+	 *            Format du fichier
+	 */
+	RdfInput(File file, RDFFormat format) {
+		this(file, format, null);
+	}
+
+	/**
+	 * Crée une source à partir d'un fichier dont un flux est déjà ouvert.
+	 * 
+	 * @param file
+	 *            Fichier à importer
+	 * @param format
+	 *            Format du fichier
+	 * @param opened
+	 *            Flux ouvert positionné au début du fichier, ou
+	 *            <code>null</code>
+	 */
+	RdfInput(File file, RDFFormat format, InputStream opened) {
+		this.file = file;
+		this.format = format;
+		this.opened = opened;
+	}
+
+	File getFile() {
+		return this.file;
+	}
+
+	RDFFormat getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * Renvoie l'URI de base de résolution des URI relatives du fichier.
+	 */
+	String getBaseUri() {
+		return this.file.toURI().toString();
+	}
+
+	/**
+	 * Renvoie un flux positionné au début du fichier, que l'appelant doit
+	 * fermer par {@link #close(InputStream, boolean)} : le flux déjà ouvert
+	 * s'il n'a pas encore été lu, un nouveau flux sinon.
+	 * 
+	 * @return Flux de lecture du fichier
+	 * @throws IOException
+	 *             Levée si l'ouverture du fichier a échoué
+	 */
+	synchronized InputStream open() throws IOException {
+		InputStream in = this.opened;
+		if (in != null) {
+			this.opened = null;
+		} else {
+			in = RdfFiles.open(this.file);
+		}
+		if ((this.contentHash == null) && (!this.hashing)) {
+			this.hashing = true;
+			in = new HashingInputStream(in);
+		}
+		return in;
+	}
+
+	/**
+	 * Renvoie l'empreinte SHA-1 du contenu du fichier, calculée lors de la
+	 * première lecture complète ou, à défaut, par une lecture dédiée.
+	 * 
+	 * @return Empreinte hexadécimale du contenu
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué
+	 */
+	String getContentHash() throws IOException {
+		if (this.contentHash == null) {
+			final InputStream in = RdfFiles.open(this.file);
+			try {
+				this.contentHash = DigestUtils.shaHex(in);
+			} finally {
+				in.close();
+			}
+		}
+		return this.contentHash;
+	}
+
+	/**
+	 * Ferme un flux renvoyé par {@link #open()}. Après une lecture aboutie, le
+	 * reliquat éventuellement non lu par le parseur est consommé afin que
+	 * l'empreinte porte sur la totalité du contenu ; après un échec, le flux
+	 * est fermé sans lecture supplémentaire.
+	 * 
+	 * @param in
+	 *            Flux à fermer
+	 * @param read
+	 *            <code>true</code> si la lecture du flux a abouti
+	 * @throws IOException
+	 *             Levée si la lecture du reliquat a échoué
+	 */
+	void close(InputStream in, boolean read) throws IOException {
+		if (in instanceof HashingInputStream) {
+			((HashingInputStream) in).finish(read);
+		} else {
+			in.close();
+		}
+	}
+
+	/**
+	 * Renseigne l'empreinte du contenu déjà chargé dans le graphe cible.
+	 * 
+	 * @param loadedHash
+	 *            Empreinte enregistrée lors du précédent import, ou
+	 *            <code>null</code>
+	 */
+	void setLoadedHash(String loadedHash) {
+		this.loadedHash = loadedHash;
+	}
+
+	/**
+	 * Indique si le contenu du fichier est identique au contenu déjà chargé.
+	 * L'empreinte du fichier n'étant connue qu'au terme de sa première
+	 * lecture complète, elle est calculée au préalable par
+	 * {@link #getContentHash()} pour écarter l'import avant toute écriture.
+	 * 
+	 * @return <code>true</code> si le fichier a été lu en entier et que son
+	 *         empreinte est celle du contenu déjà chargé
+	 */
+	boolean isUnchanged() {
+		final String hash = this.contentHash;
+		return (hash != null) && (hash.equals(this.loadedHash));
+	}
+
+	/**
+	 * Ferme le flux déjà ouvert s'il n'a pas été lu.
+	 */
+	synchronized void close() {
+		if (this.opened != null) {
+			try {
+				this.opened.close();
+			} catch (IOException e) { /* Ignore... */
+			}
+			this.opened = null;
+		}
+	}
+
+	/**
+	 * Flux calculant l'empreinte des données lues, connue dès la fin du flux
+	 * atteinte. La fermeture demandée par le parseur est sans effet : le flux
+	 * n'est fermé que par {@link #finish(boolean)}.
+	 */
+	private final class HashingInputStream extends FilterInputStream {
+		private final MessageDigest digest;
+		private boolean eof = false;
+		private boolean closed = false;
+
+		HashingInputStream(InputStream in) {
+			super(in);
+			try {
+				this.digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b != -1) {
+				this.digest.update((byte) b);
+			} else {
+				this.end();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				this.digest.update(b, off, n);
+			} else if (n < 0) {
+				this.end();
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Les données sautées doivent être prises en compte.
+			final byte[] buffer = new byte[(int) Math.min(n, 8192L)];
+			final int read = this.read(buffer, 0, buffer.length);
+			return (read < 0) ? 0L : read;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// Fermeture différée à la fin de l'import (voir finish).
+		}
+
+		/**
+		 * Consomme le reliquat si la lecture a abouti, puis ferme le flux.
+		 */
+		void finish(boolean read) throws IOException {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			try {
+				if (read) {
+					final byte[] buffer = new byte[8192];
+					while (this.read(buffer, 0, buffer.length) != -1) {
+						// Lecture du reliquat.
+					}
+				}
+			} finally {
+				super.close();
+			}
+		}
+
+		private void end() {
+			if (!this.eof) {
+				this.eof = true;
+				contentHash = new String(Hex.encodeHex(this.digest.digest()));
+			}
+		}
+	}
+}
@@ -0,0 +1,386 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.repository.util.RDFInserter;
+import org.openrdf.rio.RDFHandlerException;
+
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+
+/**
+ * Réplique locale, optimisée pour la lecture, des graphes nommés d'un
+ * triplestore distant : typiquement un dépôt en mémoire (
+ * <code>MemoryStore</code>) alimenté depuis le serveur Sesame, les
+ * écritures restant adressées à ce dernier.
+ * <p>
+ * La synchronisation ne recopie que les graphes nommés ayant changé depuis
+ * la synchronisation précédente, d'après leur nombre de triplets et leurs
+ * dates d'import (<code>dcterms:dateSubmitted</code>), puis supprime les
+ * graphes disparus. Elle est faite en une seule transaction de la réplique :
+ * les lecteurs voient les données précédentes jusqu'à sa validation. Un
+ * dépôt persistant sur disque permet ainsi un redémarrage rapide, seuls les
+ * graphes modifiés entre temps étant rechargés.
+ * </p>
+ * <p>
+ * Une modification du triplestore faite hors de l'application et ne
+ * changeant ni le nombre de triplets ni la date d'import d'un graphe n'est
+ * pas détectée.
+ * </p>
+ */
+public class RepositoryReplica implements RepositoryReplicaMBean {
+
+	/** Journalisation. */
+	private final static Logger log = Logger.getLogger(RepositoryReplica.class);
+
+	/**
+	 * Filtre des graphes nommés à répliquer.
+	 */
+	public interface ContextFilter {
+
+		/**
+		 * @param ctx
+		 *            Graphe nommé du triplestore
+		 * @return <code>true</code> si le graphe doit être répliqué
+		 * @throws RepositoryException
+		 *             Levée si l'accès au triplestore a échoué
+		 */
+		boolean accept(Resource ctx) throws RepositoryException;
+	}
+
+	private final Repository primary;
+	private final Repository replica;
+
+	/** Indique si la dernière synchronisation a réussi. */
+	private volatile boolean current = false;
+
+	private volatile long synchronizations = 0L;
+	private volatile long failures = 0L;
+	private volatile long lastDuration = 0L;
+	private volatile int lastCopiedContexts = 0;
+	private volatile long lastCopiedStatements = 0L;
+
+	/**
+	 * Crée une réplique des graphes nommés d'un triplestore.
+	 * 
+	 * @param primary
+	 *            Triplestore de référence, destinataire des écritures
+	 * @param replica
+	 *            Dépôt local (initialisé) recevant la copie des graphes
+	 */
+	public RepositoryReplica(Repository primary, Repository replica) {
+		if (primary == null) {
+			throw new IllegalArgumentException("primary");
+		}
+		if (replica == null) {
+			throw new IllegalArgumentException("replica");
+		}
+		this.primary = primary;
+		this.replica = replica;
+	}
+
+	/**
+	 * @return Dépôt local à interroger
+	 */
+	public Repository getRepository() {
+		return this.replica;
+	}
+
+	/**
+	 * Indique si la réplique est à jour, c'est-à-dire si la dernière
+	 * synchronisation a réussi. Dans le cas contraire, les lectures doivent
+	 * être adressées au triplestore de référence.
+	 * 
+	 * @return <code>true</code> si la réplique peut être lue
+	 */
+	@Override
+	public boolean isCurrent() {
+		return this.current;
+	}
+
+	/**
+	 * Synchronise la réplique avec tous les graphes nommés du triplestore.
+	 * 
+	 * @throws RepositoryException
+	 *             Levée si l'accès à l'un des dépôts a échoué
+	 */
+	public void synchronize() throws RepositoryException {
+		this.synchronize(null);
+	}
+
+	/**
+	 * Synchronise la réplique avec les graphes nommés du triplestore
+	 * acceptés par un filtre ; les autres graphes sont retirés de la
+	 * réplique.
+	 * 
+	 * @param filter
+	 *            Filtre des graphes à répliquer, ou <code>null</code> pour
+	 *            tous les graphes
+	 * @throws RepositoryException
+	 *             Levée si l'accès à l'un des dépôts a échoué
+	 */
+	public synchronized void synchronize(ContextFilter filter)
+			throws RepositoryException {
+		final long start = System.currentTimeMillis();
+		RepositoryConnection src = null;
+		RepositoryConnection dst = null;
+		boolean done = false;
+		try {
+			src = this.primary.getConnection();
+			dst = this.replica.getConnection();
+			final Set<Resource> stale = new HashSet<Resource>(
+					getContexts(dst));
+			int copiedContexts = 0;
+			long copiedStatements = 0L;
+			dst.begin();
+			for (Resource ctx : getContexts(src)) {
+				if ((filter != null) && (!filter.accept(ctx))) {
+					continue;
+				}
+				stale.remove(ctx);
+				final Fingerprint expected = new Fingerprint(src, ctx);
+				if (expected.equals(new Fingerprint(dst, ctx))) {
+					continue;
+				}
+				dst.clear(ctx);
+				final CountingInserter inserter = new CountingInserter(dst);
+				try {
+					src.export(inserter, ctx);
+				} catch (RDFHandlerException e) {
+					throw new RepositoryException(e);
+				}
+				copiedContexts++;
+				copiedStatements += inserter.count;
+			}
+			for (Resource ctx : stale) {
+				dst.clear(ctx);
+			}
+			dst.commit();
+			done = true;
+
+			this.lastCopiedContexts = copiedContexts;
+			this.lastCopiedStatements = copiedStatements;
+			this.lastDuration = System.currentTimeMillis() - start;
+			if (log.isDebugEnabled() || (copiedContexts > 0)
+					|| (!stale.isEmpty())) {
+				log.info("Réplique synchronisée en " + this.lastDuration
+						+ " ms : " + copiedContexts + " graphe(s) copié(s) ("
+						+ copiedStatements + " triplets), " + stale.size()
+						+ " graphe(s) supprimé(s)");
+			}
+		} finally {
+			if ((!done) && (dst != null)) {
+				try {
+					dst.rollback();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+			close(dst);
+			close(src);
+			this.synchronizations++;
+			if (!done) {
+				this.failures++;
+			}
+			this.current = done;
+		}
+	}
+
+	/**
+	 * Arrête le dépôt local, ce qui enregistre ses données s'il est
+	 * persistant.
+	 */
+	public void shutdown() {
+		this.current = false;
+		try {
+			this.replica.shutDown();
+		} catch (RepositoryException e) {
+			log.warn("Echec de l'arrêt de la réplique : " + e.getMessage());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getStatementCount() {
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.replica.getConnection();
+			return cnx.size();
+		} catch (RepositoryException e) {
+			return -1L;
+		} finally {
+			close(cnx);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getContextCount() {
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.replica.getConnection();
+			return getContexts(cnx).size();
+		} catch (RepositoryException e) {
+			return -1;
+		} finally {
+			close(cnx);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getSynchronizationCount() {
+		return this.synchronizations;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getFailureCount() {
+		return this.failures;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastDuration() {
+		return this.lastDuration;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getLastCopiedContexts() {
+		return this.lastCopiedContexts;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLastCopiedStatements() {
+		return this.lastCopiedStatements;
+	}
+
+	private static List<Resource> getContexts(RepositoryConnection cnx)
+			throws RepositoryException {
+		final List<Resource> contexts = new ArrayList<Resource>();
+		final RepositoryResult<Resource> rs = cnx.getContextIDs();
+		try {
+			while (rs.hasNext()) {
+				contexts.add(rs.next());
+			}
+		} finally {
+			rs.close();
+		}
+		return contexts;
+	}
+
+	private static void close(RepositoryConnection cnx) {
+		if (cnx != null) {
+			try {
+				cnx.close();
+			} catch (Exception e) { /* Ignore... */
+			}
+		}
+	}
+
+	/**
+	 * Empreinte d'un graphe nommé : nombre de triplets et dates d'import.
+	 */
+	private static final class Fingerprint {
+		private final long size;
+		private final List<String> dates = new ArrayList<String>();
+
+		Fingerprint(RepositoryConnection cnx, Resource ctx)
+				throws RepositoryException {
+			this.size = cnx.size(ctx);
+			if (this.size > 0L) {
+				final URI dateSubmitted = cnx.getValueFactory().createURI(
+						DublinCoreTerms.DATE_SUBMITTED);
+				final RepositoryResult<Statement> rs = cnx.getStatements(null,
+						dateSubmitted, null, false, ctx);
+				try {
+					while (rs.hasNext()) {
+						this.dates.add(rs.next().getObject().stringValue());
+					}
+				} finally {
+					rs.close();
+				}
+				Collections.sort(this.dates);
+			}
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Fingerprint)) {
+				return false;
+			}
+			final Fingerprint f = (Fingerprint) o;
+			return (this.size == f.size) && (this.dates.equals(f.dates));
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) this.size ^ this.dates.hashCode();
+		}
+	}
+
+	/**
+	 * Ajout des triplets exportés dans la réplique, avec leur décompte. Les
+	 * identifiants des nœuds anonymes sont conservés, de sorte qu'un nœud
+	 * partagé par plusieurs graphes le reste dans la réplique.
+	 */
+	private static final class CountingInserter extends RDFInserter {
+		long count = 0L;
+
+		CountingInserter(RepositoryConnection cnx) {
+			super(cnx);
+			this.setPreserveBNodeIDs(true);
+		}
+
+		@Override
+		public void handleStatement(Statement st) throws RDFHandlerException {
+			super.handleStatement(st);
+			this.count++;
+		}
+
+		@Override
+		public void handleNamespace(String prefix, String name) {
+			// Préfixes sans objet pour les lecteurs.
+		}
+	}
+}
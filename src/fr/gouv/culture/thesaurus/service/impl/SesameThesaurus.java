@@ -30,12 +30,15 @@ package fr.gouv.culture.thesaurus.service.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Writer;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -43,6 +46,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,26 +64,35 @@ import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.SESAME;
 import org.openrdf.model.vocabulary.SKOS;
 import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
 import org.openrdf.query.GraphQuery;
+import org.openrdf.query.Query;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.TupleQuery;
 import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.impl.DatasetImpl;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.n3.N3Writer;
+import org.openrdf.rio.ntriples.NTriplesWriter;
 import org.openrdf.rio.rdfxml.util.RDFXMLPrettyWriter;
 import org.openrdf.rio.turtle.TurtleWriter;
 
 import fr.gouv.culture.thesaurus.exception.BusinessException;
 import fr.gouv.culture.thesaurus.exception.ErrorMessage;
 import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
+import fr.gouv.culture.thesaurus.service.GraphChangeSet;
+import fr.gouv.culture.thesaurus.service.ImportListener;
+import fr.gouv.culture.thesaurus.service.ImportProgress;
 import fr.gouv.culture.thesaurus.service.PrefixManager;
 import fr.gouv.culture.thesaurus.service.ThesaurusMetadata;
 import fr.gouv.culture.thesaurus.service.ThesaurusService;
@@ -98,10 +113,12 @@ import fr.gouv.culture.thesaurus.service.search.SearchOrder;
 import fr.gouv.culture.thesaurus.util.TextUtils;
 import fr.gouv.culture.thesaurus.util.rdf.ModelGenerator;
 import fr.gouv.culture.thesaurus.util.rdf.RdfEntriesGenerationHandler;
-import fr.gouv.culture.thesaurus.util.rdf.RdfXmlUtils;
+import fr.gouv.culture.thesaurus.util.rdf.NamedGraphSniffer;
+import fr.gouv.culture.thesaurus.util.rdf.RdfFiles;
 import fr.gouv.culture.thesaurus.util.rdf.SparqlUtils;
 import fr.gouv.culture.thesaurus.util.xml.XmlDate;
 import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+import fr.gouv.culture.thesaurus.vocabulary.Ginco;
 import fr.gouv.culture.thesaurus.vocabulary.Skos;
 import fr.gouv.culture.thesaurus.vocabulary.IsoThes;
 
@@ -156,8 +173,42 @@ public class SesameThesaurus implements ThesaurusService {
 
 	private final Repository repository;
 	private final ValueFactory valueFactory;
+
+	/** Réplique locale lue à la place du triplestore (<code>null</code> si désactivée). */
+	private final RepositoryReplica replica;
 	private final ThesaurusServiceConfiguration configuration;
 
+	/** Registre des versions des graphes nommés (<code>null</code> si désactivé). */
+	private final GraphVersionRegistry graphVersions;
+
+	/**
+	 * Types des entrées de cache décrivant un vocabulaire dans son ensemble,
+	 * invalidées après tout import.
+	 */
+	private final static Set<String> SCHEME_ENTRY_TYPES = new HashSet<String>(
+			Arrays.asList("scheme", "schemeMetadata"));
+
+	/** Graphes de travail des imports par lots en cours, masqués aux lecteurs. */
+	private final Set<URI> stagingGraphs = new HashSet<URI>();
+
+	/**
+	 * Jeu de données des lecteurs excluant les graphes de travail
+	 * (<code>null</code> si aucun import par lots n'est en cours).
+	 */
+	private volatile Dataset stagingDataset = null;
+
+	/** Avancement des imports en cours et récents, du plus récent au plus ancien. */
+	private final LinkedList<ImportProgress> imports = new LinkedList<ImportProgress>();
+
+	/** Cache des entrées lues (<code>null</code> si désactivé). */
+	private final EntryCache entryCache;
+
+	/** Version des données, incrémentée à chaque modification. */
+	private final AtomicLong dataVersion = new AtomicLong();
+
+	/** Observateurs notifiés à la fin des imports. */
+	private final List<ImportListener> importListeners = new CopyOnWriteArrayList<ImportListener>();
+
 	// -------------------------------------------------------------------------
 	// Class initialization
 	// -------------------------------------------------------------------------
@@ -221,6 +272,26 @@ public class SesameThesaurus implements ThesaurusService {
 	 */
 	public SesameThesaurus(ThesaurusServiceConfiguration configuration,
 			Repository repository) {
+		this(configuration, repository, null);
+	}
+
+	/**
+	 * Creates a new thesaurus access service reading data from a local
+	 * replica of the specified RDF triple store, which is synchronized at
+	 * startup and after each import or deletion. Writes are sent to the
+	 * RDF triple store; reads fall back to it while the replica is not
+	 * synchronized.
+	 * 
+	 * @param configuration
+	 *            configuration of the service
+	 * @param repository
+	 *            the RDF triple store, as a Sesame Repository object.
+	 * @param replica
+	 *            the local replica of the RDF triple store, or
+	 *            <code>null</code> to read the RDF triple store directly.
+	 */
+	public SesameThesaurus(ThesaurusServiceConfiguration configuration,
+			Repository repository, RepositoryReplica replica) {
 		if (repository == null) {
 			throw new IllegalArgumentException("repository");
 		}
@@ -228,6 +299,13 @@ public class SesameThesaurus implements ThesaurusService {
 		this.configuration = (ThesaurusServiceConfiguration) configuration.clone();
 		this.repository = repository;
 		this.valueFactory = repository.getValueFactory();
+		this.replica = replica;
+
+		this.graphVersions = (this.configuration.isImportVersioned()) ? new GraphVersionRegistry(
+				repository) : null;
+		this.entryCache = (this.configuration.getEntryCacheSize() > 0) ? new EntryCache(
+				this.configuration.getEntryCacheSize()) : null;
+		this.synchronizeReplica(null);
 	}
 
 	// -------------------------------------------------------------------------
@@ -243,7 +321,7 @@ public class SesameThesaurus implements ThesaurusService {
 		RepositoryConnection cnx = null;
 		TupleQueryResult rs = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			TupleQuery query = getSelectQuery("getRdfClasses", cnx);
 			query.setBinding("uri", this.valueFactory.createURI(uri));
 
@@ -281,7 +359,7 @@ public class SesameThesaurus implements ThesaurusService {
 
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 
 			// Lecture des informations des concept schemes.
 			GraphQuery graphQuery = getConstructQuery(
@@ -314,7 +392,7 @@ public class SesameThesaurus implements ThesaurusService {
 
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 
 			// Lecture des informations des concept schemes.
 			GraphQuery graphQuery = getConstructQuery(
@@ -350,7 +428,7 @@ public class SesameThesaurus implements ThesaurusService {
 
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 
 			// Lecture des informations des concept schemes.
 			GraphQuery graphQuery = getConstructQuery(
@@ -386,7 +464,7 @@ public class SesameThesaurus implements ThesaurusService {
 
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			
 			TupleQuery query = getSelectQuery(SparqlQueries.ListConceptSchemesProducers.QUERY, cnx);
 			TupleQueryResult rs = query.evaluate();
@@ -427,7 +505,7 @@ public class SesameThesaurus implements ThesaurusService {
 
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			
 			TupleQuery query = getSelectQuery(SparqlQueries.ListConceptSchemesSubjects.QUERY, cnx);
 			TupleQueryResult rs = query.evaluate();
@@ -466,11 +544,26 @@ public class SesameThesaurus implements ThesaurusService {
 	/** {@inheritDoc} */
 	@Override
 	public ConceptScheme getConceptScheme(String uri) throws BusinessException {
+		if (this.entryCache == null) {
+			return this.readConceptScheme(uri);
+		}
+		final String key = "scheme:" + uri;
+		ConceptScheme cs = this.entryCache.get(key, ConceptScheme.class);
+		if (cs == null) {
+			final long generation = this.entryCache.getGeneration();
+			cs = this.readConceptScheme(uri);
+			this.entryCache.put(key, cs, generation);
+		}
+		return cs;
+	}
+
+	private ConceptScheme readConceptScheme(String uri)
+			throws BusinessException {
 		final ConceptScheme cs;
 
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 
 			final URI schemeUri = this.valueFactory.createURI(uri);
 
@@ -513,6 +606,22 @@ public class SesameThesaurus implements ThesaurusService {
 	@Override
 	public ThesaurusMetadata getThesaurusMetadataWithConceptScheme(String uri)
 			throws BusinessException {
+		if (this.entryCache == null) {
+			return this.readThesaurusMetadataWithConceptScheme(uri);
+		}
+		final String key = "schemeMetadata:" + uri;
+		ThesaurusMetadata metadata = this.entryCache.get(key,
+				ThesaurusMetadata.class);
+		if (metadata == null) {
+			final long generation = this.entryCache.getGeneration();
+			metadata = this.readThesaurusMetadataWithConceptScheme(uri);
+			this.entryCache.put(key, metadata, generation);
+		}
+		return metadata;
+	}
+
+	private ThesaurusMetadata readThesaurusMetadataWithConceptScheme(
+			String uri) throws BusinessException {
 
 		ThesaurusMetadata metadata = new ThesaurusMetadata();
 
@@ -521,7 +630,7 @@ public class SesameThesaurus implements ThesaurusService {
 		try {
 			URI schemeUri = this.valueFactory.createURI(uri);
 
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			TupleQuery query = getSelectQuery(
 					"getThesaurusOrganizationWithConceptScheme", cnx);
 			query.setBinding("uri", schemeUri);
@@ -579,6 +688,22 @@ public class SesameThesaurus implements ThesaurusService {
 	@Override
 	public ThesaurusMetadata getThesaurusMetadataWithConcept(String uri)
 			throws BusinessException {
+		if (this.entryCache == null) {
+			return this.readThesaurusMetadataWithConcept(uri);
+		}
+		final String key = "conceptMetadata:" + uri;
+		ThesaurusMetadata metadata = this.entryCache.get(key,
+				ThesaurusMetadata.class);
+		if (metadata == null) {
+			final long generation = this.entryCache.getGeneration();
+			metadata = this.readThesaurusMetadataWithConcept(uri);
+			this.entryCache.put(key, metadata, generation);
+		}
+		return metadata;
+	}
+
+	private ThesaurusMetadata readThesaurusMetadataWithConcept(String uri)
+			throws BusinessException {
 
 		ThesaurusMetadata metadata = new ThesaurusMetadata();
 
@@ -587,7 +712,7 @@ public class SesameThesaurus implements ThesaurusService {
 		try {
 			URI conceptUri = this.valueFactory.createURI(uri);
 
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			TupleQuery query = getSelectQuery(
 					"getThesaurusOrganizationWithConcept", cnx);
 			query.setBinding("uri", conceptUri);
@@ -657,11 +782,25 @@ public class SesameThesaurus implements ThesaurusService {
 	/** {@inheritDoc} */
 	@Override
 	public Concept getConcept(String uri) throws BusinessException {
+		if (this.entryCache == null) {
+			return this.readConcept(uri);
+		}
+		final String key = "concept:" + uri;
+		Concept concept = this.entryCache.get(key, Concept.class);
+		if (concept == null) {
+			final long generation = this.entryCache.getGeneration();
+			concept = this.readConcept(uri);
+			this.entryCache.put(key, concept, generation);
+		}
+		return concept;
+	}
+
+	private Concept readConcept(String uri) throws BusinessException {
 		Concept concept = null;
 
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			concept = this.getConcept(uri, cnx);
 		} catch (OpenRDFException e) {
 			throw new BusinessException(ErrorMessage.SPARQL_SELECT_FAILED,
@@ -724,28 +863,136 @@ public class SesameThesaurus implements ThesaurusService {
 
 	/** {@inheritDoc} */
 	@Override
-	public void load(File file, String namedGraphUri) throws BusinessException,
-	IOException {
+	public ImportProgress load(File file, String namedGraphUri)
+			throws BusinessException, IOException {
+		return this.load(new RdfInput(file, RdfFiles.getFormat(file)),
+				namedGraphUri);
+	}
+
+	private ImportProgress load(RdfInput input, String namedGraphUri)
+			throws BusinessException {
+		final ImportProgress progress = new ImportProgress(namedGraphUri,
+				input.getFile().getName());
+		progress.setFileSize(input.getFile().length());
+		synchronized (this.imports) {
+			this.imports.addFirst(progress);
+			while (this.imports.size() > this.configuration
+					.getImportHistorySize()) {
+				this.imports.removeLast();
+			}
+		}
+		try {
+			if (this.configuration.isImportSkipUnchanged()) {
+				this.checkUnchanged(input, namedGraphUri);
+			}
+			if (input.isUnchanged()) {
+				log.info("Import of \"" + input.getFile().getName()
+						+ "\" skipped: content identical to the version of \""
+						+ namedGraphUri + "\" already loaded");
+				progress.skipped();
+				return progress;
+			}
+			if (this.graphVersions != null) {
+				this.loadVersion(input, namedGraphUri, progress);
+			} else if ((this.configuration.isImportDelta())
+					&& (this.containsGraph(namedGraphUri))) {
+				final GraphChangeSet changes = this.loadDelta(input,
+						namedGraphUri, progress);
+				if (changes == null) {
+					// Différence trop volumineuse : rechargement complet.
+					this.loadAll(input, namedGraphUri, progress);
+				}
+				progress.setChangeSet(changes);
+			} else {
+				this.loadAll(input, namedGraphUri, progress);
+			}
+			progress.done();
+			this.fireImported(progress);
+			return progress;
+		} catch (BusinessException e) {
+			progress.failed(e.getMessage());
+			throw e;
+		} catch (RuntimeException e) {
+			progress.failed(e.toString());
+			throw e;
+		} finally {
+			input.close();
+			if (progress.getStatus() == ImportProgress.Status.FAILED) {
+				// Un import en échec peut avoir enregistré une partie des données.
+				this.invalidateEntries();
+			}
+			if (log.isInfoEnabled()) {
+				log.info("Import of \"" + input.getFile().getName()
+						+ "\" into \"" + namedGraphUri + "\": "
+						+ progress.getStatus() + ", "
+						+ progress.getFileSize() + " bytes, "
+						+ progress.getCommitted() + "/"
+						+ progress.getParsed() + " triples in "
+						+ progress.getDuration() + " ms (parse "
+						+ progress.getParseTime() + " ms, commit "
+						+ progress.getCommitTime() + " ms, "
+						+ progress.getRate() + " triples/s, heap ~+"
+						+ progress.getSampledHeapGrowth() + " bytes)");
+			}
+		}
+	}
+
+	private void loadInTransaction(RdfInput input, URI graph, URI ctx,
+			ImportProgress progress) throws BusinessException {
 		RepositoryConnection cnx = null;
 		try {
-			log.debug("Loading RDF/XML data from \"" + file
-					+ "\" into named graph \"" + namedGraphUri + '"');
+			log.debug("Loading RDF data from \"" + input.getFile()
+					+ "\" into named graph \"" + ctx + '"');
 
-			URI ctx = this.valueFactory.createURI(namedGraphUri);
 			// Get a transactional connection.
 			cnx = this.repository.getConnection();
 			cnx.begin();
 			// Clear existing triples from named graph, if any.
 			cnx.clear(ctx);
 			// Load new triples into named graph.
-			cnx.add(file, null, RDFFormat.RDFXML, ctx);
-			// Add specific triple for last import date (now!).
-			cnx.add(ctx,
+			if (this.configuration.getImportWriters() > 0) {
+				// Analyse du fichier en parallèle de l'écriture. Une seule
+				// connexion écrit : le nombre de threads d'écriture configuré
+				// ne dimensionne que la file des lots, comme pour les imports
+				// par lots.
+				new StatementPipeline(this.valueFactory,
+						StatementPipeline.DEFAULT_BATCH_SIZE,
+						2 * this.configuration.getImportWriters()).load(cnx,
+						input, ctx, progress);
+			} else {
+				// Lecture et ajout indissociables : comptés en lecture.
+				final long start = System.nanoTime();
+				final InputStream in = input.open();
+				boolean read = false;
+				try {
+					cnx.add(in, input.getBaseUri(), input.getFormat(), ctx);
+					read = true;
+				} finally {
+					input.close(in, read);
+				}
+				progress.parseTime(System.nanoTime() - start);
+				final long count = cnx.size(ctx);
+				progress.parsed(count);
+				progress.committed(count);
+			}
+			if (input.isUnchanged()) {
+				// Same content as the loaded one: nothing to commit.
+				cnx.rollback();
+				return;
+			}
+			// Add specific triples for the file content hash and the last
+			// import date (now!).
+			cnx.add(graph, this.valueFactory.createURI(Ginco.CONTENT_HASH),
+					this.valueFactory.createLiteral(input.getContentHash()),
+					ctx);
+			cnx.add(graph,
 					this.valueFactory.createURI(DublinCoreTerms.DATE_SUBMITTED),
 					this.valueFactory.createLiteral(XmlDate.toXmlDateTime(null)),
 					ctx);
 			// Commit the whole transaction.
+			final long start = System.nanoTime();
 			cnx.commit();
+			progress.commitTime(System.nanoTime() - start);
 		} catch (Exception e) {
 			if (cnx != null) {
 				// Rollback any change done so far.
@@ -765,16 +1012,304 @@ public class SesameThesaurus implements ThesaurusService {
 			}
 		}
 	}
+
+	private void loadInBatches(RdfInput input, String namedGraphUri,
+			ImportProgress progress) throws BusinessException {
+		log.debug("Loading RDF data from \"" + input.getFile()
+				+ "\" into named graph \"" + namedGraphUri + "\" in batches");
+
+		final URI ctx = this.valueFactory.createURI(namedGraphUri);
+		final ChunkedGraphLoader loader = new ChunkedGraphLoader(
+				this.repository, this.configuration.getImportBatchSize(),
+				this.configuration.getImportWriters(),
+				getSparqlQuery(SparqlQueries.SwapStagingGraph.QUERY));
+		final URI staging = this.getStagingGraph(namedGraphUri);
+		try {
+			// Les lots déjà enregistrés ne doivent pas être lus.
+			this.hideStagingGraph(staging, true);
+			loader.load(input, ctx, staging,
+					this.valueFactory.createLiteral(XmlDate
+							.toXmlDateTime(null)), progress);
+		} catch (Exception e) {
+			throw new BusinessException(ErrorMessage.RDF_IMPORT_FAILED,
+					new Object[] { e.getMessage() }, e);
+		} finally {
+			try {
+				this.hideStagingGraph(staging, false);
+			} catch (RepositoryException e) {
+				log.warn("Failed to refresh the readers dataset after import"
+						+ " of \"" + namedGraphUri + "\": " + e.getMessage());
+			}
+		}
+	}
+
+	private void loadVersion(RdfInput input, String namedGraphUri,
+			ImportProgress progress) throws BusinessException {
+		final URI graph = this.valueFactory.createURI(namedGraphUri);
+		URI version = null;
+		try {
+			version = this.graphVersions.newVersion(graph);
+			log.debug("Loading RDF data from \"" + input.getFile()
+					+ "\" into named graph version \"" + version + '"');
+
+			if (this.configuration.getImportBatchSize() > 0) {
+				new ChunkedGraphLoader(this.repository,
+						this.configuration.getImportBatchSize(),
+						this.configuration.getImportWriters(), null)
+						.loadVersion(input, graph, version,
+								this.valueFactory.createLiteral(XmlDate
+										.toXmlDateTime(null)), progress);
+			} else {
+				this.loadInTransaction(input, graph, version, progress);
+			}
+			if (input.isUnchanged()) {
+				// Version identique à la version courante : abandonnée.
+				return;
+			}
+			// La nouvelle version doit être répliquée avant d'être publiée.
+			this.synchronizeReplica(version);
+			// Bascule des lecteurs vers la nouvelle version.
+			this.graphVersions.publish(graph, version);
+			version = null;
+		} catch (BusinessException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new BusinessException(ErrorMessage.RDF_IMPORT_FAILED,
+					new Object[] { e.getMessage() }, e);
+		} finally {
+			if (version != null) {
+				// Import en échec : version abandonnée.
+				this.graphVersions.discard(version);
+			}
+		}
+	}
+
+	private void loadAll(RdfInput input, String namedGraphUri,
+			ImportProgress progress) throws BusinessException {
+		if (this.configuration.getImportBatchSize() > 0) {
+			this.loadInBatches(input, namedGraphUri, progress);
+		} else {
+			final URI ctx = this.valueFactory.createURI(namedGraphUri);
+			this.loadInTransaction(input, ctx, ctx, progress);
+		}
+	}
+
+	/**
+	 * Import différentiel, plafonné à un lot d'import.
+	 * 
+	 * @return Modifications apportées, ou <code>null</code> si le graphe n'a
+	 *         pas été modifié
+	 */
+	private GraphChangeSet loadDelta(RdfInput input, String namedGraphUri,
+			ImportProgress progress) throws BusinessException {
+		log.debug("Loading RDF data changes from \"" + input.getFile()
+				+ "\" into named graph \"" + namedGraphUri + '"');
+		try {
+			return new GraphDeltaLoader(this.repository,
+					this.configuration.getImportBatchSize()).load(input,
+					this.valueFactory.createURI(namedGraphUri),
+					this.valueFactory.createLiteral(XmlDate
+							.toXmlDateTime(null)), progress);
+		} catch (Exception e) {
+			throw new BusinessException(ErrorMessage.RDF_IMPORT_FAILED,
+					new Object[] { e.getMessage() }, e);
+		}
+	}
+
+	/**
+	 * Compare l'empreinte du fichier à celle du contenu déjà chargé dans le
+	 * graphe nommé. Si le graphe en possède une, le fichier est lu une
+	 * première fois pour calculer la sienne : un fichier identique est ainsi
+	 * écarté avant toute écriture dans le triplestore.
+	 */
+	private void checkUnchanged(RdfInput input, String namedGraphUri)
+			throws BusinessException {
+		final String loadedHash = this.getLoadedHash(namedGraphUri);
+		if (loadedHash == null) {
+			return;
+		}
+		input.setLoadedHash(loadedHash);
+		try {
+			input.getContentHash();
+		} catch (IOException e) {
+			throw new BusinessException(ErrorMessage.RDF_IMPORT_FAILED,
+					new Object[] { e.getMessage() }, e);
+		}
+	}
+
+	/**
+	 * Renvoie l'empreinte du dernier fichier importé dans un graphe nommé,
+	 * enregistrée avec la date d'import.
+	 * 
+	 * @return Empreinte du contenu chargé, ou <code>null</code> si le graphe
+	 *         n'en possède pas
+	 */
+	private String getLoadedHash(String namedGraphUri)
+			throws BusinessException {
+		final URI graph = this.valueFactory.createURI(namedGraphUri);
+		RepositoryConnection cnx = null;
+		RepositoryResult<Statement> rs = null;
+		try {
+			final URI ctx = (this.graphVersions != null) ? this.graphVersions
+					.resolve(graph) : graph;
+			cnx = this.repository.getConnection();
+			rs = cnx.getStatements(graph,
+					this.valueFactory.createURI(Ginco.CONTENT_HASH), null,
+					false, ctx);
+			return (rs.hasNext()) ? rs.next().getObject().stringValue()
+					: null;
+		} catch (Exception e) {
+			throw new BusinessException(ErrorMessage.RDF_IMPORT_FAILED,
+					new Object[] { e.getMessage() }, e);
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indique si un graphe nommé contient au moins un triplet.
+	 */
+	private boolean containsGraph(String namedGraphUri)
+			throws BusinessException {
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.repository.getConnection();
+			return cnx.hasStatement(null, null, null, false,
+					this.valueFactory.createURI(namedGraphUri));
+		} catch (RepositoryException e) {
+			throw new BusinessException(ErrorMessage.RDF_IMPORT_FAILED,
+					new Object[] { e.getMessage() }, e);
+		} finally {
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renvoie le graphe de travail associé à un graphe nommé, dans lequel
+	 * les imports par lots sont préparés.
+	 */
+	private URI getStagingGraph(String namedGraphUri) {
+		return this.valueFactory.createURI(namedGraphUri
+				+ ((namedGraphUri.indexOf('#') == -1) ? "#staging"
+						: "-staging"));
+	}
+
+	/**
+	 * Masque (ou rend de nouveau visible) un graphe de travail aux lecteurs.
+	 */
+	private void hideStagingGraph(URI staging, boolean hidden)
+			throws RepositoryException {
+		synchronized (this.stagingGraphs) {
+			if (hidden) {
+				this.stagingGraphs.add(staging);
+			} else {
+				this.stagingGraphs.remove(staging);
+			}
+			this.refreshStagingDataset();
+		}
+	}
+
+	/**
+	 * Recalcule le jeu de données des lecteurs : tous les contextes du
+	 * triplestore sauf les graphes de travail.
+	 */
+	private void refreshStagingDataset() throws RepositoryException {
+		synchronized (this.stagingGraphs) {
+			if (this.stagingGraphs.isEmpty()) {
+				this.stagingDataset = null;
+				return;
+			}
+			// Le contexte nul garantit un jeu de données non vide, qui serait
+			// sinon interprété comme l'union de tous les contextes.
+			final DatasetImpl ds = new DatasetImpl();
+			ds.addDefaultGraph(SESAME.NIL);
+			RepositoryConnection cnx = null;
+			try {
+				cnx = this.repository.getConnection();
+				final RepositoryResult<Resource> rs = cnx.getContextIDs();
+				try {
+					while (rs.hasNext()) {
+						final Resource ctx = rs.next();
+						if ((ctx instanceof URI)
+								&& (!this.stagingGraphs.contains(ctx))) {
+							ds.addDefaultGraph((URI) ctx);
+							ds.addNamedGraph((URI) ctx);
+						}
+					}
+				} finally {
+					rs.close();
+				}
+			} finally {
+				if (cnx != null) {
+					try {
+						cnx.close();
+					} catch (Exception e) { /* Ignore... */
+					}
+				}
+			}
+			this.stagingDataset = ds;
+		}
+	}
+
+	/**
+	 * Indique si un contexte est un graphe de travail d'un import par lots en
+	 * cours.
+	 */
+	private boolean isStagingGraph(Resource ctx) {
+		synchronized (this.stagingGraphs) {
+			return this.stagingGraphs.contains(ctx);
+		}
+	}
 	
 	/** {@inheritDoc} */
 	@Override
-	public void load(File file) throws BusinessException, IOException,
-			InvalidParameterException {
-		// Extract named graph URI from RDF XML file contents
-        // (i.e. the ConceptScheme URI)
-        String namedGraphUri = RdfXmlUtils.extractNamedGraphUri(file);
+	public ImportProgress load(File file) throws BusinessException,
+			IOException, InvalidParameterException {
+		// Extract named graph URI from the beginning of the file contents
+        // (i.e. the ConceptScheme URI), then load the file from the same
+        // stream.
+		final RDFFormat format = RdfFiles.getFormat(file);
+		final InputStream in = RdfFiles.open(file);
+		final RdfInput input = new RdfInput(file, format, in);
+		String namedGraphUri = null;
+		try {
+			final NamedGraphSniffer sniffer = new NamedGraphSniffer(
+					this.configuration.getImportSniffBudget());
+			namedGraphUri = sniffer.sniff(in, format);
+			if (namedGraphUri == null) {
+				// Element determining the graph beyond the budget: scan the
+				// whole file through a second stream, the first one being
+				// kept at its beginning for the import.
+				final InputStream scanned = RdfFiles.open(file);
+				try {
+					namedGraphUri = sniffer.scan(scanned, format);
+				} finally {
+					scanned.close();
+				}
+			}
+		} finally {
+			if (namedGraphUri == null) {
+				input.close();
+			}
+		}
         if (namedGraphUri != null) {
-            this.load(file, namedGraphUri);
+            return this.load(input, namedGraphUri);
         }
         else {
             throw new InvalidParameterException(
@@ -782,21 +1317,204 @@ public class SesameThesaurus implements ThesaurusService {
         }
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<ImportProgress> getImports() {
+		synchronized (this.imports) {
+			return new ArrayList<ImportProgress>(this.imports);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addImportListener(ImportListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener");
+		}
+		this.importListeners.add(listener);
+	}
+
+	/**
+	 * Notifie les observateurs de la fin d'un import. Les erreurs des
+	 * observateurs n'affectent pas l'import, déjà validé.
+	 */
+	private void fireImported(ImportProgress progress) {
+		this.synchronizeReplica(null);
+		// Le cache doit être vidé avant que les observateurs ne le remplissent.
+		this.invalidateEntries(progress.getChangeSet());
+		for (ImportListener listener : this.importListeners) {
+			try {
+				listener.imported(progress);
+			} catch (RuntimeException e) {
+				log.warn("Import listener failed for \""
+						+ progress.getGraph() + "\"", e);
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void shutdown() {
+		if (this.graphVersions != null) {
+			this.graphVersions.shutdown();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getDataVersion() {
+		return this.dataVersion.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<String> getVisibleGraphs() throws BusinessException {
+		final Dataset dataset;
+		try {
+			dataset = this.getReadDataset();
+		} catch (RepositoryException e) {
+			throw new BusinessException(ErrorMessage.SPARQL_SELECT_FAILED,
+					new Object[] { e.getMessage() }, e);
+		}
+		if (dataset == null) {
+			return null;
+		}
+		final List<String> graphs = new ArrayList<String>();
+		for (URI ctx : dataset.getDefaultGraphs()) {
+			graphs.add(ctx.stringValue());
+		}
+		return graphs;
+	}
+
+	/**
+	 * Vide le cache des entrées lues et change la version des données, après
+	 * modification des données.
+	 */
+	private void invalidateEntries() {
+		this.invalidateEntries(null);
+	}
+
+	/**
+	 * Invalide les entrées lues affectées par une modification des données et
+	 * change la version des données. Après un import différentiel, seules les
+	 * entrées des ressources modifiées, de leurs voisines (dont les pages
+	 * affichent les libellés) et des vocabulaires sont supprimées du cache ;
+	 * sinon, le cache est entièrement vidé.
+	 * 
+	 * @param changes
+	 *            Modifications apportées par un import différentiel, ou
+	 *            <code>null</code>
+	 */
+	private void invalidateEntries(GraphChangeSet changes) {
+		this.dataVersion.incrementAndGet();
+		if (this.entryCache != null) {
+			final Set<String> affected = (changes != null) ? this
+					.getAffectedResources(changes) : null;
+			if (affected != null) {
+				this.entryCache.evict(affected, SCHEME_ENTRY_TYPES);
+			} else {
+				this.entryCache.clear();
+			}
+		}
+		if (this.stagingDataset != null) {
+			// Prise en compte des graphes créés depuis le début des imports
+			// par lots en cours.
+			try {
+				this.refreshStagingDataset();
+			} catch (RepositoryException e) {
+				log.warn("Failed to refresh the readers dataset: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Renvoie les ressources dont les entrées en cache sont affectées par un
+	 * import différentiel : ressources modifiées et ressources qui leur sont
+	 * liées, dans un sens ou dans l'autre.
+	 * 
+	 * @return URI des ressources affectées, ou <code>null</code> si elles ne
+	 *         peuvent être déterminées ou dépassent la taille du cache
+	 */
+	private Set<String> getAffectedResources(GraphChangeSet changes) {
+		if (!changes.isComplete()) {
+			return null;
+		}
+		final int max = this.configuration.getEntryCacheSize();
+		final Set<String> affected = new HashSet<String>(changes.getResources());
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.repository.getConnection();
+			for (String uri : changes.getResources()) {
+				final URI r = this.valueFactory.createURI(uri);
+				this.addLinked(cnx.getStatements(r, null, null, false),
+						affected, false);
+				this.addLinked(cnx.getStatements(null, null, r, false),
+						affected, true);
+				if (affected.size() > max) {
+					return null;
+				}
+			}
+		} catch (RepositoryException e) {
+			log.warn("Failed to list the resources affected by the import"
+					+ " of \"" + changes.getGraph() + "\": " + e.getMessage());
+			return null;
+		} finally {
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (Exception e) { /* Ignore... */
+				}
+			}
+		}
+		return affected;
+	}
+
+	private void addLinked(RepositoryResult<Statement> rs,
+			Set<String> resources, boolean subjects)
+			throws RepositoryException {
+		try {
+			while (rs.hasNext()) {
+				final Statement st = rs.next();
+				final Value v = (subjects) ? st.getSubject() : st.getObject();
+				if ((v instanceof URI)
+						&& (!RDF.TYPE.equals(st.getPredicate()))) {
+					resources.add(v.stringValue());
+				}
+			}
+		} finally {
+			rs.close();
+		}
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void delete(String uri) throws BusinessException {
 		RepositoryConnection cnx = null;
+		Collection<URI> versions = null;
+		URI ctx = null;
 		try {
 			log.debug("Deleting RDF/XML data from named graph \"" + uri + '"');
 
-			URI ctx = this.valueFactory.createURI(uri);
+			ctx = this.valueFactory.createURI(uri);
 			// Get a transactional connection.
 			cnx = this.repository.getConnection();
 			cnx.begin();
 			// Clear existing triples from named graph, if any.
 			cnx.clear(ctx);			
+			if (this.graphVersions != null) {
+				// Clear all versions of named graph.
+				versions = this.graphVersions.getVersions(ctx);
+				for (URI version : versions) {
+					cnx.clear(version);
+				}
+			}
 			// Commit the whole transaction.
 			cnx.commit();
+			if (versions != null) {
+				// Forget versions only once they are actually deleted.
+				this.graphVersions.remove(ctx, versions);
+			}
 		} catch (Exception e) {
 			if (cnx != null) {
 				// Rollback any change done so far.
@@ -815,6 +1533,49 @@ public class SesameThesaurus implements ThesaurusService {
 				}
 			}
 		}
+		// Deletion committed: refresh replica and cached entries.
+		this.synchronizeReplica(null);
+		this.invalidateEntries();
+	}
+
+	/**
+	 * Renvoie le dépôt à interroger en lecture : la réplique locale si elle
+	 * est à jour, le triplestore sinon.
+	 */
+	private Repository getReadRepository() {
+		return ((this.replica != null) && (this.replica.isCurrent())) ? this.replica
+				.getRepository() : this.repository;
+	}
+
+	/**
+	 * Synchronise la réplique locale, le cas échéant, avec les graphes
+	 * visibles des lecteurs et la version en cours de publication. En cas
+	 * d'échec, les lectures sont adressées au triplestore jusqu'à la
+	 * synchronisation suivante.
+	 * 
+	 * @param pending
+	 *            Version à publier, ou <code>null</code>
+	 */
+	private void synchronizeReplica(final URI pending) {
+		if (this.replica == null) {
+			return;
+		}
+		try {
+			// Les versions masquées et les graphes de travail ne sont pas
+			// répliqués.
+			this.replica.synchronize(new RepositoryReplica.ContextFilter() {
+				public boolean accept(Resource ctx) throws RepositoryException {
+					if (isStagingGraph(ctx)) {
+						return false;
+					}
+					return (graphVersions == null) || (ctx.equals(pending))
+							|| (!graphVersions.isHidden(ctx));
+				}
+			});
+		} catch (RepositoryException e) {
+			log.error("Replica synchronization failed, reading from the"
+					+ " RDF triple store: " + e.getMessage(), e);
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -830,7 +1591,7 @@ public class SesameThesaurus implements ThesaurusService {
 				searchQuery);
 
 		try {
-			final RepositoryConnection cnx = this.repository.getConnection();
+			final RepositoryConnection cnx = this.getReadRepository().getConnection();
 			TupleQuery query;
 			TupleQueryResult queryResultSet = null;
 
@@ -906,7 +1667,7 @@ public class SesameThesaurus implements ThesaurusService {
 		
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			
 			matchingUnitedConceptGroups.setConceptGroups(
 					retrieveMatchingConceptGroups(matchingUnitedConceptGroups, cnx));
@@ -1524,9 +2285,9 @@ public class SesameThesaurus implements ThesaurusService {
 			throws BusinessException, IOException {
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
-			GraphQuery query = cnx.prepareGraphQuery(QueryLanguage.SPARQL,
-					getSparqlQuery(key));
+			cnx = this.getReadRepository().getConnection();
+			GraphQuery query = this.withDataset(cnx.prepareGraphQuery(
+					QueryLanguage.SPARQL, getSparqlQuery(key)));
 			query.setBinding("uri", this.valueFactory.createURI(uri));
 			query.evaluate(getRDFHandler(type, rdfOut));
 		} catch (Exception e) {
@@ -1546,10 +2307,10 @@ public class SesameThesaurus implements ThesaurusService {
 			throws BusinessException, IOException {
 		RepositoryConnection cnx = null;
 		try {
-			cnx = this.repository.getConnection();
+			cnx = this.getReadRepository().getConnection();
 			
 			cnx.export(getRDFHandler(type, rdfOut),
-	                    this.valueFactory.createURI(uri));
+	                    this.resolveGraph(uri));
 
 		} catch (Exception e) {
 			throw new BusinessException(ErrorMessage.SPARQL_CONSTRUCT_FAILED,
@@ -1563,13 +2324,24 @@ public class SesameThesaurus implements ThesaurusService {
 			}
 		}
 	}
-	
+
+	/**
+	 * Renvoie le contexte de la version publiée d'un graphe nommé.
+	 */
+	private URI resolveGraph(String uri) throws RepositoryException {
+		final URI graph = this.valueFactory.createURI(uri);
+		return (this.graphVersions != null) ? this.graphVersions
+				.resolve(graph) : graph;
+	}
+
 	private RDFHandler getRDFHandler(ExportType type, Writer rdfOut){
 		switch(type){
 		case N3 : 
 			return new N3Writer(rdfOut);
 		case TURTLE : 
 			return new TurtleWriter(rdfOut);
+		case NTRIPLES :
+			return new NTriplesWriter(rdfOut);
 		case RDF :
 		default:
 			return new RDFXMLPrettyWriter(rdfOut);      
@@ -1594,33 +2366,75 @@ public class SesameThesaurus implements ThesaurusService {
 		return (v != null) ? v.stringValue() : null;
 	}
 
-	private static TupleQuery getSelectQuery(String key,
+	private TupleQuery getSelectQuery(String key,
 			RepositoryConnection cnx) throws OpenRDFException {
 		if (cnx == null) {
 			throw new IllegalArgumentException("cnx");
 		}
-		return cnx.prepareTupleQuery(QueryLanguage.SPARQL, getSparqlQuery(key));
+		return this.withDataset(cnx.prepareTupleQuery(QueryLanguage.SPARQL,
+				getSparqlQuery(key)));
 	}
 
-	private static TupleQuery getSelectQuery(String key,
+	private TupleQuery getSelectQuery(String key,
 			RepositoryConnection connection, Object... queryFormatParameters)
 					throws OpenRDFException {
 		if (connection == null) {
 			throw new IllegalArgumentException("cnx");
 		}
-		return connection.prepareTupleQuery(QueryLanguage.SPARQL,
-				String.format(getSparqlQuery(key), queryFormatParameters));
+		return this.withDataset(connection.prepareTupleQuery(
+				QueryLanguage.SPARQL,
+				String.format(getSparqlQuery(key), queryFormatParameters)));
 	}
 
-	private static GraphQuery getConstructQuery(String key,
+	private GraphQuery getConstructQuery(String key,
 			RepositoryConnection cnx) throws OpenRDFException {
 		if (cnx == null) {
 			throw new IllegalArgumentException("cnx");
 		}
-		return cnx.prepareGraphQuery(QueryLanguage.SPARQL, getSparqlQuery(key));
+		return this.withDataset(cnx.prepareGraphQuery(QueryLanguage.SPARQL,
+				getSparqlQuery(key)));
+	}
+
+	/**
+	 * Restreint une requête de lecture aux versions publiées des graphes
+	 * nommés lorsque des versions sont en cours d'import ou de suppression,
+	 * et en exclut les graphes de travail des imports par lots en cours.
+	 */
+	private <Q extends Query> Q withDataset(Q query) throws OpenRDFException {
+		final Dataset dataset = this.getReadDataset();
+		if (dataset != null) {
+			query.setDataset(dataset);
+		}
+		return query;
+	}
+
+	/**
+	 * Renvoie le jeu de données des lecteurs, ou <code>null</code> si tous
+	 * les contextes du triplestore leur sont visibles.
+	 */
+	private Dataset getReadDataset() throws RepositoryException {
+		final Dataset versions = (this.graphVersions != null) ? this.graphVersions
+				.getDataset() : null;
+		if (versions == null) {
+			return this.stagingDataset;
+		}
+		synchronized (this.stagingGraphs) {
+			if (this.stagingGraphs.isEmpty()) {
+				return versions;
+			}
+			final DatasetImpl ds = new DatasetImpl();
+			ds.addDefaultGraph(SESAME.NIL);
+			for (URI ctx : versions.getDefaultGraphs()) {
+				if (!this.stagingGraphs.contains(ctx)) {
+					ds.addDefaultGraph(ctx);
+					ds.addNamedGraph(ctx);
+				}
+			}
+			return ds;
+		}
 	}
 
-	private static String getSparqlQuery(String key) {
+	static String getSparqlQuery(String key) {
 		if (!sparqlQueries.containsKey(key)) {
 			throw new IllegalStateException("Unknown named query: " + key);
 		}
@@ -416,4 +416,15 @@ public class SparqlQueries {
 
 	}
 
+	/**
+	 * Informations sur la requête SPARQL Update de bascule d'un graphe de
+	 * travail vers le graphe nommé cible, à l'issue d'un import par lots.
+	 */
+	public interface SwapStagingGraph {
+
+		/** Nom de la requête de bascule. */
+		final String QUERY = "swapStagingGraph";
+
+	}
+
 }
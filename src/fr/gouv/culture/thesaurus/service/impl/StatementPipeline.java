@@ -0,0 +1,430 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.util.concurrent.DaemonThreadFactory;
+
+/**
+ * Chaîne d'import producteur/consommateur : un thread dédié analyse le
+ * fichier RDF et dépose les triplets par lots dans une file bornée, que
+ * consomment un ou plusieurs threads d'écriture vers le triplestore.
+ * L'analyse et l'insertion s'exécutent ainsi sur des cœurs distincts ; la
+ * file bornée ralentit l'analyse lorsque l'écriture ne suit pas.
+ * <p>
+ * Le premier échec (analyse ou écriture) interrompt l'ensemble de la chaîne
+ * et est propagé à l'appelant.
+ * </p>
+ */
+final class StatementPipeline {
+
+	/** Taille des lots par défaut. */
+	static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/** Délai d'attente sur la file entre deux vérifications d'abandon. */
+	private static final long POLL_MS = 100L;
+
+	/** Marqueur de fin de flux (comparé par identité). */
+	private static final List<Statement> END = new ArrayList<Statement>(0);
+
+	private static final ThreadFactory threadFactory = new DaemonThreadFactory(
+			"thesaurus-import");
+
+	private final ValueFactory valueFactory;
+	private final int batchSize;
+	private final int capacity;
+
+	/**
+	 * Crée une chaîne d'import.
+	 * 
+	 * @param valueFactory
+	 *            Fabrique de valeurs utilisée par le parseur
+	 * @param batchSize
+	 *            Nombre de triplets par lot
+	 * @param capacity
+	 *            Nombre maximal de lots en attente d'écriture
+	 */
+	StatementPipeline(ValueFactory valueFactory, int batchSize, int capacity) {
+		if ((batchSize < 1) || (capacity < 1)) {
+			throw new IllegalArgumentException("batchSize/capacity");
+		}
+		this.valueFactory = valueFactory;
+		this.batchSize = batchSize;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Importe un fichier dans un contexte par plusieurs threads d'écriture,
+	 * chacun disposant de sa propre connexion et validant chaque lot dans sa
+	 * propre transaction.
+	 * 
+	 * @param repository
+	 *            Triplestore
+	 * @param writers
+	 *            Nombre de threads d'écriture
+	 * @param input
+	 *            Fichier à importer
+	 * @param ctx
+	 *            Contexte cible
+	 * @param progress
+	 *            Suivi de l'avancement de l'import
+	 * @throws OpenRDFException
+	 *             Levée si la lecture du fichier ou l'accès au triplestore a
+	 *             échoué
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué
+	 */
+	void load(Repository repository, int writers, RdfInput input, URI ctx,
+			ImportProgress progress)
+			throws OpenRDFException, IOException {
+		final BatchWriter[] batchWriters = new BatchWriter[Math.max(1,
+				writers)];
+		try {
+			for (int i = 0; i < batchWriters.length; i++) {
+				batchWriters[i] = new CommittingWriter(
+						repository.getConnection(), ctx, progress);
+			}
+			this.run(input, progress, batchWriters);
+		} finally {
+			for (BatchWriter w : batchWriters) {
+				if (w != null) {
+					w.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Importe un fichier dans un contexte par une connexion existante, dans
+	 * la transaction en cours de celle-ci : seule l'analyse est déportée sur
+	 * un thread dédié.
+	 * 
+	 * @param cnx
+	 *            Connexion, dont la transaction est gérée par l'appelant
+	 * @param input
+	 *            Fichier à importer
+	 * @param ctx
+	 *            Contexte cible
+	 * @param progress
+	 *            Suivi de l'avancement de l'import (peut être
+	 *            <code>null</code>)
+	 * @throws OpenRDFException
+	 *             Levée si la lecture du fichier ou l'accès au triplestore a
+	 *             échoué
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué
+	 */
+	void load(final RepositoryConnection cnx, RdfInput input, final URI ctx,
+			final ImportProgress progress)
+			throws OpenRDFException, IOException {
+		this.run(input, progress, new BatchWriter[] { new BatchWriter() {
+			@Override
+			public void write(List<Statement> batch)
+					throws RepositoryException {
+				final long start = System.nanoTime();
+				cnx.add(batch, ctx);
+				if (progress != null) {
+					progress.commitTime(System.nanoTime() - start);
+					progress.committed(batch.size());
+				}
+			}
+
+			@Override
+			public void close() {
+				// Connexion gérée par l'appelant.
+			}
+		} });
+	}
+
+	/**
+	 * Exécute la chaîne : l'analyse et les écritures supplémentaires sur des
+	 * threads dédiés, la première écriture sur le thread appelant.
+	 */
+	private void run(final RdfInput input, final ImportProgress progress,
+			BatchWriter[] writers)
+			throws OpenRDFException, IOException {
+		final BlockingQueue<List<Statement>> queue = new ArrayBlockingQueue<List<Statement>>(
+				this.capacity);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		final Thread parser = threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					parse(input, progress, queue, failure);
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					offer(queue, END, failure, true);
+				}
+			}
+		});
+		final Thread[] threads = new Thread[writers.length - 1];
+		parser.start();
+		for (int i = 0; i < threads.length; i++) {
+			final BatchWriter w = writers[i + 1];
+			threads[i] = threadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					consume(w, queue, failure);
+				}
+			});
+			threads[i].start();
+		}
+		consume(writers[0], queue, failure);
+
+		boolean interrupted = false;
+		for (Thread t : threads) {
+			interrupted |= join(t);
+		}
+		interrupted |= join(parser);
+		if (interrupted) {
+			failure.compareAndSet(null, new InterruptedException());
+			Thread.currentThread().interrupt();
+		}
+
+		final Throwable e = failure.get();
+		if (e instanceof OpenRDFException) {
+			throw (OpenRDFException) e;
+		} else if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new RepositoryException(e);
+		}
+	}
+
+	/**
+	 * Analyse le fichier et dépose les triplets lus par lots dans la file.
+	 */
+	private void parse(RdfInput input, final ImportProgress progress,
+			final BlockingQueue<List<Statement>> queue,
+			final AtomicReference<Throwable> failure) throws OpenRDFException,
+			IOException {
+		final RDFParser parser = Rio.createParser(input.getFormat(),
+				this.valueFactory);
+		parser.setRDFHandler(new RDFHandlerBase() {
+			private List<Statement> batch = new ArrayList<Statement>(
+					batchSize);
+			private long started;
+			/** Attente de place dans la file, exclue de la durée de lecture. */
+			private long waited = 0L;
+
+			@Override
+			public void startRDF() {
+				this.started = System.nanoTime();
+			}
+
+			@Override
+			public void handleStatement(Statement st)
+					throws RDFHandlerException {
+				this.batch.add(st);
+				if (this.batch.size() >= batchSize) {
+					this.flush();
+				}
+			}
+
+			@Override
+			public void endRDF() throws RDFHandlerException {
+				if (!this.batch.isEmpty()) {
+					this.flush();
+				}
+				if (progress != null) {
+					progress.parseTime(System.nanoTime() - this.started
+							- this.waited);
+				}
+			}
+
+			private void flush() throws RDFHandlerException {
+				final long start = System.nanoTime();
+				final boolean queued = offer(queue, this.batch, failure,
+						false);
+				this.waited += System.nanoTime() - start;
+				if (!queued) {
+					throw new RDFHandlerException("Import interrompu");
+				}
+				if (progress != null) {
+					progress.parsed(this.batch.size());
+				}
+				this.batch = new ArrayList<Statement>(batchSize);
+			}
+		});
+		final InputStream in = input.open();
+		boolean read = false;
+		try {
+			parser.parse(in, input.getBaseUri());
+			read = true;
+		} finally {
+			input.close(in, read);
+		}
+	}
+
+	/**
+	 * Ecrit les lots de la file jusqu'au marqueur de fin ou au premier
+	 * échec.
+	 */
+	private static void consume(BatchWriter writer,
+			BlockingQueue<List<Statement>> queue,
+			AtomicReference<Throwable> failure) {
+		try {
+			while (failure.get() == null) {
+				final List<Statement> batch = queue.poll(POLL_MS,
+						TimeUnit.MILLISECONDS);
+				if (batch == END) {
+					// Marqueur remis en file pour les autres écrivains.
+					queue.offer(END);
+					break;
+				} else if (batch != null) {
+					writer.write(batch);
+				}
+			}
+		} catch (Throwable e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * Dépose un lot dans la file, en attendant qu'une place se libère.
+	 * 
+	 * @param force
+	 *            attendre même si la chaîne a échoué (marqueur de fin)
+	 * @return <code>false</code> si la chaîne a échoué entre-temps.
+	 */
+	private static boolean offer(BlockingQueue<List<Statement>> queue,
+			List<Statement> batch, AtomicReference<Throwable> failure,
+			boolean force) {
+		try {
+			while (!queue.offer(batch, POLL_MS, TimeUnit.MILLISECONDS)) {
+				if (failure.get() != null) {
+					if (force) {
+						// Les écrivains s'arrêtent d'eux-mêmes.
+						queue.clear();
+					} else {
+						return false;
+					}
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			return false;
+		}
+	}
+
+	private static boolean join(Thread t) {
+		boolean interrupted = false;
+		while (t.isAlive()) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+				t.interrupt();
+			}
+		}
+		return interrupted;
+	}
+
+	/**
+	 * Destination des lots de triplets.
+	 */
+	private interface BatchWriter {
+		void write(List<Statement> batch) throws RepositoryException;
+
+		void close();
+	}
+
+	/**
+	 * Ecriture de chaque lot dans sa propre transaction.
+	 */
+	private static final class CommittingWriter implements BatchWriter {
+		private final RepositoryConnection cnx;
+		private final URI ctx;
+		private final ImportProgress progress;
+
+		CommittingWriter(RepositoryConnection cnx, URI ctx,
+				ImportProgress progress) {
+			this.cnx = cnx;
+			this.ctx = ctx;
+			this.progress = progress;
+		}
+
+		@Override
+		public void write(List<Statement> batch) throws RepositoryException {
+			final long start = System.nanoTime();
+			try {
+				this.cnx.begin();
+				this.cnx.add(batch, this.ctx);
+				this.cnx.commit();
+			} catch (RepositoryException e) {
+				try {
+					this.cnx.rollback();
+				} catch (Exception e2) { /* Ignore... */
+				}
+				throw e;
+			}
+			if (this.progress != null) {
+				this.progress.commitTime(System.nanoTime() - start);
+				this.progress.committed(batch.size());
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				this.cnx.close();
+			} catch (Exception e) { /* Ignore... */
+			}
+		}
+	}
+}
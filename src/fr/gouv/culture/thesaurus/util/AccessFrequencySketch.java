@@ -0,0 +1,165 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Esquisse de fréquence d'accès identifiant les clés les plus demandées en
+ * mémoire bornée (algorithme « Space-Saving » de Metwally et al.).
+ * <p>
+ * Au plus <code>capacity</code> compteurs sont conservés : une clé inconnue
+ * remplace la clé de plus faible compte et hérite de ce compte augmenté de
+ * un. Les clés réellement fréquentes restent ainsi suivies quel que soit le
+ * volume de clés rares. Les comptes sont divisés par deux périodiquement
+ * afin de privilégier les accès récents.
+ * </p>
+ */
+public class AccessFrequencySketch {
+
+	private final int capacity;
+	private final long decayPeriod;
+	private final Map<String, long[]> counters;
+	private long records = 0L;
+
+	/**
+	 * Crée une esquisse de fréquence d'accès.
+	 * 
+	 * @param capacity
+	 *            Nombre maximal de clés suivies
+	 */
+	public AccessFrequencySketch(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity");
+		}
+		this.capacity = capacity;
+		this.decayPeriod = 16L * capacity;
+		this.counters = new HashMap<String, long[]>(capacity * 2);
+	}
+
+	/**
+	 * Comptabilise un accès.
+	 * 
+	 * @param key
+	 *            Clé accédée
+	 */
+	public synchronized void record(String key) {
+		long[] count = this.counters.get(key);
+		if (count != null) {
+			count[0]++;
+		} else if (this.counters.size() < this.capacity) {
+			this.counters.put(key, new long[] { 1L });
+		} else {
+			// Remplacement de la clé la moins fréquente.
+			String minKey = null;
+			long[] min = null;
+			for (Map.Entry<String, long[]> e : this.counters.entrySet()) {
+				if ((min == null) || (e.getValue()[0] < min[0])) {
+					minKey = e.getKey();
+					min = e.getValue();
+				}
+			}
+			this.counters.remove(minKey);
+			min[0]++;
+			this.counters.put(key, min);
+		}
+		if (++this.records >= this.decayPeriod) {
+			this.decay();
+		}
+	}
+
+	/**
+	 * Renvoie les clés les plus fréquentes.
+	 * 
+	 * @param n
+	 *            Nombre maximal de clés
+	 * @return Clés, de la plus fréquente à la moins fréquente
+	 */
+	public synchronized List<String> top(int n) {
+		final List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(
+				this.counters.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(Map.Entry<String, long[]> a,
+					Map.Entry<String, long[]> b) {
+				final long ca = a.getValue()[0];
+				final long cb = b.getValue()[0];
+				return (ca > cb) ? -1 : ((ca < cb) ? 1 : 0);
+			}
+		});
+		final List<String> keys = new ArrayList<String>(Math.min(n,
+				entries.size()));
+		for (Map.Entry<String, long[]> e : entries) {
+			if (keys.size() >= n) {
+				break;
+			}
+			keys.add(e.getKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Oublie une clé, par exemple lorsque la ressource n'existe plus.
+	 * 
+	 * @param key
+	 *            Clé à oublier
+	 */
+	public synchronized void remove(String key) {
+		this.counters.remove(key);
+	}
+
+	/**
+	 * @return Nombre de clés suivies
+	 */
+	public synchronized int size() {
+		return this.counters.size();
+	}
+
+	/**
+	 * Divise les comptes par deux et oublie les clés dont le compte devient
+	 * nul.
+	 */
+	private void decay() {
+		this.records = 0L;
+		for (Iterator<long[]> i = this.counters.values().iterator(); i
+				.hasNext();) {
+			final long[] count = i.next();
+			count[0] >>= 1;
+			if (count[0] == 0L) {
+				i.remove();
+			}
+		}
+	}
+}
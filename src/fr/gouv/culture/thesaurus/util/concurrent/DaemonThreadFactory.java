@@ -0,0 +1,86 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fabrique de threads "démon" nommés, utilisée par les pools de traitements
+ * en tâche de fond de l'application. Les threads créés n'empêchent pas l'arrêt
+ * de la JVM (ou du conteneur de servlets).
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	/** Préfixe du nom des threads créés. */
+	private final String namePrefix;
+
+	/** Priorité des threads créés. */
+	private final int priority;
+
+	/** Compteur utilisé pour numéroter les threads créés. */
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	/**
+	 * Crée une fabrique de threads de priorité normale.
+	 * 
+	 * @param namePrefix
+	 *            Préfixe du nom des threads créés
+	 */
+	public DaemonThreadFactory(String namePrefix) {
+		this(namePrefix, Thread.NORM_PRIORITY);
+	}
+
+	/**
+	 * Crée une fabrique de threads de la priorité spécifiée.
+	 * 
+	 * @param namePrefix
+	 *            Préfixe du nom des threads créés
+	 * @param priority
+	 *            Priorité des threads créés
+	 */
+	public DaemonThreadFactory(String namePrefix, int priority) {
+		if ((namePrefix == null) || (namePrefix.length() == 0)) {
+			throw new IllegalArgumentException("namePrefix");
+		}
+		this.namePrefix = namePrefix;
+		this.priority = priority;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Thread newThread(Runnable r) {
+		final Thread t = new Thread(r, this.namePrefix + '-'
+				+ this.threadNumber.getAndIncrement());
+		t.setDaemon(true);
+		t.setPriority(this.priority);
+		return t;
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.log4j.Logger;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
+import fr.gouv.culture.thesaurus.vocabulary.Rdf;
+import fr.gouv.culture.thesaurus.vocabulary.Skos;
+
+/**
+ * Détection de l'URI du graphe nommé d'un fichier RDF par lecture de son
+ * seul début.
+ * <p>
+ * L'URI est extraite du premier ConceptScheme SKOS ou de la première
+ * ressource RAMEAU ou DBpedia rencontrée (voir
+ * {@link RdfXmlUtils#extractNamedGraphUri(java.io.File)}). Au plus
+ * <em>budget</em> octets sont lus : le RDF/XML est parcouru en flux par StAX,
+ * les formats à base de triplets (Turtle, N-Triples...) par le parseur Rio
+ * correspondant. Le flux est ensuite repositionné à son début afin d'être
+ * relu par l'import sans nouvelle ouverture du fichier.
+ * </p>
+ * <p>
+ * Si l'élément déterminant se trouve au-delà du budget, le fichier est
+ * parcouru en entier par {@link #scan(InputStream, RDFFormat)} : le budget ne
+ * borne que le cas courant et ne rejette aucun fichier valide.
+ * </p>
+ */
+public final class NamedGraphSniffer {
+
+    private final static Logger log = Logger.getLogger(NamedGraphSniffer.class);
+
+    /** Nombre d'octets lus au plus par défaut (8 Mo). */
+    public final static int DEFAULT_BYTE_BUDGET = 8 * 1024 * 1024;
+
+    /** The RDF about attribute name. */
+    private final static String RDF_ABOUT_ATTR = "about";
+    /** The prefix of BnF ARK URIs. */
+    private final static String BNF_ARK_PREFIX = "ark:/12148/";
+    /** Filter string to detect imports of RAMEAU references. */
+    private final static String RAMEAU_FILTER = "/rameau/" + BNF_ARK_PREFIX;
+    /** The prefix of Dbpedia URIs. */
+    private final static String DBPEDIA_PREFIX = "http://dbpedia.org/";
+    /** Filter string to detect imports of Dbpedia references. */
+    private final static String DBPEDIA_FILTER = DBPEDIA_PREFIX + "resource/";
+
+    private final static XMLInputFactory xmlInputFactory;
+    static {
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,
+                Boolean.TRUE);
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        xmlInputFactory.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final int byteBudget;
+
+    /**
+     * Constructeur.
+     * 
+     * @param byteBudget
+     *            Nombre maximal d'octets lus pour détecter le graphe nommé
+     */
+    public NamedGraphSniffer(int byteBudget) {
+        if (byteBudget < 1) {
+            throw new IllegalArgumentException("byteBudget");
+        }
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Renvoie le nombre maximal d'octets lus pour détecter le graphe nommé.
+     * 
+     * @return Budget de lecture, en octets
+     */
+    public int getByteBudget() {
+        return this.byteBudget;
+    }
+
+    /**
+     * Recherche l'URI du graphe nommé dans le début d'un flux, puis
+     * repositionne celui-ci à son début.
+     * 
+     * @param in
+     *            Flux à analyser, supportant <code>mark/reset</code>
+     * @param format
+     *            Format des données RDF
+     * @return L'URI du graphe nommé, ou <code>null</code> si aucun élément
+     *         permettant de la déterminer n'a été trouvé dans le budget de
+     *         lecture. L'appelant doit alors se replier sur
+     *         {@link #scan(InputStream, RDFFormat)}.
+     * @throws InvalidParameterException
+     *             Levée si les données lues ne sont pas valides
+     * @throws IOException
+     *             Levée si la lecture du flux a échoué
+     */
+    public String sniff(InputStream in, RDFFormat format)
+            throws InvalidParameterException, IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("mark/reset");
+        }
+        in.mark(this.byteBudget);
+        try {
+            final String uri = this.find(in, format, this.byteBudget);
+            if (uri == null) {
+                log.info("No named graph URI found within the first "
+                        + this.byteBudget + " bytes");
+            }
+            return uri;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Recherche l'URI du graphe nommé dans l'intégralité d'un flux, sans
+     * limite de lecture ni repositionnement. Ce parcours complet n'est
+     * nécessaire que pour les fichiers dont l'élément déterminant le graphe
+     * nommé se trouve au-delà du budget de lecture.
+     * 
+     * @param in
+     *            Flux à analyser, lu au plus jusqu'à sa fin
+     * @param format
+     *            Format des données RDF
+     * @return L'URI du graphe nommé, ou <code>null</code> si le flux ne
+     *         contient aucun élément permettant de la déterminer.
+     * @throws InvalidParameterException
+     *             Levée si les données lues ne sont pas valides
+     * @throws IOException
+     *             Levée si la lecture du flux a échoué
+     */
+    public String scan(InputStream in, RDFFormat format)
+            throws InvalidParameterException, IOException {
+        return this.find(in, format, -1L);
+    }
+
+    /**
+     * Recherche l'URI du graphe nommé dans au plus <code>limit</code>
+     * octets d'un flux (sans limite si négatif).
+     */
+    private String find(InputStream in, RDFFormat format, long limit)
+            throws InvalidParameterException, IOException {
+        final BoundedInputStream bounded = new BoundedInputStream(in, limit);
+        bounded.setPropagateClose(false);
+        final CountingInputStream counted = new CountingInputStream(bounded);
+        try {
+            return (RDFFormat.RDFXML.equals(format)) ? sniffXml(counted)
+                    : sniffStatements(counted, format);
+        } catch (XMLStreamException e) {
+            checkTruncated(counted, limit, e);
+        } catch (RDFParseException e) {
+            checkTruncated(counted, limit, e);
+        } catch (RDFHandlerException e) {
+            throw new InvalidParameterException("rdf.import.invalid.data",
+                    new Object[] { e.getMessage() }, e);
+        }
+        return null;
+    }
+
+    /**
+     * Distingue une erreur due à la troncature du flux au budget de lecture
+     * d'une erreur de syntaxe.
+     */
+    private static void checkTruncated(CountingInputStream counted,
+            long limit, Exception e) throws InvalidParameterException {
+        if ((limit < 0L) || (counted.getByteCount() < limit)) {
+            throw new InvalidParameterException("rdf.import.invalid.data",
+                    new Object[] { e.getMessage() }, e);
+        }
+    }
+
+    /**
+     * Parcourt les éléments RDF/XML jusqu'au premier élément déterminant le
+     * graphe nommé.
+     */
+    private static String sniffXml(InputStream in) throws XMLStreamException {
+        final XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                final String name = reader.getNamespaceURI()
+                        + reader.getLocalName();
+                String uri = null;
+                if (Skos.CONCEPT_SCHEME_CLASS.equals(name)) {
+                    uri = reader.getAttributeValue(Rdf.RDF_NS, RDF_ABOUT_ATTR);
+                } else if (Rdf.RDF_DESCRIPTION_CLASS.equals(name)) {
+                    uri = fromResource(reader.getAttributeValue(Rdf.RDF_NS,
+                            RDF_ABOUT_ATTR));
+                }
+                if ((uri != null) && (uri.length() != 0)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Extracted named graph URI \"" + uri
+                                + "\" from " + name + " element");
+                    }
+                    return uri;
+                }
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parcourt les triplets jusqu'au premier triplet déterminant le graphe
+     * nommé.
+     */
+    private static String sniffStatements(InputStream in, RDFFormat format)
+            throws IOException, RDFParseException, RDFHandlerException {
+        final RDFParser parser = Rio.createParser(format,
+                ValueFactoryImpl.getInstance());
+        final Found found = new Found();
+        parser.setRDFHandler(new RDFHandlerBase() {
+            @Override
+            public void handleStatement(Statement st)
+                    throws RDFHandlerException {
+                String uri = null;
+                if ((st.getSubject() instanceof URI)
+                        && (RDF.TYPE.equals(st.getPredicate()))
+                        && (Skos.CONCEPT_SCHEME_CLASS.equals(st.getObject()
+                                .stringValue()))) {
+                    uri = st.getSubject().stringValue();
+                } else if (st.getSubject() instanceof URI) {
+                    uri = fromResource(st.getSubject().stringValue());
+                }
+                if ((uri != null) && (uri.length() != 0)) {
+                    found.uri = uri;
+                    throw found;
+                }
+            }
+        });
+        try {
+            parser.parse(in, "");
+        } catch (RDFHandlerException e) {
+            if (e != found) {
+                throw e;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Extracted named graph URI \"" + found.uri
+                        + "\" from " + format.getName() + " statements");
+            }
+        }
+        return found.uri;
+    }
+
+    /**
+     * Détermine le graphe nommé d'une ressource RAMEAU ou DBpedia.
+     * 
+     * @param about
+     *            URI de la ressource
+     * @return URI du graphe nommé, ou <code>null</code> si la ressource
+     *         n'est ni une ressource RAMEAU, ni une ressource DBpedia.
+     */
+    private static String fromResource(String about) {
+        if (about == null) {
+            return null;
+        } else if (about.contains(RAMEAU_FILTER)) {
+            return about.substring(0, about.indexOf(BNF_ARK_PREFIX));
+        } else if (about.startsWith(DBPEDIA_FILTER)) {
+            return DBPEDIA_PREFIX;
+        }
+        return null;
+    }
+
+    /**
+     * Interruption du parseur Rio dès que le graphe nommé est trouvé.
+     */
+    private final static class Found extends RDFHandlerException {
+        private static final long serialVersionUID = 1L;
+
+        private String uri = null;
+
+        Found() {
+            super("Named graph URI found");
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.openrdf.rio.RDFFormat;
+
+/**
+ * Ouverture des fichiers RDF à importer : détection du format (RDF/XML,
+ * Turtle, N-Triples, N-Quads) et décompression à la volée des fichiers
+ * <code>.gz</code> et <code>.zip</code>.
+ * <p>
+ * La compression est reconnue à la signature du fichier, quel que soit son
+ * nom. Le format est déterminé par l'extension du fichier (sans celle de la
+ * compression) ou, à défaut, par le début du contenu. Seule la première
+ * entrée d'une archive ZIP portant l'extension d'un format RDF est lue.
+ * </p>
+ */
+public final class RdfFiles {
+
+	/** Formats acceptés à l'import. */
+	private final static RDFFormat[] FORMATS = { RDFFormat.RDFXML,
+			RDFFormat.TURTLE, RDFFormat.NTRIPLES, RDFFormat.NQUADS };
+
+	/** Extension des fichiers compressés par gzip. */
+	private final static String GZIP_EXTENSION = ".gz";
+	/** Extension des archives ZIP. */
+	private final static String ZIP_EXTENSION = ".zip";
+
+	/** Taille des tampons de lecture. */
+	private final static int BUFFER_SIZE = 64 * 1024;
+	/** Nombre d'octets examinés pour reconnaître le format au contenu. */
+	private final static int GUESS_LENGTH = 4096;
+
+	/** Début d'un document XML. */
+	private final static Pattern XML_START = Pattern
+			.compile("^(<\\?xml|<!|<[A-Za-z_][\\w.-]*(:[\\w.-]+)?[\\s>/])");
+	/** Terme N-Triples/N-Quads : URI, nœud anonyme ou littéral. */
+	private final static String TERM = "(<[^>]*>|_:\\S+|\"(?:[^\"\\\\]|\\\\.)*\"(?:@[\\w-]+|\\^\\^<[^>]*>)?)";
+	/** Ligne N-Quads (quatre termes). */
+	private final static Pattern NQUADS_LINE = Pattern.compile("^" + TERM
+			+ "\\s+" + TERM + "\\s+" + TERM + "\\s+" + TERM + "\\s*\\.\\s*$");
+
+	/** Constructeur privé pour empêcher toute instanciation. */
+	private RdfFiles() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Indique si le nom d'un fichier correspond à un format d'import
+	 * supporté, éventuellement compressé.
+	 * 
+	 * @param fileName
+	 *            Nom du fichier
+	 * @return <code>true</code> si le fichier peut être importé
+	 */
+	public static boolean isSupported(String fileName) {
+		final String name = fileName.toLowerCase(Locale.ENGLISH);
+		return name.endsWith(ZIP_EXTENSION)
+				|| (forFileName(stripGzip(name)) != null);
+	}
+
+	/**
+	 * Ouvre un fichier RDF en lecture, en le décompressant si nécessaire.
+	 * 
+	 * @param file
+	 *            Fichier à lire
+	 * @return Flux des données RDF, supportant <code>mark/reset</code>
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué ou si une archive
+	 *             ZIP ne contient aucun fichier RDF
+	 */
+	public static InputStream open(File file) throws IOException {
+		final BufferedInputStream in = new BufferedInputStream(
+				new FileInputStream(file), BUFFER_SIZE);
+		try {
+			switch (getCompression(in)) {
+			case GZIP:
+				return new BufferedInputStream(new GZIPInputStream(in,
+						BUFFER_SIZE), BUFFER_SIZE);
+			case ZIP:
+				final ZipInputStream zip = new ZipInputStream(in);
+				if (nextRdfEntry(zip) == null) {
+					throw new IOException("Aucun fichier RDF dans l'archive "
+							+ file.getName());
+				}
+				return new BufferedInputStream(zip, BUFFER_SIZE);
+			default:
+				return in;
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		} catch (RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Détermine le format RDF d'un fichier.
+	 * 
+	 * @param file
+	 *            Fichier à examiner
+	 * @return Format du fichier, RDF/XML s'il n'a pu être reconnu
+	 * @throws IOException
+	 *             Levée si la lecture du fichier a échoué
+	 */
+	public static RDFFormat getFormat(File file) throws IOException {
+		String name = file.getName();
+		final InputStream in = new BufferedInputStream(new FileInputStream(
+				file));
+		try {
+			final Compression compression = getCompression(in);
+			if (compression == Compression.ZIP) {
+				final ZipEntry entry = nextRdfEntry(new ZipInputStream(in));
+				name = (entry != null) ? entry.getName() : "";
+			} else if (compression == Compression.GZIP) {
+				name = stripGzip(name);
+			}
+		} finally {
+			in.close();
+		}
+		RDFFormat format = forFileName(name);
+		if (format == null) {
+			// Format non reconnu à l'extension : examen du contenu.
+			final InputStream data = open(file);
+			try {
+				format = guess(data);
+			} finally {
+				data.close();
+			}
+		}
+		return format;
+	}
+
+	/**
+	 * Reconnaît le format d'un flux RDF à son début : RDF/XML, N-Quads ou,
+	 * à défaut, Turtle (qui englobe N-Triples).
+	 */
+	private static RDFFormat guess(InputStream in) throws IOException {
+		final byte[] buffer = new byte[GUESS_LENGTH];
+		int length = 0;
+		int n;
+		while ((length < buffer.length)
+				&& ((n = in.read(buffer, length, buffer.length - length)) != -1)) {
+			length += n;
+		}
+		String start = new String(buffer, 0, length, "UTF-8");
+		if (start.startsWith("\uFEFF")) {
+			start = start.substring(1);
+		}
+		for (String line : start.split("\r?\n")) {
+			line = line.trim();
+			if (line.length() == 0) {
+				continue;
+			}
+			if (line.startsWith("#")) {
+				continue;
+			}
+			if (XML_START.matcher(line).find()) {
+				return RDFFormat.RDFXML;
+			}
+			return (NQUADS_LINE.matcher(line).matches()) ? RDFFormat.NQUADS
+					: RDFFormat.TURTLE;
+		}
+		return RDFFormat.RDFXML;
+	}
+
+	/**
+	 * Positionne une archive ZIP sur sa première entrée dont l'extension
+	 * correspond à un format RDF supporté.
+	 */
+	private static ZipEntry nextRdfEntry(ZipInputStream zip)
+			throws IOException {
+		ZipEntry entry;
+		while ((entry = zip.getNextEntry()) != null) {
+			if ((!entry.isDirectory())
+					&& (forFileName(entry.getName()) != null)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private static RDFFormat forFileName(String name) {
+		final String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+		for (RDFFormat format : FORMATS) {
+			for (String ext : format.getFileExtensions()) {
+				if (lowerCaseName.endsWith("." + ext)) {
+					return format;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String stripGzip(String name) {
+		return (name.toLowerCase(Locale.ENGLISH).endsWith(GZIP_EXTENSION)) ? name
+				.substring(0, name.length() - GZIP_EXTENSION.length()) : name;
+	}
+
+	/**
+	 * Reconnaît la compression d'un flux à sa signature, sans le consommer.
+	 */
+	private static Compression getCompression(InputStream in)
+			throws IOException {
+		in.mark(4);
+		final int b0 = in.read();
+		final int b1 = in.read();
+		final int b2 = in.read();
+		final int b3 = in.read();
+		in.reset();
+		if ((b0 == 0x1f) && (b1 == 0x8b)) {
+			return Compression.GZIP;
+		} else if ((b0 == 'P') && (b1 == 'K') && (b2 == 3) && (b3 == 4)) {
+			return Compression.ZIP;
+		}
+		return Compression.NONE;
+	}
+
+	private enum Compression {
+		NONE, GZIP, ZIP
+	}
+}
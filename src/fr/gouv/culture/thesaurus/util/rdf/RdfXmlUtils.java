@@ -29,21 +29,13 @@
 package fr.gouv.culture.thesaurus.util.rdf;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.apache.log4j.Logger;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import org.openrdf.rio.RDFFormat;
 
 import fr.gouv.culture.thesaurus.exception.BusinessException;
 import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
-import fr.gouv.culture.thesaurus.vocabulary.Rdf;
-import fr.gouv.culture.thesaurus.vocabulary.Skos;
 
 /**
  * Diverses méthodes d'aide à la lecture de fichiers RDF/XML.
@@ -52,8 +44,6 @@ import fr.gouv.culture.thesaurus.vocabulary.Skos;
  */
 public final class RdfXmlUtils {
 
-    private final static Logger log = Logger.getLogger(RdfXmlUtils.class);
-	
 	/** Constructeur privé pour empêcher toute instanciation. */
 	private RdfXmlUtils() {
         throw new UnsupportedOperationException();
@@ -61,126 +51,65 @@ public final class RdfXmlUtils {
 	
 	/**
      * Extracts the URI of the named graph into which the RDF triples
-     * from the file should be stored.
-     * @param  file      the RDF/XML file.
-     * @return the named graph URI extracted form the file XML data.
+     * from the file should be stored, reading the first
+     * {@link NamedGraphSniffer#DEFAULT_BYTE_BUDGET} bytes before falling
+     * back to a scan of the whole file.
+     * @param  file      the RDF file, possibly compressed.
+     * @return the named graph URI extracted form the file data, or
+     *         <code>null</code> if no named graph URI defining element
+     *         was found in the whole file.
      * @throws BusinessException if the file does not contain
-     *         well-formed XML data or if no named graph URI defining
-     *         element was found.
+     *         well-formed RDF data.
      */
     public static String extractNamedGraphUri(File f) throws BusinessException {
-        String uri = null;
+        return extractNamedGraphUri(f, NamedGraphSniffer.DEFAULT_BYTE_BUDGET);
+    }
 
-        NamedGraphUriExtractor extractor = new NamedGraphUriExtractor();
-        SAXParserFactory spf = null;
-        SAXParser sp = null;
-        FileInputStream fis = null;
+	/**
+     * Extracts the URI of the named graph into which the RDF triples
+     * from the file should be stored.
+     * @param  file       the RDF file, possibly compressed (see
+     *                    {@link RdfFiles}).
+     * @param  byteBudget the number of bytes read before falling back
+     *                    to a scan of the whole file.
+     * @return the named graph URI extracted form the file data, or
+     *         <code>null</code> if no named graph URI defining element
+     *         was found in the whole file.
+     * @throws BusinessException if the file does not contain
+     *         well-formed RDF data.
+     * @see NamedGraphSniffer
+     */
+    public static String extractNamedGraphUri(File f, int byteBudget)
+                                                throws BusinessException {
+        InputStream in = null;
         try {
         	// Ouverture du flux (pour pouvoir le fermer et déplacer le fichier ensuite).
-        	fis =new FileInputStream(f);
-        	spf = SAXParserFactory.newInstance();
-            spf.setNamespaceAware(true);
-            sp = spf.newSAXParser();
-            sp.parse(fis, extractor);
+        	in = RdfFiles.open(f);
+        	final RDFFormat format = RdfFiles.getFormat(f);
+        	final NamedGraphSniffer sniffer = new NamedGraphSniffer(byteBudget);
+        	String uri = sniffer.sniff(in, format);
+        	if (uri == null) {
+        	    // Flux repositionné au début : parcours complet du fichier.
+        	    uri = sniffer.scan(in, format);
+        	}
+        	return uri;
         }
-        catch (SAXException e) {
-            uri = extractor.getNamedGraphUri();
-            if ((uri == null) || (uri.length() == 0)) {
-                throw new InvalidParameterException("rdf.import.invalid.data",
-                                        new Object[] { e.getMessage() }, e);
-            }
+        catch (BusinessException e) {
+            throw e;
         }
         catch (Exception e) {
             throw new InvalidParameterException("rdf.import.invalid.data",
                                         new Object[] { e.getMessage() }, e);
         }finally{
         	// Fermeture du flux.
-        	if(fis != null){
+        	if(in != null){
 	        	try {
-					fis.close();
+					in.close();
 				} catch (IOException e) {
 					// NOP
 				}
         	}
         }
-        
-        return uri;
-    }
-
-    /**
-     * A SAX {@link org.xml.sax.ContentHandler} that scans an XML
-     * document for a named graph URI.
-     * <p>
-     * Named graph URIs are extracted from the first encountered SKOS
-     * ConceptScheme or Rameau or Dbpedia RDF resource description. The
-     * named graph URI is constructed from the value of the RDF About
-     * attribute of the RDF resource as follows:</p>
-     * <ul>
-     *  <li>For SKOS ConceptSchemes, the value of the RDF About
-     *   attribute</li>
-     *  <li>For Rameau resources, the part of the URI preceeding the
-     *   BnF ARK scheme (<code>ark:/12148/</code>...)</li>
-     *  <li>For Dbpedia resources, the part of the URI preceeding the
-     *   resource identifier (<code>resource/</code>...)</li>
-     * </ul>
-     */
-    private final static class NamedGraphUriExtractor extends DefaultHandler
-    {
-        /** The RDF about attribute name. */
-        private final String RDF_ABOUT_ATTR = "about";
-
-        /** The prefix of BnF ARK URIs. */
-        private final String BNF_ARK_PREFIX = "ark:/12148/";
-        /** Filter string to detect imports of RAMEAU references. */
-        private final String RAMEAU_FILTER = "/rameau/" + BNF_ARK_PREFIX;
-
-        /** The prefix of Dbpedia URIs. */
-        private final String DBPEDIA_PREFIX = "http://dbpedia.org/";
-        /** Filter string to detect imports of Dbpedia references. */
-        private final String DBPEDIA_FILTER = DBPEDIA_PREFIX + "resource/";
-
-        private String extractedUri = null;
-
-        public NamedGraphUriExtractor() {
-            super();
-        }
-
-        public String getNamedGraphUri() {
-            return this.extractedUri;
-        }
-
-        public void startElement(String uri, String localName, String qName,
-                                 Attributes attrs) throws SAXException {
-            String name = uri + localName;
-
-            if (Skos.CONCEPT_SCHEME_CLASS.equals(name)) {
-                extractedUri = attrs.getValue(Rdf.RDF_NS, RDF_ABOUT_ATTR);
-
-                if (log.isDebugEnabled()) {
-                    log.debug("Extracted named graph URI \"" + extractedUri
-                            + "\" from " + Skos.CONCEPT_SCHEME_CLASS + " element");
-                }
-            }
-            else if (Rdf.RDF_DESCRIPTION_CLASS.equals(name)) {
-                String about = attrs.getValue(Rdf.RDF_NS, RDF_ABOUT_ATTR);
-                if (about.contains(RAMEAU_FILTER)) {
-                    extractedUri = about.substring(0,
-                                                about.indexOf(BNF_ARK_PREFIX));
-                }
-                else if (about.startsWith(DBPEDIA_FILTER)) {
-                    extractedUri = DBPEDIA_PREFIX;
-                }
-                if ((log.isDebugEnabled()) && (extractedUri != null)) {
-                    log.debug("Extracted named graph URI \"" + extractedUri
-                            + "\" from " + Rdf.RDF_DESCRIPTION_CLASS + " element");
-                }
-            }
-
-            if ((extractedUri != null) && (extractedUri.length() != 0)) {
-                throw new SAXException("Named graph URI: " + extractedUri);
-            }
-            super.startElement(uri, localName, qName, attrs);
-        }
     }
 
 }
@@ -0,0 +1,233 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ContextStatementImpl;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BooleanQuery;
+import org.openrdf.query.GraphQuery;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.Query;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.impl.DatasetImpl;
+import org.openrdf.query.resultio.BooleanQueryResultFormat;
+import org.openrdf.query.resultio.QueryResultFormat;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerWrapper;
+import org.openrdf.rio.rdfxml.RDFXMLWriter;
+
+import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
+import fr.gouv.culture.thesaurus.util.rdf.SparqlQueryGuard.QueryType;
+import fr.gouv.culture.thesaurus.util.xml.UriRewriter;
+
+/**
+ * Évaluation de requêtes SPARQL libres directement sur un dépôt Sesame de
+ * la JVM (dépôt embarqué), sans passer par le protocole HTTP.
+ * <p>
+ * Les résultats sont écrits au fil de l'évaluation dans le format demandé
+ * (résultats SPARQL en XML, JSON, CSV ou TSV, RDF/XML pour les graphes),
+ * les URI étant traduites à l'écriture : ils ne sont ni sérialisés puis
+ * relus, ni conservés en mémoire.
+ * </p>
+ */
+public class RepositoryQueryEvaluator {
+
+	private final Repository repository;
+	private final int maxQueryTime;
+
+	/**
+	 * Crée un évaluateur de requêtes.
+	 * 
+	 * @param repository
+	 *            Dépôt interrogé
+	 * @param maxQueryTime
+	 *            Durée maximale d'évaluation des requêtes interactives, en
+	 *            secondes, 0 pour ne pas limiter
+	 */
+	public RepositoryQueryEvaluator(Repository repository, int maxQueryTime) {
+		if (repository == null) {
+			throw new IllegalArgumentException("repository");
+		}
+		if (maxQueryTime < 0) {
+			throw new IllegalArgumentException("maxQueryTime");
+		}
+		this.repository = repository;
+		this.maxQueryTime = maxQueryTime;
+	}
+
+	/**
+	 * @return Durée maximale d'évaluation des requêtes interactives, en
+	 *         secondes, 0 si non limitée
+	 */
+	public int getMaxQueryTime() {
+		return this.maxQueryTime;
+	}
+
+	/**
+	 * Évalue une requête et en écrit les résultats.
+	 * 
+	 * @param query
+	 *            Requête SPARQL, déjà vérifiée (voir {@link SparqlQueryGuard})
+	 * @param type
+	 *            Forme de la requête
+	 * @param defaultGraphs
+	 *            URI des graphes formant le graphe par défaut, ou
+	 *            <code>null</code>
+	 * @param namedGraphs
+	 *            URI des graphes nommés, ou <code>null</code>
+	 * @param format
+	 *            Format des résultats <tt>SELECT</tt> ou <tt>ASK</tt>, ou
+	 *            <code>null</code> pour les résultats SPARQL en XML ; les
+	 *            graphes sont toujours écrits en RDF/XML
+	 * @param rewriter
+	 *            Réécriture des URI des résultats, ou <code>null</code>
+	 * @param maxQueryTime
+	 *            Durée maximale d'évaluation, en secondes, 0 pour ne pas
+	 *            limiter
+	 * @param out
+	 *            Flux de sortie, non fermé par cette méthode
+	 * @throws InvalidParameterException
+	 *             Levée si la requête est invalide
+	 * @throws IOException
+	 *             Levée si l'évaluation ou l'écriture des résultats a échoué
+	 */
+	public void evaluate(String query, QueryType type,
+			List<String> defaultGraphs, List<String> namedGraphs,
+			QueryResultFormat format, UriRewriter rewriter, int maxQueryTime,
+			OutputStream out) throws InvalidParameterException, IOException {
+		RepositoryConnection cnx = null;
+		try {
+			cnx = this.repository.getConnection();
+			final Query q = cnx.prepareQuery(QueryLanguage.SPARQL, query);
+			if (((defaultGraphs != null) && !defaultGraphs.isEmpty())
+					|| ((namedGraphs != null) && !namedGraphs.isEmpty())) {
+				final ValueFactory vf = cnx.getValueFactory();
+				final DatasetImpl dataset = new DatasetImpl();
+				if (defaultGraphs != null) {
+					for (String g : defaultGraphs) {
+						dataset.addDefaultGraph(vf.createURI(g));
+					}
+				}
+				if (namedGraphs != null) {
+					for (String g : namedGraphs) {
+						dataset.addNamedGraph(vf.createURI(g));
+					}
+				}
+				q.setDataset(dataset);
+			}
+			if (maxQueryTime > 0) {
+				q.setMaxQueryTime(maxQueryTime);
+			}
+			if (type == QueryType.TUPLE) {
+				((TupleQuery) q).evaluate(SparqlResultTranscoder
+						.newTupleWriter((format != null) ? (TupleQueryResultFormat) format
+								: TupleQueryResultFormat.SPARQL, out, rewriter));
+			} else if (type == QueryType.BOOLEAN) {
+				SparqlResultTranscoder.writeBoolean(((BooleanQuery) q)
+						.evaluate(),
+						(format != null) ? (BooleanQueryResultFormat) format
+								: BooleanQueryResultFormat.SPARQL, out);
+			} else {
+				RDFHandler handler = new RDFXMLWriter(out);
+				if (rewriter != null) {
+					handler = new RewritingRdfHandler(handler, rewriter);
+				}
+				((GraphQuery) q).evaluate(handler);
+			}
+			out.flush();
+		} catch (MalformedQueryException e) {
+			throw new InvalidParameterException(e.getMessage(), e);
+		} catch (IllegalArgumentException e) {
+			// URI de graphe invalide.
+			throw new InvalidParameterException(e.getMessage(), e);
+		} catch (OpenRDFException e) {
+			throw SparqlResultTranscoder.toIOException(e);
+		} finally {
+			if (cnx != null) {
+				try {
+					cnx.close();
+				} catch (RepositoryException e) { /* Ignore... */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Réécrit les URI des sujets et objets des triplets avant de les
+	 * transmettre au writer.
+	 */
+	private static final class RewritingRdfHandler extends RDFHandlerWrapper {
+		private final UriRewriter rewriter;
+
+		RewritingRdfHandler(RDFHandler delegate, UriRewriter rewriter) {
+			super(delegate);
+			this.rewriter = rewriter;
+		}
+
+		@Override
+		public void handleStatement(Statement st) throws RDFHandlerException {
+			final Resource s = (Resource) this.rewrite(st.getSubject());
+			final Value o = this.rewrite(st.getObject());
+			if ((s != st.getSubject()) || (o != st.getObject())) {
+				st = (st.getContext() != null) ? new ContextStatementImpl(s,
+						st.getPredicate(), o, st.getContext())
+						: new StatementImpl(s, st.getPredicate(), o);
+			}
+			super.handleStatement(st);
+		}
+
+		private Value rewrite(Value v) {
+			if (v instanceof URI) {
+				final String uri = v.stringValue();
+				final String url = this.rewriter.rewrite(uri);
+				if (!url.equals(uri)) {
+					return new URIImpl(url);
+				}
+			}
+			return v;
+		}
+	}
+}
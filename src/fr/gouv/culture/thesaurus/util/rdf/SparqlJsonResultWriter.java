@@ -0,0 +1,172 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryResultHandlerException;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.TupleQueryResultHandlerException;
+
+import fr.gouv.culture.thesaurus.util.web.JsonBuilder;
+
+/**
+ * Écriture des résultats d'une requête <tt>SELECT</tt> au format SPARQL 1.1
+ * Query Results JSON, au fil des résultats.
+ * <p>
+ * Le writer JSON de Sesame dépend de Jackson, absent de l'application.
+ * </p>
+ */
+final class SparqlJsonResultWriter implements TupleQueryResultHandler {
+
+	/** Encodage de la sortie. */
+	private final static String ENCODING = "UTF-8";
+
+	private final Writer out;
+	private boolean first = true;
+
+	/**
+	 * Crée un writer.
+	 * 
+	 * @param out
+	 *            Flux de sortie, non fermé par ce writer
+	 * @throws IOException
+	 *             Levée si l'encodage n'est pas disponible
+	 */
+	SparqlJsonResultWriter(OutputStream out) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, ENCODING));
+	}
+
+	/**
+	 * Écrit un résultat booléen.
+	 * 
+	 * @param out
+	 *            Flux de sortie, non fermé par cette méthode
+	 * @param value
+	 *            Résultat
+	 * @throws IOException
+	 *             Levée si l'écriture a échoué
+	 */
+	static void writeBoolean(OutputStream out, boolean value)
+			throws IOException {
+		final Writer w = new OutputStreamWriter(out, ENCODING);
+		w.write("{\"head\":{},\"boolean\":" + value + "}\n");
+		w.flush();
+	}
+
+	@Override
+	public void handleBoolean(boolean value)
+			throws QueryResultHandlerException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void handleLinks(List<String> linkUrls) {
+		// Liens non transmis.
+	}
+
+	@Override
+	public void startQueryResult(List<String> bindingNames)
+			throws TupleQueryResultHandlerException {
+		try {
+			this.out.write("{\"head\":{\"vars\":[");
+			for (int i = 0; i < bindingNames.size(); i++) {
+				if (i != 0) {
+					this.out.write(',');
+				}
+				this.out.write(JsonBuilder.quote(bindingNames.get(i)));
+			}
+			this.out.write("]},\"results\":{\"bindings\":[");
+		} catch (IOException e) {
+			throw new TupleQueryResultHandlerException(e);
+		}
+	}
+
+	@Override
+	public void handleSolution(BindingSet bindings)
+			throws TupleQueryResultHandlerException {
+		try {
+			this.out.write(this.first ? "\n{" : ",\n{");
+			this.first = false;
+			boolean firstBinding = true;
+			for (Binding b : bindings) {
+				if (!firstBinding) {
+					this.out.write(',');
+				}
+				firstBinding = false;
+				this.out.write(JsonBuilder.quote(b.getName()));
+				this.out.write(':');
+				this.writeValue(b.getValue());
+			}
+			this.out.write('}');
+		} catch (IOException e) {
+			throw new TupleQueryResultHandlerException(e);
+		}
+	}
+
+	@Override
+	public void endQueryResult() throws TupleQueryResultHandlerException {
+		try {
+			this.out.write("\n]}}\n");
+			this.out.flush();
+		} catch (IOException e) {
+			throw new TupleQueryResultHandlerException(e);
+		}
+	}
+
+	private void writeValue(Value v) throws IOException {
+		if (v instanceof Literal) {
+			final Literal l = (Literal) v;
+			this.out.write("{\"type\":\"literal\",\"value\":");
+			this.out.write(JsonBuilder.quote(l.getLabel()));
+			if (l.getLanguage() != null) {
+				this.out.write(",\"xml:lang\":");
+				this.out.write(JsonBuilder.quote(l.getLanguage()));
+			} else if (l.getDatatype() != null) {
+				this.out.write(",\"datatype\":");
+				this.out.write(JsonBuilder.quote(l.getDatatype().stringValue()));
+			}
+		} else {
+			this.out.write((v instanceof BNode) ? "{\"type\":\"bnode\",\"value\":"
+					: "{\"type\":\"uri\",\"value\":");
+			this.out.write(JsonBuilder.quote(v.stringValue()));
+		}
+		this.out.write('}');
+	}
+}
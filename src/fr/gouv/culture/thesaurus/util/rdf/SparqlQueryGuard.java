@@ -0,0 +1,399 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import java.io.StringReader;
+
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.algebra.Group;
+import org.openrdf.query.algebra.Order;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.parser.ParsedBooleanQuery;
+import org.openrdf.query.parser.ParsedGraphQuery;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+import org.openrdf.query.parser.sparql.ast.ASTQuery;
+import org.openrdf.query.parser.sparql.ast.ASTQueryContainer;
+import org.openrdf.query.parser.sparql.ast.JavaCharStream;
+import org.openrdf.query.parser.sparql.ast.ParseException;
+import org.openrdf.query.parser.sparql.ast.SyntaxTreeBuilder;
+import org.openrdf.query.parser.sparql.ast.SyntaxTreeBuilderConstants;
+import org.openrdf.query.parser.sparql.ast.SyntaxTreeBuilderTokenManager;
+import org.openrdf.query.parser.sparql.ast.Token;
+import org.openrdf.query.parser.sparql.ast.TokenMgrError;
+
+import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
+
+/**
+ * Garde-fous appliqués aux requêtes SPARQL libres avant leur transmission au
+ * triplestore.
+ * <p>
+ * Les requêtes sont analysées par le parseur SPARQL de Sesame : les requêtes
+ * invalides et les mises à jour sont refusées. Le nombre de résultats est
+ * plafonné en ajoutant une clause <tt>LIMIT</tt> aux requêtes qui n'en ont
+ * pas et en abaissant celle qui dépasse le plafond. Les requêtes dont
+ * l'évaluation parcourt à coup sûr tout le triplestore avant de produire un
+ * premier résultat sont refusées : tri ou regroupement de motifs dont aucun
+ * terme n'est fixé (<tt>?s ?p ?o</tt>), décalage (<tt>OFFSET</tt>) au-delà du
+ * plafond. Le refus des parcours complets peut être désactivé pour les
+ * requêtes exécutées hors du traitement interactif (requêtes asynchrones).
+ * </p>
+ */
+public class SparqlQueryGuard {
+
+	/**
+	 * Forme de requête, qui détermine la forme des résultats.
+	 */
+	public enum QueryType {
+		/** Requête <tt>SELECT</tt> : table de résultats. */
+		TUPLE,
+		/** Requête <tt>ASK</tt> : résultat booléen. */
+		BOOLEAN,
+		/** Requête <tt>CONSTRUCT</tt> ou <tt>DESCRIBE</tt> : graphe RDF. */
+		GRAPH
+	}
+
+	/** Nombre maximal de résultats, 0 si non plafonné. */
+	private final long maxLimit;
+	/** Décalage maximal, 0 si non plafonné. */
+	private final long maxOffset;
+	/** Refus des requêtes parcourant tout le triplestore. */
+	private final boolean rejectFullScans;
+
+	/**
+	 * Crée des garde-fous.
+	 * 
+	 * @param maxLimit
+	 *            Nombre maximal de résultats d'une requête, 0 pour ne pas
+	 *            plafonner
+	 * @param maxOffset
+	 *            Décalage maximal des résultats d'une requête, 0 pour ne pas
+	 *            plafonner
+	 */
+	public SparqlQueryGuard(long maxLimit, long maxOffset) {
+		this(maxLimit, maxOffset, true);
+	}
+
+	/**
+	 * Crée des garde-fous.
+	 * 
+	 * @param maxLimit
+	 *            Nombre maximal de résultats d'une requête, 0 pour ne pas
+	 *            plafonner
+	 * @param maxOffset
+	 *            Décalage maximal des résultats d'une requête, 0 pour ne pas
+	 *            plafonner
+	 * @param rejectFullScans
+	 *            <code>true</code> pour refuser les requêtes dont
+	 *            l'évaluation parcourt tout le triplestore
+	 */
+	public SparqlQueryGuard(long maxLimit, long maxOffset,
+			boolean rejectFullScans) {
+		if (maxLimit < 0L) {
+			throw new IllegalArgumentException("maxLimit");
+		}
+		if (maxOffset < 0L) {
+			throw new IllegalArgumentException("maxOffset");
+		}
+		this.maxLimit = maxLimit;
+		this.maxOffset = maxOffset;
+		this.rejectFullScans = rejectFullScans;
+	}
+
+	/**
+	 * @return Nombre maximal de résultats d'une requête, 0 si non plafonné
+	 */
+	public long getMaxLimit() {
+		return this.maxLimit;
+	}
+
+	/**
+	 * @return Décalage maximal des résultats d'une requête, 0 si non
+	 *         plafonné
+	 */
+	public long getMaxOffset() {
+		return this.maxOffset;
+	}
+
+	/**
+	 * Vérifie une requête et plafonne son nombre de résultats.
+	 * 
+	 * @param query
+	 *            Requête SPARQL
+	 * @return Requête à transmettre au triplestore : la requête d'origine ou
+	 *         la requête complétée ou modifiée, et sa forme
+	 * @throws InvalidParameterException
+	 *             Levée si la requête est invalide, n'est pas une requête
+	 *             d'interrogation ou est manifestement trop coûteuse
+	 */
+	public BoundedQuery bound(String query) throws InvalidParameterException {
+		final ASTQueryContainer ast;
+		final ParsedQuery parsed;
+		try {
+			ast = SyntaxTreeBuilder.parseQuery(query);
+			if (!ast.containsQuery()) {
+				throw new InvalidParameterException(
+						"Only SPARQL queries are supported");
+			}
+			parsed = new SPARQLParser().parseQuery(query, null);
+		} catch (TokenMgrError e) {
+			throw new InvalidParameterException(e.getMessage(), e);
+		} catch (ParseException e) {
+			throw new InvalidParameterException(e.getMessage(), e);
+		} catch (MalformedQueryException e) {
+			throw new InvalidParameterException(e.getMessage(), e);
+		}
+		final boolean dataset = (parsed.getDataset() != null);
+		if (parsed instanceof ParsedBooleanQuery) {
+			// ASK : un seul résultat.
+			return new BoundedQuery(query, QueryType.BOOLEAN, dataset);
+		}
+		final QueryType type = (parsed instanceof ParsedGraphQuery) ? QueryType.GRAPH
+				: QueryType.TUPLE;
+		final ASTQuery q = ast.getQuery();
+		if ((this.maxOffset != 0L) && q.hasOffset()
+				&& (q.getOffset().getValue() > this.maxOffset)) {
+			throw new InvalidParameterException("OFFSET exceeds "
+					+ this.maxOffset);
+		}
+		if (this.rejectFullScans) {
+			this.checkFullScan(parsed);
+		}
+		if ((this.maxLimit == 0L)
+				|| (q.hasLimit() && (q.getLimit().getValue() <= this.maxLimit))) {
+			return new BoundedQuery(query, type, dataset);
+		}
+		return new BoundedQuery(this.setLimit(query, q.hasLimit()), type,
+				dataset);
+	}
+
+	/**
+	 * Refuse les requêtes triant ou regroupant les résultats de motifs dont
+	 * aucun terme n'est fixé : le triplestore entier doit être lu avant le
+	 * premier résultat, quelle que soit la limite.
+	 */
+	private void checkFullScan(ParsedQuery parsed)
+			throws InvalidParameterException {
+		final CostVisitor cost = new CostVisitor();
+		parsed.getTupleExpr().visit(cost);
+		if (cost.blocking && (cost.patterns != 0)
+				&& (cost.patterns == cost.unbound)) {
+			throw new InvalidParameterException(
+					"Sorting or grouping unrestricted triple patterns"
+							+ " would read the whole repository");
+		}
+	}
+
+	/**
+	 * Fixe la limite de premier niveau de la requête au plafond, en
+	 * remplaçant la valeur existante ou en ajoutant une clause
+	 * <tt>LIMIT</tt> avant l'éventuelle clause <tt>VALUES</tt> finale.
+	 * Les positions des mots-clés sont repérées par l'analyseur lexical
+	 * SPARQL, afin d'ignorer les commentaires, chaînes et sous-requêtes.
+	 */
+	private String setLimit(String query, boolean hasLimit)
+			throws InvalidParameterException {
+		final int[] lines = lineOffsets(query);
+		final SyntaxTreeBuilderTokenManager tokens = new SyntaxTreeBuilderTokenManager(
+				new PlainCharStream(query));
+		int depth = 0;
+		Token previous = null;
+		try {
+			for (Token t = tokens.getNextToken(); t.kind != SyntaxTreeBuilderConstants.EOF; t = tokens
+					.getNextToken()) {
+				if (t.kind == SyntaxTreeBuilderConstants.LBRACE) {
+					depth++;
+				} else if (t.kind == SyntaxTreeBuilderConstants.RBRACE) {
+					depth--;
+				} else if (depth == 0) {
+					if (hasLimit
+							&& (t.kind == SyntaxTreeBuilderConstants.INTEGER)
+							&& (previous != null)
+							&& (previous.kind == SyntaxTreeBuilderConstants.LIMIT)) {
+						final int start = offset(query, lines, t);
+						return query.substring(0, start) + this.maxLimit
+								+ query.substring(start + t.image.length());
+					}
+					if (!hasLimit
+							&& ((t.kind == SyntaxTreeBuilderConstants.VALUES) || (t.kind == SyntaxTreeBuilderConstants.BINDINGS))) {
+						final int start = offset(query, lines, t);
+						return query.substring(0, start) + "LIMIT "
+								+ this.maxLimit + ' ' + query.substring(start);
+					}
+				}
+				previous = t;
+			}
+		} catch (TokenMgrError e) {
+			throw new InvalidParameterException(e.getMessage(), e);
+		}
+		if (hasLimit) {
+			throw new InvalidParameterException("LIMIT exceeds "
+					+ this.maxLimit);
+		}
+		// Saut de ligne : la requête peut se terminer par un commentaire.
+		return query + "\nLIMIT " + this.maxLimit;
+	}
+
+	/**
+	 * Renvoie la position du début de chaque ligne d'un texte, les fins de
+	 * ligne étant comptées comme le fait l'analyseur lexical.
+	 */
+	private static int[] lineOffsets(String s) {
+		int count = 1;
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if ((c == '\n')
+					|| ((c == '\r') && ((i + 1 == s.length()) || (s
+							.charAt(i + 1) != '\n')))) {
+				count++;
+			}
+		}
+		final int[] lines = new int[count];
+		int n = 1;
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if ((c == '\n')
+					|| ((c == '\r') && ((i + 1 == s.length()) || (s
+							.charAt(i + 1) != '\n')))) {
+				lines[n++] = i + 1;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Renvoie la position d'un jeton dans la requête, en vérifiant qu'elle
+	 * correspond bien au texte du jeton (les séquences d'échappement
+	 * <tt>\\u</tt> décalent les colonnes).
+	 */
+	private int offset(String query, int[] lines, Token t)
+			throws InvalidParameterException {
+		int start = -1;
+		if ((t.beginLine >= 1) && (t.beginLine <= lines.length)) {
+			start = lines[t.beginLine - 1] + t.beginColumn - 1;
+		}
+		if ((start < 0)
+				|| !query.regionMatches(true, start, t.image, 0, t.image
+						.length())) {
+			throw new InvalidParameterException("Add a LIMIT clause of at most "
+					+ this.maxLimit);
+		}
+		return start;
+	}
+
+	/**
+	 * Requête vérifiée, prête à être transmise au triplestore.
+	 */
+	public static final class BoundedQuery {
+		private final String query;
+		private final QueryType type;
+		private final boolean dataset;
+
+		BoundedQuery(String query, QueryType type, boolean dataset) {
+			this.query = query;
+			this.type = type;
+			this.dataset = dataset;
+		}
+
+		/**
+		 * @return Requête à transmettre au triplestore
+		 */
+		public String getQuery() {
+			return this.query;
+		}
+
+		/**
+		 * @return Forme de la requête
+		 */
+		public QueryType getType() {
+			return this.type;
+		}
+
+		/**
+		 * @return <code>true</code> si la requête définit son jeu de données
+		 *         (clauses <tt>FROM</tt> ou <tt>FROM NAMED</tt>)
+		 */
+		public boolean hasDataset() {
+			return this.dataset;
+		}
+	}
+
+	/**
+	 * Flux de caractères de l'analyseur lexical comptant une colonne par
+	 * tabulation, afin que les colonnes des jetons correspondent aux
+	 * positions dans la requête.
+	 */
+	private static final class PlainCharStream extends JavaCharStream {
+		PlainCharStream(String s) {
+			super(new StringReader(s));
+			this.setTabSize(1);
+		}
+	}
+
+	/**
+	 * Recense les motifs de triplets et les opérateurs bloquants (tri,
+	 * regroupement) d'une requête.
+	 */
+	private static final class CostVisitor extends
+			QueryModelVisitorBase<RuntimeException> {
+		int patterns = 0;
+		int unbound = 0;
+		boolean blocking = false;
+
+		@Override
+		public void meet(StatementPattern node) {
+			this.patterns++;
+			if (isFree(node.getSubjectVar()) && isFree(node.getPredicateVar())
+					&& isFree(node.getObjectVar())
+					&& ((node.getContextVar() == null) || isFree(node
+							.getContextVar()))) {
+				this.unbound++;
+			}
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Order node) {
+			this.blocking = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Group node) {
+			this.blocking = true;
+			super.meet(node);
+		}
+
+		private static boolean isFree(Var v) {
+			return !v.hasValue();
+		}
+	}
+}
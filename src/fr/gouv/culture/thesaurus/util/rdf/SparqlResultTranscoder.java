@@ -0,0 +1,233 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryResultHandlerException;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.TupleQueryResultHandlerException;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.query.resultio.BooleanQueryResultFormat;
+import org.openrdf.query.resultio.QueryResultIO;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.query.resultio.TupleQueryResultParser;
+
+import fr.gouv.culture.thesaurus.util.xml.UriRewriter;
+
+/**
+ * Conversion à la volée des résultats SPARQL/XML du triplestore dans un
+ * autre format de résultats (JSON, CSV, TSV...), avec réécriture des URI.
+ * <p>
+ * Les résultats sont lus par le parseur SPARQL/XML de Sesame, qui les
+ * transmet un à un au writer du format demandé : la conversion ne conserve
+ * pas l'ensemble des résultats en mémoire. Le format JSON est produit par
+ * {@link SparqlJsonResultWriter}, les autres par les writers de Sesame.
+ * </p>
+ */
+public final class SparqlResultTranscoder {
+
+	/** Constructeur privé pour empêcher toute instanciation. */
+	private SparqlResultTranscoder() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Convertit les résultats SPARQL/XML d'une requête <tt>SELECT</tt>.
+	 * 
+	 * @param in
+	 *            Résultats SPARQL/XML, flux non fermé par cette méthode
+	 * @param format
+	 *            Format de sortie
+	 * @param out
+	 *            Flux de sortie, non fermé par cette méthode
+	 * @param rewriter
+	 *            Réécriture des URI des résultats, ou <code>null</code>
+	 * @throws IOException
+	 *             Levée si la lecture, l'analyse ou l'écriture des résultats
+	 *             a échoué
+	 */
+	public static void transcodeTuples(InputStream in,
+			TupleQueryResultFormat format, OutputStream out,
+			UriRewriter rewriter) throws IOException {
+		try {
+			final TupleQueryResultParser parser = QueryResultIO
+					.createParser(TupleQueryResultFormat.SPARQL);
+			parser.setQueryResultHandler(newTupleWriter(format, out, rewriter));
+			parser.parseQueryResult(in);
+		} catch (OpenRDFException e) {
+			throw toIOException(e);
+		}
+	}
+
+	/**
+	 * Convertit le résultat SPARQL/XML d'une requête <tt>ASK</tt>.
+	 * 
+	 * @param in
+	 *            Résultat SPARQL/XML, flux non fermé par cette méthode
+	 * @param format
+	 *            Format de sortie
+	 * @param out
+	 *            Flux de sortie, non fermé par cette méthode
+	 * @throws IOException
+	 *             Levée si la lecture, l'analyse ou l'écriture du résultat a
+	 *             échoué
+	 */
+	public static void transcodeBoolean(InputStream in,
+			BooleanQueryResultFormat format, OutputStream out)
+			throws IOException {
+		try {
+			writeBoolean(QueryResultIO.parse(in, BooleanQueryResultFormat.SPARQL),
+					format, out);
+		} catch (OpenRDFException e) {
+			throw toIOException(e);
+		}
+	}
+
+	/**
+	 * Crée le writer des résultats d'une requête <tt>SELECT</tt>.
+	 * 
+	 * @param format
+	 *            Format de sortie
+	 * @param out
+	 *            Flux de sortie
+	 * @param rewriter
+	 *            Réécriture des URI des résultats, ou <code>null</code>
+	 * @return Writer des résultats
+	 * @throws IOException
+	 *             Levée si le writer n'a pu être créé
+	 */
+	static TupleQueryResultHandler newTupleWriter(
+			TupleQueryResultFormat format, OutputStream out,
+			UriRewriter rewriter) throws IOException {
+		TupleQueryResultHandler handler = (TupleQueryResultFormat.JSON
+				.equals(format)) ? new SparqlJsonResultWriter(out)
+				: QueryResultIO.createWriter(format, out);
+		if (rewriter != null) {
+			handler = new RewritingHandler(handler, rewriter);
+		}
+		return handler;
+	}
+
+	/**
+	 * Écrit le résultat d'une requête <tt>ASK</tt>.
+	 * 
+	 * @param value
+	 *            Résultat
+	 * @param format
+	 *            Format de sortie
+	 * @param out
+	 *            Flux de sortie
+	 * @throws OpenRDFException
+	 *             Levée si l'écriture a échoué
+	 */
+	static void writeBoolean(boolean value, BooleanQueryResultFormat format,
+			OutputStream out) throws OpenRDFException {
+		if (BooleanQueryResultFormat.JSON.equals(format)) {
+			try {
+				SparqlJsonResultWriter.writeBoolean(out, value);
+			} catch (IOException e) {
+				throw new QueryResultHandlerException(e);
+			}
+		} else {
+			QueryResultIO.writeBoolean(value, format, out);
+		}
+	}
+
+	static IOException toIOException(OpenRDFException e) {
+		final Throwable cause = e.getCause();
+		if (cause instanceof IOException) {
+			// Erreur de lecture ou d'écriture encapsulée.
+			return (IOException) cause;
+		}
+		final IOException x = new IOException(e.getMessage());
+		x.initCause(e);
+		return x;
+	}
+
+	/**
+	 * Réécrit les URI des résultats avant de les transmettre au writer.
+	 */
+	private static final class RewritingHandler implements
+			TupleQueryResultHandler {
+		private final TupleQueryResultHandler delegate;
+		private final UriRewriter rewriter;
+
+		RewritingHandler(TupleQueryResultHandler delegate, UriRewriter rewriter) {
+			this.delegate = delegate;
+			this.rewriter = rewriter;
+		}
+
+		@Override
+		public void handleBoolean(boolean value)
+				throws QueryResultHandlerException {
+			this.delegate.handleBoolean(value);
+		}
+
+		@Override
+		public void handleLinks(List<String> linkUrls)
+				throws QueryResultHandlerException {
+			this.delegate.handleLinks(linkUrls);
+		}
+
+		@Override
+		public void startQueryResult(List<String> bindingNames)
+				throws TupleQueryResultHandlerException {
+			this.delegate.startQueryResult(bindingNames);
+		}
+
+		@Override
+		public void endQueryResult() throws TupleQueryResultHandlerException {
+			this.delegate.endQueryResult();
+		}
+
+		@Override
+		public void handleSolution(BindingSet bindings)
+				throws TupleQueryResultHandlerException {
+			final MapBindingSet rewritten = new MapBindingSet(bindings.size());
+			for (Binding b : bindings) {
+				Value v = b.getValue();
+				if (v instanceof URI) {
+					v = new URIImpl(this.rewriter.rewrite(v.stringValue()));
+				}
+				rewritten.addBinding(b.getName(), v);
+			}
+			this.delegate.handleSolution(rewritten);
+		}
+	}
+}
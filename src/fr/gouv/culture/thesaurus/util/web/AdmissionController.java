@@ -0,0 +1,481 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Contrôle d'admission des requêtes transmises à un serveur partagé.
+ * <p>
+ * Le nombre de requêtes simultanées est plafonné ; au-delà, les requêtes
+ * attendent dans une file bornée, au plus le délai d'attente, puis sont
+ * refusées. Chaque client dispose en outre d'un seau de jetons : un jeton
+ * est consommé par requête, les jetons sont regagnés au débit configuré dans
+ * la limite de la rafale autorisée, et les requêtes d'un client sans jeton
+ * sont refusées. Les clients prioritaires échappent à la limitation de débit
+ * et disposent de places réservées, que les autres clients ne peuvent
+ * occuper.
+ * </p>
+ * <p>
+ * Derrière un mandataire inverse, le client est identifié par l'en-tête
+ * configuré (<tt>X-Forwarded-For</tt>), dont seules les adresses ajoutées
+ * par les mandataires de confiance sont retenues : les adresses fournies par
+ * le client lui-même, en tête de l'en-tête, ne lui permettent ni de se faire
+ * passer pour un client prioritaire, ni d'échapper à son seau de jetons.
+ * </p>
+ */
+public class AdmissionController implements AdmissionControllerMBean {
+
+	/** Nombre de clients suivis au-delà duquel les seaux pleins sont oubliés. */
+	private final static int MAX_TRACKED_CLIENTS = 10000;
+
+	private final int maxConcurrent;
+	private final int maxQueued;
+	private final long queueTimeout;
+	private final int prioritySlots;
+	/** Débit de regain des jetons, par nanoseconde (0 : pas de limite). */
+	private final double rate;
+	private final int burst;
+	private final Set<String> priorityClients;
+	private final String clientHeader;
+	private final Set<String> trustedProxies;
+
+	private final Semaphore slots;
+	private final Semaphore reserved;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong rateLimited = new AtomicLong();
+	private final AtomicLong saturated = new AtomicLong();
+
+	/**
+	 * Crée un contrôleur d'admission.
+	 * 
+	 * @param maxConcurrent
+	 *            Nombre maximal de requêtes simultanées des clients ordinaires
+	 * @param maxQueued
+	 *            Nombre maximal de requêtes en attente d'une place
+	 * @param queueTimeout
+	 *            Délai maximal d'attente d'une place, en millisecondes
+	 * @param ratePerMinute
+	 *            Nombre de requêtes par minute autorisées pour chaque client
+	 *            ordinaire, 0 pour ne pas limiter le débit
+	 * @param burst
+	 *            Nombre de requêtes qu'un client peut émettre d'affilée
+	 * @param priorityClients
+	 *            Adresses des clients prioritaires
+	 * @param prioritySlots
+	 *            Nombre de places réservées aux clients prioritaires
+	 * @param clientHeader
+	 *            En-tête HTTP identifiant le client (<tt>X-Forwarded-For</tt>
+	 *            derrière un mandataire inverse), ou <code>null</code> pour
+	 *            utiliser l'adresse de la connexion
+	 * @param trustedProxies
+	 *            Adresses des mandataires inverses de confiance, seuls
+	 *            autorisés à renseigner l'en-tête identifiant le client
+	 */
+	public AdmissionController(int maxConcurrent, int maxQueued,
+			long queueTimeout, int ratePerMinute, int burst,
+			Collection<String> priorityClients, int prioritySlots,
+			String clientHeader, Collection<String> trustedProxies) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("maxConcurrent");
+		}
+		if (maxQueued < 0) {
+			throw new IllegalArgumentException("maxQueued");
+		}
+		if (queueTimeout < 0L) {
+			throw new IllegalArgumentException("queueTimeout");
+		}
+		if (ratePerMinute < 0) {
+			throw new IllegalArgumentException("ratePerMinute");
+		}
+		if ((ratePerMinute > 0) && (burst < 1)) {
+			throw new IllegalArgumentException("burst");
+		}
+		if (prioritySlots < 0) {
+			throw new IllegalArgumentException("prioritySlots");
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+		this.queueTimeout = queueTimeout;
+		this.rate = ratePerMinute / (double) TimeUnit.MINUTES.toNanos(1L);
+		this.burst = burst;
+		this.priorityClients = (priorityClients != null) ? new HashSet<String>(
+				priorityClients) : new HashSet<String>();
+		this.prioritySlots = prioritySlots;
+		this.clientHeader = ((clientHeader != null) && (clientHeader.trim()
+				.length() != 0)) ? clientHeader.trim() : null;
+		this.trustedProxies = (trustedProxies != null) ? new HashSet<String>(
+				trustedProxies) : new HashSet<String>();
+		this.slots = new Semaphore(maxConcurrent, true);
+		this.reserved = new Semaphore(prioritySlots, true);
+	}
+
+	/**
+	 * Identifie le client à l'origine d'une requête. Si la connexion provient
+	 * d'un mandataire de confiance, l'en-tête configuré est parcouru depuis
+	 * la fin : chaque mandataire de confiance y ajoute l'adresse de son
+	 * propre client, et la première adresse qui n'est pas celle d'un
+	 * mandataire de confiance est retenue. Sinon, l'adresse de la connexion
+	 * est retenue.
+	 * 
+	 * @param request
+	 *            Requête HTTP
+	 * @return Identifiant du client
+	 */
+	public String getClient(HttpServletRequest request) {
+		String client = request.getRemoteAddr();
+		if ((this.clientHeader == null)
+				|| (!this.trustedProxies.contains(client))) {
+			return client;
+		}
+		final String value = request.getHeader(this.clientHeader);
+		if (value == null) {
+			return client;
+		}
+		final String[] hops = value.split(",");
+		for (int i = hops.length - 1; i >= 0; i--) {
+			final String hop = hops[i].trim();
+			if (hop.length() == 0) {
+				// En-tête mal formé : dernière adresse sûre.
+				break;
+			}
+			client = hop;
+			if (!this.trustedProxies.contains(hop)) {
+				break;
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * Admet une requête, en attendant si nécessaire qu'une place se libère.
+	 * 
+	 * @param client
+	 *            Identifiant du client (voir
+	 *            {@link #getClient(HttpServletRequest)})
+	 * @return Place occupée par la requête, à libérer une fois la réponse
+	 *         transmise
+	 * @throws RejectedException
+	 *             Levée si le client a dépassé son débit ou si aucune place
+	 *             ne s'est libérée à temps
+	 * @throws InterruptedException
+	 *             Levée si l'attente a été interrompue
+	 */
+	public Permit acquire(String client) throws RejectedException,
+			InterruptedException {
+		if (this.priorityClients.contains(client)) {
+			// Place ordinaire si elle est libre, réservée sinon.
+			if (this.slots.tryAcquire()) {
+				return this.admit(this.slots);
+			}
+			if (this.reserved.tryAcquire(this.queueTimeout,
+					TimeUnit.MILLISECONDS)) {
+				return this.admit(this.reserved);
+			}
+			throw this.saturated();
+		}
+		final long wait = this.consumeToken(client, System.nanoTime());
+		if (wait > 0L) {
+			this.rateLimited.incrementAndGet();
+			throw new RejectedException(true, toSeconds(wait));
+		}
+		if (this.slots.tryAcquire()) {
+			return this.admit(this.slots);
+		}
+		if (this.queued.incrementAndGet() > this.maxQueued) {
+			this.queued.decrementAndGet();
+			throw this.saturated();
+		}
+		try {
+			if (this.slots.tryAcquire(this.queueTimeout, TimeUnit.MILLISECONDS)) {
+				return this.admit(this.slots);
+			}
+		} finally {
+			this.queued.decrementAndGet();
+		}
+		throw this.saturated();
+	}
+
+	/**
+	 * Décompte une requête d'un client sans lui attribuer de place, pour les
+	 * requêtes exécutées hors du pool interactif (requêtes asynchrones) :
+	 * elles consomment un jeton du seau du client comme une requête
+	 * interactive.
+	 * 
+	 * @param client
+	 *            Identifiant du client (voir
+	 *            {@link #getClient(HttpServletRequest)})
+	 * @throws RejectedException
+	 *             Levée si le client a dépassé son débit
+	 */
+	public void charge(String client) throws RejectedException {
+		if (this.priorityClients.contains(client)) {
+			return;
+		}
+		final long wait = this.consumeToken(client, System.nanoTime());
+		if (wait > 0L) {
+			this.rateLimited.incrementAndGet();
+			throw new RejectedException(true, toSeconds(wait));
+		}
+	}
+
+	/**
+	 * Consomme un jeton du seau d'un client.
+	 * 
+	 * @return 0 si un jeton a été consommé, délai d'obtention du prochain
+	 *         jeton sinon, en nanosecondes
+	 */
+	long consumeToken(String client, long now) {
+		if (this.rate == 0.0d) {
+			return 0L;
+		}
+		TokenBucket bucket = this.buckets.get(client);
+		if (bucket == null) {
+			if (this.buckets.size() >= MAX_TRACKED_CLIENTS) {
+				this.forgetIdleClients(now);
+			}
+			bucket = new TokenBucket(this.burst, now);
+			final TokenBucket existing = this.buckets.putIfAbsent(client,
+					bucket);
+			if (existing != null) {
+				bucket = existing;
+			}
+		}
+		return bucket.consume(now);
+	}
+
+	/**
+	 * Oublie les clients dont le seau est plein : ils retrouveraient le même
+	 * seau à leur prochaine requête.
+	 */
+	private void forgetIdleClients(long now) {
+		final Iterator<TokenBucket> i = this.buckets.values().iterator();
+		while (i.hasNext()) {
+			if (i.next().isFull(now)) {
+				i.remove();
+			}
+		}
+	}
+
+	private Permit admit(Semaphore lane) {
+		this.admitted.incrementAndGet();
+		return new Permit(lane);
+	}
+
+	private RejectedException saturated() {
+		this.saturated.incrementAndGet();
+		return new RejectedException(false, toSeconds(TimeUnit.MILLISECONDS
+				.toNanos(this.queueTimeout)));
+	}
+
+	private static int toSeconds(long nanos) {
+		return (int) Math.max(1L, (nanos + 999999999L) / 1000000000L);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMaxConcurrent() {
+		return this.maxConcurrent;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getPrioritySlots() {
+		return this.prioritySlots;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getActiveRequests() {
+		return (this.maxConcurrent - this.slots.availablePermits())
+				+ (this.prioritySlots - this.reserved.availablePermits());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getQueuedRequests() {
+		return this.queued.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMaxQueued() {
+		return this.maxQueued;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getTrackedClients() {
+		return this.buckets.size();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getAdmittedCount() {
+		return this.admitted.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRateLimitedCount() {
+		return this.rateLimited.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getSaturatedCount() {
+		return this.saturated.get();
+	}
+
+	/**
+	 * Seau de jetons d'un client.
+	 */
+	private final class TokenBucket {
+		private double tokens;
+		private long last;
+
+		TokenBucket(int tokens, long now) {
+			this.tokens = tokens;
+			this.last = now;
+		}
+
+		synchronized long consume(long now) {
+			this.refill(now);
+			if (this.tokens >= 1.0d) {
+				this.tokens -= 1.0d;
+				return 0L;
+			}
+			return Math.max(1L, (long) Math.ceil((1.0d - this.tokens) / rate));
+		}
+
+		synchronized boolean isFull(long now) {
+			this.refill(now);
+			return (this.tokens >= burst);
+		}
+
+		private void refill(long now) {
+			if (now > this.last) {
+				this.tokens = Math.min(burst, this.tokens + (now - this.last)
+						* rate);
+				this.last = now;
+			}
+		}
+	}
+
+	/**
+	 * Place occupée par une requête admise.
+	 */
+	public static final class Permit {
+		private final Semaphore lane;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		Permit(Semaphore lane) {
+			this.lane = lane;
+		}
+
+		/**
+		 * Libère la place ; les appels suivants sont sans effet.
+		 */
+		public void release() {
+			if (this.released.compareAndSet(false, true)) {
+				this.lane.release();
+			}
+		}
+
+		/**
+		 * Associe la place au flux de la réponse du serveur : elle est
+		 * libérée à la fermeture du flux.
+		 * 
+		 * @param in
+		 *            Flux de la réponse
+		 * @return Flux libérant la place à sa fermeture
+		 */
+		public InputStream guard(InputStream in) {
+			return new FilterInputStream(in) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						release();
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * Refus d'admission d'une requête.
+	 */
+	public static final class RejectedException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final boolean rateLimited;
+		private final int retryAfter;
+
+		RejectedException(boolean rateLimited, int retryAfter) {
+			super(rateLimited ? "Client rate limit exceeded"
+					: "Too many concurrent requests");
+			this.rateLimited = rateLimited;
+			this.retryAfter = retryAfter;
+		}
+
+		/**
+		 * @return <code>true</code> si le client a dépassé son débit,
+		 *         <code>false</code> si le serveur est saturé
+		 */
+		public boolean isRateLimited() {
+			return this.rateLimited;
+		}
+
+		/**
+		 * @return Délai suggéré avant une nouvelle tentative, en secondes
+		 */
+		public int getRetryAfter() {
+			return this.retryAfter;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+/**
+ * Interface JMX des métriques du contrôle d'admission (voir
+ * {@link AdmissionController}).
+ */
+public interface AdmissionControllerMBean {
+
+	/**
+	 * @return Nombre maximal de requêtes simultanées des clients ordinaires
+	 */
+	int getMaxConcurrent();
+
+	/**
+	 * @return Nombre de places réservées aux clients prioritaires
+	 */
+	int getPrioritySlots();
+
+	/**
+	 * @return Nombre de requêtes en cours, réponse comprise
+	 */
+	int getActiveRequests();
+
+	/**
+	 * @return Nombre de requêtes en attente d'une place
+	 */
+	int getQueuedRequests();
+
+	/**
+	 * @return Nombre maximal de requêtes en attente d'une place
+	 */
+	int getMaxQueued();
+
+	/**
+	 * @return Nombre de clients dont le débit est suivi
+	 */
+	int getTrackedClients();
+
+	/**
+	 * @return Nombre de requêtes admises depuis le démarrage
+	 */
+	long getAdmittedCount();
+
+	/**
+	 * @return Nombre de requêtes refusées pour dépassement du débit du client
+	 */
+	long getRateLimitedCount();
+
+	/**
+	 * @return Nombre de requêtes refusées faute de place disponible
+	 */
+	long getSaturatedCount();
+}
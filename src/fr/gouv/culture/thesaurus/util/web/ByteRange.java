@@ -0,0 +1,165 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plage d'octets demandée par un en-tête HTTP <tt>Range</tt> (RFC 7233).
+ * <p>
+ * Seules les plages simples sont prises en charge (<tt>bytes=a-b</tt>,
+ * <tt>bytes=a-</tt> et <tt>bytes=-n</tt>) : les demandes de plages multiples
+ * sont ignorées et la représentation complète est alors renvoyée, ce que
+ * permet la norme.
+ * </p>
+ */
+public final class ByteRange {
+
+	/** Syntaxe d'une plage d'octets simple. */
+	private final static Pattern RANGE_PATTERN = Pattern
+			.compile("^\\s*bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)\\s*$");
+
+	/** Index du premier octet de la plage. */
+	private final long first;
+
+	/** Index du dernier octet de la plage (inclus). */
+	private final long last;
+
+	/** Taille totale de la représentation. */
+	private final long total;
+
+	private ByteRange(long first, long last, long total) {
+		this.first = first;
+		this.last = last;
+		this.total = total;
+	}
+
+	/**
+	 * Interprète un en-tête HTTP <tt>Range</tt> pour une représentation de la
+	 * taille spécifiée.
+	 * 
+	 * @param header
+	 *            Valeur de l'en-tête <tt>Range</tt> (peut être
+	 *            <code>null</code>)
+	 * @param total
+	 *            Taille totale de la représentation, en octets
+	 * @return Plage demandée, ou <code>null</code> si l'en-tête est absent,
+	 *         invalide ou non pris en charge (la représentation complète doit
+	 *         alors être renvoyée)
+	 */
+	public static ByteRange parse(String header, long total) {
+		if ((header == null) || (header.indexOf(',') != -1)) {
+			return null;
+		}
+		final Matcher m = RANGE_PATTERN.matcher(header);
+		if (!m.matches()) {
+			return null;
+		}
+		final String start = m.group(1);
+		final String end = m.group(2);
+		try {
+			if (start.length() == 0) {
+				if (end.length() == 0) {
+					return null;
+				}
+				// Suffixe : les n derniers octets.
+				final long suffix = Long.parseLong(end);
+				if (suffix == 0L) {
+					return new ByteRange(total, total - 1L, total);
+				}
+				return new ByteRange(Math.max(0L, total - suffix), total - 1L,
+						total);
+			}
+			final long first = Long.parseLong(start);
+			if (end.length() == 0) {
+				return new ByteRange(first, total - 1L, total);
+			}
+			final long last = Long.parseLong(end);
+			if (last < first) {
+				return null;
+			}
+			return new ByteRange(first, Math.min(last, total - 1L), total);
+		} catch (NumberFormatException e) {
+			// Valeur hors limites : en-tête ignoré.
+			return null;
+		}
+	}
+
+	/**
+	 * Indique si la plage peut être servie, i.e. si son premier octet fait
+	 * partie de la représentation.
+	 * 
+	 * @return <code>true</code> si la plage peut être servie,
+	 *         <code>false</code> si une réponse 416 doit être renvoyée
+	 */
+	public boolean isSatisfiable() {
+		return (this.first < this.total) && (this.first <= this.last);
+	}
+
+	/**
+	 * @return Index du premier octet de la plage
+	 */
+	public long getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return Index du dernier octet de la plage (inclus)
+	 */
+	public long getLast() {
+		return last;
+	}
+
+	/**
+	 * @return Nombre d'octets de la plage
+	 */
+	public long getLength() {
+		return last - first + 1L;
+	}
+
+	/**
+	 * Renvoie la valeur de l'en-tête <tt>Content-Range</tt> correspondant à la
+	 * plage : <tt>bytes a-b/total</tt>, ou <tt>bytes *&#47;total</tt> si la
+	 * plage ne peut être servie.
+	 * 
+	 * @return Valeur de l'en-tête <tt>Content-Range</tt>
+	 */
+	public String toContentRange() {
+		if (!this.isSatisfiable()) {
+			return "bytes */" + this.total;
+		}
+		return "bytes " + this.first + '-' + this.last + '/' + this.total;
+	}
+
+	@Override
+	public String toString() {
+		return this.toContentRange();
+	}
+}
@@ -0,0 +1,234 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * Corps de requête HTTP au format
+ * <code>application/x-www-form-urlencoded</code> (UTF-8), encodé au fil de
+ * l'écriture dans la connexion.
+ * <p>
+ * Contrairement à {@link org.apache.commons.httpclient.methods.PostMethod#addParameter(String, String)},
+ * les valeurs (requêtes SPARQL volumineuses) ne sont pas recopiées dans
+ * une chaîne encodée puis dans un tableau d'octets : la longueur du corps
+ * est calculée sans allocation, puis les octets sont écrits directement.
+ * </p>
+ */
+public class FormRequestEntity implements RequestEntity {
+
+	private static final String CONTENT_TYPE = "application/x-www-form-urlencoded; charset=UTF-8";
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final List<String> names = new ArrayList<String>();
+	private final List<String> values = new ArrayList<String>();
+	private long length = -1L;
+
+	/**
+	 * Ajoute un paramètre au formulaire.
+	 * 
+	 * @param name
+	 *            Nom du paramètre
+	 * @param value
+	 *            Valeur du paramètre, ignorée si <code>null</code>
+	 * @return Ce corps de requête
+	 */
+	public FormRequestEntity add(String name, String value) {
+		if (value != null) {
+			this.names.add(name);
+			this.values.add(value);
+			this.length = -1L;
+		}
+		return this;
+	}
+
+	/**
+	 * Ajoute les valeurs d'un paramètre multivalué au formulaire.
+	 * 
+	 * @param name
+	 *            Nom du paramètre
+	 * @param values
+	 *            Valeurs du paramètre, ou <code>null</code>
+	 * @return Ce corps de requête
+	 */
+	public FormRequestEntity addAll(String name, List<String> values) {
+		if (values != null) {
+			for (String value : values) {
+				this.add(name, value);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public long getContentLength() {
+		if (this.length < 0L) {
+			long n = 0L;
+			for (int i = 0; i < this.names.size(); i++) {
+				n += (i == 0) ? 0 : 1;
+				n += encodedLength(this.names.get(i));
+				n += 1 + encodedLength(this.values.get(i));
+			}
+			this.length = n;
+		}
+		return this.length;
+	}
+
+	@Override
+	public void writeRequest(OutputStream out) throws IOException {
+		final byte[] buffer = new byte[4096];
+		for (int i = 0; i < this.names.size(); i++) {
+			if (i != 0) {
+				out.write('&');
+			}
+			encode(this.names.get(i), buffer, out);
+			out.write('=');
+			encode(this.values.get(i), buffer, out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Renvoie la longueur d'une chaîne une fois encodée.
+	 * 
+	 * @param s
+	 *            Chaîne à encoder
+	 * @return Nombre d'octets encodés
+	 */
+	private static long encodedLength(String s) {
+		long n = 0L;
+		final int len = s.length();
+		for (int i = 0; i < len; i++) {
+			final char c = s.charAt(i);
+			if (isSafe(c)) {
+				n++;
+			} else if (c < 0x80) {
+				n += 3;
+			} else if (c < 0x800) {
+				n += 6;
+			} else if (Character.isHighSurrogate(c) && (i + 1 < len)
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				n += 12;
+				i++;
+			} else if ((c >= 0xD800) && (c <= 0xDFFF)) {
+				// Caractère isolé : remplacé par '?'.
+				n += 3;
+			} else {
+				n += 9;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Écrit une chaîne encodée (UTF-8 puis encodage URL des formulaires).
+	 * 
+	 * @param s
+	 *            Chaîne à encoder
+	 * @param buffer
+	 *            Tampon d'écriture
+	 * @param out
+	 *            Flux de sortie
+	 * @throws IOException
+	 *             Levée si l'écriture a échoué
+	 */
+	private static void encode(String s, byte[] buffer, OutputStream out)
+			throws IOException {
+		int pos = 0;
+		final int len = s.length();
+		for (int i = 0; i < len; i++) {
+			if (pos > buffer.length - 12) {
+				out.write(buffer, 0, pos);
+				pos = 0;
+			}
+			int c = s.charAt(i);
+			if (isSafe(c)) {
+				buffer[pos++] = (byte) ((c == ' ') ? '+' : c);
+				continue;
+			}
+			if (Character.isHighSurrogate((char) c) && (i + 1 < len)
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, s.charAt(++i));
+			} else if ((c >= 0xD800) && (c <= 0xDFFF)) {
+				// Caractère isolé : remplacé, comme par String.getBytes().
+				c = '?';
+			}
+			if (c < 0x80) {
+				pos = escape(buffer, pos, c);
+			} else if (c < 0x800) {
+				pos = escape(buffer, pos, 0xC0 | (c >> 6));
+				pos = escape(buffer, pos, 0x80 | (c & 0x3F));
+			} else if (c < 0x10000) {
+				pos = escape(buffer, pos, 0xE0 | (c >> 12));
+				pos = escape(buffer, pos, 0x80 | ((c >> 6) & 0x3F));
+				pos = escape(buffer, pos, 0x80 | (c & 0x3F));
+			} else {
+				pos = escape(buffer, pos, 0xF0 | (c >> 18));
+				pos = escape(buffer, pos, 0x80 | ((c >> 12) & 0x3F));
+				pos = escape(buffer, pos, 0x80 | ((c >> 6) & 0x3F));
+				pos = escape(buffer, pos, 0x80 | (c & 0x3F));
+			}
+		}
+		if (pos != 0) {
+			out.write(buffer, 0, pos);
+		}
+	}
+
+	/**
+	 * Indique si un caractère est écrit tel quel ; l'espace est remplacé
+	 * par <code>+</code>.
+	 */
+	private static boolean isSafe(int c) {
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+				|| ((c >= '0') && (c <= '9')) || (c == '.') || (c == '-')
+				|| (c == '*') || (c == '_') || (c == ' ');
+	}
+
+	private static int escape(byte[] buffer, int pos, int b) {
+		buffer[pos++] = '%';
+		buffer[pos++] = (byte) HEX[(b >> 4) & 0x0F];
+		buffer[pos++] = (byte) HEX[b & 0x0F];
+		return pos;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * Client HTTP réutilisant des connexions persistantes (keep-alive) vers un
+ * même serveur.
+ * <p>
+ * Les connexions sont conservées dans un pool borné : les rafales de
+ * requêtes ne paient pas l'ouverture d'une connexion TCP à chaque fois et
+ * n'épuisent pas les ports éphémères. Une requête attend au plus le délai de
+ * connexion qu'une connexion se libère. Les connexions inactives depuis plus
+ * longtemps que le délai d'inactivité sont fermées par un thread dédié, avant
+ * que le serveur ne les ferme lui-même.
+ * </p>
+ */
+public class HttpClientPool implements HttpClientPoolMBean {
+
+	private final MultiThreadedHttpConnectionManager manager;
+	private final HttpClient client;
+	private final IdleConnectionTimeoutThread evictor;
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong poolTimeouts = new AtomicLong();
+	private final AtomicLong aborted = new AtomicLong();
+	private final AtomicLong responseTime = new AtomicLong();
+
+	/**
+	 * Crée un pool de connexions HTTP.
+	 * 
+	 * @param maxConnections
+	 *            Nombre maximal de connexions vers le serveur
+	 * @param connectTimeout
+	 *            Délai maximal d'obtention d'une connexion (attente d'une
+	 *            connexion libre, puis ouverture), en millisecondes
+	 * @param readTimeout
+	 *            Délai maximal d'attente de données du serveur, en
+	 *            millisecondes
+	 * @param idleTimeout
+	 *            Durée d'inactivité au-delà de laquelle une connexion est
+	 *            fermée, en millisecondes
+	 */
+	public HttpClientPool(int maxConnections, int connectTimeout,
+			int readTimeout, long idleTimeout) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections");
+		}
+		if (idleTimeout < 1L) {
+			throw new IllegalArgumentException("idleTimeout");
+		}
+		this.manager = new MultiThreadedHttpConnectionManager();
+		final HttpConnectionManagerParams params = this.manager.getParams();
+		params.setDefaultMaxConnectionsPerHost(maxConnections);
+		params.setMaxTotalConnections(maxConnections);
+		params.setConnectionTimeout(connectTimeout);
+		params.setSoTimeout(readTimeout);
+		// Connexion fermée par le serveur entre deux requêtes : détectée
+		// avant l'envoi plutôt que par un échec de la requête.
+		params.setStaleCheckingEnabled(true);
+
+		this.client = new HttpClient(this.manager);
+		this.client.getParams().setConnectionManagerTimeout(connectTimeout);
+
+		this.evictor = new IdleConnectionTimeoutThread();
+		this.evictor.setName("thesaurus-http-idle");
+		this.evictor.setConnectionTimeout(idleTimeout);
+		this.evictor.setTimeoutInterval(Math.max(1000L, idleTimeout / 2L));
+		this.evictor.addConnectionManager(this.manager);
+		this.evictor.start();
+	}
+
+	/**
+	 * Exécute une requête HTTP. La connexion est rendue au pool à la
+	 * fermeture du flux de la réponse, qui doit donc toujours être fermé.
+	 * Si la réponse n'a pas été lue en entier (client déconnecté, résultat
+	 * tronqué...), la connexion est fermée plutôt que rendue au pool : le
+	 * reliquat de la réponse n'est pas lu.
+	 * 
+	 * @param method
+	 *            Requête à exécuter
+	 * @return Flux du corps de la réponse (éventuellement vide)
+	 * @throws ConnectionPoolTimeoutException
+	 *             Levée si aucune connexion ne s'est libérée dans le délai
+	 *             de connexion
+	 * @throws IOException
+	 *             Levée si l'exécution de la requête a échoué
+	 */
+	public InputStream execute(HttpMethod method) throws IOException {
+		final long start = System.currentTimeMillis();
+		this.requests.incrementAndGet();
+		this.active.incrementAndGet();
+		boolean released = true;
+		try {
+			this.client.executeMethod(method);
+			this.responseTime.addAndGet(System.currentTimeMillis() - start);
+			final InputStream body = method.getResponseBodyAsStream();
+			released = false;
+			return new ReleasingInputStream(body, method);
+		} catch (ConnectionPoolTimeoutException e) {
+			this.poolTimeouts.incrementAndGet();
+			throw e;
+		} catch (IOException e) {
+			this.failures.incrementAndGet();
+			throw e;
+		} finally {
+			if (released) {
+				method.releaseConnection();
+				this.active.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Ferme les connexions et arrête le thread de fermeture des connexions
+	 * inactives.
+	 */
+	public void shutdown() {
+		this.evictor.shutdown();
+		this.manager.shutdown();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMaxConnections() {
+		return this.manager.getParams().getMaxTotalConnections();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getConnectionsInPool() {
+		return this.manager.getConnectionsInPool();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getActiveRequests() {
+		return this.active.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRequestCount() {
+		return this.requests.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getFailureCount() {
+		return this.failures.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getPoolTimeoutCount() {
+		return this.poolTimeouts.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getAbortedCount() {
+		return this.aborted.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getAverageResponseTime() {
+		final long completed = this.requests.get() - this.failures.get()
+				- this.poolTimeouts.get();
+		return (completed > 0L) ? this.responseTime.get() / completed : 0L;
+	}
+
+	/**
+	 * Flux de la réponse rendant la connexion au pool à sa fermeture, ou la
+	 * fermant si la réponse n'a pas été lue jusqu'au bout.
+	 */
+	private final class ReleasingInputStream extends FilterInputStream {
+		private final HttpMethod method;
+		private boolean eof;
+		private boolean closed = false;
+
+		ReleasingInputStream(InputStream in, HttpMethod method) {
+			super((in != null) ? in : new EmptyInputStream());
+			this.method = method;
+			this.eof = (in == null);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b == -1) {
+				this.eof = true;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n == -1) {
+				this.eof = true;
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			try {
+				if (this.eof) {
+					super.close();
+				} else {
+					// La fermeture du flux lirait le reliquat de la réponse
+					// pour réutiliser la connexion : connexion abandonnée.
+					this.method.abort();
+					aborted.incrementAndGet();
+				}
+			} finally {
+				this.method.releaseConnection();
+				active.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Flux vide, pour les réponses sans corps.
+	 */
+	private static final class EmptyInputStream extends InputStream {
+		@Override
+		public int read() {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Construction minimale d'objets JSON « plats » (valeurs chaînes, nombres,
+ * booléens et dates), utilisés par les ressources d'interrogation de l'état
+ * des traitements asynchrones.
+ * <p>
+ * Les dates sont sérialisées au format ISO 8601 (UTC).
+ * </p>
+ */
+public class JsonBuilder {
+
+	/** Format des dates. */
+	private final static String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+	private final StringBuilder buffer = new StringBuilder("{");
+
+	/**
+	 * Ajoute une propriété de type chaîne de caractères.
+	 * 
+	 * @param name
+	 *            Nom de la propriété
+	 * @param value
+	 *            Valeur, éventuellement <code>null</code>
+	 * @return Cet objet
+	 */
+	public JsonBuilder add(String name, String value) {
+		this.appendName(name);
+		if (value == null) {
+			this.buffer.append("null");
+		} else {
+			appendString(this.buffer, value);
+		}
+		return this;
+	}
+
+	/**
+	 * Ajoute une propriété de type numérique.
+	 * 
+	 * @param name
+	 *            Nom de la propriété
+	 * @param value
+	 *            Valeur
+	 * @return Cet objet
+	 */
+	public JsonBuilder add(String name, long value) {
+		this.appendName(name);
+		this.buffer.append(value);
+		return this;
+	}
+
+	/**
+	 * Ajoute une propriété de type booléen.
+	 * 
+	 * @param name
+	 *            Nom de la propriété
+	 * @param value
+	 *            Valeur
+	 * @return Cet objet
+	 */
+	public JsonBuilder add(String name, boolean value) {
+		this.appendName(name);
+		this.buffer.append(value);
+		return this;
+	}
+
+	/**
+	 * Ajoute une propriété de type date.
+	 * 
+	 * @param name
+	 *            Nom de la propriété
+	 * @param value
+	 *            Valeur, éventuellement <code>null</code>
+	 * @return Cet objet
+	 */
+	public JsonBuilder add(String name, Date value) {
+		if (value == null) {
+			return this.add(name, (String) null);
+		}
+		final SimpleDateFormat f = new SimpleDateFormat(DATE_FORMAT);
+		f.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return this.add(name, f.format(value));
+	}
+
+	/**
+	 * Ajoute une propriété dont la valeur est un fragment JSON déjà formé
+	 * (objet ou tableau).
+	 * 
+	 * @param name
+	 *            Nom de la propriété
+	 * @param json
+	 *            Fragment JSON
+	 * @return Cet objet
+	 */
+	public JsonBuilder addRaw(String name, String json) {
+		this.appendName(name);
+		this.buffer.append(json);
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return this.buffer.toString() + '}';
+	}
+
+	/**
+	 * Renvoie une chaîne de caractères au format JSON, entre guillemets.
+	 * 
+	 * @param s
+	 *            Chaîne de caractères
+	 * @return Chaîne JSON
+	 */
+	public static String quote(String s) {
+		final StringBuilder out = new StringBuilder(s.length() + 2);
+		appendString(out, s);
+		return out.toString();
+	}
+
+	private void appendName(String name) {
+		if (this.buffer.length() > 1) {
+			this.buffer.append(',');
+		}
+		appendString(this.buffer, name);
+		this.buffer.append(':');
+	}
+
+	private static void appendString(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if ((c < 0x20) || (c == '\u2028') || (c == '\u2029')) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+}
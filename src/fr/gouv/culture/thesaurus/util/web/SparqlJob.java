@@ -0,0 +1,179 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requête SPARQL longue exécutée de façon asynchrone. Le résultat est écrit
+ * sur disque par le pool de {@link SparqlJobManager} ; le client interroge
+ * l'état de la tâche puis télécharge le résultat une fois celui-ci terminé.
+ */
+public class SparqlJob {
+
+	/**
+	 * États d'une tâche de requête SPARQL.
+	 */
+	public enum Status {
+		/** Tâche en attente d'un thread d'exécution. */
+		PENDING,
+		/** Requête en cours d'exécution ou résultat en cours d'écriture. */
+		RUNNING,
+		/** Requête terminée, résultat disponible. */
+		DONE,
+		/** Requête en échec. */
+		FAILED
+	}
+
+	private final String id;
+	private final String contentType;
+	private final Date submitted;
+	private final AtomicLong written = new AtomicLong();
+
+	private volatile Status status = Status.PENDING;
+	private volatile Date started;
+	private volatile Date finished;
+	private volatile File file;
+	private volatile String error;
+
+	/**
+	 * Crée une tâche de requête SPARQL.
+	 * 
+	 * @param id
+	 *            Identifiant de la tâche
+	 * @param contentType
+	 *            Type MIME du résultat
+	 */
+	public SparqlJob(String id, String contentType) {
+		this.id = id;
+		this.contentType = contentType;
+		this.submitted = new Date();
+	}
+
+	/**
+	 * @return Identifiant de la tâche
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return Type MIME du résultat
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return État de la tâche
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return Date de soumission de la tâche
+	 */
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * @return Date de début de la requête, ou <code>null</code>
+	 */
+	public Date getStarted() {
+		return started;
+	}
+
+	/**
+	 * @return Date de fin de la requête, ou <code>null</code>
+	 */
+	public Date getFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return Nombre d'octets de résultat écrits jusqu'à présent
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return Fichier du résultat, ou <code>null</code> si la requête n'est
+	 *         pas terminée
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return Message d'erreur si la requête a échoué, <code>null</code>
+	 *         sinon
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return <code>true</code> si la tâche est terminée (avec succès ou
+	 *         non)
+	 */
+	public boolean isFinished() {
+		return (status == Status.DONE) || (status == Status.FAILED);
+	}
+
+	AtomicLong getProgress() {
+		return written;
+	}
+
+	void started() {
+		this.started = new Date();
+		this.status = Status.RUNNING;
+	}
+
+	void done(File file) {
+		this.file = file;
+		this.finished = new Date();
+		this.status = Status.DONE;
+	}
+
+	void failed(String error) {
+		this.error = error;
+		this.finished = new Date();
+		this.status = Status.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return "SparqlJob[" + id + ", " + contentType + ", " + status + "]";
+	}
+}
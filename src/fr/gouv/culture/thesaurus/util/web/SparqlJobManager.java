@@ -0,0 +1,459 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import fr.gouv.culture.thesaurus.util.concurrent.DaemonThreadFactory;
+
+/**
+ * Gestionnaire des requêtes SPARQL longues exécutées de façon asynchrone.
+ * <p>
+ * Les requêtes sont exécutées par un pool borné de threads (taille du pool
+ * et de la file d'attente configurables), évaluées directement sur le dépôt
+ * embarqué ou transmises au triplestore au travers d'un pool de connexions
+ * dédié dont le délai de lecture est propre aux requêtes longues : celles-ci
+ * ne mobilisent ni les threads du conteneur de servlets, ni les connexions
+ * des requêtes interactives. Le résultat est
+ * écrit dans un fichier du répertoire de travail, téléchargeable une fois
+ * la tâche terminée. Les tâches terminées et leurs fichiers sont oubliés
+ * après un délai de rétention, vérifié périodiquement.
+ * </p>
+ * <p>
+ * Le nombre de requêtes non terminées d'un même client est plafonné, afin
+ * qu'un client ne puisse occuper seul la file d'attente.
+ * </p>
+ */
+public class SparqlJobManager {
+
+	private final static Logger log = Logger.getLogger(SparqlJobManager.class);
+
+	private static final String FILE_PREFIX = "sparql-job-";
+
+	/** Période maximale de la purge des tâches expirées, en millisecondes. */
+	private static final long MAX_EXPIRY_PERIOD = 60000L;
+
+	/**
+	 * Production du résultat d'une requête.
+	 */
+	public interface ResultWriter {
+		/**
+		 * Exécute une requête et en écrit le résultat.
+		 * 
+		 * @param out
+		 *            Flux de sortie, fermé par l'appelant
+		 * @throws Exception
+		 *             Levée si l'exécution de la requête ou l'écriture a
+		 *             échoué
+		 */
+		void write(OutputStream out) throws Exception;
+	}
+
+	/**
+	 * Traitement du résultat brut d'une requête avant son écriture sur
+	 * disque (traduction des URI, transcodage...).
+	 */
+	public interface ResultHandler {
+		/**
+		 * Écrit le résultat d'une requête.
+		 * 
+		 * @param in
+		 *            Résultat renvoyé par le triplestore, fermé par
+		 *            l'appelant
+		 * @param out
+		 *            Flux de sortie, fermé par l'appelant
+		 * @throws Exception
+		 *             Levée si la lecture, le traitement ou l'écriture a
+		 *             échoué
+		 */
+		void write(InputStream in, OutputStream out) throws Exception;
+	}
+
+	private final File directory;
+	private final HttpClientPool client;
+	private final ThreadPoolExecutor executor;
+	private final long retention;
+	private final int maxPerClient;
+	private final ScheduledExecutorService timer;
+
+	/** Tâches connues, par identifiant. */
+	private final ConcurrentMap<String, SparqlJob> jobs = new ConcurrentHashMap<String, SparqlJob>();
+	/** Nombre de tâches non terminées, par client. */
+	private final Map<String, Integer> pending = new HashMap<String, Integer>();
+
+	/**
+	 * Crée un gestionnaire de requêtes asynchrones.
+	 * 
+	 * @param directory
+	 *            Répertoire dans lequel les résultats sont écrits ; les
+	 *            résultats laissés par une précédente instance sont
+	 *            supprimés
+	 * @param client
+	 *            Pool de connexions au triplestore réservé aux requêtes
+	 *            asynchrones, ou <code>null</code> si les requêtes sont
+	 *            évaluées sur un dépôt embarqué
+	 * @param threads
+	 *            Nombre de requêtes exécutées simultanément
+	 * @param queueSize
+	 *            Nombre maximal de requêtes en attente
+	 * @param retention
+	 *            Durée de conservation des tâches terminées, en millisecondes
+	 * @param maxPerClient
+	 *            Nombre maximal de requêtes non terminées d'un même client,
+	 *            0 pour ne pas le limiter
+	 * @throws IOException
+	 *             Levée si le répertoire ne peut être créé
+	 */
+	public SparqlJobManager(File directory, HttpClientPool client,
+			int threads, int queueSize, long retention, int maxPerClient)
+			throws IOException {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads");
+		}
+		if (queueSize < 0) {
+			throw new IllegalArgumentException("queueSize");
+		}
+		if (maxPerClient < 0) {
+			throw new IllegalArgumentException("maxPerClient");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Impossible de créer le répertoire "
+					+ directory.getAbsolutePath());
+		}
+		final File[] leftovers = directory.listFiles();
+		if (leftovers != null) {
+			for (File f : leftovers) {
+				if (f.getName().startsWith(FILE_PREFIX)) {
+					f.delete();
+				}
+			}
+		}
+		this.directory = directory;
+		this.client = client;
+		this.retention = retention;
+		this.maxPerClient = maxPerClient;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(
+						Math.max(1, queueSize)), new DaemonThreadFactory(
+						"thesaurus-sparql-job", Thread.MIN_PRIORITY));
+		this.executor.allowCoreThreadTimeOut(true);
+		// Purge indépendante des soumissions : sans nouvelle requête, les
+		// résultats expirés occuperaient le disque indéfiniment.
+		final long period = Math.max(1000L, Math.min(retention,
+				MAX_EXPIRY_PERIOD));
+		this.timer = Executors
+				.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+						"thesaurus-sparql-job-expiry"));
+		this.timer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					expire();
+				} catch (RuntimeException e) {
+					log.error("Echec de la purge des requêtes expirées", e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Soumet une requête SPARQL.
+	 * 
+	 * @param client
+	 *            Identifiant du client à l'origine de la requête
+	 * @param method
+	 *            Requête HTTP à destination du triplestore
+	 * @param contentType
+	 *            Type MIME du résultat une fois traité
+	 * @param handler
+	 *            Traitement du résultat
+	 * @return Tâche de requête
+	 * @throws TooManyJobsException
+	 *             Levée si le client a atteint son nombre maximal de
+	 *             requêtes non terminées
+	 * @throws RejectedExecutionException
+	 *             Levée si la file d'attente des requêtes est pleine
+	 */
+	public SparqlJob submit(String client, final HttpMethod method,
+			String contentType, final ResultHandler handler)
+			throws RejectedExecutionException {
+		if (this.client == null) {
+			throw new IllegalStateException("client");
+		}
+		return this.submit(client, contentType, new ResultWriter() {
+			public void write(OutputStream out) throws Exception {
+				forward(method, handler, out);
+			}
+		});
+	}
+
+	/**
+	 * Soumet une requête SPARQL évaluée sans passer par HTTP.
+	 * 
+	 * @param client
+	 *            Identifiant du client à l'origine de la requête
+	 * @param contentType
+	 *            Type MIME du résultat
+	 * @param writer
+	 *            Exécution de la requête
+	 * @return Tâche de requête
+	 * @throws TooManyJobsException
+	 *             Levée si le client a atteint son nombre maximal de
+	 *             requêtes non terminées
+	 * @throws RejectedExecutionException
+	 *             Levée si la file d'attente des requêtes est pleine
+	 */
+	public SparqlJob submit(final String client, String contentType,
+			final ResultWriter writer) throws RejectedExecutionException {
+		this.expire();
+
+		this.reserve(client);
+		final SparqlJob job = new SparqlJob(UUID.randomUUID().toString(),
+				contentType);
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					try {
+						execute(job, writer);
+					} finally {
+						release(client);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.release(client);
+			throw e;
+		}
+		this.jobs.put(job.getId(), job);
+		return job;
+	}
+
+	/**
+	 * Renvoie une tâche de requête.
+	 * 
+	 * @param id
+	 *            Identifiant de la tâche
+	 * @return Tâche, ou <code>null</code> si elle est inconnue ou expirée
+	 */
+	public SparqlJob getJob(String id) {
+		return (id != null) ? this.jobs.get(id) : null;
+	}
+
+	/**
+	 * Renvoie le nombre de requêtes non terminées d'un client.
+	 * 
+	 * @param client
+	 *            Identifiant du client
+	 * @return Nombre de requêtes en attente ou en cours
+	 */
+	public synchronized int getPendingCount(String client) {
+		final Integer count = this.pending.get(client);
+		return (count != null) ? count.intValue() : 0;
+	}
+
+	/**
+	 * @return Nombre de requêtes en attente d'un thread d'exécution
+	 */
+	public int getQueueSize() {
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * Arrête le pool d'exécution, en interrompant les requêtes en cours, et
+	 * la purge périodique, puis ferme les connexions au triplestore.
+	 */
+	public void shutdown() {
+		this.timer.shutdownNow();
+		this.executor.shutdownNow();
+		if (this.client != null) {
+			this.client.shutdown();
+		}
+	}
+
+	/**
+	 * Décompte une requête non terminée d'un client.
+	 * 
+	 * @throws TooManyJobsException
+	 *             Levée si le client a atteint son nombre maximal de
+	 *             requêtes non terminées
+	 */
+	private synchronized void reserve(String client)
+			throws TooManyJobsException {
+		final int count = this.getPendingCount(client);
+		if ((this.maxPerClient > 0) && (count >= this.maxPerClient)) {
+			throw new TooManyJobsException(client);
+		}
+		this.pending.put(client, Integer.valueOf(count + 1));
+	}
+
+	/**
+	 * Décompte la fin d'une requête d'un client.
+	 */
+	private synchronized void release(String client) {
+		final int count = this.getPendingCount(client);
+		if (count > 1) {
+			this.pending.put(client, Integer.valueOf(count - 1));
+		} else {
+			this.pending.remove(client);
+		}
+	}
+
+	private void execute(SparqlJob job, ResultWriter writer) {
+		job.started();
+		final File tmp = new File(this.directory, FILE_PREFIX + job.getId()
+				+ ".tmp");
+		final File file = new File(this.directory, FILE_PREFIX + job.getId());
+		try {
+			final OutputStream out = new ProgressOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)),
+					job.getProgress());
+			try {
+				writer.write(out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Impossible de renommer " + tmp);
+			}
+			job.done(file);
+		} catch (Exception e) {
+			log.error("Echec de la requête " + job, e);
+			tmp.delete();
+			String message = e.getMessage();
+			if ((message == null) || (message.length() == 0)) {
+				message = e.toString();
+			}
+			job.failed(message);
+		}
+	}
+
+	/**
+	 * Transmet une requête au triplestore et écrit le résultat.
+	 */
+	private void forward(HttpMethod method, ResultHandler handler,
+			OutputStream out) throws Exception {
+		final InputStream in = this.client.execute(method);
+		try {
+			final int status = method.getStatusCode();
+			if (status != HttpStatus.SC_OK) {
+				// Message d'erreur du triplestore (requête invalide...).
+				final byte[] message = new byte[4096];
+				final int n = IOUtils.read(in, message);
+				throw new IOException(status + " "
+						+ HttpStatus.getStatusText(status) + ": "
+						+ new String(message, 0, n, "UTF-8"));
+			}
+			handler.write(in, out);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Oublie les tâches terminées depuis plus longtemps que la durée de
+	 * rétention et supprime leurs résultats.
+	 */
+	private void expire() {
+		final long limit = System.currentTimeMillis() - this.retention;
+		for (Iterator<SparqlJob> i = this.jobs.values().iterator(); i
+				.hasNext();) {
+			final SparqlJob job = i.next();
+			if (job.isFinished() && (job.getFinished().getTime() < limit)) {
+				i.remove();
+				if (job.getFile() != null) {
+					job.getFile().delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Refus d'une requête d'un client ayant atteint son nombre maximal de
+	 * requêtes non terminées.
+	 */
+	public static final class TooManyJobsException extends
+			RejectedExecutionException {
+		private static final long serialVersionUID = 1L;
+
+		TooManyJobsException(String client) {
+			super("Too many pending jobs for client " + client);
+		}
+	}
+
+	/**
+	 * Flux comptant les octets écrits, pour le suivi de l'avancement.
+	 */
+	private static final class ProgressOutputStream extends
+			FilterOutputStream {
+		private final AtomicLong progress;
+
+		ProgressOutputStream(OutputStream out, AtomicLong progress) {
+			super(out);
+			this.progress = progress;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.progress.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.progress.addAndGet(len);
+		}
+	}
+}
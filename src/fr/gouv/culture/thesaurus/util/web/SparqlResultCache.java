@@ -0,0 +1,606 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.output.WriterOutputStream;
+import org.apache.log4j.Logger;
+
+import com.atosorigin.fwk.io.SwapWriter;
+
+/**
+ * Cache des réponses du point d'accès SPARQL.
+ * <p>
+ * Les réponses sont indexées par une empreinte de la requête normalisée, du
+ * type de contenu demandé, de la variante de réécriture des URI et de la
+ * version des données : un import ou une suppression, qui change la version,
+ * rend toutes les réponses précédentes obsolètes ; elles sont supprimées dès
+ * la première consultation avec la nouvelle version.
+ * </p>
+ * <p>
+ * Chaque réponse est enregistrée au fil de sa transmission au client, au
+ * travers d'un {@link SwapWriter} : les petites réponses restent en mémoire,
+ * les plus grosses sont déversées dans un fichier du répertoire du cache. Les
+ * réponses dépassant la taille maximale d'une entrée ne sont pas conservées ;
+ * les entrées les moins récemment utilisées sont évincées au-delà du nombre
+ * maximal d'entrées ou de la taille totale maximale. Les tailles sont
+ * exprimées en caractères.
+ * </p>
+ */
+public class SparqlResultCache implements SparqlResultCacheMBean {
+
+	private final static Logger log = Logger.getLogger(SparqlResultCache.class);
+
+	/** Préfixe des fichiers du cache. */
+	private final static String TMP_PREFIX = "sparql-";
+	/** Suffixe des fichiers du cache. */
+	private final static String TMP_SUFFIX = ".cache";
+	/** Encodage des réponses enregistrées. */
+	private final static String ENCODING = "UTF-8";
+
+	private final File directory;
+	private final int maxEntries;
+	private final int memoryThreshold;
+	private final long maxEntrySize;
+	private final long maxTotalSize;
+
+	/** Entrées, de la moins récemment utilisée à la plus récente. */
+	private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(
+			16, 0.75f, true);
+	/** Version des données des entrées. */
+	private long version = Long.MIN_VALUE;
+	/** Taille totale des entrées. */
+	private long totalSize = 0L;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Crée un cache de réponses SPARQL. Les fichiers laissés dans le
+	 * répertoire par une exécution précédente sont supprimés.
+	 * 
+	 * @param directory
+	 *            Répertoire des réponses déversées sur disque
+	 * @param maxEntries
+	 *            Nombre maximal de réponses conservées
+	 * @param memoryThreshold
+	 *            Taille au-delà de laquelle une réponse est déversée sur
+	 *            disque
+	 * @param maxEntrySize
+	 *            Taille maximale d'une réponse conservée
+	 * @param maxTotalSize
+	 *            Taille totale maximale des réponses conservées
+	 * @throws IOException
+	 *             Levée si le répertoire n'a pas pu être créé
+	 */
+	public SparqlResultCache(File directory, int maxEntries,
+			int memoryThreshold, long maxEntrySize, long maxTotalSize)
+			throws IOException {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory");
+		}
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries");
+		}
+		if (memoryThreshold < 0) {
+			throw new IllegalArgumentException("memoryThreshold");
+		}
+		if (maxEntrySize < 1L) {
+			throw new IllegalArgumentException("maxEntrySize");
+		}
+		if (maxTotalSize < maxEntrySize) {
+			throw new IllegalArgumentException("maxTotalSize");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create directory "
+					+ directory.getAbsolutePath());
+		}
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				final String name = f.getName();
+				if (name.startsWith(TMP_PREFIX) && name.endsWith(TMP_SUFFIX)) {
+					f.delete();
+				}
+			}
+		}
+		this.directory = directory;
+		this.maxEntries = maxEntries;
+		this.memoryThreshold = memoryThreshold;
+		this.maxEntrySize = maxEntrySize;
+		this.maxTotalSize = maxTotalSize;
+	}
+
+	/**
+	 * Calcule la clé d'une réponse.
+	 * 
+	 * @param query
+	 *            Requête SPARQL
+	 * @param accept
+	 *            Types de contenu acceptés par le client, ou
+	 *            <code>null</code>
+	 * @param variant
+	 *            Discriminant de la mise en forme de la réponse (base des
+	 *            URL réécrites...), ou <code>null</code>
+	 * @return Empreinte hexadécimale identifiant la réponse
+	 */
+	public static String key(String query, String accept, String variant) {
+		final StringBuilder buf = new StringBuilder(query.length() + 64);
+		buf.append(normalize(query)).append('\n');
+		buf.append((accept != null) ? accept.trim() : "").append('\n');
+		buf.append((variant != null) ? variant : "");
+		return DigestUtils.shaHex(buf.toString());
+	}
+
+	/**
+	 * Normalise une requête SPARQL : les commentaires (<code>#</code> jusqu'à
+	 * la fin de la ligne) et les blancs en dehors des chaînes et des IRI sont
+	 * réduits à une espace, et supprimés en début et fin de requête. Deux
+	 * requêtes ne différant que par leur mise en page partagent ainsi la même
+	 * réponse.
+	 * 
+	 * @param query
+	 *            Requête SPARQL
+	 * @return Requête normalisée
+	 */
+	static String normalize(String query) {
+		final String q = query.trim();
+		final int n = q.length();
+		final StringBuilder buf = new StringBuilder(n);
+		boolean blank = false;
+		int i = 0;
+		while (i < n) {
+			final char c = q.charAt(i);
+			if (Character.isWhitespace(c)) {
+				blank = true;
+				i++;
+				continue;
+			}
+			if (c == '#') {
+				// Commentaire : ignoré jusqu'à la fin de la ligne.
+				while ((i < n) && (q.charAt(i) != '\n')
+						&& (q.charAt(i) != '\r')) {
+					i++;
+				}
+				blank = true;
+				continue;
+			}
+			if (blank) {
+				buf.append(' ');
+				blank = false;
+			}
+			final int end;
+			if ((c == '"') || (c == '\'')) {
+				end = endOfString(q, i);
+			} else if (c == '<') {
+				end = endOfIri(q, i);
+			} else if (c == '\\') {
+				// Caractère échappé d'un nom préfixé (ex:a\#b).
+				end = Math.min(i + 2, n);
+			} else {
+				end = i + 1;
+			}
+			buf.append(q, i, end);
+			i = end;
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Renvoie la position suivant la fin de la chaîne (courte ou longue)
+	 * commençant à la position indiquée.
+	 */
+	private static int endOfString(String q, int start) {
+		final char quote = q.charAt(start);
+		final int n = q.length();
+		final boolean isLong = (start + 2 < n) && (q.charAt(start + 1) == quote)
+				&& (q.charAt(start + 2) == quote);
+		int i = start + (isLong ? 3 : 1);
+		while (i < n) {
+			final char c = q.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (c != quote) {
+				i++;
+			} else if (!isLong) {
+				return i + 1;
+			} else if ((i + 2 < n) && (q.charAt(i + 1) == quote)
+					&& (q.charAt(i + 2) == quote)) {
+				return i + 3;
+			} else {
+				i++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Renvoie la position suivant la fin de l'IRI commençant à la position
+	 * indiquée, ou la position suivante s'il s'agit de l'opérateur de
+	 * comparaison (une IRI ne contient ni blanc ni guillemet).
+	 */
+	private static int endOfIri(String q, int start) {
+		final int n = q.length();
+		for (int i = start + 1; i < n; i++) {
+			final char c = q.charAt(i);
+			if (c == '>') {
+				return i + 1;
+			}
+			if (Character.isWhitespace(c) || (c == '"') || (c == '\'')
+					|| (c == '<')) {
+				break;
+			}
+		}
+		return start + 1;
+	}
+
+	/**
+	 * Recherche une réponse. Les entrées d'une version antérieure des données
+	 * sont supprimées.
+	 * 
+	 * @param key
+	 *            Clé de la réponse (voir {@link #key(String, String, String)})
+	 * @param version
+	 *            Version courante des données
+	 * @return Flux de la réponse, à fermer par l'appelant, ou
+	 *         <code>null</code> si elle est absente du cache
+	 */
+	public Reader get(String key, long version) {
+		CachedResult result = null;
+		synchronized (this.entries) {
+			if (this.checkVersion(version)) {
+				result = this.entries.get(key);
+			}
+		}
+		if (result != null) {
+			try {
+				final Reader in = result.data.getReader();
+				this.hits.incrementAndGet();
+				return in;
+			} catch (IOException e) {
+				// Fichier évincé entre-temps.
+				log.debug("Cached SPARQL result unavailable: " + e.getMessage());
+			}
+		}
+		this.misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Crée un flux transmettant une réponse au client tout en l'enregistrant
+	 * dans le cache. Les erreurs d'enregistrement n'affectent pas la
+	 * transmission au client.
+	 * 
+	 * @param key
+	 *            Clé de la réponse (voir {@link #key(String, String, String)})
+	 * @param version
+	 *            Version des données interrogées
+	 * @param out
+	 *            Flux de la réponse au client
+	 * @return Flux d'écriture de la réponse ; la réponse n'est conservée
+	 *         que si {@link Recorder#commit()} est appelé une fois la réponse
+	 *         complète, le flux devant ensuite être fermé dans tous les cas
+	 */
+	public Recorder record(String key, long version, OutputStream out) {
+		return new Recorder(key, version, out);
+	}
+
+	/**
+	 * Vide le cache.
+	 */
+	public void clear() {
+		synchronized (this.entries) {
+			for (CachedResult r : this.entries.values()) {
+				r.release();
+			}
+			this.entries.clear();
+			this.totalSize = 0L;
+		}
+	}
+
+	/**
+	 * Supprime les entrées si la version des données a augmenté. Doit être
+	 * appelé sous verrou.
+	 * 
+	 * @return <code>false</code> si la version indiquée est antérieure à
+	 *         celle des entrées
+	 */
+	private boolean checkVersion(long current) {
+		if (current > this.version) {
+			if (!this.entries.isEmpty()) {
+				log.debug("Data version changed, discarding "
+						+ this.entries.size() + " cached SPARQL results");
+			}
+			for (CachedResult r : this.entries.values()) {
+				r.release();
+			}
+			this.entries.clear();
+			this.totalSize = 0L;
+			this.version = current;
+		}
+		return (current == this.version);
+	}
+
+	/**
+	 * Ajoute une réponse complète, en évinçant les entrées les moins
+	 * récemment utilisées si nécessaire.
+	 */
+	private void put(String key, long version, SwapWriter data) {
+		final CachedResult result = new CachedResult(data);
+		final List<CachedResult> evicted = new ArrayList<CachedResult>();
+		synchronized (this.entries) {
+			if (!this.checkVersion(version)) {
+				// Données modifiées pendant la requête.
+				result.release();
+				return;
+			}
+			final CachedResult previous = this.entries.put(key, result);
+			if (previous != null) {
+				this.totalSize -= previous.size;
+				evicted.add(previous);
+			}
+			this.totalSize += result.size;
+			final Iterator<CachedResult> i = this.entries.values().iterator();
+			while (((this.entries.size() > this.maxEntries) || (this.totalSize > this.maxTotalSize))
+					&& i.hasNext()) {
+				final CachedResult r = i.next();
+				i.remove();
+				this.totalSize -= r.size;
+				evicted.add(r);
+			}
+		}
+		for (CachedResult r : evicted) {
+			r.release();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getEntryCount() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getTotalSize() {
+		synchronized (this.entries) {
+			return this.totalSize;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getMaxTotalSize() {
+		return this.maxTotalSize;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getHitCount() {
+		return this.hits.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getMissCount() {
+		return this.misses.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRejectedCount() {
+		return this.rejected.get();
+	}
+
+	/**
+	 * Réponse conservée. Le fichier éventuel appartient au cache : il n'est
+	 * pas supprimé après lecture, mais à l'éviction de l'entrée. Les
+	 * lectures en cours d'un fichier supprimé se poursuivent sur les
+	 * systèmes qui le permettent.
+	 */
+	private static final class CachedResult {
+		final SwapWriter data;
+		final File file;
+		final long size;
+
+		CachedResult(SwapWriter data) {
+			this.data = data;
+			this.file = data.getFile();
+			this.size = data.size();
+		}
+
+		void release() {
+			if ((this.file != null) && !this.file.delete()) {
+				this.file.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Flux transmettant une réponse au client tout en l'enregistrant dans le
+	 * cache.
+	 */
+	public final class Recorder extends OutputStream {
+		private final String key;
+		private final long version;
+		private final OutputStream out;
+		private SwapWriter data;
+		private OutputStream copy;
+		private boolean closed = false;
+
+		Recorder(String key, long version, OutputStream out) {
+			this.key = key;
+			this.version = version;
+			this.out = out;
+			try {
+				this.data = new SwapWriter(memoryThreshold, TMP_PREFIX,
+						TMP_SUFFIX, directory, ENCODING);
+				this.copy = new WriterOutputStream(this.data, ENCODING);
+			} catch (IOException e) {
+				this.abort(e);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			if (this.copy != null) {
+				try {
+					this.copy.write(b);
+					this.checkSize();
+				} catch (IOException e) {
+					this.abort(e);
+				}
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			if (this.copy != null) {
+				try {
+					this.copy.write(b, off, len);
+					this.checkSize();
+				} catch (IOException e) {
+					this.abort(e);
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+
+		/**
+		 * Conserve la réponse enregistrée, si elle ne dépasse pas la taille
+		 * maximale d'une entrée.
+		 */
+		public void commit() {
+			if (this.copy == null) {
+				return;
+			}
+			try {
+				this.copy.close();
+				this.copy = null;
+				if (this.data.size() > maxEntrySize) {
+					this.abort(null);
+					return;
+				}
+				put(this.key, this.version, this.data);
+				this.data = null;
+			} catch (IOException e) {
+				this.abort(e);
+			}
+		}
+
+		/**
+		 * Ferme le flux et abandonne la réponse enregistrée si elle n'a pas
+		 * été conservée. Le flux de la réponse au client n'est pas fermé.
+		 */
+		@Override
+		public void close() {
+			if (!this.closed) {
+				this.closed = true;
+				if (this.data != null) {
+					this.abort(null);
+				}
+			}
+		}
+
+		private void checkSize() {
+			if (this.data.size() > maxEntrySize) {
+				this.abort(null);
+			}
+		}
+
+		private void abort(IOException e) {
+			if (e != null) {
+				log.warn("Failed to cache SPARQL result: " + e.getMessage());
+			}
+			if (this.data != null) {
+				rejected.incrementAndGet();
+				try {
+					this.data.close();
+				} catch (IOException x) { /* Ignore... */
+				}
+				this.data.reset();
+			}
+			this.data = null;
+			this.copy = null;
+		}
+	}
+
+	/**
+	 * Recopie une réponse du cache vers le flux de la réponse au client.
+	 * 
+	 * @param in
+	 *            Flux de la réponse (voir {@link #get(String, long)}), fermé
+	 *            par cette méthode
+	 * @param out
+	 *            Flux de la réponse au client
+	 * @throws IOException
+	 *             Levée si la transmission a échoué
+	 */
+	public static void copy(Reader in, OutputStream out) throws IOException {
+		try {
+			final Writer w = new OutputStreamWriter(out, ENCODING);
+			final char[] buffer = new char[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				w.write(buffer, 0, n);
+			}
+			w.flush();
+		} finally {
+			in.close();
+		}
+	}
+}
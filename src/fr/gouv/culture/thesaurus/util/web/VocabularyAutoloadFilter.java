@@ -58,7 +58,17 @@ import fr.gouv.culture.thesaurus.autoload.VocabularyAutoload;
  * <dd>le répertoire de déplacement des fichiers dont l'import a échoué.
  * "./failure" dans le repertoire scruté par défaut.</dd>
  * <dt>refresh</dt>
- * <dd>Le temps d'attente, en millisecondes, entre 2 scrutation du répertoire.</dd>
+ * <dd>Le temps d'attente, en millisecondes, entre 2 scrutation du répertoire.
+ * Les notifications du système de fichiers déclenchent en outre une analyse
+ * immédiate lorsqu'elles sont disponibles.</dd>
+ * <dt>settle</dt>
+ * <dd>Le délai, en millisecondes, pendant lequel un fichier doit rester
+ * inchangé (taille et date de modification) avant d'être chargé. 2000 par
+ * défaut.</dd>
+ * <dt>threads</dt>
+ * <dd>Le nombre maximal de chargements soumis simultanément au pool d'import
+ * partagé avec la page d'administration, sur des graphes nommés distincts. 2
+ * par défaut.</dd>
  * <dt>maxTries</dt>
  * <dd>Nombre de scrutations d'essai infructueuses avant de déclarer un fichier
  * en erreur.</dd>
@@ -80,6 +90,8 @@ public class VocabularyAutoloadFilter implements Filter {
 	private static final String REFRESH_PARAM = "refresh";
 	private static final String MAX_TRIES_PARAM = "maxTries";
 	private static final String EMAIL_TO_PARAM = "emailTo";
+	private static final String SETTLE_PARAM = "settle";
+	private static final String THREADS_PARAM = "threads";
 
 	private static final String DEFAULT_SUCCESS_DIRECTORY = "success";
 	private static final String DEFAULT_FAILURE_DIRECTORY = "failure";
@@ -121,6 +133,18 @@ public class VocabularyAutoloadFilter implements Filter {
 				runnable.setMaxTriesByFile(Integer.valueOf(maxRetries));
 			}
 
+			// Délai de stabilisation des fichiers
+			String settle = config.getInitParameter(SETTLE_PARAM);
+			if (StringUtils.isNotEmpty(settle)) {
+				runnable.setSettleTime(Integer.valueOf(settle));
+			}
+
+			// Nombre de chargements parallèles
+			String threads = config.getInitParameter(THREADS_PARAM);
+			if (StringUtils.isNotEmpty(threads)) {
+				runnable.setThreads(Integer.valueOf(threads));
+			}
+
 			thread = new Thread(runnable);
 			thread.setDaemon(true);
 			thread.start();
@@ -157,7 +181,9 @@ public class VocabularyAutoloadFilter implements Filter {
 
 	@Override
 	public void destroy() {
-		thread.interrupt();
+		if (thread != null) {
+			thread.interrupt();
+		}
 	}
 
 	@Override
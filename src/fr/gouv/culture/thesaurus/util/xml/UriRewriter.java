@@ -0,0 +1,224 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.xml;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Traduction en flux des URI des entrées en URL de l'application dans les
+ * documents RDF/XML et SPARQL Results.
+ * <p>
+ * Les valeurs des attributs <code>rdf:about</code> et
+ * <code>rdf:resource</code> et le texte des éléments <code>srx:uri</code>
+ * commençant par l'URI de base sont réécrits avec l'URL de base ; le reste du
+ * document est recopié à l'identique. Le document est lu et écrit au fil de
+ * l'eau (StAX) : la mémoire consommée ne dépend pas de la taille du
+ * document, contrairement à une transformation XSLT.
+ * </p>
+ * <p>
+ * Les instances sont immuables et peuvent être partagées entre threads.
+ * </p>
+ */
+public class UriRewriter {
+
+	/** Espace de noms RDF. */
+	private final static String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	/** Espace de noms des résultats SPARQL. */
+	private final static String SRX_NS = "http://www.w3.org/2005/sparql-results#";
+
+	private final static String ENCODING = "UTF-8";
+
+	private final static XMLInputFactory inputFactory;
+	private final static XMLOutputFactory outputFactory = XMLOutputFactory
+			.newInstance();
+
+	static {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,
+				Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		// Documents du triplestore : aucune entité externe n'est résolue.
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(
+				XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private final String baseUri;
+	private final String baseUrl;
+
+	/**
+	 * Crée un traducteur d'URI.
+	 * 
+	 * @param baseUri
+	 *            URI de base des entrées
+	 * @param baseUrl
+	 *            URL de base correspondante dans l'application
+	 */
+	public UriRewriter(String baseUri, String baseUrl) {
+		if ((baseUri == null) || (baseUri.length() == 0)) {
+			throw new IllegalArgumentException("baseUri");
+		}
+		if (baseUrl == null) {
+			throw new IllegalArgumentException("baseUrl");
+		}
+		this.baseUri = baseUri;
+		this.baseUrl = baseUrl;
+	}
+
+	/**
+	 * Recopie un document XML en traduisant les URI des entrées. Les flux ne
+	 * sont pas fermés.
+	 * 
+	 * @param in
+	 *            Document source
+	 * @param out
+	 *            Flux de sortie du document traduit, encodé en UTF-8
+	 * @throws XMLStreamException
+	 *             Levée si le document source est mal formé ou si l'écriture
+	 *             a échoué
+	 */
+	public void rewrite(InputStream in, OutputStream out)
+			throws XMLStreamException {
+		final XMLStreamReader r = inputFactory.createXMLStreamReader(in);
+		final XMLStreamWriter w = outputFactory.createXMLStreamWriter(out,
+				ENCODING);
+		try {
+			this.rewrite(r, w);
+			w.flush();
+		} finally {
+			r.close();
+			w.close();
+		}
+	}
+
+	/**
+	 * Traduit une URI d'entrée en URL de l'application.
+	 * 
+	 * @param value
+	 *            URI à traduire
+	 * @return URL correspondante, ou la valeur inchangée si elle ne commence
+	 *         pas par l'URI de base
+	 */
+	public String rewrite(String value) {
+		return (value.startsWith(this.baseUri)) ? this.baseUrl
+				+ value.substring(this.baseUri.length()) : value;
+	}
+
+	private void rewrite(XMLStreamReader r, XMLStreamWriter w)
+			throws XMLStreamException {
+		// Texte de l'élément srx:uri courant, null hors d'un tel élément.
+		StringBuilder uri = null;
+		int event = r.getEventType();
+		while (true) {
+			switch (event) {
+			case XMLStreamConstants.START_DOCUMENT:
+				w.writeStartDocument(ENCODING, "1.0");
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+				this.writeStartElement(r, w);
+				if (SRX_NS.equals(r.getNamespaceURI())
+						&& "uri".equals(r.getLocalName())) {
+					uri = new StringBuilder();
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if (uri != null) {
+					uri.append(r.getTextCharacters(), r.getTextStart(),
+							r.getTextLength());
+				} else {
+					w.writeCharacters(r.getTextCharacters(), r.getTextStart(),
+							r.getTextLength());
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (uri != null) {
+					w.writeCharacters(this.rewrite(uri.toString()));
+					uri = null;
+				}
+				w.writeEndElement();
+				break;
+			case XMLStreamConstants.COMMENT:
+				w.writeComment(r.getText());
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				w.writeProcessingInstruction(r.getPITarget(), r.getPIData());
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				w.writeEndDocument();
+				return;
+			default:
+				// DTD, références d'entités (remplacées) : ignorées.
+				break;
+			}
+			event = r.next();
+		}
+	}
+
+	private void writeStartElement(XMLStreamReader r, XMLStreamWriter w)
+			throws XMLStreamException {
+		final String prefix = r.getPrefix();
+		final String ns = r.getNamespaceURI();
+		w.writeStartElement((prefix != null) ? prefix : "", r.getLocalName(),
+				(ns != null) ? ns : "");
+		for (int i = 0, n = r.getNamespaceCount(); i < n; i++) {
+			final String p = r.getNamespacePrefix(i);
+			if ((p == null) || (p.length() == 0)) {
+				w.writeDefaultNamespace(r.getNamespaceURI(i));
+			} else {
+				w.writeNamespace(p, r.getNamespaceURI(i));
+			}
+		}
+		for (int i = 0, n = r.getAttributeCount(); i < n; i++) {
+			final String attrNs = r.getAttributeNamespace(i);
+			final String local = r.getAttributeLocalName(i);
+			String value = r.getAttributeValue(i);
+			if (RDF_NS.equals(attrNs)
+					&& ("about".equals(local) || "resource".equals(local))) {
+				value = this.rewrite(value);
+			}
+			if ((attrNs == null) || (attrNs.length() == 0)) {
+				w.writeAttribute(local, value);
+			} else {
+				final String p = r.getAttributePrefix(i);
+				w.writeAttribute((p != null) ? p : "", attrNs, local, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.autoload;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la surveillance d'un répertoire par notifications.
+ */
+public class DirectoryWatcherTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.directory = File.createTempFile("watcher", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testNotifiedUntilClosed() throws Exception {
+		final Semaphore changes = new Semaphore(0);
+		final DirectoryWatcher watcher = new DirectoryWatcher(this.directory,
+				new Runnable() {
+					public void run() {
+						changes.release();
+					}
+				});
+		final Thread t = new Thread(watcher);
+		t.start();
+		try {
+			FileUtils.writeStringToFile(new File(this.directory, "a.nt"),
+					"", "UTF-8");
+			assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+			FileUtils.writeStringToFile(new File(this.directory, "a.nt"),
+					"<a> <b> <c> .\n", "UTF-8");
+			assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+		} finally {
+			watcher.close();
+		}
+		t.join(5000L);
+		assertFalse(t.isAlive());
+	}
+}
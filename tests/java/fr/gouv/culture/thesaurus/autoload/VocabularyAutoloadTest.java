@@ -0,0 +1,174 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.autoload;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.culture.thesaurus.service.ImportJobManager;
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.service.ThesaurusService;
+
+/**
+ * Tests du chargement automatique des vocabulaires : stabilisation des
+ * fichiers et import unique par graphe nommé.
+ */
+public class VocabularyAutoloadTest {
+
+	private static final String S1 = "http://example.org/s1";
+	private static final String S2 = "http://example.org/s2";
+
+	private File directory;
+	private File lookupDir;
+	private VocabularyAutoload autoload;
+	private ImportJobManager jobs;
+	private ThesaurusService thesaurus;
+
+	/** Fichiers dont le chargement a commencé. */
+	private final List<String> loaded = new CopyOnWriteArrayList<String>();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception {
+		this.directory = File.createTempFile("autoload", "");
+		this.directory.delete();
+		this.lookupDir = new File(this.directory, "lookup");
+		this.lookupDir.mkdirs();
+		this.autoload = new VocabularyAutoload(this.lookupDir, new File(
+				this.directory, "success"), new File(this.directory,
+				"failure"));
+		this.autoload.setThreads(3);
+		this.thesaurus = (ThesaurusService) Proxy.newProxyInstance(
+				ThesaurusService.class.getClassLoader(),
+				new Class<?>[] { ThesaurusService.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args)
+							throws Exception {
+						if (!"load".equals(m.getName())) {
+							throw new UnsupportedOperationException(m
+									.getName());
+						}
+						final File f = (File) args[0];
+						loaded.add(f.getName());
+						release.await(5, TimeUnit.SECONDS);
+						return new ImportProgress(null, f.getName());
+					}
+				});
+		this.jobs = new ImportJobManager(this.thesaurus, 3, 4, 60000L);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.release.countDown();
+		this.jobs.shutdown();
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testSettleTime() throws Exception {
+		this.autoload.setSettleTime(1000);
+		this.release.countDown();
+		final File f = this.write("a.nt", S1);
+		final long now = System.currentTimeMillis();
+
+		assertEquals(1000L, this.autoload.process(this.thesaurus, this.jobs,
+				now));
+		// Fichier en cours de copie : délai de stabilisation relancé.
+		FileUtils.writeStringToFile(f, "\n", "UTF-8", true);
+		assertEquals(1000L, this.autoload.process(this.thesaurus, this.jobs,
+				now + 800L));
+		assertEquals(300L, this.autoload.process(this.thesaurus, this.jobs,
+				now + 1500L));
+		assertTrue(this.loaded.isEmpty());
+
+		this.autoload.process(this.thesaurus, this.jobs, now + 1800L);
+		this.awaitLoaded(1);
+		assertEquals("a.nt", this.loaded.get(0));
+	}
+
+	@Test
+	public void testOneImportPerGraph() throws Exception {
+		this.autoload.setSettleTime(0);
+		this.write("a.nt", S1);
+		this.write("b.nt", S1);
+		this.write("c.nt", S2);
+
+		this.autoload.process(this.thesaurus, this.jobs,
+				System.currentTimeMillis());
+		this.awaitLoaded(2);
+		// Second fichier du même graphe différé, même à l'analyse suivante.
+		this.autoload.process(this.thesaurus, this.jobs,
+				System.currentTimeMillis());
+		Thread.sleep(200L);
+		assertEquals(2, this.loaded.size());
+		assertTrue(this.loaded.contains("c.nt"));
+		final String first = this.loaded.contains("a.nt") ? "a.nt" : "b.nt";
+		assertFalse(this.loaded.contains(first.equals("a.nt") ? "b.nt"
+				: "a.nt"));
+
+		this.release.countDown();
+		for (int i = 0; (i < 100)
+				&& (new File(this.lookupDir, first).exists() || this.jobs
+						.isActive(S1)); i++) {
+			Thread.sleep(50L);
+		}
+		this.autoload.process(this.thesaurus, this.jobs,
+				System.currentTimeMillis());
+		this.awaitLoaded(3);
+	}
+
+	private File write(String name, String scheme) throws Exception {
+		final File f = new File(this.lookupDir, name);
+		FileUtils.writeStringToFile(f, "<" + scheme
+				+ "> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type>"
+				+ " <http://www.w3.org/2004/02/skos/core#ConceptScheme> .\n",
+				"UTF-8");
+		return f;
+	}
+
+	private void awaitLoaded(int count) throws InterruptedException {
+		for (int i = 0; (i < 100) && (this.loaded.size() < count); i++) {
+			Thread.sleep(50L);
+		}
+		assertEquals(count, this.loaded.size());
+	}
+}
@@ -0,0 +1,204 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests du gestionnaire d'imports asynchrones et du respect des plages
+ * horaires.
+ */
+public class ImportJobManagerTest {
+
+	private static final String G1 = "http://example.org/g1";
+	private static final String G2 = "http://example.org/g2";
+
+	private ThesaurusService thesaurus;
+	private ImportJobManager jobs;
+
+	@Before
+	public void setUp() {
+		this.thesaurus = (ThesaurusService) Proxy.newProxyInstance(
+				ThesaurusService.class.getClassLoader(),
+				new Class<?>[] { ThesaurusService.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						throw new UnsupportedOperationException(m.getName());
+					}
+				});
+	}
+
+	@After
+	public void tearDown() {
+		if (this.jobs != null) {
+			this.jobs.shutdown();
+		}
+	}
+
+	@Test
+	public void testOneImportPerGraph() throws Exception {
+		this.jobs = new ImportJobManager(this.thesaurus, 2, 4, 60000L);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch other = new CountDownLatch(1);
+		final CountDownLatch second = new CountDownLatch(1);
+		final AtomicBoolean overlap = new AtomicBoolean();
+		this.jobs.execute(G1, new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		this.jobs.execute(G1, new Runnable() {
+			public void run() {
+				overlap.set(release.getCount() != 0L);
+				second.countDown();
+			}
+		});
+		this.jobs.execute(G2, new Runnable() {
+			public void run() {
+				other.countDown();
+			}
+		});
+		// Autre graphe : exécuté sur le second thread, que l'import
+		// différé du premier graphe n'occupe pas.
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		assertEquals(1L, second.getCount());
+		assertTrue(this.jobs.isActive(G1));
+
+		release.countDown();
+		assertTrue(second.await(5, TimeUnit.SECONDS));
+		assertFalse(overlap.get());
+		for (int i = 0; (i < 100) && this.jobs.isActive(G1); i++) {
+			Thread.sleep(20L);
+		}
+		assertFalse(this.jobs.isActive(G1));
+	}
+
+	@Test
+	public void testClosedBeforeStart() throws Exception {
+		final SwitchedSchedule schedule = new SwitchedSchedule();
+		this.jobs = new ImportJobManager(this.thesaurus, 1, 4, 60000L,
+				schedule);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean ran = new AtomicBoolean();
+		this.jobs.execute(G1, new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.countDown();
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		// Soumis plage ouverte, en attente du seul thread d'import.
+		this.jobs.execute(G2, new Runnable() {
+			public void run() {
+				ran.set(true);
+			}
+		});
+		assertEquals(1, this.jobs.getQueueSize());
+
+		schedule.open = false;
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; (i < 100) && (this.jobs.getScheduledCount() == 0); i++) {
+			Thread.sleep(20L);
+		}
+		// Reporté à l'ouverture de la plage suivante.
+		assertEquals(1, this.jobs.getScheduledCount());
+		assertFalse(ran.get());
+	}
+
+	@Test
+	public void testDeleteFailureTracked() throws Exception {
+		this.jobs = new ImportJobManager(this.thesaurus, 1, 4, 60000L);
+		final ImportJob job = this.jobs.submitDelete(G1);
+
+		assertTrue(job.isDeletion());
+		for (int i = 0; (i < 100)
+				&& ((!job.isFinished()) || this.jobs.isActive(G1)); i++) {
+			Thread.sleep(20L);
+		}
+		// Echec de la suppression visible du client.
+		assertSame(job, this.jobs.getJob(job.getId()));
+		assertEquals(ImportJob.Phase.FAILED, job.getPhase());
+		assertEquals("delete", job.getError());
+		assertFalse(this.jobs.isActive(G1));
+	}
+
+	/**
+	 * Calendrier ouvert ou fermé à la demande.
+	 */
+	private static final class SwitchedSchedule extends ImportSchedule {
+		volatile boolean open = true;
+
+		SwitchedSchedule() {
+			super(null, TimeZone.getDefault());
+		}
+
+		@Override
+		public boolean isUnrestricted() {
+			return false;
+		}
+
+		@Override
+		public boolean isOpen(Date date) {
+			return this.open;
+		}
+
+		@Override
+		public Date nextOpening(Date date) {
+			return (this.open) ? date : new Date(date.getTime() + 3600000L);
+		}
+	}
+}
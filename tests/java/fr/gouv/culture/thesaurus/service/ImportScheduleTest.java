@@ -0,0 +1,97 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Tests du calendrier des imports.
+ */
+public class ImportScheduleTest {
+
+	private final static TimeZone PARIS = TimeZone.getTimeZone("Europe/Paris");
+
+	@Test
+	public void testUnrestricted() {
+		ImportSchedule schedule = new ImportSchedule("", PARIS);
+		Date now = at(1, 3, 0);
+		assertTrue(schedule.isUnrestricted());
+		assertTrue(schedule.isOpen(now));
+		assertEquals(now, schedule.nextOpening(now));
+		assertEquals("*", schedule.toString());
+	}
+
+	@Test
+	public void testDaytimeWindow() {
+		ImportSchedule schedule = new ImportSchedule("09:00-18:00", PARIS);
+		assertTrue(schedule.isOpen(at(1, 9, 0)));
+		assertTrue(schedule.isOpen(at(1, 17, 59)));
+		assertFalse(schedule.isOpen(at(1, 18, 0)));
+		assertFalse(schedule.isOpen(at(1, 8, 59)));
+		// Le soir : ouverture le lendemain matin.
+		assertEquals(at(2, 9, 0), schedule.nextOpening(at(1, 20, 30)));
+		// Le matin : ouverture le jour même.
+		assertEquals(at(1, 9, 0), schedule.nextOpening(at(1, 7, 0)));
+	}
+
+	@Test
+	public void testWindowsAcrossMidnight() {
+		ImportSchedule schedule = new ImportSchedule(" 22:00-06:00 ,12:00-13:00",
+				PARIS);
+		assertTrue(schedule.isOpen(at(1, 23, 0)));
+		assertTrue(schedule.isOpen(at(1, 5, 0)));
+		assertTrue(schedule.isOpen(at(1, 12, 30)));
+		assertFalse(schedule.isOpen(at(1, 10, 0)));
+		assertEquals(at(1, 12, 0), schedule.nextOpening(at(1, 6, 0)));
+		assertEquals(at(1, 22, 0), schedule.nextOpening(at(1, 13, 0)));
+		assertEquals("22:00-06:00,12:00-13:00", schedule.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidWindow() {
+		new ImportSchedule("9h-18h", PARIS);
+	}
+
+	/**
+	 * Renvoie une date de janvier 2014, à Paris.
+	 */
+	private static Date at(int day, int hours, int minutes) {
+		Calendar cal = new GregorianCalendar(PARIS);
+		cal.clear();
+		cal.set(2014, Calendar.JANUARY, day, hours, minutes);
+		return cal.getTime();
+	}
+}
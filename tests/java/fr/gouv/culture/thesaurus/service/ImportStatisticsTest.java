@@ -0,0 +1,179 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.service.impl.SesameThesaurus;
+
+/**
+ * Tests des métriques des imports récents.
+ */
+public class ImportStatisticsTest {
+
+	@Test
+	public void testRollingHistory() throws Exception {
+		final SailRepository store = new SailRepository(new MemoryStore());
+		store.initialize();
+		final File directory = File.createTempFile("statistics", "");
+		directory.delete();
+		directory.mkdirs();
+		try {
+			final ThesaurusServiceConfiguration configuration = new ThesaurusServiceConfiguration();
+			configuration.setImportHistorySize(2);
+			final SesameThesaurus thesaurus = new SesameThesaurus(
+					configuration, store);
+			final ImportStatistics statistics = new ImportStatistics(thesaurus);
+			for (int i = 1; i <= 3; i++) {
+				final File f = new File(directory, "v" + i + ".nt");
+				FileUtils.writeStringToFile(f, "<http://example.org/c" + i
+						+ "> <http://example.org/label> \"" + i + "\" .\n",
+						"UTF-8");
+				thesaurus.load(f, "http://example.org/g" + i);
+			}
+
+			// Seuls les deux derniers imports sont conservés, du plus récent
+			// au plus ancien.
+			assertEquals(2, statistics.getImportCount());
+			final String[] history = statistics.getHistory();
+			assertEquals(2, history.length);
+			assertTrue(history[0].contains("(v3.nt)"));
+			assertTrue(history[1].contains("(v2.nt)"));
+			assertEquals(1L, statistics.getLastTriples());
+		} finally {
+			store.shutDown();
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void testDerivedRates() throws Exception {
+		final ImportProgress first = this.finished(1000L, 60L, true);
+		final ImportProgress failed = this.finished(100000L, 10L, false);
+		final ImportProgress last = this.finished(500L, 30L, true);
+		final ImportProgress running = new ImportProgress("g", "running");
+		running.committed(100000L);
+		final ImportStatistics statistics = new ImportStatistics(
+				this.newThesaurus(Arrays.asList(running, last, failed, first)));
+
+		assertEquals(4, statistics.getImportCount());
+		assertEquals(1, statistics.getRunningCount());
+		assertEquals(1, statistics.getFailedCount());
+		// Dernier import terminé.
+		assertEquals(500L, statistics.getLastTriples());
+		assertEquals(last.getDuration(), statistics.getLastDuration());
+		assertEquals(500L * 1000L / last.getDuration(),
+				statistics.getLastRate());
+		// Débit moyen des seuls imports réussis.
+		assertEquals(1500L * 1000L
+				/ (first.getDuration() + last.getDuration()),
+				statistics.getAverageRate());
+		assertEquals(Math.max(first.getDuration(), Math.max(
+				failed.getDuration(), last.getDuration())),
+				statistics.getMaxDuration());
+	}
+
+	@Test
+	public void testEmptyHistory() throws Exception {
+		final ImportStatistics statistics = new ImportStatistics(
+				this.newThesaurus(Arrays.<ImportProgress> asList()));
+
+		assertEquals(0, statistics.getImportCount());
+		assertEquals(0L, statistics.getLastRate());
+		assertEquals(0L, statistics.getAverageRate());
+		assertEquals(0, statistics.getHistory().length);
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		final ImportProgress done = this.finished(2000L, 20L, true);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName(
+				"fr.gouv.culture.thesaurus:type=ImportStatistics,name=test");
+		server.registerMBean(
+				new ImportStatistics(this.newThesaurus(Arrays.asList(done))),
+				name);
+		try {
+			assertEquals(Integer.valueOf(1),
+					server.getAttribute(name, "ImportCount"));
+			assertEquals(Long.valueOf(done.getRate()),
+					server.getAttribute(name, "AverageRate"));
+			assertEquals(1,
+					((String[]) server.getAttribute(name, "History")).length);
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	/**
+	 * Renvoie un import terminé ayant validé un nombre de triplets donné.
+	 */
+	private ImportProgress finished(long triples, long duration,
+			boolean success) throws InterruptedException {
+		final ImportProgress p = new ImportProgress("g", "f" + triples);
+		p.committed(triples);
+		Thread.sleep(duration);
+		if (success) {
+			p.done();
+		} else {
+			p.failed("échec");
+		}
+		return p;
+	}
+
+	private ThesaurusService newThesaurus(final List<ImportProgress> imports) {
+		return (ThesaurusService) Proxy.newProxyInstance(
+				ThesaurusService.class.getClassLoader(),
+				new Class<?>[] { ThesaurusService.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if ("getImports".equals(m.getName())) {
+							return imports;
+						}
+						throw new UnsupportedOperationException(m.getName());
+					}
+				});
+	}
+}
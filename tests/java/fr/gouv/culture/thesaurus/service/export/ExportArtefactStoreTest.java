@@ -0,0 +1,159 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.export;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+
+/**
+ * Tests du magasin des exports complets matérialisés.
+ */
+public class ExportArtefactStoreTest {
+
+	private static final String URI = "http://data.example.org/scheme";
+
+	private final AtomicInteger exports = new AtomicInteger();
+	private File directory;
+	private ExportArtefactStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		this.directory = new File(System.getProperty("java.io.tmpdir"),
+				"export-store-test-" + System.nanoTime());
+		this.store = new ExportArtefactStore(newThesaurus(this.exports),
+				this.directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testMaterializedOncePerVersion() throws Exception {
+		final Date version = new Date(1000L);
+		assertNull(this.store.find(URI, ExportType.RDF, version));
+		final ExportArtefact first = this.store.getFullDump(URI,
+				ExportType.RDF, version);
+		final ExportArtefact second = this.store.getFullDump(URI,
+				ExportType.RDF, version);
+
+		assertEquals(1, this.exports.get());
+		assertEquals(first.getFile(), second.getFile());
+		assertEquals("export 1", FileUtils.readFileToString(first.getFile(),
+				"UTF-8"));
+		assertNotNull(this.store.find(URI, ExportType.RDF, version));
+		// Autre format : export distinct.
+		this.store.getFullDump(URI, ExportType.TURTLE, version);
+		assertEquals(2, this.exports.get());
+	}
+
+	@Test
+	public void testNewVersionPurgesPrevious() throws Exception {
+		final ExportArtefact v1 = this.store.getFullDump(URI, ExportType.RDF,
+				new Date(1000L));
+		final ExportArtefact v2 = this.store.getFullDump(URI, ExportType.RDF,
+				new Date(2000L));
+
+		assertFalse(v1.getFile().exists());
+		assertTrue(v2.getFile().isFile());
+		assertEquals("export 2", FileUtils.readFileToString(v2.getFile(),
+				"UTF-8"));
+	}
+
+	@Test
+	public void testObsoleteVersionKeptWhileRead() throws Exception {
+		final ExportArtefact v1 = this.store.getFullDump(URI, ExportType.RDF,
+				new Date(1000L));
+		final RandomAccessFile in = v1.open();
+		try {
+			this.store.getFullDump(URI, ExportType.RDF, new Date(2000L));
+			// Téléchargement en cours : suppression différée.
+			assertTrue(v1.getFile().isFile());
+			assertEquals('e', in.read());
+		} finally {
+			in.close();
+		}
+		assertFalse(v1.getFile().exists());
+	}
+
+	@Test
+	public void testWriteFullDumpMaterializes() throws Exception {
+		final Date version = new Date(1000L);
+		final StringWriter out = new StringWriter();
+		this.store.writeFullDump(URI, ExportType.RDF, version, out);
+
+		assertEquals("export 1", out.toString());
+		final ExportArtefact artefact = this.store.find(URI, ExportType.RDF,
+				version);
+		assertNotNull(artefact);
+		assertEquals(8L, artefact.getLength());
+		this.store.getFullDump(URI, ExportType.RDF, version);
+		assertEquals(1, this.exports.get());
+	}
+
+	/**
+	 * Service écrivant un export numéroté à chaque appel.
+	 */
+	static ThesaurusService newThesaurus(final AtomicInteger exports) {
+		return (ThesaurusService) Proxy.newProxyInstance(
+				ThesaurusService.class.getClassLoader(),
+				new Class<?>[] { ThesaurusService.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args)
+							throws IOException {
+						if (m.getName().equals("getConceptScheme")
+								&& (args.length == 4)) {
+							((Writer) args[1]).write("export "
+									+ exports.incrementAndGet());
+							return null;
+						}
+						throw new UnsupportedOperationException(m.getName());
+					}
+				});
+	}
+}
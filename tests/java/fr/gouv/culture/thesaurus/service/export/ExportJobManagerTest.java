@@ -0,0 +1,161 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.export;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.culture.thesaurus.service.ThesaurusService;
+import fr.gouv.culture.thesaurus.service.impl.ExportType;
+
+/**
+ * Tests du gestionnaire des exports complets asynchrones.
+ */
+public class ExportJobManagerTest {
+
+	private static final String URI = "http://data.example.org/scheme";
+	private static final Date VERSION = new Date(1000L);
+
+	private final AtomicInteger exports = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private File directory;
+	private ExportArtefactStore store;
+	private ExportJobManager jobs;
+
+	@Before
+	public void setUp() throws IOException {
+		this.directory = new File(System.getProperty("java.io.tmpdir"),
+				"export-jobs-test-" + System.nanoTime());
+		final ThesaurusService thesaurus = (ThesaurusService) Proxy
+				.newProxyInstance(ThesaurusService.class.getClassLoader(),
+						new Class<?>[] { ThesaurusService.class },
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method m,
+									Object[] args) throws Exception {
+								if (m.getName().equals("getConceptScheme")
+										&& (args.length == 4)) {
+									release.await(5, TimeUnit.SECONDS);
+									if (exports.incrementAndGet() == 1) {
+										throw new IOException("échec");
+									}
+									((Writer) args[1]).write("export");
+									return null;
+								}
+								throw new UnsupportedOperationException(m
+										.getName());
+							}
+						});
+		this.store = new ExportArtefactStore(thesaurus, this.directory);
+		this.jobs = new ExportJobManager(this.store, 2, 8, 60000L);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.jobs.shutdown();
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testConcurrentSubmitsShareJob() throws Exception {
+		final Set<String> ids = Collections
+				.synchronizedSet(new HashSet<String>());
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] clients = new Thread[8];
+		for (int i = 0; i < clients.length; i++) {
+			clients[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						ids.add(jobs.submit(URI, ExportType.RDF, VERSION)
+								.getId());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			clients[i].start();
+		}
+		start.countDown();
+		for (Thread t : clients) {
+			t.join(5000L);
+		}
+		assertEquals(1, ids.size());
+		this.release.countDown();
+		final ExportJob job = this.jobs.getJob(ids.iterator().next());
+		waitFor(job);
+		assertEquals(1, this.exports.get());
+	}
+
+	@Test
+	public void testFailedJobNotReused() throws Exception {
+		this.release.countDown();
+		final ExportJob failed = this.jobs.submit(URI, ExportType.RDF,
+				VERSION);
+		waitFor(failed);
+		assertEquals(ExportJob.Status.FAILED, failed.getStatus());
+		assertEquals("échec", failed.getError());
+
+		final ExportJob retry = this.jobs.submit(URI, ExportType.RDF, VERSION);
+		assertNotSame(failed, retry);
+		waitFor(retry);
+		assertEquals(ExportJob.Status.DONE, retry.getStatus());
+		// Export matérialisé : nouvelle demande immédiatement terminée.
+		final ExportJob done = this.jobs.submit(URI, ExportType.RDF,
+				new Date(VERSION.getTime()));
+		assertSame(retry, done);
+		assertEquals(2, this.exports.get());
+	}
+
+	private static void waitFor(ExportJob job) throws InterruptedException {
+		final long limit = System.currentTimeMillis() + 5000L;
+		while (!job.isFinished() && (System.currentTimeMillis() < limit)) {
+			Thread.sleep(10L);
+		}
+		assertTrue(job.isFinished());
+	}
+}
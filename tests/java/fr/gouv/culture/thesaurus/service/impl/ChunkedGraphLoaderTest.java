@@ -0,0 +1,240 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+import fr.gouv.culture.thesaurus.vocabulary.Ginco;
+
+/**
+ * Tests de l'import par lots d'un graphe nommé.
+ */
+public class ChunkedGraphLoaderTest {
+
+	private static final String NS = "http://data.example.org/";
+	private static final String LABEL = "<http://www.w3.org/2004/02/skos/core#prefLabel>";
+
+	private SailRepository repository;
+	private ValueFactory vf;
+	private URI graph;
+	private URI staging;
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.repository = new SailRepository(new MemoryStore());
+		this.repository.initialize();
+		this.vf = this.repository.getValueFactory();
+		this.graph = this.vf.createURI(NS + "g");
+		this.staging = this.vf.createURI(NS + "g#staging");
+		this.directory = File.createTempFile("chunked", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.repository.shutDown();
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testLoadReplacesGraph() throws Exception {
+		this.load(this.newLoader(0), this.write("Ancien", 10));
+		final ImportProgress progress = this.load(this.newLoader(0),
+				this.write("Nouveau", 7));
+
+		assertEquals(7L, progress.getCommitted());
+		// Triplets, date d'import et empreinte.
+		assertEquals(9L, this.size(this.graph));
+		assertEquals(0L, this.size(this.staging));
+		assertTrue(this.hasLabel(this.graph, "Nouveau 6"));
+		assertFalse(this.hasLabel(this.graph, "Ancien 9"));
+		assertTrue(this.hasProperty(this.graph, DublinCoreTerms.DATE_SUBMITTED));
+		assertTrue(this.hasProperty(this.graph, Ginco.CONTENT_HASH));
+	}
+
+	@Test
+	public void testLoadWithWriters() throws Exception {
+		final ImportProgress progress = this.load(this.newLoader(2),
+				this.write("Nouveau", 25));
+
+		assertEquals(25L, progress.getCommitted());
+		assertEquals(27L, this.size(this.graph));
+		assertEquals(0L, this.size(this.staging));
+	}
+
+	@Test
+	public void testFailedLoadKeepsGraph() throws Exception {
+		this.load(this.newLoader(0), this.write("Ancien", 10));
+		final File f = this.write("Nouveau", 7);
+		FileUtils.writeStringToFile(f, "<" + NS + "c> invalide .\n", "UTF-8",
+				true);
+		try {
+			this.load(this.newLoader(0), f);
+			fail("Fichier invalide importé");
+		} catch (Exception e) {
+			// Erreur attendue.
+		}
+		// Lots déjà enregistrés abandonnés, graphe cible inchangé.
+		assertEquals(12L, this.size(this.graph));
+		assertEquals(0L, this.size(this.staging));
+		assertTrue(this.hasLabel(this.graph, "Ancien 9"));
+	}
+
+	@Test
+	public void testUnchangedLoadAbandoned() throws Exception {
+		final File f = this.write("Ancien", 10);
+		this.load(this.newLoader(0), f);
+		final RdfInput input = new RdfInput(f, RDFFormat.NTRIPLES);
+		input.setLoadedHash(new RdfInput(f, RDFFormat.NTRIPLES)
+				.getContentHash());
+		try {
+			this.newLoader(0).load(input, this.graph, this.staging,
+					this.vf.createLiteral("2015-01-01T00:00:00Z"),
+					new ImportProgress(this.graph.stringValue(), f.getName()));
+		} finally {
+			input.close();
+		}
+		// Empreinte calculée au fil de la lecture, graphe cible inchangé.
+		assertTrue(input.isUnchanged());
+		assertEquals(12L, this.size(this.graph));
+		assertEquals(0L, this.size(this.staging));
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			assertTrue(cnx.hasStatement(this.graph, this.vf
+					.createURI(DublinCoreTerms.DATE_SUBMITTED), this.vf
+					.createLiteral("2014-01-01T00:00:00Z"), false, this.graph));
+		} finally {
+			cnx.close();
+		}
+	}
+
+	@Test
+	public void testLoadVersion() throws Exception {
+		this.load(this.newLoader(0), this.write("Ancien", 10));
+		final URI version = this.vf.createURI(NS + "g#v1");
+		final File f = this.write("Nouveau", 7);
+		final RdfInput input = new RdfInput(f, RDFFormat.NTRIPLES);
+		try {
+			this.newLoader(0).loadVersion(input, this.graph, version,
+					this.vf.createLiteral("2014-01-01T00:00:00Z"),
+					new ImportProgress(this.graph.stringValue(), f.getName()));
+		} finally {
+			input.close();
+		}
+		assertEquals(12L, this.size(this.graph));
+		assertEquals(9L, this.size(version));
+		assertTrue(this.hasLabel(version, "Nouveau 6"));
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			assertTrue(cnx.hasStatement(this.graph, this.vf
+					.createURI(DublinCoreTerms.DATE_SUBMITTED), null, false,
+					version));
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private ChunkedGraphLoader newLoader(int writers) {
+		return new ChunkedGraphLoader(this.repository, 3, writers,
+				SesameThesaurus
+						.getSparqlQuery(SparqlQueries.SwapStagingGraph.QUERY));
+	}
+
+	private ImportProgress load(ChunkedGraphLoader loader, File f)
+			throws Exception {
+		final ImportProgress progress = new ImportProgress(
+				this.graph.stringValue(), f.getName());
+		final RdfInput input = new RdfInput(f, RDFFormat.NTRIPLES);
+		try {
+			loader.load(input, this.graph, this.staging,
+					this.vf.createLiteral("2014-01-01T00:00:00Z"), progress);
+		} finally {
+			input.close();
+		}
+		return progress;
+	}
+
+	private File write(String label, int count) throws Exception {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			b.append('<').append(NS).append('c').append(i).append("> ")
+					.append(LABEL).append(" \"").append(label).append(' ')
+					.append(i).append("\" .\n");
+		}
+		final File f = File.createTempFile("data", ".nt", this.directory);
+		FileUtils.writeStringToFile(f, b.toString(), "UTF-8");
+		return f;
+	}
+
+	private long size(URI ctx) throws Exception {
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			return cnx.size(ctx);
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private boolean hasLabel(URI ctx, String label) throws Exception {
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			return cnx.hasStatement(null, null, this.vf.createLiteral(label),
+					false, ctx);
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private boolean hasProperty(URI ctx, String property) throws Exception {
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			return cnx.hasStatement(ctx, this.vf.createURI(property), null,
+					false, ctx);
+		} finally {
+			cnx.close();
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import info.aduna.iteration.Iterations;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.service.GraphChangeSet;
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+
+/**
+ * Tests de l'import différentiel d'un graphe nommé.
+ */
+public class GraphDeltaLoaderTest {
+
+	private static final String NS = "http://data.example.org/";
+	private static final String LABEL = "<http://www.w3.org/2004/02/skos/core#prefLabel>";
+	private static final String BROADER = "<http://www.w3.org/2004/02/skos/core#broader>";
+	private static final String NOTE = "<http://www.w3.org/2004/02/skos/core#note>";
+
+	private static final String BASE = "<" + NS + "c1> " + LABEL + " \"Un\" .\n"
+			+ "<" + NS + "c2> " + LABEL + " \"Deux\" .\n" + "<" + NS + "c2> "
+			+ BROADER + " <" + NS + "c1> .\n";
+
+	private SailRepository repository;
+	private ValueFactory vf;
+	private URI graph;
+	private File directory;
+	private int maxChanges;
+
+	@Before
+	public void setUp() throws Exception {
+		this.repository = new SailRepository(new MemoryStore());
+		this.repository.initialize();
+		this.vf = this.repository.getValueFactory();
+		this.graph = this.vf.createURI(NS + "g");
+		this.directory = File.createTempFile("delta", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.repository.shutDown();
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testUnchanged() throws Exception {
+		this.load(BASE, "2014-01-01T00:00:00Z");
+		final GraphChangeSet changes = this.load(BASE, "2014-02-01T00:00:00Z");
+
+		assertTrue(changes.isEmpty());
+		assertTrue(changes.isComplete());
+		assertTrue(changes.getResources().isEmpty());
+		// 3 triplets, date d'import et empreinte.
+		assertEquals(5L, this.size());
+		assertEquals("2014-02-01T00:00:00Z", this.getDateSubmitted());
+	}
+
+	@Test
+	public void testAddedAndRemoved() throws Exception {
+		this.load(BASE, "2014-01-01T00:00:00Z");
+		final GraphChangeSet changes = this.load("<" + NS + "c1> " + LABEL
+				+ " \"Un\" .\n" + "<" + NS + "c2> " + LABEL + " \"Deux bis\" .\n"
+				+ "<" + NS + "c3> " + LABEL + " \"Trois\" .\n",
+				"2014-02-01T00:00:00Z");
+
+		assertEquals(2L, changes.getAdded());
+		assertEquals(2L, changes.getRemoved());
+		assertTrue(changes.isComplete());
+		// c1 : objet du lien supprimé depuis c2.
+		assertEquals(3, changes.getResources().size());
+		assertTrue(changes.getResources().contains(NS + "c1"));
+		assertTrue(changes.getResources().contains(NS + "c2"));
+		assertTrue(changes.getResources().contains(NS + "c3"));
+		assertEquals(5L, this.size());
+		assertTrue(this.contains(NS + "c2", "Deux bis"));
+		assertFalse(this.contains(NS + "c2", "Deux"));
+	}
+
+	@Test
+	public void testTooManyChanges() throws Exception {
+		final String data = "<" + NS + "c1> " + LABEL + " \"Un\" .\n" + "<"
+				+ NS + "c2> " + LABEL + " \"Deux bis\" .\n" + "<" + NS + "c3> "
+				+ LABEL + " \"Trois\" .\n";
+		this.load(BASE, "2014-01-01T00:00:00Z");
+		this.maxChanges = 3;
+
+		// 4 triplets modifiés : différence abandonnée, graphe inchangé.
+		assertNull(this.load(data, "2014-02-01T00:00:00Z"));
+		assertTrue(this.contains(NS + "c2", "Deux"));
+		assertFalse(this.contains(NS + "c3", "Trois"));
+		assertEquals("2014-01-01T00:00:00Z", this.getDateSubmitted());
+
+		this.maxChanges = 4;
+		assertEquals(2L, this.load(data, "2014-02-01T00:00:00Z").getAdded());
+		assertTrue(this.contains(NS + "c3", "Trois"));
+	}
+
+	@Test
+	public void testBNodes() throws Exception {
+		final String data = BASE + "<" + NS + "c1> " + NOTE + " _:n .\n"
+				+ "_:n " + LABEL + " \"Note\" .\n";
+		this.load(data, "2014-01-01T00:00:00Z");
+		final GraphChangeSet changes = this.load(data, "2014-02-01T00:00:00Z");
+
+		// Triplets portant sur des nœuds anonymes : toujours remplacés, sans
+		// duplication.
+		assertEquals(2L, changes.getAdded());
+		assertEquals(2L, changes.getRemoved());
+		assertFalse(changes.isComplete());
+		assertEquals(7L, this.size());
+	}
+
+	@Test
+	public void testDateSubmittedInSource() throws Exception {
+		final String data = BASE + "<" + NS + "g> <"
+				+ DublinCoreTerms.DATE_SUBMITTED + "> \"2000-01-01\" .\n";
+		this.load(data, "2014-01-01T00:00:00Z");
+		final GraphChangeSet changes = this.load(data, "2014-02-01T00:00:00Z");
+
+		// La date du fichier est ignorée au profit de la date d'import.
+		assertTrue(changes.isEmpty());
+		assertFalse(changes.getResources().contains(NS + "g"));
+		assertEquals(5L, this.size());
+		assertEquals("2014-02-01T00:00:00Z", this.getDateSubmitted());
+	}
+
+	private GraphChangeSet load(String data, String date) throws Exception {
+		final File f = File.createTempFile("data", ".nt", this.directory);
+		FileUtils.writeStringToFile(f, data, "UTF-8");
+		final RdfInput input = new RdfInput(f, RDFFormat.NTRIPLES);
+		try {
+			return new GraphDeltaLoader(this.repository, this.maxChanges)
+					.load(input, this.graph, this.vf.createLiteral(date),
+					new ImportProgress(this.graph.stringValue(), f.getName()));
+		} finally {
+			input.close();
+		}
+	}
+
+	private long size() throws Exception {
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			return cnx.size(this.graph);
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private boolean contains(String s, String label) throws Exception {
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			return cnx.hasStatement(this.vf.createURI(s), null,
+					this.vf.createLiteral(label), false, this.graph);
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private String getDateSubmitted() throws Exception {
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			final Literal date = (Literal) Iterations
+					.asList(cnx.getStatements(this.graph,
+							this.vf.createURI(DublinCoreTerms.DATE_SUBMITTED),
+							null, false, this.graph)).get(0).getObject();
+			assertEquals(1, Iterations.asList(cnx.getStatements(this.graph,
+					this.vf.createURI(DublinCoreTerms.DATE_SUBMITTED), null,
+					false, this.graph)).size());
+			return date.getLabel();
+		} finally {
+			cnx.close();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.Dataset;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+
+/**
+ * Tests du registre des versions des graphes nommés.
+ */
+public class GraphVersionRegistryTest {
+
+	private static final String NS = "http://data.example.org/";
+
+	private SailRepository repository;
+	private ValueFactory vf;
+	private URI graph;
+	private URI other;
+	private GraphVersionRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		this.repository = new SailRepository(new MemoryStore());
+		this.repository.initialize();
+		this.vf = this.repository.getValueFactory();
+		this.graph = this.vf.createURI(NS + "g");
+		this.other = this.vf.createURI(NS + "h");
+		this.add(this.other, true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this.registry != null) {
+			this.registry.shutdown();
+		}
+		this.repository.shutDown();
+	}
+
+	@Test
+	public void testNewVersionHidden() throws Exception {
+		this.registry = new GraphVersionRegistry(this.repository);
+		assertNull(this.registry.getDataset());
+
+		final URI v1 = this.registry.newVersion(this.graph);
+		assertEquals(NS + "g#v1", v1.stringValue());
+		this.add(v1, true);
+		assertTrue(this.registry.isHidden(v1));
+		final Dataset ds = this.registry.getDataset();
+		assertNotNull(ds);
+		assertTrue(ds.getDefaultGraphs().contains(this.other));
+		assertFalse(ds.getDefaultGraphs().contains(v1));
+		assertEquals(this.graph, this.registry.resolve(this.graph));
+
+		this.registry.publish(this.graph, v1);
+		assertFalse(this.registry.isHidden(v1));
+		assertEquals(v1, this.registry.resolve(this.graph));
+		assertNull(this.registry.getDataset());
+	}
+
+	@Test
+	public void testPublishCollectsPreviousVersion() throws Exception {
+		this.registry = new GraphVersionRegistry(this.repository);
+		final URI v1 = this.registry.newVersion(this.graph);
+		this.add(v1, true);
+		this.registry.publish(this.graph, v1);
+		final URI v2 = this.registry.newVersion(this.graph);
+		this.add(v2, true);
+		this.registry.publish(this.graph, v2);
+
+		assertEquals(v2, this.registry.resolve(this.graph));
+		this.awaitCollected(v1);
+		assertFalse(this.registry.isHidden(v1));
+		assertNull(this.registry.getDataset());
+	}
+
+	@Test
+	public void testInitializeFromStore() throws Exception {
+		// v1 complète, v2 interrompue avant l'enregistrement de la date.
+		final URI v1 = this.vf.createURI(NS + "g#v1");
+		final URI v2 = this.vf.createURI(NS + "g#v2");
+		this.add(v1, true);
+		this.add(v2, false);
+		this.registry = new GraphVersionRegistry(this.repository);
+
+		assertEquals(v1, this.registry.resolve(this.graph));
+		this.awaitCollected(v2);
+		assertEquals(NS + "g#v3", this.registry.newVersion(this.graph)
+				.stringValue());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		this.registry = new GraphVersionRegistry(this.repository);
+		final URI v1 = this.registry.newVersion(this.graph);
+		this.add(v1, true);
+		this.registry.publish(this.graph, v1);
+		final URI v2 = this.registry.newVersion(this.graph);
+
+		final Collection<URI> contexts = this.registry.getVersions(this.graph);
+		assertEquals(2, contexts.size());
+		assertTrue(contexts.contains(v1));
+		assertTrue(contexts.contains(v2));
+		// Graphe conservé tant que la suppression n'est pas validée.
+		assertEquals(v1, this.registry.resolve(this.graph));
+
+		this.registry.remove(this.graph, contexts);
+		assertEquals(this.graph, this.registry.resolve(this.graph));
+		assertFalse(this.registry.isHidden(v2));
+	}
+
+	private void add(URI ctx, boolean complete) throws Exception {
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			cnx.add(this.vf.createURI(NS + "c"),
+					this.vf.createURI(NS + "label"),
+					this.vf.createLiteral(ctx.stringValue()), ctx);
+			if (complete) {
+				cnx.add(this.graph,
+						this.vf.createURI(DublinCoreTerms.DATE_SUBMITTED),
+						this.vf.createLiteral("2014-01-01T00:00:00Z"), ctx);
+			}
+		} finally {
+			cnx.close();
+		}
+	}
+
+	/**
+	 * Attend la suppression en tâche de fond d'une version.
+	 */
+	private void awaitCollected(URI ctx) throws Exception {
+		for (int i = 0; i < 100; i++) {
+			final RepositoryConnection cnx = this.repository.getConnection();
+			try {
+				if ((cnx.size(ctx) == 0L) && (!this.registry.isHidden(ctx))) {
+					return;
+				}
+			} finally {
+				cnx.close();
+			}
+			Thread.sleep(50L);
+		}
+		fail("Version non supprimée : " + ctx);
+	}
+}
@@ -0,0 +1,166 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.openrdf.model.URI;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.http.HTTPRepository;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+
+/**
+ * Mesure du temps d'import d'un fichier RDF/XML synthétique : chargement
+ * synchrone actuel (<code>RepositoryConnection.add(File, ...)</code>) comparé
+ * à la chaîne analyse/écriture parallèle ({@link StatementPipeline}), en une
+ * seule transaction puis par lots.
+ * <p>
+ * Usage : <code>ImportPipelineBenchmark [nbConcepts [urlServeur idDépôt]]</code>.
+ * Sans serveur Sesame, un dépôt en mémoire est utilisé.
+ * </p>
+ */
+public class ImportPipelineBenchmark {
+
+	private static final int RUNS = 3;
+
+	public static void main(String[] args) throws Exception {
+		final int concepts = (args.length > 0) ? Integer.parseInt(args[0])
+				: 50000;
+		final Repository repository = (args.length > 2) ? new HTTPRepository(
+				args[1], args[2]) : new SailRepository(new MemoryStore());
+		repository.initialize();
+		final File file = File.createTempFile("benchmark-", ".rdf");
+		file.deleteOnExit();
+		writeVocabulary(file, concepts);
+		final URI ctx = repository.getValueFactory().createURI(
+				"http://benchmark.example.org/scheme");
+		System.out.println("Fichier : " + file.length() / 1024 + " Ko, "
+				+ concepts + " concepts, "
+				+ Runtime.getRuntime().availableProcessors() + " cœurs");
+
+		for (int run = 0; run < RUNS; run++) {
+			long t = System.currentTimeMillis();
+			RepositoryConnection cnx = repository.getConnection();
+			try {
+				cnx.begin();
+				cnx.clear(ctx);
+				cnx.add(file, null, RDFFormat.RDFXML, ctx);
+				cnx.commit();
+			} finally {
+				cnx.close();
+			}
+			report("load actuel (1 transaction)", t);
+
+			t = System.currentTimeMillis();
+			cnx = repository.getConnection();
+			try {
+				cnx.begin();
+				cnx.clear(ctx);
+				new StatementPipeline(repository.getValueFactory(),
+						StatementPipeline.DEFAULT_BATCH_SIZE, 4).load(cnx,
+						new RdfInput(file, RDFFormat.RDFXML), ctx, null);
+				cnx.commit();
+			} finally {
+				cnx.close();
+			}
+			report("pipeline (1 transaction)", t);
+
+			for (int writers : new int[] { 0, 1, 2, 4 }) {
+				clear(repository, ctx);
+				t = System.currentTimeMillis();
+				new ChunkedGraphLoader(repository, 10000, writers, null)
+						.loadVersion(new RdfInput(file, RDFFormat.RDFXML), ctx, ctx,
+								repository.getValueFactory().createLiteral(
+										"benchmark"), new ImportProgress(
+										ctx.stringValue(), file.getName()));
+				report("lots de 10000, " + writers + " écrivain(s)", t);
+			}
+		}
+		clear(repository, ctx);
+		repository.shutDown();
+	}
+
+	private static void clear(Repository repository, URI ctx)
+			throws Exception {
+		final RepositoryConnection cnx = repository.getConnection();
+		try {
+			cnx.clear(ctx);
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private static void report(String label, long start) {
+		System.out.println(String.format("%-32s %6d ms", label,
+				System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Génère un schéma SKOS de concepts libellés en deux langues.
+	 */
+	private static void writeVocabulary(File file, int concepts)
+			throws Exception {
+		final String ns = "http://benchmark.example.org/";
+		final Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+					+ " xmlns:skos=\"http://www.w3.org/2004/02/skos/core#\">\n");
+			out.write("<skos:ConceptScheme rdf:about=\"" + ns + "scheme\"/>\n");
+			for (int i = 0; i < concepts; i++) {
+				out.write("<skos:Concept rdf:about=\"" + ns + "c" + i + "\">"
+						+ "<skos:inScheme rdf:resource=\"" + ns + "scheme\"/>"
+						+ "<skos:prefLabel xml:lang=\"fr\">Concept " + i
+						+ "</skos:prefLabel>"
+						+ "<skos:prefLabel xml:lang=\"en\">Concept " + i
+						+ " (en)</skos:prefLabel>"
+						+ "<skos:definition xml:lang=\"fr\">Définition du concept "
+						+ i + "</skos:definition>");
+				if (i > 0) {
+					out.write("<skos:broader rdf:resource=\"" + ns + "c"
+							+ (i / 10) + "\"/>");
+				}
+				out.write("</skos:Concept>\n");
+			}
+			out.write("</rdf:RDF>\n");
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.vocabulary.DublinCoreTerms;
+
+/**
+ * Tests de la synchronisation de la réplique locale du triplestore.
+ */
+public class RepositoryReplicaTest {
+
+	private static final String NS = "http://data.example.org/";
+
+	private SailRepository primary;
+	private SailRepository local;
+	private RepositoryReplica replica;
+
+	@Before
+	public void setUp() throws Exception {
+		this.primary = new SailRepository(new MemoryStore());
+		this.primary.initialize();
+		this.add(1, "Un", "2014-01-01T00:00:00Z");
+		this.add(2, "Deux", "2014-01-01T00:00:00Z");
+		this.local = new SailRepository(new MemoryStore());
+		this.local.initialize();
+		this.replica = new RepositoryReplica(this.primary, this.local);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.replica.shutdown();
+		this.primary.shutDown();
+	}
+
+	@Test
+	public void testSynchronize() throws Exception {
+		assertFalse(this.replica.isCurrent());
+		this.replica.synchronize();
+
+		assertTrue(this.replica.isCurrent());
+		assertEquals(2, this.replica.getLastCopiedContexts());
+		assertEquals(4L, this.replica.getLastCopiedStatements());
+		assertEquals(2, this.replica.getContextCount());
+		assertEquals(4L, this.replica.getStatementCount());
+		assertEquals(2L, this.size(this.local, 1));
+	}
+
+	@Test
+	public void testSynchronizeChangedGraphsOnly() throws Exception {
+		this.replica.synchronize();
+		this.replica.synchronize();
+		assertEquals(0, this.replica.getLastCopiedContexts());
+
+		// Réimport du graphe 1, suppression du graphe 2.
+		this.clear(1);
+		this.add(1, "Uno", "2014-02-01T00:00:00Z");
+		this.clear(2);
+		this.replica.synchronize();
+
+		assertEquals(1, this.replica.getLastCopiedContexts());
+		assertEquals(1, this.replica.getContextCount());
+		assertEquals(0L, this.size(this.local, 2));
+		final RepositoryConnection cnx = this.local.getConnection();
+		try {
+			final ValueFactory vf = cnx.getValueFactory();
+			assertTrue(cnx.hasStatement(null, null,
+					vf.createLiteral("Uno", "fr"), false));
+		} finally {
+			cnx.close();
+		}
+	}
+
+	@Test
+	public void testSynchronizeFiltered() throws Exception {
+		final Resource excluded = this.primary.getValueFactory().createURI(
+				NS + "g/2");
+		this.replica.synchronize(new RepositoryReplica.ContextFilter() {
+			public boolean accept(Resource ctx) {
+				return !ctx.equals(excluded);
+			}
+		});
+
+		assertEquals(1, this.replica.getContextCount());
+		assertEquals(0L, this.size(this.local, 2));
+	}
+
+	@Test
+	public void testPersistentReplica() throws Exception {
+		final File dir = File.createTempFile("replica", "");
+		dir.delete();
+		try {
+			RepositoryReplica persistent = this.open(dir);
+			persistent.synchronize();
+			assertEquals(2, persistent.getLastCopiedContexts());
+			persistent.shutdown();
+
+			// Redémarrage : rien à recopier.
+			persistent = this.open(dir);
+			assertEquals(4L, persistent.getStatementCount());
+			persistent.synchronize();
+			assertEquals(0, persistent.getLastCopiedContexts());
+			persistent.shutdown();
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	private RepositoryReplica open(File dir) throws Exception {
+		final MemoryStore store = new MemoryStore(dir);
+		store.setPersist(true);
+		final SailRepository repository = new SailRepository(store);
+		repository.initialize();
+		return new RepositoryReplica(this.primary, repository);
+	}
+
+	private void add(int n, String label, String date) throws Exception {
+		final RepositoryConnection cnx = this.primary.getConnection();
+		try {
+			final ValueFactory vf = cnx.getValueFactory();
+			final Resource graph = vf.createURI(NS + "g/" + n);
+			cnx.add(vf.createURI(NS + "c/" + n), vf.createURI(NS + "label"),
+					vf.createLiteral(label, "fr"), graph);
+			cnx.add(graph, vf.createURI(DublinCoreTerms.DATE_SUBMITTED),
+					vf.createLiteral(date), graph);
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private void clear(int n) throws Exception {
+		final RepositoryConnection cnx = this.primary.getConnection();
+		try {
+			cnx.clear(cnx.getValueFactory().createURI(NS + "g/" + n));
+		} finally {
+			cnx.close();
+		}
+	}
+
+	private long size(Repository repository, int n) throws Exception {
+		final RepositoryConnection cnx = repository.getConnection();
+		try {
+			return cnx.size(cnx.getValueFactory().createURI(NS + "g/" + n));
+		} finally {
+			cnx.close();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.repository.base.RepositoryWrapper;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.service.ImportProgress;
+import fr.gouv.culture.thesaurus.service.ThesaurusServiceConfiguration;
+
+/**
+ * Tests de l'abandon, avant toute écriture, de l'import d'un fichier
+ * identique au contenu déjà chargé.
+ */
+public class SesameThesaurusSkipUnchangedTest {
+
+	private static final String GRAPH = "http://data.example.org/g";
+	private static final String DATA = "<http://data.example.org/c1>"
+			+ " <http://www.w3.org/2004/02/skos/core#prefLabel> \"Un\" .\n"
+			+ "<http://data.example.org/c2>"
+			+ " <http://www.w3.org/2004/02/skos/core#prefLabel> \"Deux\" .\n";
+
+	private SailRepository store;
+	private File directory;
+	private SesameThesaurus thesaurus;
+
+	/** Transactions d'écriture ouvertes. */
+	private final AtomicInteger transactions = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception {
+		this.store = new SailRepository(new MemoryStore());
+		this.store.initialize();
+		this.directory = File.createTempFile("skip", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this.thesaurus != null) {
+			this.thesaurus.shutdown();
+		}
+		this.store.shutDown();
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testSkippedInTransaction() throws Exception {
+		this.assertSkipped(new ThesaurusServiceConfiguration());
+	}
+
+	@Test
+	public void testSkippedInBatches() throws Exception {
+		final ThesaurusServiceConfiguration configuration = new ThesaurusServiceConfiguration();
+		configuration.setImportBatchSize(1);
+		this.assertSkipped(configuration);
+	}
+
+	@Test
+	public void testSkippedDelta() throws Exception {
+		final ThesaurusServiceConfiguration configuration = new ThesaurusServiceConfiguration();
+		configuration.setImportDelta(true);
+		this.assertSkipped(configuration);
+	}
+
+	@Test
+	public void testSkippedVersioned() throws Exception {
+		final ThesaurusServiceConfiguration configuration = new ThesaurusServiceConfiguration();
+		configuration.setImportVersioned(true);
+		this.assertSkipped(configuration);
+	}
+
+	private void assertSkipped(ThesaurusServiceConfiguration configuration)
+			throws Exception {
+		configuration.setImportSkipUnchanged(true);
+		this.thesaurus = new SesameThesaurus(configuration,
+				new CountingRepository(this.store));
+		assertEquals(ImportProgress.Status.DONE,
+				this.thesaurus.load(this.write(), GRAPH).getStatus());
+		assertTrue(this.transactions.get() > 0);
+		final long size = this.size();
+
+		this.transactions.set(0);
+		assertEquals(ImportProgress.Status.SKIPPED,
+				this.thesaurus.load(this.write(), GRAPH).getStatus());
+		assertEquals(0, this.transactions.get());
+		assertEquals(size, this.size());
+	}
+
+	private File write() throws Exception {
+		final File f = File.createTempFile("data", ".nt", this.directory);
+		FileUtils.writeStringToFile(f, DATA, "UTF-8");
+		return f;
+	}
+
+	private long size() throws Exception {
+		final RepositoryConnection cnx = this.store.getConnection();
+		try {
+			return cnx.size();
+		} finally {
+			cnx.close();
+		}
+	}
+
+	/**
+	 * Dépôt comptant les transactions d'écriture.
+	 */
+	private final class CountingRepository extends RepositoryWrapper {
+		public CountingRepository(Repository delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public RepositoryConnection getConnection() throws RepositoryException {
+			return new RepositoryConnectionWrapper(this, super.getConnection()) {
+				@Override
+				public void begin() throws RepositoryException {
+					transactions.incrementAndGet();
+					super.begin();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.FileWriterWithEncoding;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.repository.base.RepositoryWrapper;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.service.ThesaurusServiceConfiguration;
+import fr.gouv.culture.thesaurus.service.rdf.ConceptScheme;
+
+/**
+ * Tests de la visibilité du graphe de travail des imports par lots.
+ */
+public class SesameThesaurusStagingTest {
+
+	private static final String GRAPH = "http://data.example.org/g";
+	private static final String SCHEME = "http://data.example.org/scheme";
+
+	private SailRepository store;
+	private File directory;
+	private SesameThesaurus thesaurus;
+
+	/** Lectures effectuées après l'enregistrement du premier lot. */
+	private Runnable onFirstBatch;
+	private final List<Object> observed = new ArrayList<Object>();
+
+	@Before
+	public void setUp() throws Exception {
+		this.store = new SailRepository(new MemoryStore());
+		this.store.initialize();
+		this.directory = File.createTempFile("staging", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+
+		final ThesaurusServiceConfiguration configuration = new ThesaurusServiceConfiguration();
+		configuration.setImportBatchSize(5);
+		this.thesaurus = new SesameThesaurus(configuration,
+				new ObservedRepository(this.store));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.store.shutDown();
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testFirstLoadHidden() throws Exception {
+		this.onFirstBatch = new ListSchemes();
+		this.thesaurus.load(this.write("Ancien"), GRAPH);
+
+		// Lot partiel non visible ; vocabulaire complet visible ensuite.
+		assertEquals(1, this.observed.size());
+		assertEquals(0, ((Collection<?>) this.observed.get(0)).size());
+		assertEquals("Ancien", this.getTitle());
+	}
+
+	@Test
+	public void testReloadHidden() throws Exception {
+		this.thesaurus.load(this.write("Ancien"), GRAPH);
+
+		this.onFirstBatch = new ListSchemes();
+		this.thesaurus.load(this.write("Nouveau"), GRAPH);
+
+		// Pendant l'import : seule la version précédente est lue.
+		assertEquals(1, this.observed.size());
+		final Collection<?> schemes = (Collection<?>) this.observed.get(0);
+		assertEquals(1, schemes.size());
+		assertEquals("Ancien", ((ConceptScheme) schemes.iterator().next())
+				.getLabel(Locale.FRENCH).getValue());
+		assertEquals("Nouveau", this.getTitle());
+	}
+
+	private String getTitle() throws Exception {
+		final Collection<ConceptScheme> schemes = this.thesaurus
+				.listConceptSchemes();
+		assertEquals(1, schemes.size());
+		return schemes.iterator().next().getLabel(Locale.FRENCH).getValue();
+	}
+
+	/**
+	 * Écrit un vocabulaire de 20 concepts, le titre du concept scheme étant
+	 * écrit en premier.
+	 */
+	private File write(String title) throws IOException {
+		final File f = File.createTempFile("scheme", ".rdf", this.directory);
+		final Writer w = new FileWriterWithEncoding(f, "UTF-8");
+		try {
+			w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n"
+					+ " xmlns:skos=\"http://www.w3.org/2004/02/skos/core#\"\n"
+					+ " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n"
+					+ "<skos:ConceptScheme rdf:about=\"" + SCHEME + "\">\n"
+					+ " <dc:title xml:lang=\"fr\">" + title + "</dc:title>\n"
+					+ "</skos:ConceptScheme>\n");
+			for (int i = 0; i < 20; i++) {
+				w.write("<skos:Concept rdf:about=\"" + SCHEME + "/c" + i
+						+ "\">\n" + " <skos:prefLabel xml:lang=\"fr\">"
+						+ title + ' ' + i + "</skos:prefLabel>\n"
+						+ " <skos:inScheme rdf:resource=\"" + SCHEME
+						+ "\"/>\n" + "</skos:Concept>\n");
+			}
+			w.write("</rdf:RDF>\n");
+		} finally {
+			w.close();
+		}
+		return f;
+	}
+
+	private final class ListSchemes implements Runnable {
+		public void run() {
+			try {
+				observed.add(thesaurus.listConceptSchemes());
+			} catch (Exception e) {
+				observed.add(e);
+			}
+		}
+	}
+
+	/**
+	 * Dépôt déclenchant {@link #onFirstBatch} après la première validation
+	 * d'une transaction, c'est-à-dire au milieu d'un import par lots.
+	 */
+	private final class ObservedRepository extends RepositoryWrapper {
+		public ObservedRepository(Repository delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public RepositoryConnection getConnection() throws RepositoryException {
+			return new RepositoryConnectionWrapper(this, super.getConnection()) {
+				@Override
+				public void commit() throws RepositoryException {
+					super.commit();
+					final Runnable r = onFirstBatch;
+					if (r != null) {
+						onFirstBatch = null;
+						r.run();
+					}
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests de l'esquisse de fréquence d'accès.
+ */
+public class AccessFrequencySketchTest {
+
+	@Test
+	public void testTopOrdersByFrequency() {
+		AccessFrequencySketch sketch = new AccessFrequencySketch(10);
+		for (int i = 0; i < 5; i++) {
+			sketch.record("a");
+		}
+		for (int i = 0; i < 3; i++) {
+			sketch.record("b");
+		}
+		sketch.record("c");
+		assertEquals(Arrays.asList("a", "b"), sketch.top(2));
+		assertEquals(3, sketch.top(10).size());
+	}
+
+	@Test
+	public void testHotKeysSurviveLongTail() {
+		AccessFrequencySketch sketch = new AccessFrequencySketch(8);
+		for (int i = 0; i < 1000; i++) {
+			sketch.record("hot" + (i % 2));
+			sketch.record("rare" + i);
+		}
+		assertEquals(8, sketch.size());
+		assertTrue(sketch.top(2).containsAll(Arrays.asList("hot0", "hot1")));
+	}
+
+	@Test
+	public void testDecayForgetsOldKeys() {
+		AccessFrequencySketch sketch = new AccessFrequencySketch(2);
+		sketch.record("old");
+		// 32 accès (période de décroissance) : "old" tombe à 0.
+		for (int i = 0; i < 31; i++) {
+			sketch.record("new");
+		}
+		assertEquals(Arrays.asList("new"), sketch.top(2));
+	}
+
+	@Test
+	public void testRemove() {
+		AccessFrequencySketch sketch = new AccessFrequencySketch(4);
+		sketch.record("a");
+		sketch.remove("a");
+		assertTrue(sketch.top(1).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCapacity() {
+		new AccessFrequencySketch(0);
+	}
+}
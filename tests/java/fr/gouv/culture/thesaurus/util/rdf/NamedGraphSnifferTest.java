@@ -0,0 +1,171 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.openrdf.rio.RDFFormat;
+
+import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
+
+/**
+ * Tests de la détection du graphe nommé par lecture du début des fichiers.
+ */
+public class NamedGraphSnifferTest {
+
+	private static final String RDF_HEADER = "<?xml version=\"1.0\"?>"
+			+ "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+			+ " xmlns:skos=\"http://www.w3.org/2004/02/skos/core#\">";
+
+	private static InputStream stream(String data) throws IOException {
+		return new BufferedInputStream(new ByteArrayInputStream(
+				data.getBytes("UTF-8")));
+	}
+
+	private static StringBuilder concepts(int count) {
+		final StringBuilder data = new StringBuilder(RDF_HEADER);
+		for (int i = 0; i < count; i++) {
+			data.append("<skos:Concept rdf:about=\"http://example.org/c")
+					.append(i).append("\"/>");
+		}
+		return data;
+	}
+
+	@Test
+	public void testRdfXmlConceptScheme() throws Exception {
+		final String data = RDF_HEADER
+				+ "<skos:ConceptScheme rdf:about=\"http://example.org/s\"/>"
+				+ "</rdf:RDF>";
+		final InputStream in = stream(data);
+		assertEquals("http://example.org/s",
+				new NamedGraphSniffer(1024).sniff(in, RDFFormat.RDFXML));
+		// Flux repositionné au début pour l'import.
+		assertEquals(data, IOUtils.toString(in, "UTF-8"));
+	}
+
+	@Test
+	public void testRdfXmlRameauDescription() throws Exception {
+		final String data = RDF_HEADER
+				+ "<rdf:Description rdf:about=\"http://data.bnf.fr/rameau/ark:/12148/cb1\"/>"
+				+ "</rdf:RDF>";
+		assertEquals("http://data.bnf.fr/rameau/", new NamedGraphSniffer(
+				1024).sniff(stream(data), RDFFormat.RDFXML));
+	}
+
+	@Test
+	public void testBudgetExceeded() throws Exception {
+		final StringBuilder data = new StringBuilder(RDF_HEADER);
+		for (int i = 0; i < 100; i++) {
+			data.append("<skos:Concept rdf:about=\"http://example.org/c")
+					.append(i).append("\"/>");
+		}
+		data.append("<skos:ConceptScheme rdf:about=\"http://example.org/s\"/>")
+				.append("</rdf:RDF>");
+		final InputStream in = stream(data.toString());
+		assertNull(new NamedGraphSniffer(512).sniff(in, RDFFormat.RDFXML));
+		assertEquals(data.toString(), IOUtils.toString(in, "UTF-8"));
+		assertEquals("http://example.org/s", new NamedGraphSniffer(
+				data.length()).sniff(stream(data.toString()),
+				RDFFormat.RDFXML));
+	}
+
+	@Test
+	public void testSchemeAfterBudget() throws Exception {
+		final String data = concepts(100)
+				.append("<skos:ConceptScheme rdf:about=\"http://example.org/s\"/>")
+				.append("</rdf:RDF>").toString();
+		final NamedGraphSniffer sniffer = new NamedGraphSniffer(512);
+		final InputStream in = stream(data);
+		assertNull(sniffer.sniff(in, RDFFormat.RDFXML));
+		// Repli sur un parcours complet, depuis le début du flux.
+		assertEquals("http://example.org/s",
+				sniffer.scan(in, RDFFormat.RDFXML));
+
+		final File f = File.createTempFile("sniff", ".rdf");
+		try {
+			FileUtils.writeStringToFile(f, data, "UTF-8");
+			assertEquals("http://example.org/s",
+					RdfXmlUtils.extractNamedGraphUri(f, 512));
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testScanWithoutScheme() throws Exception {
+		final StringBuilder data = concepts(100);
+		data.append("</rdf:RDF>");
+		assertNull(new NamedGraphSniffer(512).scan(stream(data.toString()),
+				RDFFormat.RDFXML));
+	}
+
+	@Test(expected = InvalidParameterException.class)
+	public void testScanMalformedAfterBudget() throws Exception {
+		final StringBuilder data = concepts(100);
+		data.append("<skos:Concept</rdf:RDF>");
+		final NamedGraphSniffer sniffer = new NamedGraphSniffer(512);
+		final InputStream in = stream(data.toString());
+		// Erreur de syntaxe au-delà du budget : signalée par le parcours
+		// complet seulement.
+		assertNull(sniffer.sniff(in, RDFFormat.RDFXML));
+		sniffer.scan(in, RDFFormat.RDFXML);
+	}
+
+	@Test(expected = InvalidParameterException.class)
+	public void testMalformedXml() throws Exception {
+		new NamedGraphSniffer(1024).sniff(stream(RDF_HEADER + "<skos:Concept"
+				+ "</rdf:RDF>"), RDFFormat.RDFXML);
+	}
+
+	@Test
+	public void testNTriples() throws Exception {
+		final String data = "<http://example.org/c> <http://www.w3.org/2004/02/skos/core#inScheme> <http://example.org/s> .\n"
+				+ "<http://example.org/s> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://www.w3.org/2004/02/skos/core#ConceptScheme> .\n";
+		assertEquals("http://example.org/s", new NamedGraphSniffer(1024)
+				.sniff(stream(data), RDFFormat.NTRIPLES));
+	}
+
+	@Test
+	public void testTurtle() throws Exception {
+		final String data = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n"
+				+ "<http://example.org/s> a skos:ConceptScheme ;\n"
+				+ "  skos:prefLabel \"Schéma\"@fr .\n";
+		assertEquals("http://example.org/s", new NamedGraphSniffer(1024)
+				.sniff(stream(data), RDFFormat.TURTLE));
+	}
+}
@@ -0,0 +1,132 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.openrdf.rio.RDFFormat;
+
+/**
+ * Tests de la détection du format et de la décompression des fichiers
+ * importés.
+ */
+public class RdfFilesTest {
+
+	private static final String NTRIPLES = "<http://example.org/s> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://www.w3.org/2004/02/skos/core#ConceptScheme> .\n";
+
+	private File file;
+
+	@After
+	public void deleteFile() {
+		if (this.file != null) {
+			this.file.delete();
+		}
+	}
+
+	private File write(String suffix, String data, String zipEntry)
+			throws Exception {
+		this.file = File.createTempFile("rdf-files-", suffix);
+		OutputStream out = new FileOutputStream(this.file);
+		if (suffix.endsWith(".gz")) {
+			out = new GZIPOutputStream(out);
+		} else if (zipEntry != null) {
+			final ZipOutputStream zip = new ZipOutputStream(out);
+			zip.putNextEntry(new ZipEntry("README"));
+			zip.write("Not RDF".getBytes("UTF-8"));
+			zip.putNextEntry(new ZipEntry(zipEntry));
+			out = zip;
+		}
+		try {
+			out.write(data.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return this.file;
+	}
+
+	private static String read(File f) throws Exception {
+		final InputStream in = RdfFiles.open(f);
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testIsSupported() {
+		assertTrue(RdfFiles.isSupported("thesaurus.rdf"));
+		assertTrue(RdfFiles.isSupported("thesaurus.TTL"));
+		assertTrue(RdfFiles.isSupported("thesaurus.nt.gz"));
+		assertTrue(RdfFiles.isSupported("thesaurus.nq"));
+		assertTrue(RdfFiles.isSupported("thesaurus.zip"));
+		assertFalse(RdfFiles.isSupported("lock.txt"));
+		assertFalse(RdfFiles.isSupported("thesaurus.gz"));
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		final File f = this.write(".nt.gz", NTRIPLES, null);
+		assertEquals(RDFFormat.NTRIPLES, RdfFiles.getFormat(f));
+		assertEquals(NTRIPLES, read(f));
+	}
+
+	@Test
+	public void testZipUsesFirstRdfEntry() throws Exception {
+		final File f = this.write(".zip", NTRIPLES, "data/thesaurus.nt");
+		assertEquals(RDFFormat.NTRIPLES, RdfFiles.getFormat(f));
+		assertEquals(NTRIPLES, read(f));
+	}
+
+	@Test
+	public void testGuessFromContents() throws Exception {
+		assertEquals(RDFFormat.RDFXML, RdfFiles.getFormat(this.write(".tmp",
+				"\n<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>",
+				null)));
+		assertEquals(RDFFormat.NQUADS, RdfFiles.getFormat(this.write(".tmp",
+				"# quads\n" + NTRIPLES.replace(" .", " <http://example.org/g> ."),
+				null)));
+		assertEquals(RDFFormat.TURTLE, RdfFiles.getFormat(this.write(".tmp",
+				NTRIPLES, null)));
+		assertEquals(RDFFormat.TURTLE, RdfFiles.getFormat(this.write(".tmp",
+				"@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n",
+				null)));
+	}
+}
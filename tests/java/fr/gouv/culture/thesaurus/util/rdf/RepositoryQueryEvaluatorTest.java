@@ -0,0 +1,123 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.resultio.BooleanQueryResultFormat;
+import org.openrdf.query.resultio.QueryResultFormat;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fr.gouv.culture.thesaurus.util.rdf.SparqlQueryGuard.QueryType;
+import fr.gouv.culture.thesaurus.util.xml.UriRewriter;
+
+/**
+ * Tests de l'évaluation des requêtes SPARQL sur un dépôt embarqué.
+ */
+public class RepositoryQueryEvaluatorTest {
+
+	private static final String NS = "http://data.example.org/";
+
+	private final UriRewriter rewriter = new UriRewriter(NS,
+			"http://localhost:8080/thesaurus/");
+
+	private SailRepository repository;
+	private RepositoryQueryEvaluator evaluator;
+
+	@Before
+	public void setUp() throws Exception {
+		this.repository = new SailRepository(new MemoryStore());
+		this.repository.initialize();
+		final RepositoryConnection cnx = this.repository.getConnection();
+		try {
+			final ValueFactory vf = cnx.getValueFactory();
+			cnx.add(vf.createURI(NS + "c/1"), vf.createURI(NS + "label"),
+					vf.createLiteral("Un", "fr"), vf.createURI(NS + "g/1"));
+			cnx.add(vf.createURI(NS + "c/2"), vf.createURI(NS + "label"),
+					vf.createLiteral("Deux", "fr"), vf.createURI(NS + "g/2"));
+		} finally {
+			cnx.close();
+		}
+		this.evaluator = new RepositoryQueryEvaluator(this.repository, 10);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.repository.shutDown();
+	}
+
+	@Test
+	public void testTuples() throws Exception {
+		final String query = "SELECT ?s ?l WHERE { ?s <" + NS
+				+ "label> ?l } ORDER BY ?l";
+		String json = this.evaluate(query, QueryType.TUPLE,
+				TupleQueryResultFormat.JSON, this.rewriter);
+		assertTrue(json.startsWith("{\"head\":{\"vars\":[\"s\",\"l\"]}"));
+		assertTrue(json.contains("\"value\":\"http://localhost:8080/thesaurus/c/2\""));
+		assertTrue(json.indexOf("Deux") < json.indexOf("Un"));
+		final String xml = this.evaluate(query, QueryType.TUPLE, null, null);
+		assertTrue(xml.contains("<uri>" + NS + "c/1</uri>"));
+		// Jeu de données restreint à un graphe.
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.evaluator.evaluate(query, QueryType.TUPLE,
+				Arrays.asList(NS + "g/1"), null, TupleQueryResultFormat.CSV,
+				null, 0, out);
+		assertEquals("s,l\r\n" + NS + "c/1,Un\r\n", out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testBooleanAndGraph() throws Exception {
+		assertEquals("{\"head\":{},\"boolean\":true}\n", this.evaluate(
+				"ASK { ?s ?p \"Un\"@fr }", QueryType.BOOLEAN,
+				BooleanQueryResultFormat.JSON, null));
+		final String rdf = this.evaluate("CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }",
+				QueryType.GRAPH, null, this.rewriter);
+		assertTrue(rdf.contains("rdf:about=\"http://localhost:8080/thesaurus/c/1\""));
+		assertFalse(rdf.contains("rdf:about=\"" + NS));
+	}
+
+	private String evaluate(String query, QueryType type,
+			QueryResultFormat format,
+			UriRewriter rewriter) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.evaluator.evaluate(query, type, null, null, format, rewriter,
+				this.evaluator.getMaxQueryTime(), out);
+		return out.toString("UTF-8");
+	}
+}
@@ -0,0 +1,113 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import fr.gouv.culture.thesaurus.exception.InvalidParameterException;
+
+/**
+ * Tests des garde-fous des requêtes SPARQL libres.
+ */
+public class SparqlQueryGuardTest {
+
+	private final SparqlQueryGuard guard = new SparqlQueryGuard(100L, 1000L);
+
+	@Test
+	public void testLimitInjected() throws InvalidParameterException {
+		assertEquals("SELECT * WHERE { ?s ?p ?o } # LIMIT 5\nLIMIT 100",
+				this.guard.bound("SELECT * WHERE { ?s ?p ?o } # LIMIT 5").getQuery());
+		// Limite d'une sous-requête : sans effet sur la requête englobante.
+		assertEquals("SELECT * {\n\t{ SELECT ?s { ?s a ?t } LIMIT 10 }\n}\nLIMIT 100",
+				this.guard.bound("SELECT * {\n\t{ SELECT ?s { ?s a ?t } LIMIT 10 }\n}").getQuery());
+		// Clause VALUES finale.
+		assertEquals("SELECT ?s { ?s a ?t } LIMIT 100 VALUES ?t { <urn:a> }",
+				this.guard.bound("SELECT ?s { ?s a ?t } VALUES ?t { <urn:a> }").getQuery());
+		assertEquals("CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }\nLIMIT 100",
+				this.guard.bound("CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }").getQuery());
+	}
+
+	@Test
+	public void testLimitLowered() throws InvalidParameterException {
+		final String small = "SELECT * WHERE { ?s ?p \"LIMIT 5000\" } LIMIT 50";
+		assertSame(small, this.guard.bound(small).getQuery());
+		assertEquals("SELECT * WHERE {\n\t?s ?p \"LIMIT 5000\" }\n\tlimit 100 OFFSET 10",
+				this.guard.bound("SELECT * WHERE {\n\t?s ?p \"LIMIT 5000\" }\n\tlimit 5000 OFFSET 10").getQuery());
+		final String ask = "ASK { ?s ?p ?o }";
+		assertSame(ask, this.guard.bound(ask).getQuery());
+		assertEquals(SparqlQueryGuard.QueryType.BOOLEAN, this.guard.bound(ask).getType());
+		assertEquals(SparqlQueryGuard.QueryType.GRAPH,
+				this.guard.bound("DESCRIBE <urn:a>").getType());
+		assertEquals(SparqlQueryGuard.QueryType.TUPLE, this.guard.bound(small).getType());
+	}
+
+	@Test
+	public void testUnboundedQueriesRejected() throws InvalidParameterException {
+		this.assertRejected("SELECT * WHERE { ?s ?p ?o } ORDER BY ?o");
+		this.assertRejected("SELECT ?p (COUNT(?s) AS ?n) WHERE { ?s ?p ?o } GROUP BY ?p");
+		this.assertRejected("SELECT * WHERE { GRAPH ?g { ?s ?p ?o } } ORDER BY ?g");
+		this.assertRejected("SELECT * WHERE { ?s ?p ?o } LIMIT 10 OFFSET 5000");
+		this.assertRejected("INSERT DATA { <urn:a> <urn:b> <urn:c> }");
+		this.assertRejected("SELECT * WHERE { ?s ?p }");
+		// Motif restreint : accepté.
+		assertNotNull(this.guard.bound("SELECT * WHERE { ?s a ?t . ?s ?p ?o } ORDER BY ?o").getQuery());
+	}
+
+	@Test
+	public void testFullScansAllowed() throws InvalidParameterException {
+		// Requêtes asynchrones : agrégats complets acceptés, limite appliquée.
+		final SparqlQueryGuard jobs = new SparqlQueryGuard(100L, 0L, false);
+		assertEquals("SELECT ?p (COUNT(?s) AS ?n) WHERE { ?s ?p ?o } GROUP BY ?p\nLIMIT 100",
+				jobs.bound("SELECT ?p (COUNT(?s) AS ?n) WHERE { ?s ?p ?o } GROUP BY ?p").getQuery());
+		assertNotNull(jobs.bound("SELECT * WHERE { ?s ?p ?o } LIMIT 10 OFFSET 5000"));
+	}
+
+	@Test
+	public void testDataset() throws InvalidParameterException {
+		assertFalse(this.guard.bound("SELECT * WHERE { ?s ?p ?o } LIMIT 5")
+				.hasDataset());
+		assertTrue(this.guard.bound(
+				"SELECT * FROM <urn:g> WHERE { ?s ?p ?o } LIMIT 5")
+				.hasDataset());
+		assertTrue(this.guard.bound(
+				"ASK FROM NAMED <urn:g> { GRAPH ?g { ?s ?p ?o } }")
+				.hasDataset());
+	}
+
+	private void assertRejected(String query) {
+		try {
+			this.guard.bound(query);
+			fail(query);
+		} catch (InvalidParameterException e) {
+			// Attendu.
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.rdf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+import org.openrdf.query.resultio.BooleanQueryResultFormat;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+
+import fr.gouv.culture.thesaurus.util.xml.UriRewriter;
+
+/**
+ * Tests du transcodage des résultats SPARQL/XML.
+ */
+public class SparqlResultTranscoderTest {
+
+	private static final String TUPLES = "<?xml version='1.0' encoding='UTF-8'?>"
+			+ "<sparql xmlns='http://www.w3.org/2005/sparql-results#'>"
+			+ "<head><variable name='s'/><variable name='l'/></head>"
+			+ "<results><result>"
+			+ "<binding name='s'><uri>http://data.example.org/c/1</uri></binding>"
+			+ "<binding name='l'><literal xml:lang='fr'>Été \"chaud\"</literal></binding>"
+			+ "</result></results></sparql>";
+
+	private final UriRewriter rewriter = new UriRewriter(
+			"http://data.example.org/", "http://localhost:8080/thesaurus/");
+
+	@Test
+	public void testJson() throws IOException {
+		final String json = this.transcode(TupleQueryResultFormat.JSON,
+				this.rewriter);
+		assertTrue(json.startsWith("{\"head\":{\"vars\":[\"s\",\"l\"]}"));
+		assertTrue(json.contains("\"value\":\"http://localhost:8080/thesaurus/c/1\""));
+		assertTrue(json.contains("\"xml:lang\":\"fr\""));
+		assertTrue(json.contains("\"value\":\"Été \\\"chaud\\\"\""));
+	}
+
+	@Test
+	public void testCsvAndTsv() throws IOException {
+		final String csv = this.transcode(TupleQueryResultFormat.CSV, null);
+		assertTrue(csv.startsWith("s,l\r\n"));
+		assertTrue(csv.contains("http://data.example.org/c/1"));
+		final String tsv = this.transcode(TupleQueryResultFormat.TSV,
+				this.rewriter);
+		assertTrue(tsv.startsWith("?s\t?l\n"));
+		assertTrue(tsv.contains("<http://localhost:8080/thesaurus/c/1>"));
+	}
+
+	@Test
+	public void testBoolean() throws IOException {
+		final InputStream in = new ByteArrayInputStream(
+				("<?xml version='1.0'?><sparql xmlns='http://www.w3.org/2005/sparql-results#'>"
+						+ "<head/><boolean>true</boolean></sparql>").getBytes("UTF-8"));
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SparqlResultTranscoder.transcodeBoolean(in,
+				BooleanQueryResultFormat.JSON, out);
+		assertEquals("{\"head\":{},\"boolean\":true}\n", out.toString("UTF-8"));
+	}
+
+	private String transcode(TupleQueryResultFormat format,
+			UriRewriter rewriter) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SparqlResultTranscoder.transcodeTuples(new ByteArrayInputStream(
+				TUPLES.getBytes("UTF-8")), format, out, rewriter);
+		return out.toString("UTF-8");
+	}
+}
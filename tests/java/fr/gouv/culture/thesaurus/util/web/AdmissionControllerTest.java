@@ -0,0 +1,219 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+/**
+ * Tests du contrôle d'admission des requêtes SPARQL.
+ */
+public class AdmissionControllerTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+	@Test
+	public void testTokenBucket() {
+		// 60 requêtes par minute, rafale de 3.
+		final AdmissionController admission = new AdmissionController(4, 0,
+				0L, 60, 3, null, 0, null, null);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0L, admission.consumeToken("a", 0L));
+		}
+		final long wait = admission.consumeToken("a", 0L);
+		assertTrue(wait > 0L && wait <= SECOND);
+		// Autre client : seau distinct.
+		assertEquals(0L, admission.consumeToken("b", 0L));
+		// Un jeton regagné par seconde, dans la limite de la rafale.
+		assertEquals(0L, admission.consumeToken("a", SECOND));
+		assertTrue(admission.consumeToken("a", SECOND) > 0L);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0L, admission.consumeToken("a", 100L * SECOND));
+		}
+		assertTrue(admission.consumeToken("a", 100L * SECOND) > 0L);
+	}
+
+	@Test
+	public void testRateLimitRejection() throws Exception {
+		final AdmissionController admission = new AdmissionController(4, 0,
+				0L, 1, 1, null, 0, null, null);
+		admission.acquire("a").release();
+		try {
+			admission.acquire("a");
+			fail();
+		} catch (AdmissionController.RejectedException e) {
+			assertTrue(e.isRateLimited());
+			assertTrue(e.getRetryAfter() > 1 && e.getRetryAfter() <= 60);
+		}
+		assertEquals(1L, admission.getRateLimitedCount());
+	}
+
+	@Test
+	public void testChargeWithoutSlot() throws Exception {
+		final AdmissionController admission = new AdmissionController(1, 0,
+				0L, 1, 1, Arrays.asList("local"), 0, null, null);
+		final AdmissionController.Permit permit = admission.acquire("b");
+		// Requête asynchrone : jeton consommé, aucune place requise.
+		admission.charge("a");
+		assertEquals(1, admission.getActiveRequests());
+		try {
+			admission.charge("a");
+			fail();
+		} catch (AdmissionController.RejectedException e) {
+			assertTrue(e.isRateLimited());
+		}
+		// Le seau est partagé avec les requêtes interactives.
+		try {
+			admission.acquire("a");
+			fail();
+		} catch (AdmissionController.RejectedException e) {
+			assertTrue(e.isRateLimited());
+		}
+		admission.charge("local");
+		admission.charge("local");
+		permit.release();
+		assertEquals(2L, admission.getRateLimitedCount());
+	}
+
+	@Test
+	public void testSaturationAndPriorityLane() throws Exception {
+		final AdmissionController admission = new AdmissionController(1, 0,
+				10L, 0, 0, Arrays.asList("local"), 1, null, null);
+		final AdmissionController.Permit first = admission.acquire("a");
+		try {
+			admission.acquire("b");
+			fail();
+		} catch (AdmissionController.RejectedException e) {
+			assertFalse(e.isRateLimited());
+		}
+		// Place réservée au client prioritaire.
+		final AdmissionController.Permit priority = admission.acquire("local");
+		assertEquals(2, admission.getActiveRequests());
+		try {
+			admission.acquire("local");
+			fail();
+		} catch (AdmissionController.RejectedException e) {
+			assertFalse(e.isRateLimited());
+		}
+		first.release();
+		first.release();
+		priority.release();
+		assertEquals(0, admission.getActiveRequests());
+		admission.acquire("b").release();
+		assertEquals(2L, admission.getSaturatedCount());
+	}
+
+	@Test
+	public void testQueuedRequestAdmittedOnRelease() throws Exception {
+		final AdmissionController admission = new AdmissionController(1, 1,
+				5000L, 0, 0, null, 0, null, null);
+		final AdmissionController.Permit first = admission.acquire("a");
+		final Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50L);
+				} catch (InterruptedException e) { /* Ignore... */
+				}
+				first.release();
+			}
+		};
+		releaser.start();
+		admission.acquire("b").release();
+		releaser.join();
+		assertEquals(2L, admission.getAdmittedCount());
+		assertEquals(0, admission.getQueuedRequests());
+	}
+
+	@Test
+	public void testClientFromTrustedProxy() {
+		final AdmissionController admission = new AdmissionController(4, 0,
+				0L, 0, 0, Arrays.asList("127.0.0.1"), 0, "X-Forwarded-For",
+				Arrays.asList("10.0.0.1", "10.0.0.2"));
+		// Adresse ajoutée par le mandataire de confiance.
+		assertEquals("203.0.113.5", admission.getClient(request("10.0.0.1",
+				"203.0.113.5")));
+		// Chaîne de mandataires de confiance.
+		assertEquals("203.0.113.5", admission.getClient(request("10.0.0.1",
+				"203.0.113.5, 10.0.0.2")));
+		// Pas d'en-tête : adresse du mandataire.
+		assertEquals("10.0.0.1", admission.getClient(request("10.0.0.1", null)));
+	}
+
+	@Test
+	public void testSpoofedClientHeader() {
+		final AdmissionController admission = new AdmissionController(4, 0,
+				0L, 0, 0, Arrays.asList("127.0.0.1"), 0, "X-Forwarded-For",
+				Arrays.asList("10.0.0.1"));
+		// Adresse prioritaire fournie par le client, en tête de l'en-tête.
+		assertEquals("203.0.113.5", admission.getClient(request("10.0.0.1",
+				"127.0.0.1, 203.0.113.5")));
+		assertEquals("203.0.113.5", admission.getClient(request("10.0.0.1",
+				"127.0.0.1,, 203.0.113.5")));
+		// En-tête envoyé directement, sans mandataire : ignoré.
+		assertEquals("198.51.100.7", admission.getClient(request(
+				"198.51.100.7", "127.0.0.1")));
+		// Sans mandataire de confiance, l'en-tête n'est jamais retenu.
+		assertEquals("10.0.0.1", new AdmissionController(4, 0, 0L, 0, 0,
+				null, 0, "X-Forwarded-For", null).getClient(request(
+				"10.0.0.1", "127.0.0.1")));
+	}
+
+	/**
+	 * Crée une requête HTTP provenant d'une adresse, avec un en-tête
+	 * <tt>X-Forwarded-For</tt> éventuel.
+	 */
+	private static HttpServletRequest request(final String remoteAddr,
+			final String forwardedFor) {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				HttpServletRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if ("getRemoteAddr".equals(m.getName())) {
+							return remoteAddr;
+						} else if (("getHeader".equals(m.getName()))
+								&& ("X-Forwarded-For"
+										.equalsIgnoreCase((String) args[0]))) {
+							return forwardedFor;
+						}
+						return null;
+					}
+				});
+	}
+}
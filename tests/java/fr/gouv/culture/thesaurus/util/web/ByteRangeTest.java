@@ -0,0 +1,89 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests de l'interprétation des en-têtes HTTP <tt>Range</tt>.
+ */
+public class ByteRangeTest {
+
+	@Test
+	public void testParseAbsentOrUnsupported() {
+		assertNull(ByteRange.parse(null, 100L));
+		assertNull(ByteRange.parse("items=0-10", 100L));
+		assertNull(ByteRange.parse("bytes=0-10,20-30", 100L));
+		assertNull(ByteRange.parse("bytes=-", 100L));
+		assertNull(ByteRange.parse("bytes=20-10", 100L));
+	}
+
+	@Test
+	public void testParseBoundedRange() {
+		final ByteRange range = ByteRange.parse("bytes=10-19", 100L);
+		assertTrue(range.isSatisfiable());
+		assertEquals(10L, range.getFirst());
+		assertEquals(19L, range.getLast());
+		assertEquals(10L, range.getLength());
+		assertEquals("bytes 10-19/100", range.toContentRange());
+	}
+
+	@Test
+	public void testParseOpenRange() {
+		final ByteRange range = ByteRange.parse("bytes=90-", 100L);
+		assertTrue(range.isSatisfiable());
+		assertEquals(10L, range.getLength());
+		assertEquals("bytes 90-99/100", range.toContentRange());
+	}
+
+	@Test
+	public void testParseLastIndexBeyondLength() {
+		final ByteRange range = ByteRange.parse("bytes=50-1000", 100L);
+		assertEquals(99L, range.getLast());
+	}
+
+	@Test
+	public void testParseSuffixRange() {
+		assertEquals("bytes 80-99/100", ByteRange.parse("bytes=-20", 100L)
+				.toContentRange());
+		assertEquals("bytes 0-99/100", ByteRange.parse("bytes=-500", 100L)
+				.toContentRange());
+	}
+
+	@Test
+	public void testParseUnsatisfiable() {
+		final ByteRange range = ByteRange.parse("bytes=100-", 100L);
+		assertFalse(range.isSatisfiable());
+		assertEquals("bytes */100", range.toContentRange());
+		assertFalse(ByteRange.parse("bytes=-0", 100L).isSatisfiable());
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests de l'encodage des corps de requête de formulaire.
+ */
+public class FormRequestEntityTest {
+
+	@Test
+	public void testEncoding() throws IOException {
+		final StringBuilder query = new StringBuilder(
+				"SELECT * { ?s ?p \"Été & 😀 100%\"@fr } # é\r\n");
+		for (int i = 0; i < 1000; i++) {
+			query.append("\n#").append(i).append(" ç+=");
+		}
+		final FormRequestEntity entity = new FormRequestEntity()
+				.add("query", query.toString())
+				.add("ignored", null)
+				.addAll("default-graph-uri",
+						Arrays.asList("urn:a", "http://x/g?a=b"));
+		final String expected = "query="
+				+ URLEncoder.encode(query.toString(), "UTF-8")
+				+ "&default-graph-uri=urn%3Aa"
+				+ "&default-graph-uri="
+				+ URLEncoder.encode("http://x/g?a=b", "UTF-8");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeRequest(out);
+		assertEquals(expected, out.toString("US-ASCII"));
+		assertEquals(expected.length(), entity.getContentLength());
+		assertTrue(entity.getContentType().endsWith("charset=UTF-8"));
+	}
+}
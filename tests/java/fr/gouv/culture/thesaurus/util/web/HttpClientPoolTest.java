@@ -0,0 +1,115 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests de la libération des connexions du pool HTTP.
+ */
+public class HttpClientPoolTest {
+
+	/** Taille du corps des réponses, en octets. */
+	private static final int BODY_SIZE = 1024 * 1024;
+
+	private HttpServer server;
+	private HttpClientPool pool;
+	private String url;
+
+	@Before
+	public void setUp() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0),
+				0);
+		this.server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, BODY_SIZE);
+				final OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(new byte[BODY_SIZE]);
+				} catch (IOException e) {
+					// Connexion fermée par le client.
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.server.start();
+		this.url = "http://127.0.0.1:" + this.server.getAddress().getPort()
+				+ "/";
+		this.pool = new HttpClientPool(1, 5000, 5000, 60000L);
+	}
+
+	@After
+	public void tearDown() {
+		this.pool.shutdown();
+		this.server.stop(0);
+	}
+
+	@Test
+	public void testCompleteResponseReleased() throws IOException {
+		final InputStream in = this.pool.execute(new GetMethod(this.url));
+		assertEquals(BODY_SIZE, IOUtils.toByteArray(in).length);
+		in.close();
+		assertEquals(0L, this.pool.getAbortedCount());
+		assertEquals(0, this.pool.getActiveRequests());
+		assertEquals(1, this.pool.getConnectionsInPool());
+	}
+
+	@Test
+	public void testPartialResponseAborted() throws IOException {
+		final InputStream in = this.pool.execute(new GetMethod(this.url));
+		assertEquals(0, in.read());
+		in.close();
+		// Connexion fermée sans lecture du reliquat.
+		assertEquals(1L, this.pool.getAbortedCount());
+		assertEquals(0, this.pool.getActiveRequests());
+		// Connexion libérée : la requête suivante l'obtient.
+		final InputStream next = this.pool.execute(new GetMethod(this.url));
+		try {
+			assertEquals(BODY_SIZE, IOUtils.toByteArray(next).length);
+		} finally {
+			next.close();
+		}
+	}
+}
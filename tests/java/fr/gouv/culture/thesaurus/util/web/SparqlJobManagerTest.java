@@ -0,0 +1,129 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests du gestionnaire des requêtes SPARQL asynchrones.
+ */
+public class SparqlJobManagerTest {
+
+	private File directory;
+	private SparqlJobManager jobs;
+
+	@Before
+	public void setUp() throws IOException {
+		this.directory = new File(System.getProperty("java.io.tmpdir"),
+				"sparql-job-manager-test-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (this.jobs != null) {
+			this.jobs.shutdown();
+		}
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testPendingJobsPerClient() throws Exception {
+		this.jobs = new SparqlJobManager(this.directory, null, 1, 4, 60000L,
+				2);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final SparqlJob first = this.jobs.submit("a", "text/plain",
+				blocked(latch));
+		this.jobs.submit("a", "text/plain", blocked(latch));
+		try {
+			this.jobs.submit("a", "text/plain", blocked(latch));
+			fail();
+		} catch (SparqlJobManager.TooManyJobsException e) {
+			// Plafond atteint.
+		}
+		// Autre client : compteur distinct.
+		this.jobs.submit("b", "text/plain", blocked(latch));
+		assertEquals(2, this.jobs.getPendingCount("a"));
+
+		latch.countDown();
+		waitFor(first);
+		final long limit = System.currentTimeMillis() + 5000L;
+		while ((this.jobs.getPendingCount("a") != 0)
+				&& (System.currentTimeMillis() < limit)) {
+			Thread.sleep(10L);
+		}
+		assertEquals(0, this.jobs.getPendingCount("a"));
+		this.jobs.submit("a", "text/plain", blocked(latch));
+	}
+
+	@Test
+	public void testExpiryWithoutSubmission() throws Exception {
+		this.jobs = new SparqlJobManager(this.directory, null, 1, 4, 0L, 0);
+		final SparqlJob job = this.jobs.submit("a", "text/plain",
+				blocked(new CountDownLatch(0)));
+		waitFor(job);
+		assertNotNull(job.getFile());
+		// Purge périodique, sans nouvelle soumission.
+		final long limit = System.currentTimeMillis() + 5000L;
+		while ((this.jobs.getJob(job.getId()) != null)
+				&& (System.currentTimeMillis() < limit)) {
+			Thread.sleep(50L);
+		}
+		assertNull(this.jobs.getJob(job.getId()));
+		assertFalse(job.getFile().exists());
+	}
+
+	private static SparqlJobManager.ResultWriter blocked(
+			final CountDownLatch latch) {
+		return new SparqlJobManager.ResultWriter() {
+			public void write(OutputStream out) throws Exception {
+				latch.await(5L, TimeUnit.SECONDS);
+				out.write('x');
+			}
+		};
+	}
+
+	private static void waitFor(SparqlJob job) throws InterruptedException {
+		final long limit = System.currentTimeMillis() + 5000L;
+		while (!job.isFinished() && (System.currentTimeMillis() < limit)) {
+			Thread.sleep(10L);
+		}
+		assertTrue(job.isFinished());
+	}
+}
@@ -0,0 +1,157 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.web;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests du cache des réponses du point d'accès SPARQL.
+ */
+public class SparqlResultCacheTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		this.dir = File.createTempFile("sparql-cache", "");
+		this.dir.delete();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	@Test
+	public void testNormalizeKeepsLiteralsAndIris() {
+		assertEquals("SELECT ?s WHERE { ?s ?p \"a  b\" }",
+				SparqlResultCache.normalize("  SELECT ?s\n\tWHERE {\n  ?s ?p \"a  b\" }\n"));
+		assertEquals("ASK { ?s ?p '''x\n  \"y\"  z''' }",
+				SparqlResultCache.normalize("ASK {  ?s ?p '''x\n  \"y\"  z'''  }"));
+		assertEquals("FILTER (?x < 3 && ?y > 2) <http://a/b>",
+				SparqlResultCache.normalize("FILTER (?x  <  3 && ?y > 2)   <http://a/b>"));
+		assertEquals(SparqlResultCache.key("SELECT *  { ?s ?p ?o }", "application/xml", "http://x/"),
+				SparqlResultCache.key("SELECT * { ?s ?p ?o }\n", "application/xml", "http://x/"));
+		assertFalse(SparqlResultCache.key("SELECT * { ?s ?p ?o }", "application/xml", "http://x/")
+				.equals(SparqlResultCache.key("SELECT * { ?s ?p ?o }", "text/csv", "http://x/")));
+	}
+
+	@Test
+	public void testNormalizeComments() {
+		// Commentaire ne masquant que la fin de sa ligne.
+		assertEquals("SELECT ?s WHERE { ?s a <http://x/T> FILTER(false) } LIMIT 5",
+				SparqlResultCache.normalize("SELECT ?s WHERE { ?s a <http://x/T> #\n FILTER(false)\n } LIMIT 5"));
+		assertEquals("SELECT ?s WHERE { ?s a <http://x/T> } LIMIT 5",
+				SparqlResultCache.normalize("SELECT ?s WHERE { ?s a <http://x/T> # FILTER(false)\n } LIMIT 5"));
+		assertFalse(SparqlResultCache.key("SELECT ?s WHERE { ?s a <http://x/T> #\n FILTER(false)\n } LIMIT 5",
+				"application/xml", null).equals(SparqlResultCache.key(
+				"SELECT ?s WHERE { ?s a <http://x/T> # FILTER(false)\n } LIMIT 5", "application/xml", null)));
+		// Dièse d'une chaîne, d'une IRI ou d'un nom préfixé échappé.
+		assertEquals("SELECT * { ?s ?p \"a # b\" ; ?q <http://x/#c> ; ?r ex:d\\#e }",
+				SparqlResultCache.normalize("SELECT * { ?s ?p \"a # b\" ; ?q <http://x/#c> ; ?r ex:d\\#e } # fin"));
+	}
+
+	@Test
+	public void testRecordInMemoryAndOnDisk() throws IOException {
+		final SparqlResultCache cache = new SparqlResultCache(this.dir, 10, 16, 1000L, 10000L);
+		final String small = "<r>é</r>";
+		final String large = "<results>" + repeat("<b>ü</b>", 20) + "</results>";
+		assertEquals(small, this.record(cache, "k1", 1L, small, true));
+		assertEquals(large, this.record(cache, "k2", 1L, large, true));
+		assertEquals(small, this.read(cache.get("k1", 1L)));
+		assertEquals(large, this.read(cache.get("k2", 1L)));
+		// Lecture répétée d'une réponse déversée sur disque.
+		assertEquals(large, this.read(cache.get("k2", 1L)));
+		assertEquals(1, this.dir.list().length);
+		assertEquals(3L, cache.getHitCount());
+	}
+
+	@Test
+	public void testVersionChangeAndLimits() throws IOException {
+		final SparqlResultCache cache = new SparqlResultCache(this.dir, 2, 16, 100L, 1000L);
+		this.record(cache, "k1", 1L, "<a/>", true);
+		// Réponse incomplète ou trop volumineuse : non conservée.
+		this.record(cache, "k2", 1L, "<b/>", false);
+		this.record(cache, "k3", 1L, repeat("<c/>", 30), true);
+		assertNull(cache.get("k2", 1L));
+		assertNull(cache.get("k3", 1L));
+		assertEquals(0, this.dir.list().length);
+		// Éviction de la moins récemment utilisée.
+		this.record(cache, "k4", 1L, "<d/>", true);
+		this.record(cache, "k5", 1L, "<e/>", true);
+		assertNull(cache.get("k1", 1L));
+		assertEquals(2, cache.getEntryCount());
+		// Modification des données.
+		assertNull(cache.get("k4", 2L));
+		assertEquals(0, cache.getEntryCount());
+		// Réponse calculée avant la modification des données.
+		this.record(cache, "k6", 1L, "<f/>", true);
+		assertNull(cache.get("k6", 2L));
+	}
+
+	private String record(SparqlResultCache cache, String key, long version,
+			String data, boolean commit) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final SparqlResultCache.Recorder recorder = cache.record(key, version, out);
+		try {
+			recorder.write(data.getBytes("UTF-8"));
+			if (commit) {
+				recorder.commit();
+			}
+		} finally {
+			recorder.close();
+		}
+		return out.toString("UTF-8");
+	}
+
+	private String read(Reader in) throws IOException {
+		assertNotNull(in);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SparqlResultCache.copy(in, out);
+		return out.toString("UTF-8");
+	}
+
+	private static String repeat(String s, int n) {
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			buf.append(s);
+		}
+		return buf.toString();
+	}
+}
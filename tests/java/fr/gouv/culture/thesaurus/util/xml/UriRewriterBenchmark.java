@@ -0,0 +1,195 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import fr.gouv.culture.thesaurus.resolver.PrefixUriResolver;
+
+/**
+ * Mesure de la traduction des URI d'un document SPARQL Results synthétique :
+ * transformation XSLT (<code>prefix-uri-mapping.xsl</code>) comparée à la
+ * réécriture en flux ({@link UriRewriter}). Le pic de mémoire retenue est
+ * relevé pour deux tailles de document, afin de vérifier que la réécriture
+ * en flux consomme une mémoire constante.
+ * <p>
+ * Usage : <code>UriRewriterBenchmark [nbLignes]</code> (100 000 par défaut).
+ * Avec un tas réduit (<code>-Xmx16m</code>), seule la réécriture en flux
+ * traite le document de 100 000 lignes.
+ * </p>
+ */
+public class UriRewriterBenchmark {
+
+	private static final int RUNS = 3;
+
+	private static final String BASE_URI = "http://data.culture.fr/thesaurus/resource/";
+
+	public static void main(String[] args) throws Exception {
+		final int rows = (args.length > 0) ? Integer.parseInt(args[0])
+				: 100000;
+		final PrefixUriResolver resolver = new PrefixUriResolver(BASE_URI,
+				new URL("http://localhost:8080/thesaurus/resource/"));
+
+		for (int size : new int[] { rows / 10, rows }) {
+			final File file = File.createTempFile("benchmark-", ".srx");
+			file.deleteOnExit();
+			writeResults(file, size);
+			System.out.println("Document : " + file.length() / 1024 + " Ko, "
+					+ size + " lignes");
+			for (int run = 0; run < RUNS; run++) {
+				measure("XSLT", resolver, file, false);
+				measure("StAX", resolver, file, true);
+			}
+			file.delete();
+		}
+	}
+
+	private static void measure(String name, PrefixUriResolver resolver,
+			File file, boolean streaming) throws Exception {
+		resetPeakUsage();
+		long t = System.currentTimeMillis();
+		try {
+			if (streaming) {
+				stax(resolver, file);
+			} else {
+				xslt(resolver, file);
+			}
+		} catch (OutOfMemoryError e) {
+			System.out.println("  " + name + " : mémoire insuffisante");
+			return;
+		}
+		t = System.currentTimeMillis() - t;
+		System.out.println("  " + name + " : " + t + " ms ("
+				+ (file.length() / 1024 * 1000 / Math.max(1L, t))
+				+ " Ko/s), pic de l'ancienne génération "
+				+ getPeakUsage() / 1024 + " Ko");
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void xslt(PrefixUriResolver resolver, File file)
+			throws Exception {
+		final Transformer t = resolver.getRdfTransformer();
+		t.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+		final InputStream in = new FileInputStream(file);
+		try {
+			t.transform(new StreamSource(in), new StreamResult(
+					new NullOutputStream()));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void stax(PrefixUriResolver resolver, File file)
+			throws Exception {
+		final InputStream in = new FileInputStream(file);
+		try {
+			resolver.getUriRewriter().rewrite(in, new NullOutputStream());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void resetPeakUsage() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (isOldGeneration(pool)) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Renvoie le pic d'occupation de l'ancienne génération du tas : les
+	 * objets éphémères, collectés dans la jeune génération, n'y figurent pas
+	 * ; les données retenues pendant tout le traitement (arbre du document)
+	 * y sont promues.
+	 */
+	private static long getPeakUsage() {
+		long peak = 0L;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (isOldGeneration(pool)) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static boolean isOldGeneration(MemoryPoolMXBean pool) {
+		return (pool.getType() == MemoryType.HEAP)
+				&& ((pool.getName().contains("Old")) || (pool.getName()
+						.contains("Tenured")));
+	}
+
+	private static void writeResults(File file, int rows) throws IOException {
+		final Writer w = new OutputStreamWriter(new BufferedOutputStream(
+				new FileOutputStream(file)), "UTF-8");
+		try {
+			w.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+			w.write("<sparql xmlns='http://www.w3.org/2005/sparql-results#'>");
+			w.write("<head><variable name='s'/><variable name='l'/></head><results>\n");
+			for (int i = 0; i < rows; i++) {
+				w.write("<result><binding name='s'><uri>" + BASE_URI
+						+ "ark:/67717/T" + i + "</uri></binding>"
+						+ "<binding name='l'><literal xml:lang='fr'>Concept "
+						+ i + "</literal></binding></result>\n");
+			}
+			w.write("</results></sparql>\n");
+		} finally {
+			w.close();
+		}
+	}
+
+	/** Flux de sortie ignorant les données écrites. */
+	private static final class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
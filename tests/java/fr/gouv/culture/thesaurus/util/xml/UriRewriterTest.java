@@ -0,0 +1,99 @@
+/*
+* This software is governed by the CeCILL-B license under French law and
+* abiding by the rules of distribution of free software. You can use,
+* modify and/or redistribute the software under the terms of the CeCILL-B
+* license as circulated by CEA, CNRS and INRIA at the following URL
+* "http://www.cecill.info".
+*
+* As a counterpart to the access to the source code and rights to copy,
+* modify and redistribute granted by the license, users are provided only
+* with a limited warranty and the software's author, the holder of the
+* economic rights, and the successive licensors have only limited
+* liability.
+*
+* In this respect, the user's attention is drawn to the risks associated
+* with loading, using, modifying and/or developing or reproducing the
+* software by the user in light of its specific status of free software,
+* that may mean that it is complicated to manipulate, and that also
+* therefore means that it is reserved for developers and experienced
+* professionals having in-depth computer knowledge. Users are therefore
+* encouraged to load and test the software's suitability as regards their
+* requirements in conditions enabling the security of their systems and/or
+* data to be ensured and, more generally, to use and operate it in the
+* same conditions as regards security.
+*
+* The fact that you are presently reading this means that you have had
+* knowledge of the CeCILL-B license and that you accept its terms.
+*/
+
+package fr.gouv.culture.thesaurus.util.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+/**
+ * Tests de la traduction en flux des URI des entrées.
+ */
+public class UriRewriterTest {
+
+	private final static String BASE_URI = "http://data.culture.fr/thesaurus/resource/";
+	private final static String BASE_URL = "http://localhost:8080/thesaurus/resource/";
+
+	private final UriRewriter rewriter = new UriRewriter(BASE_URI, BASE_URL);
+
+	@Test
+	public void testRewriteValue() {
+		assertEquals(BASE_URL + "ark:/67717/T1", rewriter.rewrite(BASE_URI
+				+ "ark:/67717/T1"));
+		assertEquals("http://example.org/x",
+				rewriter.rewrite("http://example.org/x"));
+	}
+
+	@Test
+	public void testSparqlResults() throws Exception {
+		String out = rewrite("<?xml version='1.0' encoding='UTF-8'?>"
+				+ "<sparql xmlns='http://www.w3.org/2005/sparql-results#'>"
+				+ "<head><variable name='s'/></head><results><result>"
+				+ "<binding name='s'><uri>" + BASE_URI + "T1</uri></binding>"
+				+ "<binding name='l'><literal xml:lang='fr'>" + BASE_URI
+				+ " &amp; co</literal></binding>"
+				+ "</result></results></sparql>");
+		assertTrue(out, out.contains("<uri>" + BASE_URL + "T1</uri>"));
+		// Les littéraux ne sont pas traduits.
+		assertTrue(out, out.contains("xml:lang=\"fr\">" + BASE_URI
+				+ " &amp; co</literal>"));
+		assertTrue(out, out.contains("xmlns=\"http://www.w3.org/2005/sparql-results#\""));
+	}
+
+	@Test
+	public void testRdfXml() throws Exception {
+		String out = rewrite("<rdf:RDF xmlns:rdf='http://www.w3.org/1999/02/22-rdf-syntax-ns#'"
+				+ " xmlns:skos='http://www.w3.org/2004/02/skos/core#'>"
+				+ "<skos:Concept rdf:about='" + BASE_URI + "T1'>"
+				+ "<skos:broader rdf:resource='" + BASE_URI + "T0'/>"
+				+ "<skos:exactMatch rdf:resource='http://example.org/x'/>"
+				+ "<!-- commentaire --></skos:Concept></rdf:RDF>");
+		assertTrue(out, out.contains("<skos:Concept rdf:about=\"" + BASE_URL
+				+ "T1\">"));
+		assertTrue(out, out.contains("rdf:resource=\"" + BASE_URL + "T0\""));
+		assertTrue(out, out.contains("rdf:resource=\"http://example.org/x\""));
+		assertTrue(out, out.contains("<!-- commentaire -->"));
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void testMalformedDocument() throws Exception {
+		rewrite("<sparql><results></sparql>");
+	}
+
+	private String rewrite(String xml) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		rewriter.rewrite(new ByteArrayInputStream(xml.getBytes("UTF-8")), out);
+		return out.toString("UTF-8");
+	}
+}
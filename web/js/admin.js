@@ -36,3 +36,71 @@ function Referentiel_ConfirmDeletion(refName)
 {
 	return (confirm("Êtes-vous sûr(e) de vouloir supprimer le référentiel '" + refName + "' ?"));
 }
+
+/**
+ * Script de suivi d'une tâche d'import : interroge périodiquement le service
+ * de suivi de la tâche et affiche son état jusqu'à la fin de l'import.
+ * 
+ * @param {String} url         URL de suivi de la tâche d'import
+ * @param {String} elementId   Identifiant de l'élément affichant l'avancement
+ */
+function Import_WatchJob(url, elementId)
+{
+	var element = document.getElementById(elementId);
+	if (!element || !window.XMLHttpRequest || !window.JSON) {
+		return;
+	}
+	var timer = window.setInterval(function() {
+		var xhr = new XMLHttpRequest();
+		xhr.open("GET", url, true);
+		xhr.setRequestHeader("Accept", "application/json");
+		xhr.onreadystatechange = function() {
+			if (xhr.readyState != 4) {
+				return;
+			}
+			if (xhr.status != 200) {
+				window.clearInterval(timer);
+				return;
+			}
+			var job = JSON.parse(xhr.responseText);
+			var deletion = (job.action == "delete");
+			var task = (deletion) ? "Suppression de " + job.graph
+				: "Import de " + job.source;
+			var text;
+			if (job.phase == "PENDING") {
+				text = task + " en attente.";
+			} else if (job.phase == "SCHEDULED") {
+				text = task + " programmé" + ((deletion) ? "e" : "") + " le "
+					+ new Date(job.scheduled).toLocaleString() + ".";
+			} else if (job.phase == "WAITING") {
+				text = task + " en attente de la fin d'un import de "
+					+ job.graph + ".";
+			} else if (job.phase == "RUNNING" && deletion) {
+				text = task + " en cours.";
+			} else if (job.phase == "RUNNING") {
+				text = "Import de " + job.graph + " en cours";
+				if (job.parsed !== undefined) {
+					text += " : " + job.parsed + " triplets lus, "
+						+ job.committed + " enregistrés (" + job.rate
+						+ " triplets/s)";
+				}
+				text += ".";
+			} else if (job.phase == "DONE" && deletion) {
+				text = "Suppression réussie.";
+			} else if (job.phase == "DONE") {
+				text = "Chargement réussi. Données mises à jour avec succès.";
+			} else if (job.phase == "SKIPPED") {
+				text = "Fichier identique à la version déjà chargée : "
+					+ "aucune mise à jour effectuée.";
+			} else {
+				text = ((deletion) ? "Echec de la suppression : "
+					: "Echec de la mise à jour : ") + job.error;
+			}
+			element.textContent = text;
+			if (job.finished) {
+				window.clearInterval(timer);
+			}
+		};
+		xhr.send(null);
+	}, 2000);
+}